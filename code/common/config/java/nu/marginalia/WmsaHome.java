@@ -73,6 +73,10 @@ public class WmsaHome {
 
     }
 
+    public static Path getIPv6LocationDatabase() {
+        return getHomePath().resolve("data").resolve("IP2LOCATION-LITE-DB1.IPV6.CSV");
+    }
+
     public static Path getAsnMappingDatabase() {
         return getHomePath().resolve("data").resolve("asn-data-raw-table");
     }
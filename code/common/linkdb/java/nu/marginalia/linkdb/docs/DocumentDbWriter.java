@@ -3,31 +3,69 @@ package nu.marginalia.linkdb.docs;
 import nu.marginalia.linkdb.model.DocdbUrlDetail;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.List;
 
+/** Builds the document database.
+ * <p></p>
+ * The documents are added in whatever order the loader produces them, which is
+ * effectively random with regard to their ids.  Inserting them as they come into the
+ * indexed DOCUMENT table would update the primary key b-tree at random positions for
+ * every row.  Instead, the rows are appended to an unindexed staging table in a separate
+ * file next to the output, and when the writer is closed they are copied into the DOCUMENT
+ * table sorted by id, so that the b-tree is built by appending in key order.  The staging
+ * file is deleted afterwards.
+ */
 public class DocumentDbWriter {
 
     private final Connection connection;
+    private final Path stagingFile;
 
     public DocumentDbWriter(Path outputFile) throws SQLException {
         String connStr = "jdbc:sqlite:" + outputFile.toString();
         connection = DriverManager.getConnection(connStr);
 
+        stagingFile = outputFile.resolveSibling(outputFile.getFileName() + ".staging");
+
         try (var stream = ClassLoader.getSystemResourceAsStream("db/docdb-document.sql");
              var stmt = connection.createStatement()
         ) {
             var sql = new String(stream.readAllBytes());
             stmt.executeUpdate(sql);
 
-            // Disable synchronous writing as this is a one-off operation with no recovery
+            // Disable synchronous writing and journaling as this is a one-off operation with no recovery
             stmt.execute("PRAGMA synchronous = OFF");
+            stmt.execute("PRAGMA journal_mode = OFF");
+
+            // Left behind if a previous load was interrupted
+            Files.deleteIfExists(stagingFile);
+
+            stmt.execute("ATTACH DATABASE '" + stagingFile.toString().replace("'", "''") + "' AS STAGING");
+            stmt.execute("PRAGMA STAGING.synchronous = OFF");
+            stmt.execute("PRAGMA STAGING.journal_mode = OFF");
+            stmt.execute("""
+                    CREATE TABLE STAGING.DOCUMENT (
+                        ID INT8,
+                        URL TEXT,
+                        TITLE TEXT,
+                        DESCRIPTION TEXT,
+                        WORDS_TOTAL INTEGER,
+                        FORMAT TEXT,
+                        FEATURES INTEGER,
+                        DATA_HASH INTEGER,
+                        QUALITY REAL,
+                        PUB_YEAR INTEGER
+                    )
+                    """);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+
+        connection.setAutoCommit(false);
     }
 
     public void add(DocdbUrlDetail docdbUrlDetail) throws SQLException {
@@ -37,7 +75,7 @@ public class DocumentDbWriter {
     public void add(List<DocdbUrlDetail> docdbUrlDetail) throws SQLException {
 
         try (var stmt = connection.prepareStatement("""
-                INSERT OR IGNORE INTO DOCUMENT(ID, URL, TITLE, DESCRIPTION, WORDS_TOTAL, FORMAT, FEATURES, DATA_HASH, QUALITY, PUB_YEAR)
+                INSERT INTO STAGING.DOCUMENT(ID, URL, TITLE, DESCRIPTION, WORDS_TOTAL, FORMAT, FEATURES, DATA_HASH, QUALITY, PUB_YEAR)
                 VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
                 """)) {
 
@@ -71,9 +109,35 @@ public class DocumentDbWriter {
 
             if (i != 0) stmt.executeBatch();
         }
+
+        connection.commit();
     }
 
+    /** Build the DOCUMENT table from the staged rows and close the database */
     public void close() throws SQLException {
-        connection.close();
+        try (var stmt = connection.createStatement()) {
+            // As when the rows were inserted directly, the first row added with an id is kept and
+            // later duplicates are dropped; the staging table's rowid is the order the rows were added in
+            stmt.executeUpdate("""
+                INSERT OR IGNORE INTO DOCUMENT(ID, URL, TITLE, DESCRIPTION, WORDS_TOTAL, FORMAT, FEATURES, DATA_HASH, QUALITY, PUB_YEAR)
+                SELECT ID, URL, TITLE, DESCRIPTION, WORDS_TOTAL, FORMAT, FEATURES, DATA_HASH, QUALITY, PUB_YEAR
+                FROM STAGING.DOCUMENT
+                ORDER BY ID, ROWID
+                """);
+            connection.commit();
+
+            connection.setAutoCommit(true);
+            stmt.execute("DETACH DATABASE STAGING");
+        }
+        finally {
+            connection.close();
+        }
+
+        try {
+            Files.deleteIfExists(stagingFile);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 }
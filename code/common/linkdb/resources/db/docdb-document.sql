@@ -14,4 +14,4 @@ CREATE TABLE DOCUMENT (
     DATA_HASH INTEGER NOT NULL,
     QUALITY REAL NOT NULL,
     PUB_YEAR INTEGER NOT NULL
-);
\ No newline at end of file
+) WITHOUT ROWID;
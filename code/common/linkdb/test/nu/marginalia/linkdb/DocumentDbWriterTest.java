@@ -5,12 +5,18 @@ import nu.marginalia.linkdb.docs.DocumentDbReader;
 import nu.marginalia.linkdb.docs.DocumentDbWriter;
 import nu.marginalia.linkdb.model.DocdbUrlDetail;
 import nu.marginalia.model.EdgeDomain;
+import nu.marginalia.model.EdgeUrl;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 public class DocumentDbWriterTest {
     @Test
@@ -41,4 +47,45 @@ public class DocumentDbWriterTest {
             Files.deleteIfExists(tempPath);
         }
     }
+
+    @Test
+    public void testUnorderedAndDuplicateIds() throws IOException, SQLException, URISyntaxException {
+        Path tempPath = Files.createTempFile("docdb", ".db");
+        Files.delete(tempPath);
+
+        try {
+            var writer = new DocumentDbWriter(tempPath);
+            writer.add(List.of(detail(5, "/5"), detail(1, "/1"), detail(3, "/3")));
+            writer.add(List.of(detail(2, "/2"), detail(3, "/3b")));
+            writer.close();
+
+            assertFalse(Files.exists(tempPath.resolveSibling(tempPath.getFileName() + ".staging")));
+
+            var reader = new DocumentDbReader(tempPath);
+            var deets = reader.getUrlDetails(new TLongArrayList(new long[]{1, 2, 3, 4, 5}));
+
+            assertEquals(List.of(1L, 2L, 3L, 5L), deets.stream().map(DocdbUrlDetail::urlId).toList());
+
+            // The first row added with a duplicated id is the one kept
+            var doc3 = deets.stream().filter(d -> d.urlId() == 3).findFirst().orElseThrow();
+            assertEquals("https://www.example.com/3", doc3.url().toString());
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    private DocdbUrlDetail detail(long id, String path) throws URISyntaxException {
+        return new DocdbUrlDetail(
+                id,
+                new EdgeUrl("https://www.example.com" + path),
+                "Test",
+                "This is a test",
+                -4.,
+                "XHTML",
+                5,
+                2020,
+                0xF00BA3,
+                444
+        );
+    }
 }
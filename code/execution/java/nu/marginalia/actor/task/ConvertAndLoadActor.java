@@ -76,6 +76,8 @@ public class ConvertAndLoadActor extends RecordActorPrototype {
     @Resume(behavior = ActorResumeBehavior.RETRY)
     public record Rerank(long id) implements ActorStep { public Rerank() { this(-1); } }
     @Resume(behavior = ActorResumeBehavior.RETRY)
+    public record ReindexAll(long id) implements ActorStep {  public ReindexAll() { this(-1); } }
+    @Resume(behavior = ActorResumeBehavior.RETRY)
     public record ReindexFwd(long id) implements ActorStep {  public ReindexFwd() { this(-1); } }
     @Resume(behavior = ActorResumeBehavior.RETRY)
     public record ReindexFull(long id) implements ActorStep {  public ReindexFull() { this(-1); } }
@@ -139,8 +141,19 @@ public class ConvertAndLoadActor extends RecordActorPrototype {
                     yield new Error("Repartition failed");
                 }
 
-                yield new ReindexFwd();
+                yield new ReindexAll();
             }
+            case ReindexAll(long id) when id < 0 -> new ReindexAll(createIndex(IndexName.ALL));
+            case ReindexAll(long id) -> {
+                var rsp = processWatcher.waitResponse(mqIndexConstructorOutbox, ProcessService.ProcessId.INDEX_CONSTRUCTOR, id);
+
+                if (rsp.state() != MqMessageState.OK)
+                    yield new Error("Repartition failed");
+                else
+                    yield new SwitchIndex();
+            }
+            // The separate index steps are kept so that actors in these states can resume
+
             case ReindexFwd(long id) when id < 0 -> new ReindexFwd(createIndex(IndexName.FORWARD));
             case ReindexFwd(long id) -> {
                 var rsp = processWatcher.waitResponse(mqIndexConstructorOutbox, ProcessService.ProcessId.INDEX_CONSTRUCTOR, id);
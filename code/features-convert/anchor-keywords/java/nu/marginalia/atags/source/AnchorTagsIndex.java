@@ -0,0 +1,139 @@
+package nu.marginalia.atags.source;
+
+import nu.marginalia.atags.model.DomainLinks;
+import nu.marginalia.atags.model.LinkWithText;
+import nu.marginalia.model.EdgeDomain;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static nu.marginalia.atags.source.AnchorTagsIndexBuilder.*;
+
+/** Anchor tags source backed by a memory mapped index file,
+ * see AnchorTagsIndexBuilder for the file format.
+ * <p></p>
+ * Lookups are a binary search in the table of domain hashes, followed by
+ * decoding the links of the matching records.  They don't need any locking,
+ * and may be done concurrently from any number of threads.
+ */
+public class AnchorTagsIndex implements AnchorTagsSource {
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private final Arena arena;
+    private final MemorySegment segment;
+    private final long tableOffset;
+    private final long entries;
+
+    public AnchorTagsIndex(Path indexFile) throws IOException {
+        arena = Arena.ofShared();
+
+        try (var channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+        }
+        catch (IOException ex) {
+            arena.close();
+            throw ex;
+        }
+
+        if (segment.byteSize() < HEADER_SIZE || segment.get(LONG, 0) != MAGIC) {
+            arena.close();
+            throw new IOException("Not an anchor tags index: " + indexFile);
+        }
+
+        tableOffset = segment.get(LONG, 8);
+        entries = segment.get(LONG, 16);
+    }
+
+    @Override
+    public DomainLinks getAnchorTags(EdgeDomain domain) {
+        byte[] domainBytes = domain.toString().getBytes(StandardCharsets.UTF_8);
+        long hash = hashDomain(domainBytes);
+
+        List<LinkWithText> links = null;
+
+        // A domain may appear in more than one record, and different domains may
+        // share a hash, so all records with a matching hash are checked
+        for (long i = findFirst(hash); i < entries && tableHash(i) == hash; i++) {
+            long offset = segment.get(LONG, tableOffset + i * TABLE_ENTRY_SIZE + 8);
+
+            if (!isRecordFor(offset, domainBytes))
+                continue;
+
+            if (links == null)
+                links = new ArrayList<>();
+
+            readLinks(offset + 4 + domainBytes.length, links);
+        }
+
+        if (links == null)
+            return new DomainLinks();
+
+        return new DomainLinks(links);
+    }
+
+    /** Find the first table entry with a hash not less than the given hash */
+    private long findFirst(long hash) {
+        long low = 0;
+        long high = entries;
+
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+
+            if (tableHash(mid) < hash) low = mid + 1;
+            else high = mid;
+        }
+
+        return low;
+    }
+
+    private long tableHash(long i) {
+        return segment.get(LONG, tableOffset + i * TABLE_ENTRY_SIZE);
+    }
+
+    private boolean isRecordFor(long offset, byte[] domainBytes) {
+        int length = segment.get(INT, offset);
+        if (length != domainBytes.length)
+            return false;
+
+        return MemorySegment.mismatch(segment, offset + 4, offset + 4 + length,
+                MemorySegment.ofArray(domainBytes), 0, length) < 0;
+    }
+
+    private void readLinks(long offset, List<LinkWithText> links) {
+        int count = segment.get(INT, offset);
+        offset += 4;
+
+        for (int i = 0; i < count; i++) {
+            String url = readString(offset);
+            offset += 4 + segment.get(INT, offset);
+            String text = readString(offset);
+            offset += 4 + segment.get(INT, offset);
+            String source = readString(offset);
+            offset += 4 + segment.get(INT, offset);
+
+            links.add(new LinkWithText(url, text, source));
+        }
+    }
+
+    private String readString(long offset) {
+        int length = segment.get(INT, offset);
+        byte[] bytes = new byte[length];
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, offset + 4, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
@@ -0,0 +1,213 @@
+package nu.marginalia.atags.source;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import nu.marginalia.hash.MurmurHash3_128;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Builds an AnchorTagsIndex from the atags parquet export.
+ * <p></p>
+ * The index file consists of a header, the link records for each destination
+ * domain, and a table of (domain hash, record offset) pairs sorted by hash.
+ * <pre>
+ * header:  long MAGIC, long table offset, long table entries
+ * record:  domain name, int link count, link count * (url, text, source)
+ * table:   entries * (long hash, long record offset)
+ * </pre>
+ * Strings are stored as an int byte length followed by UTF-8 data.  All values
+ * are little endian.
+ * <p></p>
+ * The parquet file is read through duckdb, but this only needs to be done once, after
+ * which the index is simply mapped into memory.
+ */
+public class AnchorTagsIndexBuilder {
+    private static final Logger logger = LoggerFactory.getLogger(AnchorTagsIndexBuilder.class);
+    private static final MurmurHash3_128 hash = new MurmurHash3_128();
+
+    static final long MAGIC = 0x4154_4147_5349_4458L; // "ATAGSIDX"
+    static final int HEADER_SIZE = 24;
+    static final int TABLE_ENTRY_SIZE = 16;
+
+    /** Build the index, replacing any existing index file atomically once done */
+    public static void build(Path atagsParquet, Path indexFile) throws SQLException, IOException {
+        logger.info("Building anchor tags index {} from {}", indexFile, atagsParquet);
+
+        Path tmpFile = Files.createTempFile(indexFile.toAbsolutePath().getParent(), "atags", ".tmp");
+
+        try (var conn = DriverManager.getConnection("jdbc:duckdb:");
+             var stmt = conn.createStatement();
+             var writer = new IndexWriter(tmpFile))
+        {
+            // This looks like an SQL injection vulnerability if you're a validation tool,
+            // but the string comes from a trusted source.
+            var rs = stmt.executeQuery("""
+                select
+                    dest,
+                    unnest(url) as 'url',
+                    unnest(text) as 'text',
+                    unnest(source) as 'source'
+                from '%s'
+                """.formatted(atagsParquet.toAbsolutePath()));
+
+            String currentDest = null;
+            List<String[]> links = new ArrayList<>();
+
+            while (rs.next()) {
+                String dest = rs.getString("dest");
+
+                if (!dest.equals(currentDest)) {
+                    if (currentDest != null) {
+                        writer.writeRecord(currentDest, links);
+                    }
+                    currentDest = dest;
+                    links.clear();
+                }
+
+                links.add(new String[] { rs.getString("url"), rs.getString("text"), rs.getString("source") });
+            }
+
+            if (currentDest != null) {
+                writer.writeRecord(currentDest, links);
+            }
+
+            writer.finish();
+
+            logger.info("Wrote {} domains to anchor tags index", writer.size());
+        }
+        catch (Exception ex) {
+            Files.deleteIfExists(tmpFile);
+            throw ex;
+        }
+
+        Files.move(tmpFile, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static long hashDomain(byte[] domainBytes) {
+        return hash.hash(domainBytes);
+    }
+
+    /** Writes the index file, this is separated from the duckdb logic to permit testing */
+    static class IndexWriter implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+        private final LongArrayList hashes = new LongArrayList();
+        private final LongArrayList offsets = new LongArrayList();
+
+        IndexWriter(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+
+            // Header placeholder, written by finish()
+            buffer.position(HEADER_SIZE);
+        }
+
+        void writeRecord(String dest, List<String[]> links) throws IOException {
+            byte[] destBytes = dest.getBytes(StandardCharsets.UTF_8);
+
+            hashes.add(hashDomain(destBytes));
+            offsets.add(position());
+
+            writeBytes(destBytes);
+            ensureSpace(4);
+            buffer.putInt(links.size());
+
+            for (String[] link : links) {
+                for (String s : link) {
+                    writeBytes(s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        int size() {
+            return hashes.size();
+        }
+
+        void finish() throws IOException {
+            long tableOffset = position();
+            int n = hashes.size();
+
+            long[] h = hashes.elements();
+            long[] o = offsets.elements();
+
+            // Sort the table by hash, keeping the records in file order for equal hashes
+            it.unimi.dsi.fastutil.Arrays.mergeSort(0, n,
+                    (a, b) -> Long.compare(h[a], h[b]),
+                    (a, b) -> {
+                        long th = h[a]; h[a] = h[b]; h[b] = th;
+                        long to = o[a]; o[a] = o[b]; o[b] = to;
+                    });
+
+            for (int i = 0; i < n; i++) {
+                ensureSpace(TABLE_ENTRY_SIZE);
+                buffer.putLong(h[i]);
+                buffer.putLong(o[i]);
+            }
+
+            flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(MAGIC);
+            header.putLong(tableOffset);
+            header.putLong(n);
+            header.flip();
+
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+
+        private long position() throws IOException {
+            return channel.position() + buffer.position();
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException {
+            ensureSpace(4);
+            buffer.putInt(bytes.length);
+
+            if (bytes.length > buffer.capacity()) {
+                flush();
+                var wrapped = ByteBuffer.wrap(bytes);
+                while (wrapped.hasRemaining()) {
+                    channel.write(wrapped);
+                }
+            }
+            else {
+                ensureSpace(bytes.length);
+                buffer.put(bytes);
+            }
+        }
+
+        private void ensureSpace(int size) throws IOException {
+            if (buffer.remaining() < size) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
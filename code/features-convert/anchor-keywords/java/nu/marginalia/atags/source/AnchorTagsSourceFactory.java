@@ -9,11 +9,13 @@ import nu.marginalia.model.EdgeDomain;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 public class AnchorTagsSourceFactory {
     private final Path atagsPath;
@@ -30,16 +32,30 @@ public class AnchorTagsSourceFactory {
     }
 
     public AnchorTagsSource create() throws SQLException {
-        return create(getRelevantDomainsByNodeAffinity());
+        return create(this::getRelevantDomainsByNodeAffinity);
     }
 
     public AnchorTagsSource create(List<EdgeDomain> relevantDomains) throws SQLException {
+        return create(() -> relevantDomains);
+    }
+
+    private AnchorTagsSource create(Supplier<List<EdgeDomain>> relevantDomainsSupplier) throws SQLException {
         if (!Files.exists(atagsPath)) {
             logger.info("Omitting anchor tag data because '{}' does not exist, or is not reachable from the crawler process", atagsPath);
 
             return domain -> new DomainLinks();
         }
 
+        // The index holds the anchor tags of every domain, so there is no need to filter
+        // on the relevant domains when using it
+        try {
+            return new AnchorTagsIndex(getIndexFile());
+        }
+        catch (Exception ex) {
+            logger.warn("Failed to create anchor tags index, falling back to duckdb", ex);
+        }
+
+        List<EdgeDomain> relevantDomains = relevantDomainsSupplier.get();
         if (relevantDomains.isEmpty()) {
             logger.info("Omitting anchor tag data because no relevant domains were provided");
 
@@ -49,6 +65,21 @@ public class AnchorTagsSourceFactory {
         return new AnchorTagsImpl(atagsPath, relevantDomains);
     }
 
+    /** Returns the anchor tags index file for the atags export, building it first
+     * if it does not exist or is older than the export.
+     */
+    private Path getIndexFile() throws IOException, SQLException {
+        Path indexFile = atagsPath.resolveSibling("atags.idx");
+
+        if (!Files.exists(indexFile)
+          || Files.getLastModifiedTime(indexFile).compareTo(Files.getLastModifiedTime(atagsPath)) < 0)
+        {
+            AnchorTagsIndexBuilder.build(atagsPath, indexFile);
+        }
+
+        return indexFile;
+    }
+
     // Only get domains that are assigned to this node.  This reduces the amount of data
     // that needs to be loaded into the duckdb instance to a more manageable level, and keeps
     // the memory footprint of the service down.
@@ -0,0 +1,67 @@
+package nu.marginalia.atags.source;
+
+import nu.marginalia.model.EdgeDomain;
+import nu.marginalia.model.EdgeUrl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnchorTagsIndexTest {
+    Path indexFile;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        indexFile = Files.createTempFile(getClass().getSimpleName(), ".idx");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(indexFile);
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        try (var writer = new AnchorTagsIndexBuilder.IndexWriter(indexFile)) {
+            writer.writeRecord("www.example.com", List.<String[]>of(
+                    new String[] { "www.example.com/foo", "Foo", "www.other.com" },
+                    new String[] { "www.example.com/bar", "Bar", "www.third.com" }
+            ));
+            writer.writeRecord("www.marginalia.nu", List.<String[]>of(
+                    new String[] { "www.marginalia.nu/", "Marginalia", "www.example.com" }
+            ));
+            // The same domain may appear more than once
+            writer.writeRecord("www.example.com", List.<String[]>of(
+                    new String[] { "www.example.com/foo", "Another Foo", "www.fourth.com" }
+            ));
+            writer.finish();
+        }
+
+        try (var index = new AnchorTagsIndex(indexFile)) {
+            var links = index.getAnchorTags(new EdgeDomain("www.example.com"));
+
+            assertEquals(2, links.countForUrl(new EdgeUrl("https://www.example.com/foo")));
+            assertEquals(1, links.countForUrl(new EdgeUrl("https://www.example.com/bar")));
+            assertEquals(0, links.countForUrl(new EdgeUrl("https://www.example.com/baz")));
+
+            var marginaliaLinks = index.getAnchorTags(new EdgeDomain("www.marginalia.nu"));
+            assertEquals("Marginalia", marginaliaLinks.forUrl(new EdgeUrl("https://www.marginalia.nu/")).getFirst().text());
+
+            var missingLinks = index.getAnchorTags(new EdgeDomain("www.missing.com"));
+            assertEquals(0, missingLinks.countForUrl(new EdgeUrl("https://www.missing.com/")));
+        }
+    }
+
+    @Test
+    public void testNotAnIndex() throws IOException {
+        Files.writeString(indexFile, "hello world, this is not an index");
+
+        assertThrows(IOException.class, () -> new AnchorTagsIndex(indexFile));
+    }
+}
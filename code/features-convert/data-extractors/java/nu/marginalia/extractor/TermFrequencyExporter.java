@@ -14,13 +14,12 @@ import nu.marginalia.process.log.WorkLog;
 import nu.marginalia.storage.FileStorageService;
 import nu.marginalia.storage.model.FileStorage;
 import nu.marginalia.storage.model.FileStorageId;
+import nu.marginalia.term_frequency_dict.TermFrequencyTable;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.DataOutputStream;
-import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -77,19 +76,16 @@ public class TermFrequencyExporter implements ExporterIf {
         var tmpFile = Files.createTempFile(destStorage.asPath(), "freqs", ".dat.tmp",
                 PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-r--r--")));
 
-        try (var dos = new DataOutputStream(Files.newOutputStream(tmpFile))) {
+        try {
             synchronized (counts) {
                 counts.put(DOC_COUNT_KEY, docCount.get());
 
-                counts.forEachEntry((hash, cnt) -> {
-                    try {
-                        dos.writeLong(hash);
-                        dos.writeLong(cnt);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                    return true;
-                });
+                try (var writer = TermFrequencyTable.writer(tmpFile, counts.size())) {
+                    counts.forEachEntry((hash, cnt) -> {
+                        writer.put(hash, cnt);
+                        return true;
+                    });
+                }
             }
             Files.move(tmpFile, destStorage.asPath().resolve("freqs.dat"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
         }
@@ -8,11 +8,11 @@ import lombok.ToString;
 import nu.marginalia.functions.searchquery.query_parser.token.Token;
 import nu.marginalia.functions.searchquery.query_parser.token.TokenType;
 import nu.marginalia.util.language.EnglishDictionary;
+import nu.marginalia.util.language.QueryLexicon;
 import nu.marginalia.LanguageModels;
 import nu.marginalia.keyword.KeywordExtractor;
 import nu.marginalia.language.sentence.SentenceExtractor;
 import nu.marginalia.util.ngrams.NGramBloomFilter;
-import nu.marginalia.term_frequency_dict.TermFrequencyDict;
 import nu.marginalia.language.model.DocumentSentence;
 import nu.marginalia.language.model.WordSpan;
 
@@ -21,7 +21,7 @@ import java.util.regex.Pattern;
 
 public class QueryVariants {
     private final KeywordExtractor keywordExtractor;
-    private final TermFrequencyDict dict;
+    private final QueryLexicon dict;
     private final PorterStemmer ps = new PorterStemmer();
 
     private final NGramBloomFilter nGramBloomFilter;
@@ -29,7 +29,7 @@ public class QueryVariants {
     private final ThreadLocal<SentenceExtractor> sentenceExtractor;
 
     public QueryVariants(LanguageModels lm,
-                         TermFrequencyDict dict,
+                         QueryLexicon dict,
                          NGramBloomFilter nGramBloomFilter,
                          EnglishDictionary englishDictionary) {
         this.nGramBloomFilter = nGramBloomFilter;
@@ -1,12 +1,16 @@
 package nu.marginalia.functions.searchquery.svc;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import io.prometheus.client.Counter;
 import nu.marginalia.LanguageModels;
 import nu.marginalia.api.searchquery.model.query.SearchSpecification;
 import nu.marginalia.api.searchquery.model.query.SearchSubquery;
 import nu.marginalia.api.searchquery.model.results.ResultRankingParameters;
 import nu.marginalia.util.language.EnglishDictionary;
+import nu.marginalia.util.language.QueryLexicon;
 import nu.marginalia.language.WordPatterns;
 import nu.marginalia.util.ngrams.NGramBloomFilter;
 import nu.marginalia.api.searchquery.model.query.QueryParams;
@@ -16,7 +20,6 @@ import nu.marginalia.functions.searchquery.query_parser.QueryPermutation;
 import nu.marginalia.functions.searchquery.query_parser.QueryVariants;
 import nu.marginalia.functions.searchquery.query_parser.token.Token;
 import nu.marginalia.functions.searchquery.query_parser.token.TokenType;
-import nu.marginalia.term_frequency_dict.TermFrequencyDict;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,16 +33,31 @@ public class QueryFactory {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private static final int RETAIN_QUERY_VARIANT_COUNT = 5;
+    private static final int QUERY_CACHE_SIZE = Integer.getInteger("query.cacheSize", 4096);
+
+    private static final Counter wmsa_qs_query_cache = Counter.build()
+            .name("wmsa_qs_query_cache")
+            .labelNames("result")
+            .help("Parsed query cache lookups, by 'hit' or 'miss'")
+            .register();
+
     private final ThreadLocal<QueryVariants> queryVariants;
     private final QueryParser queryParser = new QueryParser();
 
+    /** Popular queries repeat a lot, and parsing them is expensive, so the parsed queries
+     * are cached by their parameters.  The cached queries are never handed out themselves,
+     * only copies of them, as the callers are free to modify the lists in the query. */
+    private final Cache<QueryParams, ProcessedQuery> queryCache = CacheBuilder.newBuilder()
+            .maximumSize(QUERY_CACHE_SIZE)
+            .build();
+
 
     @Inject
     public QueryFactory(LanguageModels lm,
-                        TermFrequencyDict dict,
+                        QueryLexicon lexicon,
                         EnglishDictionary englishDictionary,
                         NGramBloomFilter nGramBloomFilter) {
-        this.queryVariants = ThreadLocal.withInitial(() -> new QueryVariants(lm ,dict, nGramBloomFilter, englishDictionary));
+        this.queryVariants = ThreadLocal.withInitial(() -> new QueryVariants(lm, lexicon, nGramBloomFilter, englishDictionary));
     }
 
 
@@ -48,6 +66,48 @@ public class QueryFactory {
     }
 
     public ProcessedQuery createQuery(QueryParams params) {
+        final QueryParams cacheKey = normalizeParams(params);
+
+        final ProcessedQuery cachedQuery = queryCache.getIfPresent(cacheKey);
+        if (cachedQuery != null) {
+            wmsa_qs_query_cache.labels("hit").inc();
+
+            return copyQuery(cachedQuery, params.humanQuery());
+        }
+        wmsa_qs_query_cache.labels("miss").inc();
+
+        final var processedQuery = createQueryUncached(params);
+
+        queryCache.put(cacheKey, copyQuery(processedQuery, processedQuery.specs.humanQuery));
+
+        return processedQuery;
+    }
+
+    /** Queries that only differ in redundant whitespace parse the same */
+    private QueryParams normalizeParams(QueryParams params) {
+        String normalizedQuery = params.humanQuery().strip().replaceAll("\\s+", " ");
+
+        if (normalizedQuery.equals(params.humanQuery()))
+            return params;
+
+        return new QueryParams(normalizedQuery,
+                params.nearDomain(),
+                params.tacitIncludes(),
+                params.tacitExcludes(),
+                params.tacitPriority(),
+                params.tacitAdvice(),
+                params.quality(),
+                params.year(),
+                params.size(),
+                params.rank(),
+                params.domainIds(),
+                params.limits(),
+                params.identifier(),
+                params.queryStrategy(),
+                params.temporalBias());
+    }
+
+    private ProcessedQuery createQueryUncached(QueryParams params) {
         final var processedQuery =  createQuery(getQueryPermutation(), params);
         final List<SearchSubquery> subqueries = processedQuery.specs.subqueries;
 
@@ -59,6 +119,34 @@ public class QueryFactory {
         return processedQuery;
     }
 
+    /** Copy the query deeply enough that changes to any of the lists in the copy
+     * don't affect the original */
+    private ProcessedQuery copyQuery(ProcessedQuery query, String humanQuery) {
+        List<SearchSubquery> subqueries = new ArrayList<>(query.specs.subqueries.size());
+
+        for (var sq : query.specs.subqueries) {
+            List<List<String>> coherences = new ArrayList<>(sq.searchTermCoherences.size());
+            for (var coherence : sq.searchTermCoherences) {
+                coherences.add(new ArrayList<>(coherence));
+            }
+
+            subqueries.add(new SearchSubquery(
+                    new ArrayList<>(sq.searchTermsInclude),
+                    new ArrayList<>(sq.searchTermsExclude),
+                    new ArrayList<>(sq.searchTermsAdvice),
+                    new ArrayList<>(sq.searchTermsPriority),
+                    coherences
+            ));
+        }
+
+        var specs = query.specs
+                .withHumanQuery(humanQuery)
+                .withSubqueries(subqueries)
+                .withDomains(query.specs.domains == null ? null : new ArrayList<>(query.specs.domains));
+
+        return new ProcessedQuery(specs, new ArrayList<>(query.searchTermsHuman), query.domain);
+    }
+
     private void trimArray(List<?> arr, int maxSize) {
         if (arr.size() > maxSize) {
             arr.subList(0, arr.size() - maxSize).clear();
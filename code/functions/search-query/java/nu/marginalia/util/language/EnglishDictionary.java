@@ -1,43 +1,24 @@
 package nu.marginalia.util.language;
 
 import com.google.inject.Inject;
-import nu.marginalia.term_frequency_dict.TermFrequencyDict;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import nu.marginalia.term_frequency_dict.TermFrequencyTable;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.util.*;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+/** Finds inflections of English words, e.g. for adding word variants to queries.
+ * The dictionary words and their frequencies are looked up in the QueryLexicon. */
 public class EnglishDictionary {
-    private final Set<String> englishWords = new HashSet<>();
-    private final TermFrequencyDict tfDict;
-    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final QueryLexicon lexicon;
 
     @Inject
-    public EnglishDictionary(TermFrequencyDict tfDict) {
-        this.tfDict = tfDict;
-        try (var resource = Objects.requireNonNull(ClassLoader.getSystemResourceAsStream("dictionary/en-words"),
-                "Could not load word frequency table");
-             var br = new BufferedReader(new InputStreamReader(resource))
-        ) {
-            for (;;) {
-                String s = br.readLine();
-                if (s == null) {
-                    break;
-                }
-                englishWords.add(s.toLowerCase());
-            }
-        }
-        catch (Exception ex) {
-            throw new RuntimeException(ex);
-        }
+    public EnglishDictionary(QueryLexicon lexicon) {
+        this.lexicon = lexicon;
     }
 
     public boolean isWord(String word) {
-        return englishWords.contains(word);
+        return lexicon.isDictionaryWord(word);
     }
 
     private static final Pattern ingPattern = Pattern.compile(".*(\\w)\\1ing$");
@@ -46,7 +27,7 @@ public class EnglishDictionary {
         var variants = findWordVariants(s);
 
         var ret = variants.stream()
-                .filter(var -> tfDict.getTermFreq(var) > 100)
+                .filter(var -> TermFrequencyTable.countOf(lexicon.getEntry(var)) > 100)
                 .collect(Collectors.toList());
 
         if (s.equals("recipe") || s.equals("recipes")) {
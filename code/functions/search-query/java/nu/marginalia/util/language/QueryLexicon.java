@@ -0,0 +1,159 @@
+package nu.marginalia.util.language;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import gnu.trove.set.hash.TLongHashSet;
+import lombok.SneakyThrows;
+import nu.marginalia.LanguageModels;
+import nu.marginalia.term_frequency_dict.TermFrequencyDict;
+import nu.marginalia.term_frequency_dict.TermFrequencyTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+import static nu.marginalia.term_frequency_dict.TermFrequencyDict.longHash;
+
+/** The term information used when rewriting queries, in a single memory mapped table
+ * keyed by term hash: the term frequencies from the TermFrequencyDict, with the words
+ * of the English dictionary flagged, so that checking whether a word is a dictionary
+ * word and how common it is takes a single lookup, and no set of words is kept on the heap.
+ * <p></p>
+ * The table is derived from the term frequency dictionary and the dictionary word list
+ * the first time it's needed, and stored next to the term frequency dictionary.  It's
+ * rebuilt when either of the sources change, as told by a fingerprint of the sources
+ * stored in the table's tag; the dictionary words are only read when rebuilding.
+ */
+@Singleton
+public class QueryLexicon {
+    private static final Logger logger = LoggerFactory.getLogger(QueryLexicon.class);
+
+    public static final int FLAG_DICTIONARY_WORD = 1;
+
+    private static final String DICTIONARY_RESOURCE = "dictionary/en-words";
+
+    private final TermFrequencyTable table;
+
+    @Inject
+    public QueryLexicon(LanguageModels lm) {
+        this(lm.termFrequencies);
+    }
+
+    @SneakyThrows
+    public QueryLexicon(Path termFrequencyFile) {
+        table = load(termFrequencyFile);
+        logger.info("Read {} lexicon entries", table.size());
+    }
+
+    /** Get the term frequency for the string s, as TermFrequencyDict.getTermFreq */
+    public int getTermFreq(String s) {
+        return table.get(TermFrequencyDict.getStringHash(s));
+    }
+
+    /** Get the term frequency for the already stemmed string s, as TermFrequencyDict.getTermFreqStemmed */
+    public int getTermFreqStemmed(String s) {
+        return table.get(longHash(s.getBytes()));
+    }
+
+    public boolean isDictionaryWord(String word) {
+        return (TermFrequencyTable.flagsOf(getEntry(word)) & FLAG_DICTIONARY_WORD) != 0;
+    }
+
+    /** Get the frequency and flags of a single word in one lookup, or 0 if the word is unknown.
+     *
+     * @see TermFrequencyTable#countOf(long)
+     * @see TermFrequencyTable#flagsOf(long)
+     */
+    public long getEntry(String word) {
+        return table.getEntry(longHash(word.getBytes()));
+    }
+
+    private static TermFrequencyTable load(Path termFrequencyFile) throws IOException {
+        // Identifies the sources the lexicon was built from, so that it's rebuilt if either changes
+        int sourcesTag = sourcesTag(termFrequencyFile);
+
+        Path lexiconFile = termFrequencyFile.resolveSibling(termFrequencyFile.getFileName() + ".lexicon");
+
+        return TermFrequencyTable.loadOrBuild(termFrequencyFile, lexiconFile, sourcesTag,
+                dest -> build(termFrequencyFile, sourcesTag, dest));
+    }
+
+    /** A fingerprint of the dictionary word list and the term frequency file: the CRC of the
+     * word list's bytes, along with its length and the size of the term frequency file.
+     */
+    private static int sourcesTag(Path termFrequencyFile) throws IOException {
+        var crc = new CRC32();
+        long length = 0;
+
+        try (var resource = openDictionary()) {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = resource.read(buffer)) > 0; length += n) {
+                crc.update(buffer, 0, n);
+            }
+        }
+
+        crc.update(ByteBuffer.allocate(16)
+                .putLong(length)
+                .putLong(Files.size(termFrequencyFile))
+                .flip());
+
+        return (int) crc.getValue();
+    }
+
+    private static void build(Path termFrequencyFile,
+                              int sourcesTag,
+                              Path lexiconFile) throws IOException
+    {
+        logger.info("Building query lexicon from {}", termFrequencyFile);
+
+        var frequencies = new TermFrequencyDict(termFrequencyFile).getTable();
+        var dictionaryWords = readDictionaryWords();
+        var remainingWords = new TLongHashSet(dictionaryWords);
+
+        try (var writer = TermFrequencyTable.writer(lexiconFile, frequencies.size() + dictionaryWords.size())) {
+            frequencies.forEach((hash, entry) -> {
+                int flags = remainingWords.remove(hash) ? FLAG_DICTIONARY_WORD : 0;
+                writer.put(hash, TermFrequencyTable.countOf(entry), flags);
+            });
+
+            // Dictionary words that never occurred in the corpus
+            remainingWords.forEach(hash -> {
+                writer.put(hash, 0, FLAG_DICTIONARY_WORD);
+                return true;
+            });
+
+            writer.setTag(sourcesTag);
+        }
+    }
+
+    private static TLongHashSet readDictionaryWords() throws IOException {
+        var words = new TLongHashSet(200_000);
+
+        try (var resource = openDictionary();
+             var br = new BufferedReader(new InputStreamReader(resource))
+        ) {
+            for (;;) {
+                String s = br.readLine();
+                if (s == null) {
+                    break;
+                }
+                words.add(longHash(s.toLowerCase().getBytes()));
+            }
+        }
+
+        return words;
+    }
+
+    private static InputStream openDictionary() {
+        return Objects.requireNonNull(ClassLoader.getSystemResourceAsStream(DICTIONARY_RESOURCE),
+                "Could not load dictionary word list");
+    }
+}
@@ -9,9 +9,9 @@ import nu.marginalia.index.query.limit.QueryStrategy;
 import nu.marginalia.index.query.limit.SpecificationLimit;
 import nu.marginalia.index.query.limit.SpecificationLimitType;
 import nu.marginalia.util.language.EnglishDictionary;
+import nu.marginalia.util.language.QueryLexicon;
 import nu.marginalia.util.ngrams.NGramBloomFilter;
 import nu.marginalia.api.searchquery.model.query.QueryParams;
-import nu.marginalia.term_frequency_dict.TermFrequencyDict;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
@@ -28,11 +28,11 @@ public class QueryFactoryTest {
     public static void setUpAll() throws IOException {
 
         var lm = WmsaHome.getLanguageModels();
-        var tfd = new TermFrequencyDict(lm);
+        var lexicon = new QueryLexicon(lm);
 
         queryFactory = new QueryFactory(lm,
-                tfd,
-                new EnglishDictionary(tfd),
+                lexicon,
+                new EnglishDictionary(lexicon),
                 new NGramBloomFilter(lm)
         );
     }
@@ -156,4 +156,19 @@ public class QueryFactoryTest {
         assertEquals(List.of("tld:edu"), subquery.searchTermsPriority);
         assertEquals(List.of("physics"), subquery.searchTermsInclude);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCachedQueryIsCopied() {
+        var first = parseAndGetSpecs("physics ?tld:edu");
+        first.subqueries.clear();
+
+        var second = parseAndGetSpecs("  physics   ?tld:edu ");
+        assertEquals("  physics   ?tld:edu ", second.humanQuery);
+        assertEquals(List.of("physics"), second.subqueries.iterator().next().searchTermsInclude);
+
+        second.subqueries.iterator().next().searchTermsInclude.clear();
+
+        var third = parseAndGetSpecs("physics ?tld:edu");
+        assertEquals(List.of("physics"), third.subqueries.iterator().next().searchTermsInclude);
+    }
+}
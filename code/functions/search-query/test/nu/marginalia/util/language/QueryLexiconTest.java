@@ -0,0 +1,81 @@
+package nu.marginalia.util.language;
+
+import nu.marginalia.term_frequency_dict.TermFrequencyTable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static nu.marginalia.term_frequency_dict.TermFrequencyDict.longHash;
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryLexiconTest {
+    Path tempDir;
+    Path freqFile;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory(getClass().getSimpleName());
+        freqFile = tempDir.resolve("tfreq.bin");
+
+        try (var writer = TermFrequencyTable.writer(freqFile, 3)) {
+            writer.put(longHash("house".getBytes()), 500);
+            writer.put(longHash("xyzzyq".getBytes()), 7);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (var files = Files.list(tempDir)) {
+            for (var file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(tempDir);
+    }
+
+    @Test
+    public void testLexicon() {
+        var lexicon = new QueryLexicon(freqFile);
+
+        assertTrue(Files.exists(tempDir.resolve("tfreq.bin.lexicon")));
+
+        assertTrue(lexicon.isDictionaryWord("house"));
+        assertEquals(500, lexicon.getTermFreq("house"));
+
+        // In the dictionary, but not in the term frequencies
+        assertTrue(lexicon.isDictionaryWord("dog"));
+        assertEquals(0, lexicon.getTermFreq("dog"));
+
+        // In the term frequencies, but not in the dictionary
+        assertFalse(lexicon.isDictionaryWord("xyzzyq"));
+        assertEquals(7, lexicon.getTermFreq("xyzzyq"));
+
+        // Reloaded from the lexicon file
+        var reloaded = new QueryLexicon(freqFile);
+        assertTrue(reloaded.isDictionaryWord("house"));
+        assertEquals(500, reloaded.getTermFreq("house"));
+    }
+
+    @Test
+    public void testRebuiltWhenTermFrequenciesChange() throws IOException {
+        new QueryLexicon(freqFile);
+
+        Path lexiconFile = tempDir.resolve("tfreq.bin.lexicon");
+        var lexiconTime = Files.getLastModifiedTime(lexiconFile);
+
+        try (var writer = TermFrequencyTable.writer(freqFile, 100)) {
+            writer.put(longHash("house".getBytes()), 600);
+        }
+
+        // The lexicon is not older than the new term frequencies, only the fingerprint tells them apart
+        Files.setLastModifiedTime(freqFile, lexiconTime);
+
+        var lexicon = new QueryLexicon(freqFile);
+        assertEquals(600, lexicon.getTermFreq("house"));
+        assertEquals(0, lexicon.getTermFreq("xyzzyq"));
+    }
+}
@@ -4,7 +4,29 @@ package nu.marginalia.index.journal.model;
  * and is not compressed.
  *
  * @param fileSizeRecords the size of the file in number of records
- * @param reserved should be 0
+ * @param reserved flags in the low bits, partition number plus one in the high bits;
+ *                 0 for a regular compressed journal
  */
 public record IndexJournalFileHeader(long fileSizeRecords, long reserved) {
+    /** Set for journals whose data isn't zstd compressed, i.e. temporary
+     * decompressed copies of a journal that are read several times */
+    public static final long FLAG_UNCOMPRESSED = 1;
+
+    /** Partition number of journals that aren't partitioned by word id */
+    public static final int NO_PARTITION = -1;
+
+    public boolean isCompressed() {
+        return (reserved & FLAG_UNCOMPRESSED) == 0;
+    }
+
+    /** The word id partition of the journal, or NO_PARTITION.  The journals of
+     * different partitions have no word ids in common. */
+    public int partition() {
+        return (int) (reserved >>> 32) - 1;
+    }
+
+    /** The bits of the reserved field that record the partition */
+    public static long partitionBits(int partition) {
+        return (long) (partition + 1) << 32;
+    }
 }
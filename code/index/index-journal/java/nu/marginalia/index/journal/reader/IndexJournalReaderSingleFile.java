@@ -1,13 +1,12 @@
 package nu.marginalia.index.journal.reader;
 
-import com.github.luben.zstd.ZstdInputStream;
 import lombok.SneakyThrows;
-import nu.marginalia.index.journal.model.IndexJournalEntryData;
 import nu.marginalia.index.journal.model.IndexJournalFileHeader;
 import nu.marginalia.index.journal.reader.pointer.IndexJournalPointer;
 
 import java.io.*;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 
@@ -36,95 +35,131 @@ public class IndexJournalReaderSingleFile implements IndexJournalReader {
         }
     }
 
-    private static DataInputStream createInputStream(Path file) throws IOException {
-        var fileInputStream = Files.newInputStream(file, StandardOpenOption.READ);
-
-        // skip the header
-        fileInputStream.skipNBytes(16);
-
-        return new DataInputStream(new ZstdInputStream(new BufferedInputStream(fileInputStream)));
-    }
-
     @SneakyThrows
     @Override
     public IndexJournalPointer newPointer() {
-        return new SingleFileJournalPointer(fileHeader, createInputStream(journalFile));
+        return new SingleFileJournalPointer(fileHeader, new JournalReadAheadBuffer(journalFile, fileHeader.isCompressed()));
+    }
+
+    /** Write an uncompressed copy of the journal to outputFile, and return a reader for the copy.
+     * <p></p>
+     * This is useful when the journal is to be read several times, as decompression
+     * is a large part of the cost of reading the journal.
+     */
+    public IndexJournalReaderSingleFile decompress(Path outputFile) throws IOException {
+        try (var input = new JournalReadAheadBuffer(journalFile, fileHeader.isCompressed());
+             var output = FileChannel.open(outputFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE_BYTES);
+            header.putLong(fileHeader.fileSizeRecords());
+            header.putLong(fileHeader.reserved() | IndexJournalFileHeader.FLAG_UNCOMPRESSED);
+            header.flip();
+
+            while (header.hasRemaining())
+                output.write(header);
+
+            while (input.request(1)) {
+                var data = input.window();
+                while (data.hasRemaining())
+                    output.write(data);
+            }
+        }
+
+        return new IndexJournalReaderSingleFile(outputFile);
     }
 
 }
 
+/** Pointer that reads the journal records in place from a read-ahead buffer */
 class SingleFileJournalPointer implements IndexJournalPointer {
 
+    private static final int ENTRY_HEADER_SIZE_BYTES = 3 * 8;
+
     private final IndexJournalFileHeader fileHeader;
-    private final DataInputStream dataInputStream;
-    private IndexJournalReadEntry entry;
-    private IndexJournalEntryData entryData;
+    private final JournalReadAheadBuffer input;
+    private ByteBuffer data;
+
+    private long docIdx = -1;
+
+    private int entrySize;
+    private int documentFeatures;
+    private long documentId;
+    private long documentMeta;
+
+    /** Position of the current entry's word data in the buffer */
+    private int entryDataStart;
     private int recordIdx = -2;
-    private int docIdx = -1;
 
     public SingleFileJournalPointer(
             IndexJournalFileHeader fileHeader,
-            DataInputStream dataInputStream)
+            JournalReadAheadBuffer input)
     {
         this.fileHeader = fileHeader;
-        this.dataInputStream = dataInputStream;
+        this.input = input;
     }
 
     @SneakyThrows
     @Override
     public boolean nextDocument() {
         recordIdx = -2;
-        entryData = null;
 
-        if (++docIdx < fileHeader.fileSizeRecords()) {
-            entry = IndexJournalReadEntry.read(dataInputStream);
-            return true;
+        if (++docIdx >= fileHeader.fileSizeRecords()) {
+            input.close();
+            return false;
         }
 
-        dataInputStream.close();
+        if (!input.request(ENTRY_HEADER_SIZE_BYTES))
+            throw new EOFException("Journal ended before record " + docIdx);
 
-        return false;
+        // The window is only allocated once the reading starts
+        data = input.window();
+
+        final long sizeBlock = data.getLong();
+        documentId = data.getLong();
+        documentMeta = data.getLong();
+
+        entrySize = (int) (sizeBlock >>> 32L);
+        documentFeatures = (int) (sizeBlock & 0xFFFF_FFFFL);
+
+        // The request may move the data around in the buffer,
+        // so the start of the words is only known after it
+        if (!input.request(8 * entrySize))
+            throw new EOFException("Journal ended in record " + docIdx);
+
+        entryDataStart = data.position();
+        data.position(entryDataStart + 8 * entrySize);
+
+        return true;
     }
 
     @Override
     public boolean nextRecord() {
-        if (entryData == null) {
-            entryData = entry.readEntry();
-        }
-
         recordIdx += 2;
-        if (recordIdx < entryData.size()) {
-            return true;
-        }
-        return false;
+        return recordIdx < entrySize;
     }
 
     @Override
     public long documentId() {
-        return entry.docId();
+        return documentId;
     }
 
     @Override
     public long documentMeta() {
-        return entry.docMeta();
+        return documentMeta;
     }
 
     @Override
     public long wordId() {
-        return entryData.get(recordIdx);
+        return data.getLong(entryDataStart + 8 * recordIdx);
     }
 
     @Override
     public long wordMeta() {
-        return entryData.get(recordIdx + 1);
+        return data.getLong(entryDataStart + 8 * recordIdx + 8);
     }
 
     @Override
     public int documentFeatures() {
-        if (entryData == null) {
-            entryData = entry.readEntry();
-        }
-
-        return entry.header.documentFeatures();
+        return documentFeatures;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,249 @@
+package nu.marginalia.index.journal.reader;
+
+import com.github.luben.zstd.ZstdDirectBufferDecompressingStream;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/** Reads the data of a journal file in large chunks on a background thread,
+ * so that decompression overlaps with the processing of the data.
+ * <p></p>
+ * Nothing is opened or allocated, and no thread started, until the data is first
+ * requested, so that pointers over many journal files that are read one after
+ * another only hold the resources of the file being read.
+ * <p></p>
+ * The chunks are decompressed directly into direct buffers, and handed
+ * to the consumer, which reads the data in place through window().  A call to request(n)
+ * ensures n bytes are available in the window, and may invalidate the positions of data
+ * previously read from it.
+ */
+class JournalReadAheadBuffer implements AutoCloseable {
+    static final int CHUNK_SIZE = 1 << 20;
+
+    private static final int CHUNK_COUNT = 2;
+    private static final int ZSTD_BUFFER_SIZE = 128 * 1024;
+
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private final Path file;
+    private final boolean compressed;
+
+    private ByteBuffer window = ByteBuffer.allocate(0);
+    private Producer producer;
+    private Cleaner.Cleanable cleanable;
+
+    private boolean endOfData = false;
+    private boolean closed = false;
+
+    JournalReadAheadBuffer(Path file, boolean compressed) {
+        this.file = file;
+        this.compressed = compressed;
+    }
+
+    private void start() throws IOException {
+        if (closed)
+            throw new IOException("Read-ahead buffer for " + file + " is closed");
+
+        // Twice the size of a chunk, so that the remainder of the window plus
+        // a new chunk always fit as long as requests are no larger than a chunk
+        window = ByteBuffer.allocateDirect(2 * CHUNK_SIZE).flip();
+        producer = new Producer(FileChannel.open(file, StandardOpenOption.READ), compressed);
+
+        // Stop the producer thread if the consumer is abandoned before reaching the end of the data
+        cleanable = cleaner.register(this, producer::stop);
+
+        var thread = Thread.ofPlatform()
+                .daemon()
+                .name("journal-read-ahead")
+                .unstarted(producer);
+        producer.thread = thread;
+        thread.start();
+    }
+
+    /** The buffer the data is read from, in big endian order.  The buffer
+     * is replaced when the reading starts, at the first request. */
+    ByteBuffer window() {
+        return window;
+    }
+
+    /** The read-ahead thread, or null if the reading hasn't started */
+    Thread readAheadThread() {
+        return producer == null ? null : producer.thread;
+    }
+
+    /** Make at least n bytes available in the window, returning false
+     * if the data ends before that */
+    boolean request(int n) throws IOException {
+        if (window.remaining() >= n)
+            return true;
+
+        if (n > CHUNK_SIZE)
+            throw new IOException("Request for " + n + " bytes exceeds read-ahead chunk size");
+
+        if (producer == null)
+            start();
+
+        window.compact();
+
+        try {
+            while (window.position() < n && !endOfData) {
+                ByteBuffer chunk = producer.filled.take();
+
+                if (chunk == END) {
+                    endOfData = true;
+                    if (producer.error != null) {
+                        throw new IOException("Error reading journal", producer.error);
+                    }
+                }
+                else {
+                    window.put(chunk);
+                    producer.free.put(chunk);
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading journal", ex);
+        }
+        finally {
+            window.flip();
+        }
+
+        return window.remaining() >= n;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        if (cleanable != null) {
+            cleanable.clean();
+        }
+    }
+
+    /** The background task that reads the file.  It must not refer to the enclosing
+     * buffer, or the cleaner will never run. */
+    private static class Producer implements Runnable {
+        private final FileChannel channel;
+        private final boolean compressed;
+
+        final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(CHUNK_COUNT);
+        final BlockingQueue<ByteBuffer> filled = new LinkedBlockingQueue<>();
+
+        volatile IOException error;
+        private volatile boolean stopped = false;
+        volatile Thread thread;
+
+        private boolean endOfFile = false;
+
+        Producer(FileChannel channel, boolean compressed) throws IOException {
+            this.channel = channel;
+            this.compressed = compressed;
+
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                free.add(ByteBuffer.allocateDirect(CHUNK_SIZE));
+            }
+
+            channel.position(IndexJournalReader.FILE_HEADER_SIZE_BYTES);
+        }
+
+        void stop() {
+            stopped = true;
+
+            Thread t = thread;
+            if (t != null) {
+                t.interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            try (channel) {
+                ZstdDirectBufferDecompressingStream decompressor = compressed ? createDecompressor() : null;
+
+                try {
+                    boolean done = false;
+
+                    while (!done && !stopped) {
+                        ByteBuffer chunk = free.take();
+
+                        chunk.clear();
+                        done = decompressor != null ? decompress(decompressor, chunk) : read(chunk);
+                        chunk.flip();
+
+                        if (chunk.hasRemaining()) {
+                            filled.put(chunk);
+                        }
+                    }
+                }
+                finally {
+                    if (decompressor != null) {
+                        decompressor.close();
+                    }
+                }
+            }
+            catch (InterruptedException ex) {
+                // stopped by the consumer
+            }
+            catch (IOException ex) {
+                if (!stopped) {
+                    error = ex;
+                }
+            }
+            finally {
+                filled.add(END);
+            }
+        }
+
+        private ZstdDirectBufferDecompressingStream createDecompressor() throws IOException {
+            ByteBuffer source = ByteBuffer.allocateDirect(ZSTD_BUFFER_SIZE);
+            refill(source.flip());
+
+            return new ZstdDirectBufferDecompressingStream(source) {
+                @Override
+                protected ByteBuffer refill(ByteBuffer toRefill) throws IOException {
+                    return Producer.this.refill(toRefill);
+                }
+            };
+        }
+
+        private ByteBuffer refill(ByteBuffer toRefill) throws IOException {
+            toRefill.compact();
+            if (channel.read(toRefill) < 0) {
+                endOfFile = true;
+            }
+            toRefill.flip();
+
+            return toRefill;
+        }
+
+        /** Fill the chunk with decompressed data, returning true at the end of the data */
+        private boolean decompress(ZstdDirectBufferDecompressingStream decompressor, ByteBuffer chunk) throws IOException {
+            while (chunk.hasRemaining()) {
+                if (!decompressor.hasRemaining())
+                    return true;
+
+                if (decompressor.read(chunk) == 0 && endOfFile)
+                    return true;
+            }
+            return false;
+        }
+
+        /** Fill the chunk with uncompressed data, returning true at the end of the file */
+        private boolean read(ByteBuffer chunk) throws IOException {
+            while (chunk.hasRemaining()) {
+                if (channel.read(chunk) < 0)
+                    return true;
+            }
+            return false;
+        }
+    }
+}
@@ -3,20 +3,26 @@ package nu.marginalia.index.journal.writer;
 import lombok.SneakyThrows;
 import nu.marginalia.index.journal.model.IndexJournalEntryData;
 import nu.marginalia.index.journal.model.IndexJournalEntryHeader;
+import nu.marginalia.index.journal.model.IndexJournalFileHeader;
 import nu.marginalia.index.journal.IndexJournalFileNames;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
 
 /** IndexJournalWriter implementation that creates a sequence of journal files,
  * delegating to IndexJournalWriterSingleFileImpl to write the individual files.
- *
+ * <p></p>
+ * Several writers may share an output directory if they are given the same
+ * source of file numbers.  Each writer instance is not thread safe.
  */
 public class IndexJournalWriterPagingImpl implements IndexJournalWriter {
     private final Path outputDir;
-    private int fileNumber = 0;
+    private final IntSupplier fileNumbers;
+    private final int partition;
 
     /** The maximum size of a journal file, in uncompressed bytes.
      *  This should be safely below 2 GB, since we assume in the construction
@@ -34,7 +40,20 @@ public class IndexJournalWriterPagingImpl implements IndexJournalWriter {
     private long bytesWritten = 0;
 
     public IndexJournalWriterPagingImpl(Path outputDir) throws IOException {
+        this(outputDir, new AtomicInteger()::getAndIncrement);
+    }
+
+    /** Create a writer that numbers its files from fileNumbers, which must
+     * be thread safe if it is shared with other writers. */
+    public IndexJournalWriterPagingImpl(Path outputDir, IntSupplier fileNumbers) throws IOException {
+        this(outputDir, fileNumbers, IndexJournalFileHeader.NO_PARTITION);
+    }
+
+    /** Create a writer for journals that only contain the word ids of the given partition */
+    public IndexJournalWriterPagingImpl(Path outputDir, IntSupplier fileNumbers, int partition) throws IOException {
         this.outputDir = outputDir;
+        this.fileNumbers = fileNumbers;
+        this.partition = partition;
         switchToNextWriter();
 
         logger.info("Creating Journal Writer {}", outputDir);
@@ -44,7 +63,7 @@ public class IndexJournalWriterPagingImpl implements IndexJournalWriter {
         if (currentWriter != null)
             currentWriter.close();
 
-        currentWriter = new IndexJournalWriterSingleFileImpl(IndexJournalFileNames.allocateName(outputDir, fileNumber++));
+        currentWriter = new IndexJournalWriterSingleFileImpl(IndexJournalFileNames.allocateName(outputDir, fileNumbers.getAsInt()), partition);
     }
 
     @Override
@@ -4,6 +4,7 @@ import com.github.luben.zstd.ZstdDirectBufferCompressingStream;
 import lombok.SneakyThrows;
 import nu.marginalia.index.journal.model.IndexJournalEntryData;
 import nu.marginalia.index.journal.model.IndexJournalEntryHeader;
+import nu.marginalia.index.journal.model.IndexJournalFileHeader;
 import nu.marginalia.index.journal.reader.IndexJournalReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,12 +28,19 @@ public class IndexJournalWriterSingleFileImpl implements IndexJournalWriter{
     private final ZstdDirectBufferCompressingStream compressingStream;
     private final FileChannel fileChannel;
 
+    private final int partition;
     private int numEntries = 0;
     private boolean closed = false;
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     public IndexJournalWriterSingleFileImpl(Path outputFile) throws IOException {
+        this(outputFile, IndexJournalFileHeader.NO_PARTITION);
+    }
+
+    /** Create a writer for a journal that only contains the word ids of the given partition */
+    public IndexJournalWriterSingleFileImpl(Path outputFile, int partition) throws IOException {
+        this.partition = partition;
 
         logger.info("Creating Journal Writer {}", outputFile);
 
@@ -123,7 +131,7 @@ public class IndexJournalWriterSingleFileImpl implements IndexJournalWriter{
         // Finalize the file by writing a header in the beginning
         ByteBuffer header = ByteBuffer.allocate(16);
         header.putLong(numEntries);
-        header.putLong(0);  // reserved for future use
+        header.putLong(IndexJournalFileHeader.partitionBits(partition));
         header.flip();
 
         while (header.position() < header.limit()) {
@@ -1,6 +1,7 @@
 package nu.marginalia.index.journal;
 
 import nu.marginalia.index.journal.model.IndexJournalEntry;
+import nu.marginalia.index.journal.model.IndexJournalFileHeader;
 import nu.marginalia.index.journal.reader.IndexJournalReader;
 import nu.marginalia.index.journal.reader.IndexJournalReaderSingleFile;
 import nu.marginalia.index.journal.writer.IndexJournalWriterSingleFileImpl;
@@ -16,6 +17,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 public class IndexJournalTest {
     Path tempFile;
@@ -66,4 +68,52 @@ public class IndexJournalTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void decompress() throws IOException {
+        Path decompressedFile = Files.createTempFile(getClass().getSimpleName(), ".dat");
+
+        try {
+            var decompressed = ((IndexJournalReaderSingleFile) reader).decompress(decompressedFile);
+            assertFalse(decompressed.fileHeader.isCompressed());
+
+            List<Long> expectedDocs = new ArrayList<>();
+            List<Long> actualDocs = new ArrayList<>();
+            reader.forEachDocId(expectedDocs::add);
+            decompressed.forEachDocId(actualDocs::add);
+            assertEquals(expectedDocs, actualDocs);
+
+            List<Long> expectedWords = new ArrayList<>();
+            List<Long> actualWords = new ArrayList<>();
+            reader.forEachWordId(expectedWords::add);
+            decompressed.forEachWordId(actualWords::add);
+            assertEquals(expectedWords, actualWords);
+        }
+        finally {
+            Files.delete(decompressedFile);
+        }
+    }
+
+    @Test
+    public void partition() throws IOException {
+        assertEquals(IndexJournalFileHeader.NO_PARTITION, ((IndexJournalReaderSingleFile) reader).fileHeader.partition());
+
+        Path partitionedFile = Files.createTempFile(getClass().getSimpleName(), ".dat");
+        Path decompressedFile = Files.createTempFile(getClass().getSimpleName(), ".dat");
+
+        try {
+            var journalWriter = new IndexJournalWriterSingleFileImpl(partitionedFile, 3);
+            journalWriter.put(IndexJournalEntry.builder(44, 10, 55)
+                    .add(1, 2)
+                    .build());
+            journalWriter.close();
+
+            var partitionedReader = new IndexJournalReaderSingleFile(partitionedFile);
+            assertEquals(3, partitionedReader.fileHeader.partition());
+            assertEquals(3, partitionedReader.decompress(decompressedFile).fileHeader.partition());
+        }
+        finally {
+            Files.delete(partitionedFile);
+            Files.delete(decompressedFile);
+        }
+    }
 }
@@ -0,0 +1,106 @@
+package nu.marginalia.index.journal.reader;
+
+import nu.marginalia.index.journal.model.IndexJournalEntry;
+import nu.marginalia.index.journal.writer.IndexJournalWriterSingleFileImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalReadAheadBufferTest {
+    Path tempFile;
+    boolean compressed;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempFile = Files.createTempFile(getClass().getSimpleName(), ".dat");
+
+        // Several chunks worth of data, so that the read-ahead thread
+        // is still running when the consumer stops reading
+        var journalWriter = new IndexJournalWriterSingleFileImpl(tempFile);
+        for (int doc = 0; doc < 2000; doc++) {
+            var builder = IndexJournalEntry.builder(1, doc, doc);
+            for (int word = 0; word < 100; word++) {
+                builder.add(doc * 100L + word, word);
+            }
+            journalWriter.put(builder.build());
+        }
+        journalWriter.close();
+
+        compressed = new IndexJournalReaderSingleFile(tempFile).fileHeader.isCompressed();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.delete(tempFile);
+    }
+
+    @Test
+    public void testReadingStartsOnFirstRequest() throws IOException, InterruptedException {
+        var buffer = new JournalReadAheadBuffer(tempFile, compressed);
+        assertNull(buffer.readAheadThread());
+        assertEquals(0, buffer.window().capacity());
+
+        assertTrue(buffer.request(24));
+
+        var thread = buffer.readAheadThread();
+        assertNotNull(thread);
+        assertTrue(buffer.window().isDirect());
+
+        buffer.close();
+
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void testReadToEnd() throws IOException, InterruptedException {
+        long bytes = 0;
+
+        var buffer = new JournalReadAheadBuffer(tempFile, compressed);
+        while (buffer.request(1)) {
+            bytes += buffer.window().remaining();
+            buffer.window().position(buffer.window().limit());
+        }
+
+        assertEquals(2000 * (3 * 8 + 100 * 16), bytes);
+
+        var thread = buffer.readAheadThread();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void testAbandonedBufferStopsThread() throws IOException, InterruptedException {
+        Thread thread = startAndAbandon();
+
+        // The thread is stopped by the cleaner once the buffer is collected
+        for (int i = 0; i < 100 && thread.isAlive(); i++) {
+            System.gc();
+            thread.join(100);
+        }
+
+        assertFalse(thread.isAlive());
+    }
+
+    private Thread startAndAbandon() throws IOException {
+        var buffer = new JournalReadAheadBuffer(tempFile, compressed);
+        assertTrue(buffer.request(24));
+
+        return buffer.readAheadThread();
+    }
+
+    @Test
+    public void testClosedBeforeReading() {
+        var buffer = new JournalReadAheadBuffer(tempFile, compressed);
+        buffer.close();
+
+        assertThrows(IOException.class, () -> buffer.request(24));
+        assertNull(buffer.readAheadThread());
+    }
+}
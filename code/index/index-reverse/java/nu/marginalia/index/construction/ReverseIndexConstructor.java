@@ -3,11 +3,15 @@ package nu.marginalia.index.construction;
 import lombok.SneakyThrows;
 import nu.marginalia.process.control.ProcessHeartbeat;
 import nu.marginalia.index.journal.IndexJournalFileNames;
+import nu.marginalia.index.journal.model.IndexJournalFileHeader;
+import nu.marginalia.index.journal.reader.IndexJournalReader;
+import nu.marginalia.index.journal.reader.IndexJournalReaderSingleFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class ReverseIndexConstructor {
@@ -55,13 +59,21 @@ public class ReverseIndexConstructor {
             try (var preindexHeartbeat = processHeartbeat.createAdHocTaskHeartbeat("constructPreindexes")) {
 
                 AtomicInteger progress = new AtomicInteger(0);
-                inputs
+                var partitions = groupByPartition(inputs);
+
+                var partitionIndexes = partitions.values()
                     .parallelStream()
-                    .map(in -> {
-                        preindexHeartbeat.progress("PREINDEX/MERGE", progress.incrementAndGet(), inputs.size());
-                        return construct(in);
-                    })
-                    .reduce(this::merge)
+                    .map(partition -> partition
+                        .parallelStream()
+                        .map(in -> {
+                            preindexHeartbeat.progress("PREINDEX/MERGE", progress.incrementAndGet(), inputs.size());
+                            return construct(in);
+                        })
+                        .reduce(this::merge))
+                    .flatMap(Optional::stream)
+                    .toList();
+
+                combinePartitions(partitions.keySet(), partitionIndexes)
                     .ifPresent((index) -> {
                         heartbeat.progress(CreateReverseIndexSteps.FINALIZE);
                         finalizeIndex(index);
@@ -72,6 +84,81 @@ public class ReverseIndexConstructor {
         }
     }
 
+    /** Group journal files by their word id partition, in partition order.  Preindexes from
+     * different partitions have no words in common, so the merges of document lists are kept
+     * within the partitions, where they run in parallel, and the partitions are then concatenated.
+     * Journals that aren't partitioned all end up in the same group.
+     */
+    private static SortedMap<Integer, List<Path>> groupByPartition(List<Path> inputs) throws IOException {
+        SortedMap<Integer, List<Path>> partitions = new TreeMap<>();
+
+        for (var input : inputs) {
+            int partition = new IndexJournalReaderSingleFile(input).fileHeader.partition();
+            partitions.computeIfAbsent(partition, p -> new ArrayList<>()).add(input);
+        }
+
+        return partitions;
+    }
+
+    /** Combine the preindexes of each partition, given in partition order, into one.
+     * Partitioned preindexes are concatenated; unpartitioned data, should there be any,
+     * shares words with the rest and must be merged.
+     */
+    private Optional<ReversePreindexReference> combinePartitions(Set<Integer> partitionNumbers,
+                                                                 List<ReversePreindexReference> partitionIndexes)
+    {
+        if (partitionIndexes.size() > 1 && !partitionNumbers.contains(IndexJournalFileHeader.NO_PARTITION)) {
+            return Optional.of(concatenate(partitionIndexes));
+        }
+
+        return partitionIndexes.stream().reduce(this::merge);
+    }
+
+    /** Construct a preindex from a journal reader that's already open, e.g. one
+     * that is shared with other constructors.  The preindexes are combined into
+     * the final index with mergeAndFinalize().
+     */
+    public ReversePreindexReference constructPreindex(IndexJournalReader reader) throws IOException {
+        return ReversePreindex
+                .constructPreindex(reader, docIdRewriter, tmpDir)
+                .closeToReference();
+    }
+
+    /** Merge preindexes created with constructPreindex() and write the final index.
+     * The preindexes are keyed by the word id partition of the journal they were
+     * constructed from, see groupByPartition().
+     */
+    public void mergeAndFinalize(ProcessHeartbeat processHeartbeat,
+                                 String processName,
+                                 Map<Integer, ? extends Collection<ReversePreindexReference>> preindexesByPartition)
+    {
+        var partitions = new TreeMap<Integer, Collection<ReversePreindexReference>>(preindexesByPartition);
+
+        if (partitions.values().stream().allMatch(Collection::isEmpty)) {
+            logger.error("No preindexes for {}", processName);
+            return;
+        }
+
+        try (var heartbeat = processHeartbeat.createProcessTaskHeartbeat(CreateReverseIndexSteps.class, processName)) {
+            heartbeat.progress(CreateReverseIndexSteps.CONSTRUCT);
+
+            var partitionIndexes = partitions.values()
+                .parallelStream()
+                .map(partition -> partition.parallelStream().reduce(this::merge))
+                .flatMap(Optional::stream)
+                .toList();
+
+            combinePartitions(partitions.keySet(), partitionIndexes)
+                .ifPresent((index) -> {
+                    heartbeat.progress(CreateReverseIndexSteps.FINALIZE);
+                    finalizeIndex(index);
+                    heartbeat.progress(CreateReverseIndexSteps.FINISHED);
+                });
+
+            heartbeat.progress(CreateReverseIndexSteps.FINISHED);
+        }
+    }
+
     @SneakyThrows
     private ReversePreindexReference construct(Path input) {
         return ReversePreindex
@@ -96,6 +183,23 @@ public class ReverseIndexConstructor {
 
     }
 
+    @SneakyThrows
+    private ReversePreindexReference concatenate(List<ReversePreindexReference> partsR) {
+        List<ReversePreindex> parts = new ArrayList<>(partsR.size());
+        for (var partR : partsR) {
+            parts.add(partR.open());
+        }
+
+        try {
+            return ReversePreindex.concatenate(tmpDir, parts).closeToReference();
+        }
+        finally {
+            for (var part : parts) {
+                part.delete();
+            }
+        }
+    }
+
     @SneakyThrows
     private void finalizeIndex(ReversePreindexReference finalPR) {
         var finalP = finalPR.open();
@@ -13,6 +13,7 @@ import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.List;
 
 import static nu.marginalia.array.algo.TwoArrayOperations.*;
 
@@ -23,7 +24,8 @@ import static nu.marginalia.array.algo.TwoArrayOperations.*;
  * <p>
  * Two preindexes can be merged into a third preindex containing
  * the union of their data.  This operation requires no additional
- * RAM.
+ * RAM.  Preindexes with no words in common, such as those of journals
+ * partitioned by word id, can instead be concatenated.
  */
 public class ReversePreindex {
     final ReversePreindexWordSegments segments;
@@ -203,6 +205,62 @@ public class ReversePreindex {
         );
     }
 
+    /** Concatenate preindexes that have no words in common, given in the order of their word ids,
+     * so that every word of a preindex comes before the words of the next one.  This is the case
+     * for the preindexes of journals partitioned by word id range, taken in partition order.
+     * <p></p>
+     * Unlike merging, the data is copied once, regardless of the number of preindexes.
+     */
+    public static ReversePreindex concatenate(Path destDir, List<ReversePreindex> parts) throws IOException {
+        long lastWordId = Long.MIN_VALUE;
+        boolean first = true;
+
+        for (var part : parts) {
+            var wordIds = part.segments.wordIds;
+            if (wordIds.size() == 0)
+                continue;
+
+            if (!first && wordIds.get(0) <= lastWordId)
+                throw new IllegalArgumentException("Preindexes to concatenate overlap or are out of order");
+
+            lastWordId = wordIds.get(wordIds.size() - 1);
+            first = false;
+        }
+
+        Path segmentWordsFile = Files.createTempFile(destDir, "segment_words", ".dat");
+        Path segmentCountsFile = Files.createTempFile(destDir, "segment_counts", ".dat");
+        Path docsFile = Files.createTempFile(destDir, "docs", ".dat");
+
+        concatenateFiles(segmentWordsFile, parts.stream().map(part -> part.segments.wordsFile).toList());
+        concatenateFiles(segmentCountsFile, parts.stream().map(part -> part.segments.countsFile).toList());
+        concatenateFiles(docsFile, parts.stream().map(part -> part.documents.file).toList());
+
+        return new ReversePreindex(
+                new ReversePreindexWordSegments(
+                        LongArrayFactory.mmapForModifyingShared(segmentWordsFile),
+                        LongArrayFactory.mmapForModifyingShared(segmentCountsFile),
+                        segmentWordsFile,
+                        segmentCountsFile),
+                new ReversePreindexDocuments(
+                        LongArrayFactory.mmapForModifyingShared(docsFile),
+                        docsFile)
+        );
+    }
+
+    private static void concatenateFiles(Path destFile, List<Path> sourceFiles) throws IOException {
+        try (var dest = FileChannel.open(destFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (var sourceFile : sourceFiles) {
+                try (var source = FileChannel.open(sourceFile, StandardOpenOption.READ)) {
+                    long size = source.size();
+                    for (long pos = 0; pos < size; ) {
+                        pos += source.transferTo(pos, size - pos, dest);
+                    }
+                }
+            }
+            dest.force(false);
+        }
+    }
+
     /** Create a segment word file with each word from both inputs, with zero counts for all the data.
      * This is an intermediate product in merging.
      */
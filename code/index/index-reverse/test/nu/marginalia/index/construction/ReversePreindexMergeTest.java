@@ -13,6 +13,7 @@ import java.util.*;
 
 import static nu.marginalia.index.construction.TestJournalFactory.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class ReversePreindexMergeTest {
     TestJournalFactory journalFactory;
@@ -309,6 +310,43 @@ class ReversePreindexMergeTest {
     }
 
 
+    @Test
+    public void testConcatenateDisjoint() throws IOException {
+        // Three partitions with disjoint word ranges, some documents in more than one
+        var first = List.of(
+                new EntryDataWithWordMeta(1, 10, wm(-50, 1), wm(-40, 2)),
+                new EntryDataWithWordMeta(2, 20, wm(-50, 3)));
+        var second = List.of(
+                new EntryDataWithWordMeta(1, 10, wm(5, 4), wm(7, 5)),
+                new EntryDataWithWordMeta(3, 30, wm(5, 6)));
+        var third = List.of(
+                new EntryDataWithWordMeta(2, 20, wm(100, 7)),
+                new EntryDataWithWordMeta(3, 30, wm(100, 8), wm(200, 9)));
+
+        List<ReversePreindex> parts = new ArrayList<>();
+        for (var data : List.of(first, second, third)) {
+            var reader = journalFactory.createReader(data.toArray(EntryDataWithWordMeta[]::new));
+            parts.add(ReversePreindex.constructPreindex(reader, DocIdRewriter.identity(), tempDir));
+        }
+
+        var concatenated = ReversePreindex.concatenate(tempDir, parts);
+
+        var expected = getData(ReversePreindex.merge(tempDir, ReversePreindex.merge(tempDir, parts.get(0), parts.get(1)), parts.get(2)));
+
+        assertEquals(expected, getData(concatenated));
+    }
+
+    @Test
+    public void testConcatenateOutOfOrder() throws IOException {
+        var reader1 = journalFactory.createReader(new EntryDataWithWordMeta(1, 10, wm(5, 1)));
+        var reader2 = journalFactory.createReader(new EntryDataWithWordMeta(2, 20, wm(1, 2)));
+
+        var left = ReversePreindex.constructPreindex(reader1, DocIdRewriter.identity(), tempDir);
+        var right = ReversePreindex.constructPreindex(reader2, DocIdRewriter.identity(), tempDir);
+
+        assertThrows(IllegalArgumentException.class, () -> ReversePreindex.concatenate(tempDir, List.of(left, right)));
+    }
+
     public List<TestSegmentData> simulateMerge(
             Collection<EntryDataWithWordMeta> leftInputs,
             Collection<EntryDataWithWordMeta> rightInputs
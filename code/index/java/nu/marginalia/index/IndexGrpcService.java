@@ -255,11 +255,17 @@ public class IndexGrpcService extends IndexApiGrpc.IndexApiImplBase {
         /** Execute a search query */
         public SearchResultSet run(SearchParameters parameters) throws SQLException, InterruptedException {
 
+            // Variants matching the same documents are only looked up once, see SearchTerms.candidateKey()
+            Set<SearchTerms.CandidateKey> queriedTerms = new HashSet<>(parameters.subqueries.size());
+
             for (var subquery : parameters.subqueries) {
                 var terms = new SearchTerms(subquery);
                 if (terms.isEmpty())
                     continue;
 
+                if (!queriedTerms.add(terms.candidateKey()))
+                    continue;
+
                 for (var indexQuery : index.createQueries(terms, parameters.queryParams)) {
                     workerPool.execute(new IndexLookup(indexQuery, parameters.budget));
                 }
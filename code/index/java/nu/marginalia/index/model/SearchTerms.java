@@ -4,6 +4,7 @@ import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongComparator;
 import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import nu.marginalia.api.searchquery.model.query.SearchSubquery;
 
 import java.util.ArrayList;
@@ -80,6 +81,16 @@ public final class SearchTerms {
         return includes.size() + excludes.size() + priority.size();
     }
 
+    /** Identifies the documents the terms can match.  The index queries are made
+     * from the distinct includes and excludes only, so terms with equal keys
+     * match the same documents regardless of the order of the terms, their
+     * priority terms and coherences. */
+    public CandidateKey candidateKey() {
+        return new CandidateKey(new LongOpenHashSet(includes), new LongOpenHashSet(excludes));
+    }
+
+    public record CandidateKey(LongSet includes, LongSet excludes) {}
+
     public LongList includes() {
         return includes;
     }
@@ -20,6 +20,8 @@ import nu.marginalia.index.journal.writer.IndexJournalWriter;
 import nu.marginalia.index.query.limit.QueryLimits;
 import nu.marginalia.index.query.limit.QueryStrategy;
 import nu.marginalia.index.query.limit.SpecificationLimit;
+import nu.marginalia.index.results.IndexResultValuatorService;
+import nu.marginalia.index.searchset.SearchSetsService;
 import nu.marginalia.linkdb.docs.DocumentDbReader;
 import nu.marginalia.linkdb.docs.DocumentDbWriter;
 import nu.marginalia.linkdb.model.DocdbUrlDetail;
@@ -34,11 +36,13 @@ import nu.marginalia.process.control.FakeProcessHeartbeat;
 import nu.marginalia.process.control.ProcessHeartbeat;
 import nu.marginalia.index.domainrankings.DomainRankings;
 import nu.marginalia.service.control.ServiceHeartbeat;
+import nu.marginalia.service.module.ServiceConfiguration;
 import nu.marginalia.service.server.Initialization;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.parallel.Execution;
+import org.mockito.Mockito;
 
 import javax.annotation.CheckReturnValue;
 import java.io.IOException;
@@ -83,6 +87,13 @@ public class IndexQueryServiceIntegrationTest {
     @Inject
     DocumentDbReader documentDbReader;
 
+    @Inject
+    ServiceConfiguration serviceConfiguration;
+    @Inject
+    SearchSetsService searchSetsService;
+    @Inject
+    IndexResultValuatorService resultValuatorService;
+
     @BeforeEach
     public void setUp() throws IOException {
 
@@ -365,8 +376,60 @@ public class IndexQueryServiceIntegrationTest {
         }
     }
 
+    @Test
+    public void testDuplicateSubqueriesQueriedOnce() throws Exception {
+
+        // Query variants that only differ in term order, priority terms or coherences
+        // match the same documents, and should only be looked up in the index once
+        new MockData()
+                .add(
+                        d(1, 1),
+                        new MockDocumentMeta(0, new DocumentMetadata(2, 0, 14, EnumSet.noneOf(DocumentFlags.class))),
+                        w("hello", new WordMetadata(1L, EnumSet.noneOf(WordFlags.class)).encode()),
+                        w("world", new WordMetadata(1L, EnumSet.noneOf(WordFlags.class)).encode())
+                ).add(
+                        d(2, 2),
+                        new MockDocumentMeta(0, new DocumentMetadata(2, 0, 14, EnumSet.noneOf(DocumentFlags.class))),
+                        w("hello", new WordMetadata(1L, EnumSet.noneOf(WordFlags.class)).encode()),
+                        w("world", new WordMetadata(1L, EnumSet.noneOf(WordFlags.class)).encode()),
+                        w("there", new WordMetadata(1L, EnumSet.noneOf(WordFlags.class)).encode())
+                ).load();
+
+        var spiedIndex = Mockito.spy(statefulIndex);
+        var spiedService = new IndexGrpcService(serviceConfiguration, spiedIndex, searchSetsService, resultValuatorService);
+
+        var singleQuery = basicQuery(builder -> builder.subqueries(justInclude("hello", "world")));
+        var duplicatesQuery = basicQuery(builder -> builder.subqueries(List.of(
+                new SearchSubquery(List.of("hello", "world"), List.of(), List.of(), List.of(), List.of()),
+                new SearchSubquery(List.of("world", "hello"), List.of(), List.of(), List.of(), List.of()),
+                new SearchSubquery(List.of("hello", "world"), List.of(), List.of(), List.of("there"), List.of(List.of("hello", "world")))
+        )));
+        var distinctQuery = basicQuery(builder -> builder.subqueries(List.of(
+                new SearchSubquery(List.of("hello", "world"), List.of(), List.of(), List.of(), List.of()),
+                new SearchSubquery(List.of("hello", "world", "there"), List.of(), List.of(), List.of(), List.of())
+        )));
+
+        var expectedDocs = new HashSet<>(executeSearch(spiedService, singleQuery).actual);
+        assertEquals(Set.of(d(1, 1), d(2, 2)), expectedDocs);
+
+        Mockito.clearInvocations(spiedIndex);
+        executeSearch(spiedService, duplicatesQuery)
+                .expectDocumentInAnyOrder(d(1, 1), d(2, 2));
+        Mockito.verify(spiedIndex, Mockito.times(1)).createQueries(Mockito.any(), Mockito.any());
+
+        Mockito.clearInvocations(spiedIndex);
+        executeSearch(spiedService, distinctQuery)
+                .expectDocumentInAnyOrder(d(1, 1), d(2, 2));
+        Mockito.verify(spiedIndex, Mockito.times(2)).createQueries(Mockito.any(), Mockito.any());
+    }
+
     @CheckReturnValue
     ResultWrapper executeSearch(SearchSpecification searchSpecification) {
+        return executeSearch(queryService, searchSpecification);
+    }
+
+    @CheckReturnValue
+    ResultWrapper executeSearch(IndexGrpcService queryService, SearchSpecification searchSpecification) {
         var rsp = queryService.justQuery(searchSpecification);
 
         List<MockDataDocument> actual = new ArrayList<>();
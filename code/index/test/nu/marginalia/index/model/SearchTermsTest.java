@@ -0,0 +1,24 @@
+package nu.marginalia.index.model;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchTermsTest {
+
+    @Test
+    void candidateKey() {
+        var terms = new SearchTerms(LongList.of(1, 2, 3), LongList.of(4), new LongArrayList(), List.of());
+        var reordered = new SearchTerms(LongList.of(3, 1, 2, 1), LongList.of(4), LongList.of(5), List.of(LongList.of(1, 2)));
+        var otherIncludes = new SearchTerms(LongList.of(1, 2), LongList.of(4), new LongArrayList(), List.of());
+        var otherExcludes = new SearchTerms(LongList.of(1, 2, 3), new LongArrayList(), new LongArrayList(), List.of());
+
+        assertEquals(terms.candidateKey(), reordered.candidateKey());
+        assertNotEquals(terms.candidateKey(), otherIncludes.candidateKey());
+        assertNotEquals(terms.candidateKey(), otherExcludes.candidateKey());
+    }
+}
@@ -0,0 +1,135 @@
+package nu.marginalia.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs a sequence of tasks in parallel on a shared pool, while handing their results
+ * to a consumer on the submitting thread in the order the tasks were submitted.
+ * <p>
+ * At most windowSize tasks are in flight at any time, and the first inlineThreshold
+ * tasks are run directly on the submitting thread, so that short sequences don't pay
+ * the cost of handing work off to the pool.
+ * <p>
+ * Tasks that throw are logged and skipped, as with ProcessingIterator, and null results
+ * are not passed to the consumer.
+ * The window is not thread safe and must only be used from a single thread.
+ */
+public class OrderedProcessingWindow<T> {
+    private static final Logger logger = LoggerFactory.getLogger(OrderedProcessingWindow.class);
+
+    private final ExecutorService executor;
+    private final int windowSize;
+    private final int inlineThreshold;
+    private final Consumer<T> consumer;
+
+    private final ArrayDeque<Future<T>> inFlight = new ArrayDeque<>();
+    private int submitted = 0;
+
+    OrderedProcessingWindow(ExecutorService executor, int windowSize, int inlineThreshold, Consumer<T> consumer) {
+        this.executor = executor;
+        this.windowSize = windowSize;
+        this.inlineThreshold = inlineThreshold;
+        this.consumer = consumer;
+    }
+
+    public static Factory factory(String name, int parallelism, int windowSize, int inlineThreshold) {
+        return new Factory(name, parallelism, windowSize, inlineThreshold);
+    }
+
+    /** Submit a task.  This may block, and results of this or earlier tasks
+     * may be handed to the consumer before this method returns. */
+    public void submit(ProcessingIterator.Task<T> task) throws InterruptedException {
+        if (submitted++ < inlineThreshold) {
+            runInline(task);
+            return;
+        }
+
+        inFlight.addLast(executor.submit(task::get));
+
+        while (inFlight.size() >= windowSize) {
+            consumeNext();
+        }
+
+        // Hand off whatever is already done, to keep the consumer busy
+        while (!inFlight.isEmpty() && inFlight.peekFirst().isDone()) {
+            consumeNext();
+        }
+    }
+
+    /** Wait for all submitted tasks, and hand their results to the consumer */
+    public void finish() throws InterruptedException {
+        while (!inFlight.isEmpty()) {
+            consumeNext();
+        }
+    }
+
+    /** Cancel any tasks that are still in flight, without consuming their results */
+    public void abort() {
+        for (var future : inFlight) {
+            future.cancel(true);
+        }
+        inFlight.clear();
+    }
+
+    private void runInline(ProcessingIterator.Task<T> task) {
+        T result;
+        try {
+            result = task.get();
+        }
+        catch (Exception ex) {
+            logger.warn("Exception while processing", ex);
+            return;
+        }
+
+        if (result != null) {
+            consumer.accept(result);
+        }
+    }
+
+    private void consumeNext() throws InterruptedException {
+        var future = inFlight.pollFirst();
+        if (future == null)
+            return;
+
+        T result;
+        try {
+            result = future.get();
+        }
+        catch (ExecutionException ex) {
+            logger.warn("Exception while processing", ex.getCause());
+            return;
+        }
+
+        if (result != null) {
+            consumer.accept(result);
+        }
+    }
+
+    public static class Factory {
+        private final ExecutorService executor;
+        private final int windowSize;
+        private final int inlineThreshold;
+
+        Factory(String name, int parallelism, int windowSize, int inlineThreshold) {
+            AtomicInteger threadNum = new AtomicInteger();
+
+            this.executor = Executors.newFixedThreadPool(parallelism, r -> {
+                var thread = new Thread(r, name + "[" + threadNum.getAndIncrement() + "]");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.windowSize = windowSize;
+            this.inlineThreshold = inlineThreshold;
+        }
+
+        public <T> OrderedProcessingWindow<T> create(Consumer<T> consumer) {
+            return new OrderedProcessingWindow<>(executor, windowSize, inlineThreshold, consumer);
+        }
+    }
+}
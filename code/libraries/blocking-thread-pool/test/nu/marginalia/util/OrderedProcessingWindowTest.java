@@ -0,0 +1,59 @@
+package nu.marginalia.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OrderedProcessingWindowTest {
+
+    @Test
+    public void testOrdering() throws InterruptedException {
+        List<Integer> output = new ArrayList<>();
+
+        var window = OrderedProcessingWindow.factory("test", 4, 16, 100)
+                .create(output::add);
+
+        for (int i = 0; i < 10_000; i++) {
+            int j = i;
+            window.submit(() -> task(j));
+        }
+        window.finish();
+
+        assertEquals(10_000, output.size());
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, output.get(i));
+        }
+    }
+
+    @Test
+    public void testFailingTasksAreSkipped() throws InterruptedException {
+        List<Integer> output = new ArrayList<>();
+
+        var window = OrderedProcessingWindow.factory("test", 4, 16, 10)
+                .<Integer>create(output::add);
+
+        for (int i = 0; i < 100; i++) {
+            int j = i;
+            window.submit(() -> {
+                if (j % 10 == 0) throw new IllegalStateException();
+                return j;
+            });
+        }
+        window.finish();
+
+        assertEquals(90, output.size());
+        for (int i = 1; i < output.size(); i++) {
+            assertEquals(true, output.get(i - 1) < output.get(i));
+        }
+    }
+
+    int task(int n) throws InterruptedException {
+        TimeUnit.MICROSECONDS.sleep(ThreadLocalRandom.current().nextInt(10));
+        return n;
+    }
+}
@@ -0,0 +1,259 @@
+package nu.marginalia.lsh;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Index of 64 bit LSH hashes, for finding hashes within a small hamming
+ * distance of each other without comparing against every hash in the index.
+ * <p>
+ * This is multi-index hashing: the hash is split into maxDistance+1 bands, and
+ * each band is indexed separately.  Two hashes that differ in at most maxDistance bits
+ * must by the pigeonhole principle agree exactly on at least one band, so only the
+ * hashes that share a band value with the query need to be compared.
+ * <p>
+ * The index is thread safe.  Each band is split into independently locked stripes,
+ * and an insertion only locks the one stripe per band that the hash maps to, so
+ * threads rarely contend.  Since near duplicates share a band value and thus a stripe,
+ * they can't both be added by concurrent calls to addIfNoneWithin().
+ * <p>
+ * A bounded index limits the number of hashes held in each stripe, discarding the
+ * contents of a stripe when it fills up.  Lookups may then miss hashes that were
+ * added a long time ago, but memory usage stays fixed.
+ *
+ * @see EasyLSH
+ */
+public class LshIndex {
+    private static final int STRIPES_PER_BAND = 64;
+
+    private final int maxDistance;
+    private final int[] bandShift;
+    private final long[] bandMask;
+
+    private final Stripe[][] stripes;
+    private final ReentrantLock[][] locks;
+
+    /** Create an unbounded index
+     *
+     * @param maxDistance the largest hamming distance considered a match
+     */
+    public LshIndex(int maxDistance) {
+        this(maxDistance, Integer.MAX_VALUE);
+    }
+
+    /** Create an index that holds approximately at most maxEntries entries.
+     * <p>
+     * Each hash is stored once per band, so the index holds about maxEntries / (maxDistance + 1)
+     * hashes.  An entry is a long and an occupancy flag in a table kept at most half full,
+     * so a full index takes around 30 bytes per entry.
+     *
+     * @param maxDistance the largest hamming distance considered a match
+     */
+    public static LshIndex bounded(int maxDistance, int maxEntries) {
+        return new LshIndex(maxDistance, Math.max(16, maxEntries / (maxDistance + 1) / STRIPES_PER_BAND));
+    }
+
+    private LshIndex(int maxDistance, int maxStripeSize) {
+        if (maxDistance < 0 || maxDistance > 31) {
+            throw new IllegalArgumentException("maxDistance must be between 0 and 31");
+        }
+
+        this.maxDistance = maxDistance;
+
+        int bands = maxDistance + 1;
+
+        bandShift = new int[bands];
+        bandMask = new long[bands];
+        stripes = new Stripe[bands][STRIPES_PER_BAND];
+        locks = new ReentrantLock[bands][STRIPES_PER_BAND];
+
+        for (int band = 0; band < bands; band++) {
+            int start = band * 64 / bands;
+            int end = (band + 1) * 64 / bands;
+            int width = end - start;
+
+            bandShift[band] = start;
+            bandMask[band] = width == 64 ? -1L : (1L << width) - 1;
+
+            for (int i = 0; i < STRIPES_PER_BAND; i++) {
+                stripes[band][i] = new Stripe(band, maxStripeSize);
+                locks[band][i] = new ReentrantLock();
+            }
+        }
+    }
+
+    /** Add the hash to the index, unless the index already holds a hash within
+     * maxDistance of it.
+     *
+     * @return true if the hash was added
+     */
+    public boolean addIfNoneWithin(long hash) {
+        final int bands = bandShift.length;
+        final int[] stripeIdx = new int[bands];
+
+        for (int band = 0; band < bands; band++) {
+            stripeIdx[band] = stripeIndex(bandValue(band, hash));
+        }
+
+        // Locks are always taken in band order, so this can't deadlock
+        for (int band = 0; band < bands; band++) {
+            locks[band][stripeIdx[band]].lock();
+        }
+
+        try {
+            for (int band = 0; band < bands; band++) {
+                if (stripes[band][stripeIdx[band]].containsWithin(hash)) {
+                    return false;
+                }
+            }
+
+            for (int band = 0; band < bands; band++) {
+                stripes[band][stripeIdx[band]].add(hash);
+            }
+
+            return true;
+        }
+        finally {
+            for (int band = bands - 1; band >= 0; band--) {
+                locks[band][stripeIdx[band]].unlock();
+            }
+        }
+    }
+
+    /** Returns true if the index holds a hash within maxDistance of the given hash */
+    public boolean containsWithin(long hash) {
+        for (int band = 0; band < bandShift.length; band++) {
+            int idx = stripeIndex(bandValue(band, hash));
+
+            var lock = locks[band][idx];
+            lock.lock();
+            try {
+                if (stripes[band][idx].containsWithin(hash)) {
+                    return true;
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        return false;
+    }
+
+    /** Remove all hashes from the index, releasing their memory */
+    public void clear() {
+        for (int band = 0; band < bandShift.length; band++) {
+            for (int i = 0; i < STRIPES_PER_BAND; i++) {
+                var lock = locks[band][i];
+                lock.lock();
+                try {
+                    stripes[band][i].reset();
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private long bandValue(int band, long hash) {
+        return (hash >>> bandShift[band]) & bandMask[band];
+    }
+
+    private static int stripeIndex(long bandValue) {
+        return (int) (mix(bandValue) >>> 58); // top 6 bits; 64 stripes
+    }
+
+    /** The murmur3 finalizer */
+    private static long mix(long v) {
+        v ^= v >>> 33;
+        v *= 0xff51afd7ed558ccdL;
+        v ^= v >>> 33;
+        v *= 0xc4ceb9fe1a85ec53L;
+        v ^= v >>> 33;
+        return v;
+    }
+
+    /** Open addressing multimap from a band value to the hashes with that band value.
+     * Only the full hashes are stored, as the band value can be recomputed from them. */
+    private class Stripe {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final int band;
+        private final int maxSize;
+
+        private long[] hashes;
+        private boolean[] occupied;
+        private int size;
+
+        Stripe(int band, int maxSize) {
+            this.band = band;
+            this.maxSize = maxSize;
+            reset();
+        }
+
+        void reset() {
+            hashes = new long[INITIAL_CAPACITY];
+            occupied = new boolean[INITIAL_CAPACITY];
+            size = 0;
+        }
+
+        boolean containsWithin(long hash) {
+            final long bandValue = bandValue(band, hash);
+            final int mask = hashes.length - 1;
+
+            for (int slot = slot(bandValue, mask); occupied[slot]; slot = (slot + 1) & mask) {
+                long candidate = hashes[slot];
+
+                if (bandValue(band, candidate) == bandValue
+                        && EasyLSH.hammingDistance(hash, candidate) <= maxDistance)
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        void add(long hash) {
+            if (size >= maxSize) {
+                reset();
+            }
+            else if (2 * (size + 1) > hashes.length) {
+                grow();
+            }
+
+            insert(hash);
+            size++;
+        }
+
+        private void insert(long hash) {
+            final int mask = hashes.length - 1;
+
+            int slot = slot(bandValue(band, hash), mask);
+            while (occupied[slot]) {
+                slot = (slot + 1) & mask;
+            }
+
+            hashes[slot] = hash;
+            occupied[slot] = true;
+        }
+
+        private void grow() {
+            long[] oldHashes = hashes;
+            boolean[] oldOccupied = occupied;
+
+            hashes = new long[oldHashes.length * 2];
+            occupied = new boolean[oldHashes.length * 2];
+
+            for (int i = 0; i < oldHashes.length; i++) {
+                if (oldOccupied[i]) {
+                    insert(oldHashes[i]);
+                }
+            }
+        }
+
+        private int slot(long bandValue, int mask) {
+            // The low bits of the mixed value, as the high bits select the stripe
+            return (int) mix(bandValue) & mask;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package nu.marginalia.lsh;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LshIndexTest {
+
+    @Test
+    public void testFindsWithinDistance() {
+        var index = new LshIndex(2);
+
+        long hash = 0x0123_4567_89AB_CDEFL;
+        assertTrue(index.addIfNoneWithin(hash));
+
+        // Any hash within two bits is a match, whichever bands the differences fall in
+        for (int i = 0; i < 64; i++) {
+            for (int j = i; j < 64; j++) {
+                long other = hash ^ (1L << i) ^ (1L << j);
+                assertTrue(index.containsWithin(other));
+                assertFalse(index.addIfNoneWithin(other));
+            }
+        }
+
+        assertFalse(index.containsWithin(hash ^ 0b111));
+        assertTrue(index.addIfNoneWithin(hash ^ 0b111));
+    }
+
+    @Test
+    public void testAgainstLinearScan() {
+        var index = new LshIndex(1);
+        var rng = new Random(1234);
+
+        List<Long> kept = new ArrayList<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            long hash = rng.nextLong();
+
+            // Produce some near-duplicates of earlier hashes
+            if (!kept.isEmpty() && rng.nextInt(4) == 0) {
+                hash = kept.get(rng.nextInt(kept.size())) ^ (1L << rng.nextInt(64));
+            }
+
+            final long h = hash;
+            boolean expected = kept.stream().noneMatch(k -> EasyLSH.hammingDistance(h, k) <= 1);
+
+            assertEquals(expected, index.addIfNoneWithin(hash));
+
+            if (expected) {
+                kept.add(hash);
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentNearDuplicates() {
+        var index = new LshIndex(1);
+        var added = new ConcurrentLinkedQueue<Long>();
+
+        // Each base hash is submitted in 8 variants within distance 1 of each other
+        IntStream.range(0, 8 * 1000).parallel().forEach(i -> {
+            long base = (i / 8) * 0x9E37_79B9_7F4A_7C15L;
+            long hash = (i % 8 == 0) ? base : base ^ (1L << (i % 8));
+
+            if (index.addIfNoneWithin(hash)) {
+                added.add(hash);
+            }
+        });
+
+        for (long a : added) {
+            for (long b : added) {
+                if (a != b) {
+                    assertTrue(EasyLSH.hammingDistance(a, b) > 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBounded() {
+        var index = LshIndex.bounded(1, 1024);
+        var rng = new Random(1234);
+
+        for (int i = 0; i < 100_000; i++) {
+            index.addIfNoneWithin(rng.nextLong());
+        }
+
+        long recent = rng.nextLong();
+        assertTrue(index.addIfNoneWithin(recent));
+        assertTrue(index.containsWithin(recent));
+
+        index.clear();
+        assertFalse(index.containsWithin(recent));
+    }
+}
@@ -4,10 +4,13 @@ import nu.marginalia.WmsaHome;
 import nu.marginalia.geoip.sources.AsnMapping;
 import nu.marginalia.geoip.sources.AsnTable;
 import nu.marginalia.geoip.sources.IP2LocationMapping;
+import nu.marginalia.geoip.sources.IpAddressParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Optional;
 
 public class GeoIpDictionary {
@@ -24,7 +27,8 @@ public class GeoIpDictionary {
             logger.info("Loaded ASN table");
             this.asnMapping = new AsnMapping(WmsaHome.getAsnMappingDatabase());
             logger.info("Loaded ASN mapping");
-            this.ip2locMapping = new IP2LocationMapping(WmsaHome.getIPLocationDatabse());
+            this.ip2locMapping = new IP2LocationMapping(getIPLocationDatabase());
+            logger.info("Loaded IP2Location mapping");
 
             ready = true;
 
@@ -34,6 +38,16 @@ public class GeoIpDictionary {
         });
     }
 
+    /** Prefer the IPv6 edition of the IP2Location database if it is installed,
+     * as it covers IPv4 addresses as well */
+    private static Path getIPLocationDatabase() {
+        Path ipv6Database = WmsaHome.getIPv6LocationDatabase();
+        if (Files.exists(ipv6Database)) {
+            return ipv6Database;
+        }
+        return WmsaHome.getIPLocationDatabse();
+    }
+
     public boolean isReady() {
         return ready;
     }
@@ -68,16 +82,21 @@ public class GeoIpDictionary {
     }
 
     public Optional<AsnTable.AsnInfo> getAsnInfo(String ip) {
-        try {
-            return getAsnInfo(InetAddress.getByName(ip));
-        } catch (Exception e) {
-            e.printStackTrace();
+        long ipv4 = IpAddressParser.parseIPv4(ip);
+        if (ipv4 != IpAddressParser.NOT_IPV4) {
+            return getAsnInfo((int) ipv4);
+        }
+
+        var address = IpAddressParser.parseIPv6(ip);
+        if (address == null) {
             return Optional.empty();
         }
+
+        return getAsnInfo(address);
     }
 
     public Optional<AsnTable.AsnInfo> getAsnInfo(int ipAddress) {
-        if (null == asnTable) { // not loaded yet or failed to load
+        if (null == asnTable || null == asnMapping) { // not loaded yet or failed to load
             return Optional.empty();
         }
 
@@ -87,10 +106,12 @@ public class GeoIpDictionary {
     }
 
     public Optional<AsnTable.AsnInfo> getAsnInfo(InetAddress address) {
-        byte[] bytes = address.getAddress();
-
-        int ival = (int) (((long)bytes[0]&0xFF) << 24 | ((long)bytes[1]&0xFF) << 16 | ((long)bytes[2]&0xFF)<< 8 | ((long)bytes[3]&0xFF));
+        if (null == asnTable || null == asnMapping) { // not loaded yet or failed to load
+            return Optional.empty();
+        }
 
-        return getAsnInfo(ival);
+        return asnMapping
+                .getAsnNumber(address)
+                .flatMap(asn -> asnTable.getAsnInfo(asn));
     }
 }
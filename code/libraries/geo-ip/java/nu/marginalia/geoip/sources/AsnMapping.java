@@ -4,27 +4,54 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.Inet6Address;
+import java.net.InetAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
 
+/** Mapping from IP address to ASN, loaded from a table of CIDR blocks and ASNs.
+ * <p></p>
+ * The blocks may be nested, in which case the most specific block is used.  The parsed
+ * table is cached next to the database file, see IpRangeTable.
+ */
 public class AsnMapping {
     private static final Logger logger = LoggerFactory.getLogger(AsnMapping.class);
-    private final IpRangeMapping<Integer> ranges = new IpRangeMapping<>();
+    private final IpRangeTable ranges;
 
     public AsnMapping(Path databaseFile) {
-        try (var reader = Files.lines(databaseFile)) {
-            reader.forEach(this::parseAsnMappingFileLine);
+        IpRangeTable table;
+        try {
+            table = IpRangeTable.loadCached(databaseFile, AsnMapping::parse);
         } catch (Exception e) {
             logger.error("Failed to load ASN mapping" + databaseFile, e);
+            table = IpRangeTable.empty();
         }
+        ranges = table;
     }
 
     public Optional<Integer> getAsnNumber(int ip) {
-        return ranges.get(ip);
+        return asOptional(ranges.get(ip));
+    }
+
+    public Optional<Integer> getAsnNumber(InetAddress address) {
+        return asOptional(ranges.get(address));
     }
 
-    private void parseAsnMappingFileLine(String s) {
+    private Optional<Integer> asOptional(int asn) {
+        if (asn == IpRangeTable.NO_VALUE) {
+            return Optional.empty();
+        }
+        return Optional.of(asn);
+    }
+
+    private static void parse(Path databaseFile, IpRangeTable.Builder builder) throws Exception {
+        try (var reader = Files.lines(databaseFile)) {
+            reader.forEach(line -> parseAsnMappingFileLine(line, builder));
+        }
+    }
+
+    private static void parseAsnMappingFileLine(String s, IpRangeTable.Builder builder) {
         try {
             String[] parts = StringUtils.split(s, '\t');
             if (parts.length != 2) {
@@ -37,24 +64,30 @@ public class AsnMapping {
                 return;
             }
 
-            // Parse IP address and subnet mask
-            String[] ipParts = StringUtils.split(cidrParts[0], '.');
             int ipMask = Integer.parseInt(cidrParts[1]);
+            int asn = Integer.parseInt(parts[1]);
 
-            // Convert subnet mask to integer start and end values
-            int ipStart = 0;
-            int ipEnd = 0;
-            for (int i = 0; i < 4; i++) {
-                int ipByte = Integer.parseInt(ipParts[i]);
-                ipStart |= ipByte << (24 - 8 * i);
-                ipEnd |= ipByte << (24 - 8 * i);
-            }
-            ipStart &= 0xFFFFFFFF << (32 - ipMask);
-            ipEnd |= 0xFFFFFFFF >>> ipMask;
+            long ipv4 = IpAddressParser.parseIPv4(cidrParts[0]);
+            if (ipv4 != IpAddressParser.NOT_IPV4) {
+                // Convert subnet mask to integer start and end values
+                int ipStart = (int) ipv4;
+                int ipEnd = (int) ipv4;
 
+                if (ipMask > 0) ipStart &= 0xFFFFFFFF << (32 - ipMask);
+                else ipStart = 0;
+                ipEnd |= (int) (0xFFFFFFFFL >>> ipMask);
 
-            ranges.add(ipStart, ipEnd, Integer.parseInt(parts[1]));
+                builder.addIPv4(ipStart, ipEnd, asn);
+            }
+            else if (IpAddressParser.parseIPv6(cidrParts[0]) instanceof Inet6Address address) {
+                long hi = IpAddressParser.highBits(address);
+                long lo = IpAddressParser.lowBits(address);
+
+                long maskHi = ipMask >= 64 ? -1L : (ipMask == 0 ? 0 : -1L << (64 - ipMask));
+                long maskLo = ipMask <= 64 ? 0 : -1L << (128 - ipMask);
 
+                builder.addIPv6(hi & maskHi, lo & maskLo, hi | ~maskHi, lo | ~maskLo, asn);
+            }
         }
         catch (Exception ex) {
             logger.warn("Failed to parse ASN mapping line: {}", s);
@@ -1,30 +1,49 @@
 package nu.marginalia.geoip.sources;
 
-import nu.marginalia.WmsaHome;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Objects;
 import java.util.Optional;
 
+/** Information about autonomous systems, sorted by ASN
+ * in flat arrays rather than a map of boxed numbers */
 public class AsnTable {
-    public HashMap<Integer, AsnInfo> asns = new HashMap<>(65536);
+    private final int[] asns;
+    private final AsnInfo[] infos;
+
     public record AsnInfo(int asn, String country, String org) {}
     private static final Logger logger = LoggerFactory.getLogger(AsnTable.class);
 
     public AsnTable(Path asnFile) {
-        try (var reader = Files.lines(WmsaHome.getAsnInfoDatabase())) {
-            reader.map(AsnTable::parseAsnFileLine).filter(Objects::nonNull).forEach(asn -> asns.put(asn.asn(), asn));
+        AsnInfo[] parsed = new AsnInfo[0];
+
+        try (var reader = Files.lines(asnFile)) {
+            parsed = reader.map(AsnTable::parseAsnFileLine)
+                    .filter(Objects::nonNull)
+                    .sorted(Comparator.comparingInt(AsnInfo::asn))
+                    .toArray(AsnInfo[]::new);
         } catch (Exception e) {
             logger.error("Failed to load ASN database " + asnFile, e);
         }
+
+        infos = parsed;
+        asns = new int[infos.length];
+        for (int i = 0; i < infos.length; i++) {
+            asns[i] = infos[i].asn();
+        }
     }
 
     public Optional<AsnInfo> getAsnInfo(int asn) {
-        return Optional.ofNullable(asns.get(asn));
+        int idx = Arrays.binarySearch(asns, asn);
+        if (idx < 0) {
+            return Optional.empty();
+        }
+        return Optional.of(infos[idx]);
     }
 
     static AsnInfo parseAsnFileLine(String line) {
@@ -4,17 +4,37 @@ import com.opencsv.CSVReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.math.BigInteger;
 import java.net.InetAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
 /** Load an IP2LOCATION LITE database file and provide a method to look up the country for an IP address.
+ * <p></p>
+ * Both the IPv4 and the IPv6 editions of the database are supported, the IPv6 edition
+ * is recognized by its file name.  The parsed database is cached next to the database file,
+ * see IpRangeTable.
  */
 public class IP2LocationMapping {
     private static final Logger logger = LoggerFactory.getLogger(IP2LocationMapping.class);
-    private final IpRangeMapping<String> ranges = new IpRangeMapping<>();
+    private static final BigInteger LOW_BITS = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+    private final IpRangeTable ranges;
 
     public IP2LocationMapping(Path filename) {
+        IpRangeTable table;
+        try {
+            table = IpRangeTable.loadCached(filename, IP2LocationMapping::parse);
+        } catch (Exception e) {
+            logger.info("Failed to load IP2Location database " + filename, e);
+            table = IpRangeTable.empty();
+        }
+        ranges = table;
+    }
+
+    private static void parse(Path filename, IpRangeTable.Builder builder) throws Exception {
+        boolean isIPv6 = filename.getFileName().toString().toUpperCase().contains("IPV6");
+
         try (var reader = new CSVReader(Files.newBufferedReader(filename))) {
             for (;;) {
                 String[] vals = reader.readNext();
@@ -22,22 +42,50 @@ public class IP2LocationMapping {
                     break;
                 }
 
-                ranges.add(Integer.parseUnsignedInt(vals[0]), Integer.parseUnsignedInt(vals[1]), vals[2]);
+                int country = builder.label(vals[2]);
+
+                if (isIPv6) {
+                    var start = new BigInteger(vals[0]);
+                    var end = new BigInteger(vals[1]);
+
+                    builder.addIPv6(start.shiftRight(64).longValue(), start.and(LOW_BITS).longValue(),
+                                    end.shiftRight(64).longValue(), end.and(LOW_BITS).longValue(),
+                                    country);
+                }
+                else {
+                    builder.addIPv4(Integer.parseUnsignedInt(vals[0]), Integer.parseUnsignedInt(vals[1]), country);
+                }
             }
-        } catch (Exception e) {
-            logger.info("Failed to load IP2Location database " + filename, e);
         }
     }
 
     public String getCountry(String ip) {
-        try {
-            return getCountry(InetAddress.getByName(ip));
-        } catch (Exception e) {
+        long ipv4 = IpAddressParser.parseIPv4(ip);
+        if (ipv4 != IpAddressParser.NOT_IPV4) {
+            return getCountry((int) ipv4);
+        }
+
+        var address = IpAddressParser.parseIPv6(ip);
+        if (address == null) {
             return "";
         }
+
+        return getCountry(address);
+    }
+
+    public String getCountry(int ip) {
+        return labelOrEmpty(ranges.get(ip));
     }
 
     public String getCountry(InetAddress address) {
-        return ranges.get(address).orElse("");
+        return labelOrEmpty(ranges.get(address));
+    }
+
+    private String labelOrEmpty(int value) {
+        String label = ranges.getLabel(value);
+        if (label == null) {
+            return "";
+        }
+        return label;
     }
 }
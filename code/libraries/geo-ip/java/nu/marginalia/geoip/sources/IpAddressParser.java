@@ -0,0 +1,93 @@
+package nu.marginalia.geoip.sources;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/** Conversions from textual and InetAddress representations of IP addresses
+ * to the raw integer form used by IpRangeTable.
+ */
+public class IpAddressParser {
+    /** Returned by parseIPv4 when the string is not a dotted quad IPv4 address */
+    public static final long NOT_IPV4 = -1;
+
+    /** Parse a dotted quad IPv4 address, e.g. "127.0.0.1", without allocating.
+     *
+     * @return the address as an unsigned 32 bit value, or NOT_IPV4 if the string
+     * is not an IPv4 address
+     */
+    public static long parseIPv4(CharSequence address) {
+        final int length = address.length();
+        if (length < 7 || length > 15) {
+            return NOT_IPV4;
+        }
+
+        long ip = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = address.charAt(i);
+
+            if (c == '.') {
+                if (digits == 0 || octet > 255 || ++dots > 3) {
+                    return NOT_IPV4;
+                }
+                ip = (ip << 8) | octet;
+                octet = 0;
+                digits = 0;
+            }
+            else if (c >= '0' && c <= '9') {
+                if (++digits > 3) {
+                    return NOT_IPV4;
+                }
+                octet = octet * 10 + (c - '0');
+            }
+            else {
+                return NOT_IPV4;
+            }
+        }
+
+        if (dots != 3 || digits == 0 || octet > 255) {
+            return NOT_IPV4;
+        }
+
+        return (ip << 8) | octet;
+    }
+
+    /** Parse an IPv6 address literal.  Unlike InetAddress.getByName(), this never
+     * resolves host names.
+     *
+     * @return the address, or null if the string is not an IPv6 address literal
+     */
+    public static InetAddress parseIPv6(String address) {
+        // Host names can't contain a colon, so InetAddress will parse this as a literal
+        if (address.indexOf(':') < 0) {
+            return null;
+        }
+
+        try {
+            return InetAddress.getByName(address);
+        }
+        catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /** Returns the address as an unsigned 32 bit value */
+    public static int toInt(Inet4Address address) {
+        return ByteBuffer.wrap(address.getAddress()).getInt();
+    }
+
+    /** Returns the high 64 bits of the address */
+    public static long highBits(Inet6Address address) {
+        return ByteBuffer.wrap(address.getAddress()).getLong(0);
+    }
+
+    /** Returns the low 64 bits of the address */
+    public static long lowBits(Inet6Address address) {
+        return ByteBuffer.wrap(address.getAddress()).getLong(8);
+    }
+}
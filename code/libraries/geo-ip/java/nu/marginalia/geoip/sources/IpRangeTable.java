@@ -0,0 +1,447 @@
+package nu.marginalia.geoip.sources;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/** Table of disjoint IPv4 and IPv6 address ranges, each mapped to an int value,
+ * kept off-heap in a memory mapped file.
+ * <p></p>
+ * The ranges are sorted by their first address, and stored as separate arrays of
+ * start addresses, end addresses and values.  A lookup is a branch-free binary search
+ * in the start addresses.  Addresses are stored with their sign bit flipped, so they
+ * sort correctly as signed numbers.
+ * <p></p>
+ * Values may optionally refer to a table of string labels, e.g. country codes.
+ * <p></p>
+ * File format, all numbers little endian:
+ * <pre>
+ * header:    MAGIC, int v4Count, int v6Count, int labelCount, padding to 32 bytes
+ * v6 ranges: long startHi[v6Count], long startLo[v6Count], long endHi[v6Count], long endLo[v6Count]
+ * v4 ranges: int start[v4Count], int end[v4Count]
+ * values:    int v4Values[v4Count], int v6Values[v6Count]
+ * labels:    (int length, UTF-8 bytes)[labelCount]
+ * </pre>
+ */
+public class IpRangeTable {
+    /** Returned by lookups when the address isn't in any range */
+    public static final int NO_VALUE = -1;
+
+    private static final Logger logger = LoggerFactory.getLogger(IpRangeTable.class);
+
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    static final long MAGIC = 0x31454741_524E5049L; // "IPRANGE1"
+    static final int HEADER_SIZE = 32;
+
+    private final MemorySegment segment;
+
+    private final int v4Count;
+    private final int v6Count;
+
+    private final long v6StartHi;
+    private final long v6StartLo;
+    private final long v6EndHi;
+    private final long v6EndLo;
+    private final long v4Start;
+    private final long v4End;
+    private final long v4Values;
+    private final long v6Values;
+
+    private final String[] labels;
+
+    private IpRangeTable(MemorySegment segment) throws IOException {
+        if (segment.byteSize() < HEADER_SIZE || segment.get(LONG, 0) != MAGIC) {
+            throw new IOException("Not an IP range table");
+        }
+
+        this.segment = segment;
+
+        v4Count = segment.get(INT, 8);
+        v6Count = segment.get(INT, 12);
+        int labelCount = segment.get(INT, 16);
+
+        v6StartHi = HEADER_SIZE;
+        v6StartLo = v6StartHi + 8L * v6Count;
+        v6EndHi = v6StartLo + 8L * v6Count;
+        v6EndLo = v6EndHi + 8L * v6Count;
+        v4Start = v6EndLo + 8L * v6Count;
+        v4End = v4Start + 4L * v4Count;
+        v4Values = v4End + 4L * v4Count;
+        v6Values = v4Values + 4L * v4Count;
+
+        labels = new String[labelCount];
+
+        long pos = v6Values + 4L * v6Count;
+        for (int i = 0; i < labelCount; i++) {
+            int length = segment.get(INT, pos);
+            labels[i] = new String(segment.asSlice(pos + 4, length).toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+            pos += 4 + length;
+        }
+    }
+
+    /** Memory map a table previously written with save() */
+    public static IpRangeTable load(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new IpRangeTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto()));
+        }
+    }
+
+    /** Load the table for a source file from a cache file next to it, or parse the source
+     * file and create the cache if it is missing or older than the source.
+     * <p></p>
+     * If the cache can't be written, the parsed table is used from memory.
+     */
+    public static IpRangeTable loadCached(Path sourceFile, SourceParser parser) throws Exception {
+        Path cacheFile = sourceFile.resolveSibling(sourceFile.getFileName() + ".ranges");
+
+        if (Files.exists(cacheFile)
+            && Files.getLastModifiedTime(cacheFile).compareTo(Files.getLastModifiedTime(sourceFile)) >= 0)
+        {
+            try {
+                return load(cacheFile);
+            }
+            catch (IOException ex) {
+                logger.warn("Failed to load {}, rebuilding", cacheFile, ex);
+            }
+        }
+
+        var builder = new Builder();
+        parser.parse(sourceFile, builder);
+        var table = builder.build();
+
+        try {
+            table.save(cacheFile);
+        }
+        catch (IOException ex) {
+            logger.warn("Failed to save {}", cacheFile, ex);
+        }
+
+        return table;
+    }
+
+    public interface SourceParser {
+        void parse(Path sourceFile, Builder builder) throws Exception;
+    }
+
+    /** Returns an empty table */
+    public static IpRangeTable empty() {
+        return new Builder().build();
+    }
+
+    /** Write the table to a file.  The file is replaced atomically. */
+    public void save(Path file) throws IOException {
+        Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+
+        try (var channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            var buffer = segment.asByteBuffer();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        catch (IOException ex) {
+            Files.deleteIfExists(tempFile);
+            throw ex;
+        }
+
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Returns the value of the range holding the address, or NO_VALUE */
+    public int get(InetAddress address) {
+        if (address instanceof Inet4Address v4) {
+            return get(IpAddressParser.toInt(v4));
+        }
+        else if (address instanceof Inet6Address v6) {
+            return get(IpAddressParser.highBits(v6), IpAddressParser.lowBits(v6));
+        }
+        return NO_VALUE;
+    }
+
+    /** Returns the value of the range holding the IPv4 address, or NO_VALUE */
+    public int get(int ip) {
+        if (v4Count == 0) {
+            return NO_VALUE;
+        }
+
+        final int key = ip ^ Integer.MIN_VALUE;
+
+        // Find the last range starting at or before the key
+        long base = 0;
+        for (long n = v4Count; n > 1; ) {
+            long half = n >>> 1;
+            base = segment.get(INT, v4Start + 4 * (base + half)) <= key ? base + half : base;
+            n -= half;
+        }
+
+        if (segment.get(INT, v4Start + 4 * base) > key
+         || segment.get(INT, v4End + 4 * base) < key) {
+            return NO_VALUE;
+        }
+
+        return segment.get(INT, v4Values + 4 * base);
+    }
+
+    /** Returns the value of the range holding the IPv6 address, or NO_VALUE.
+     * IPv4-mapped addresses are looked up among the IPv4 ranges. */
+    public int get(long high, long low) {
+        if (isIPv4Mapped(high, low)) {
+            return get((int) low);
+        }
+
+        if (v6Count == 0) {
+            return NO_VALUE;
+        }
+
+        final long keyHi = high ^ Long.MIN_VALUE;
+        final long keyLo = low ^ Long.MIN_VALUE;
+
+        long base = 0;
+        for (long n = v6Count; n > 1; ) {
+            long half = n >>> 1;
+            long i = base + half;
+
+            long startHi = segment.get(LONG, v6StartHi + 8 * i);
+            long startLo = segment.get(LONG, v6StartLo + 8 * i);
+
+            // non-short-circuiting operators to keep the loop free of branches
+            boolean startsBefore = startHi < keyHi | (startHi == keyHi & startLo <= keyLo);
+
+            base = startsBefore ? i : base;
+            n -= half;
+        }
+
+        long startHi = segment.get(LONG, v6StartHi + 8 * base);
+        long startLo = segment.get(LONG, v6StartLo + 8 * base);
+        long endHi = segment.get(LONG, v6EndHi + 8 * base);
+        long endLo = segment.get(LONG, v6EndLo + 8 * base);
+
+        if (startHi > keyHi || (startHi == keyHi && startLo > keyLo)
+         || endHi < keyHi || (endHi == keyHi && endLo < keyLo)) {
+            return NO_VALUE;
+        }
+
+        return segment.get(INT, v6Values + 4 * base);
+    }
+
+    /** Returns the label with the given id, or null if the value is not a label id */
+    public String getLabel(int value) {
+        if (value < 0 || value >= labels.length) {
+            return null;
+        }
+        return labels[value];
+    }
+
+    public int v4RangeCount() {
+        return v4Count;
+    }
+
+    public int v6RangeCount() {
+        return v6Count;
+    }
+
+    static boolean isIPv4Mapped(long high, long low) {
+        return high == 0 && (low >>> 32) == 0xFFFFL;
+    }
+
+    /** Builds an IpRangeTable from ranges in any order.
+     * <p></p>
+     * Ranges may overlap, in which case the more specific range, the one starting
+     * later, takes precedence, like a longest prefix match among CIDR blocks.
+     * The ends of the ranges are inclusive.
+     */
+    public static class Builder {
+        private final List<Range> v4Ranges = new ArrayList<>();
+        private final List<Range> v6Ranges = new ArrayList<>();
+
+        private final List<String> labels = new ArrayList<>();
+        private final Map<String, Integer> labelIds = new HashMap<>();
+
+        /** Returns the value to use for the label */
+        public int label(String label) {
+            return labelIds.computeIfAbsent(label, l -> {
+                labels.add(l);
+                return labels.size() - 1;
+            });
+        }
+
+        public Builder addIPv4(int start, int end, int value) {
+            if (Integer.compareUnsigned(start, end) <= 0) {
+                v4Ranges.add(new Range(0, Integer.toUnsignedLong(start), 0, Integer.toUnsignedLong(end), value));
+            }
+            return this;
+        }
+
+        /** Add an IPv6 range, ranges of IPv4-mapped addresses are added as IPv4 ranges */
+        public Builder addIPv6(long startHi, long startLo, long endHi, long endLo, int value) {
+            if (isIPv4Mapped(startHi, startLo) && isIPv4Mapped(endHi, endLo)) {
+                return addIPv4((int) startLo, (int) endLo, value);
+            }
+
+            var range = new Range(startHi, startLo, endHi, endLo, value);
+            if (compare(range.startHi, range.startLo, range.endHi, range.endLo) <= 0) {
+                v6Ranges.add(range);
+            }
+            return this;
+        }
+
+        public IpRangeTable build() {
+            var v4 = flatten(v4Ranges);
+            var v6 = flatten(v6Ranges);
+
+            byte[][] labelBytes = new byte[labels.size()][];
+            long labelsSize = 0;
+            for (int i = 0; i < labelBytes.length; i++) {
+                labelBytes[i] = labels.get(i).getBytes(StandardCharsets.UTF_8);
+                labelsSize += 4 + labelBytes[i].length;
+            }
+
+            long size = HEADER_SIZE + 36L * v6.size() + 12L * v4.size() + labelsSize;
+
+            MemorySegment segment = Arena.ofAuto().allocate(size, 8);
+
+            segment.set(LONG, 0, MAGIC);
+            segment.set(INT, 8, v4.size());
+            segment.set(INT, 12, v6.size());
+            segment.set(INT, 16, labelBytes.length);
+
+            long pos = HEADER_SIZE;
+            for (var r : v6) { segment.set(LONG, pos, r.startHi ^ Long.MIN_VALUE); pos += 8; }
+            for (var r : v6) { segment.set(LONG, pos, r.startLo ^ Long.MIN_VALUE); pos += 8; }
+            for (var r : v6) { segment.set(LONG, pos, r.endHi ^ Long.MIN_VALUE); pos += 8; }
+            for (var r : v6) { segment.set(LONG, pos, r.endLo ^ Long.MIN_VALUE); pos += 8; }
+            for (var r : v4) { segment.set(INT, pos, (int) r.startLo ^ Integer.MIN_VALUE); pos += 4; }
+            for (var r : v4) { segment.set(INT, pos, (int) r.endLo ^ Integer.MIN_VALUE); pos += 4; }
+            for (var r : v4) { segment.set(INT, pos, r.value); pos += 4; }
+            for (var r : v6) { segment.set(INT, pos, r.value); pos += 4; }
+
+            for (var bytes : labelBytes) {
+                segment.set(INT, pos, bytes.length);
+                MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, pos + 4, bytes.length);
+                pos += 4 + bytes.length;
+            }
+
+            try {
+                return new IpRangeTable(segment);
+            }
+            catch (IOException ex) { // can't happen, we just wrote the header
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        /** Turn possibly overlapping ranges into sorted disjoint ranges, where an address
+         * gets the value of the innermost range containing it */
+        static List<Range> flatten(List<Range> ranges) {
+            ranges.sort(Comparator.<Range>comparingLong(r -> r.startHi ^ Long.MIN_VALUE)
+                    .thenComparingLong(r -> r.startLo ^ Long.MIN_VALUE)
+                    .thenComparing((a, b) -> compare(b.endHi, b.endLo, a.endHi, a.endLo)));
+
+            var flattener = new Flattener(ranges.size());
+
+            for (var range : ranges) {
+                flattener.accept(range);
+            }
+
+            return flattener.finish();
+        }
+    }
+
+    /** Sweeps over ranges sorted by start, keeping a stack of the ranges
+     * holding the current position */
+    private static class Flattener {
+        private final List<Range> out;
+        private final Deque<Range> stack = new ArrayDeque<>();
+
+        // Addresses before the cursor have been emitted
+        private long cursorHi = 0;
+        private long cursorLo = 0;
+        private boolean exhausted = false;
+
+        Flattener(int expectedSize) {
+            out = new ArrayList<>(expectedSize);
+        }
+
+        void accept(Range range) {
+            while (!stack.isEmpty() && compare(stack.peek().endHi, stack.peek().endLo, range.startHi, range.startLo) < 0) {
+                emitRest(stack.pop());
+            }
+
+            if (!stack.isEmpty() && !exhausted && compare(cursorHi, cursorLo, range.startHi, range.startLo) < 0) {
+                // The part of the enclosing range before this range
+                long endLo = range.startLo - 1;
+                long endHi = range.startLo == 0 ? range.startHi - 1 : range.startHi;
+                emit(stack.peek(), endHi, endLo);
+            }
+
+            if (compare(cursorHi, cursorLo, range.startHi, range.startLo) < 0) {
+                cursorHi = range.startHi;
+                cursorLo = range.startLo;
+            }
+
+            stack.push(range);
+        }
+
+        List<Range> finish() {
+            while (!stack.isEmpty()) {
+                emitRest(stack.pop());
+            }
+            return out;
+        }
+
+        private void emitRest(Range range) {
+            if (!exhausted && compare(cursorHi, cursorLo, range.endHi, range.endLo) <= 0) {
+                emit(range, range.endHi, range.endLo);
+            }
+        }
+
+        /** Emit the part of the range from the cursor to the given end, and move the cursor past it */
+        private void emit(Range range, long endHi, long endLo) {
+            var last = out.isEmpty() ? null : out.getLast();
+
+            if (last != null && last.value == range.value
+                && last.endLo + 1 == cursorLo && (last.endLo == -1 ? last.endHi + 1 : last.endHi) == cursorHi)
+            {
+                // Adjacent to the previous range with the same value, merge them
+                out.set(out.size() - 1, new Range(last.startHi, last.startLo, endHi, endLo, range.value));
+            }
+            else {
+                out.add(new Range(cursorHi, cursorLo, endHi, endLo, range.value));
+            }
+
+            if (endHi == -1 && endLo == -1) {
+                exhausted = true;
+            }
+            else {
+                cursorLo = endLo + 1;
+                cursorHi = endLo == -1 ? endHi + 1 : endHi;
+            }
+        }
+    }
+
+    /** An inclusive range of unsigned 128 bit addresses, IPv4 addresses have startHi = endHi = 0 */
+    record Range(long startHi, long startLo, long endHi, long endLo, int value) {}
+
+    /** Compare two unsigned 128 bit numbers */
+    private static int compare(long aHi, long aLo, long bHi, long bLo) {
+        int cmp = Long.compareUnsigned(aHi, bHi);
+        if (cmp != 0)
+            return cmp;
+        return Long.compareUnsigned(aLo, bLo);
+    }
+}
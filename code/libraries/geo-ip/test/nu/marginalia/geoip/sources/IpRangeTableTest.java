@@ -0,0 +1,135 @@
+package nu.marginalia.geoip.sources;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IpRangeTableTest {
+
+    private static int ip(String dottedQuad) {
+        return (int) IpAddressParser.parseIPv4(dottedQuad);
+    }
+
+    @Test
+    public void testParseIPv4() {
+        assertEquals(0x7F000001L, IpAddressParser.parseIPv4("127.0.0.1"));
+        assertEquals(0xFFFFFFFFL, IpAddressParser.parseIPv4("255.255.255.255"));
+        assertEquals(0L, IpAddressParser.parseIPv4("0.0.0.0"));
+
+        assertEquals(IpAddressParser.NOT_IPV4, IpAddressParser.parseIPv4("256.0.0.1"));
+        assertEquals(IpAddressParser.NOT_IPV4, IpAddressParser.parseIPv4("1.2.3"));
+        assertEquals(IpAddressParser.NOT_IPV4, IpAddressParser.parseIPv4("1.2.3.4.5"));
+        assertEquals(IpAddressParser.NOT_IPV4, IpAddressParser.parseIPv4("1..2.3"));
+        assertEquals(IpAddressParser.NOT_IPV4, IpAddressParser.parseIPv4("www.example.com"));
+        assertEquals(IpAddressParser.NOT_IPV4, IpAddressParser.parseIPv4("::1"));
+    }
+
+    @Test
+    public void testIPv4() {
+        var table = new IpRangeTable.Builder()
+                .addIPv4(ip("10.0.0.0"), ip("10.255.255.255"), 1)
+                .addIPv4(ip("192.168.0.0"), ip("192.168.255.255"), 2)
+                .addIPv4(ip("255.0.0.0"), ip("255.255.255.255"), 3)
+                .build();
+
+        assertEquals(IpRangeTable.NO_VALUE, table.get(ip("9.255.255.255")));
+        assertEquals(1, table.get(ip("10.0.0.0")));
+        assertEquals(1, table.get(ip("10.1.2.3")));
+        assertEquals(1, table.get(ip("10.255.255.255")));
+        assertEquals(IpRangeTable.NO_VALUE, table.get(ip("11.0.0.0")));
+        assertEquals(2, table.get(ip("192.168.1.1")));
+        assertEquals(3, table.get(ip("255.255.255.255")));
+        assertEquals(IpRangeTable.NO_VALUE, table.get(ip("0.0.0.0")));
+    }
+
+    @Test
+    public void testNestedRanges() {
+        var table = new IpRangeTable.Builder()
+                .addIPv4(ip("10.0.0.0"), ip("10.255.255.255"), 1)
+                .addIPv4(ip("10.1.0.0"), ip("10.1.255.255"), 2)
+                .addIPv4(ip("10.1.1.0"), ip("10.1.1.255"), 3)
+                .addIPv4(ip("10.2.0.0"), ip("10.2.255.255"), 4)
+                .build();
+
+        assertEquals(1, table.get(ip("10.0.0.1")));
+        assertEquals(2, table.get(ip("10.1.0.1")));
+        assertEquals(3, table.get(ip("10.1.1.1")));
+        assertEquals(2, table.get(ip("10.1.2.1")));
+        assertEquals(4, table.get(ip("10.2.0.1")));
+        assertEquals(1, table.get(ip("10.3.0.1")));
+        assertEquals(1, table.get(ip("10.255.255.255")));
+    }
+
+    @Test
+    public void testIPv6() throws Exception {
+        var table = new IpRangeTable.Builder()
+                .addIPv6(0x2001_0db8_0000_0000L, 0, 0x2001_0db8_ffff_ffffL, -1L, 1)
+                .addIPv6(0, 0xFFFF_0000_0000L, 0, 0xFFFF_FFFF_FFFFL, 2) // all IPv4-mapped addresses
+                .build();
+
+        assertEquals(1, table.v6RangeCount());
+        assertEquals(1, table.v4RangeCount());
+
+        assertEquals(1, table.get(InetAddress.getByName("2001:db8::1")));
+        assertEquals(1, table.get(InetAddress.getByName("2001:db8:ffff:ffff:ffff:ffff:ffff:ffff")));
+        assertEquals(IpRangeTable.NO_VALUE, table.get(InetAddress.getByName("2001:db9::1")));
+        assertEquals(IpRangeTable.NO_VALUE, table.get(InetAddress.getByName("::1")));
+
+        assertEquals(2, table.get(InetAddress.getByName("127.0.0.1")));
+        assertEquals(2, table.get(0, 0xFFFF_7F00_0001L));
+    }
+
+    @Test
+    public void testLabels() {
+        var builder = new IpRangeTable.Builder();
+        builder.addIPv4(ip("1.0.0.0"), ip("1.0.0.255"), builder.label("AU"));
+        builder.addIPv4(ip("1.0.1.0"), ip("1.0.3.255"), builder.label("CN"));
+        builder.addIPv4(ip("1.0.4.0"), ip("1.0.7.255"), builder.label("AU"));
+
+        var table = builder.build();
+
+        assertEquals("AU", table.getLabel(table.get(ip("1.0.0.1"))));
+        assertEquals("CN", table.getLabel(table.get(ip("1.0.2.1"))));
+        assertEquals("AU", table.getLabel(table.get(ip("1.0.5.1"))));
+        assertNull(table.getLabel(table.get(ip("2.0.0.1"))));
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        var builder = new IpRangeTable.Builder();
+        var expected = new TreeMap<Long, Integer>();
+
+        // Random disjoint ranges
+        var rand = new Random(1234);
+        long pos = 0;
+        for (int i = 0; i < 1000; i++) {
+            long start = pos + rand.nextInt(1 << 20);
+            long end = start + rand.nextInt(1 << 20);
+            builder.addIPv4((int) start, (int) end, i);
+            expected.put(start, i);
+            expected.put(end, i);
+            pos = end + 1;
+        }
+        builder.addIPv6(0x2001_0db8_0000_0000L, 0, 0x2001_0db8_0000_0000L, 0xFFFFL, builder.label("XX"));
+
+        var file = Files.createTempFile(getClass().getSimpleName(), ".ranges");
+        try {
+            builder.build().save(file);
+            var table = IpRangeTable.load(file);
+
+            for (var entry : expected.entrySet()) {
+                assertEquals((int) entry.getValue(), table.get(entry.getKey().intValue()));
+            }
+
+            assertEquals("XX", table.getLabel(table.get(0x2001_0db8_0000_0000L, 0x1234)));
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+}
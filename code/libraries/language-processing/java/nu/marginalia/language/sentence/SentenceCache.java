@@ -0,0 +1,84 @@
+package nu.marginalia.language.sentence;
+
+import nu.marginalia.language.model.DocumentSentence;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Size-bounded LRU cache of analyzed sentences.
+ * <p></p>
+ * Pages on the same site repeat the same navigation, footer and sidebar text, and
+ * tokenizing, tagging and stemming these sentences again for every page is wasted effort.
+ * The analysis of a sentence does not depend on the rest of the document, so the result
+ * can be reused as-is.
+ * <p></p>
+ * Like SentenceExtractor, the cache is not thread safe.  Each extractor has its own
+ * cache, and since the documents of a domain are processed together, it will mostly
+ * hold the boilerplate of the sites currently being processed.  Hit rate statistics are
+ * gathered across all caches.
+ */
+public class SentenceCache {
+    /** Sentences longer than this are unlikely to be boilerplate, and are not cached */
+    private static final int MAX_CACHED_SENTENCE_LENGTH = 256;
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private final Map<String, DocumentSentence> cache;
+    private final int maxSize;
+
+    public SentenceCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<>(Math.min(maxSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DocumentSentence> eldest) {
+                return size() > SentenceCache.this.maxSize;
+            }
+        };
+    }
+
+    @Nullable
+    public DocumentSentence get(String sentence) {
+        if (!isCacheable(sentence))
+            return null;
+
+        var ret = cache.get(sentence);
+
+        if (ret != null) hits.increment();
+        else misses.increment();
+
+        return ret;
+    }
+
+    /** Add a sentence to the cache.  The sentence must not be modified afterwards,
+     * as it will be shared between documents. */
+    public void put(String sentence, DocumentSentence analyzed) {
+        if (isCacheable(sentence)) {
+            cache.put(sentence, analyzed);
+        }
+    }
+
+    private boolean isCacheable(String sentence) {
+        return maxSize > 0 && sentence.length() <= MAX_CACHED_SENTENCE_LENGTH;
+    }
+
+    public static Statistics getStatistics() {
+        return new Statistics(hits.sum(), misses.sum());
+    }
+
+    public record Statistics(long hits, long misses) {
+        public double hitRate() {
+            long total = hits + misses;
+            if (total == 0)
+                return 0.;
+            return hits / (double) total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits, %d misses, hit rate %.1f%%", hits, misses, 100 * hitRate());
+        }
+    }
+}
@@ -12,7 +12,6 @@ import opennlp.tools.stemmer.PorterStemmer;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,6 +43,11 @@ public class SentenceExtractor {
     private static final int MAX_SENTENCE_LENGTH = 250;
     private static final int MAX_TEXT_LENGTH = 65536;
 
+    private static final int SENTENCE_CACHE_SIZE = Integer.getInteger("language.sentenceCacheSize", 4096);
+
+    /** Analyzed sentences, reused across documents to avoid re-analyzing boilerplate text */
+    private final SentenceCache sentenceCache = new SentenceCache(SENTENCE_CACHE_SIZE);
+
     @SneakyThrows @Inject
     public SentenceExtractor(LanguageModels models) {
         try (InputStream modelIn = new FileInputStream(models.openNLPSentenceDetectionData.toFile())) {
@@ -67,13 +71,13 @@ public class SentenceExtractor {
     }
 
     public DocumentLanguageData extractSentences(Document doc) {
-        var clone = doc.clone();
-        tagCleaner.clean(clone);
+        // The tag cleaner reads the document as it would look after cleaning, rather than
+        // cleaning a copy, as cloning the document is a significant cost for large pages
 
-        final String text = asText(clone);
+        final String text = asText(doc);
         final DocumentSentence[] textSentences = extractSentencesFromString(text);
 
-        String title = getTitle(clone, textSentences);
+        String title = getTitle(doc, textSentences);
 
         TObjectIntHashMap<String> counts = calculateWordCounts(textSentences);
         var titleSentences = extractSentencesFromString(title.toLowerCase());
@@ -89,11 +93,15 @@ public class SentenceExtractor {
     }
 
     private String getTitle(Document doc, DocumentSentence[] textSentences) {
-        String title = doc.getElementsByTag("title").text() + " . "  +
-                Optional.ofNullable(doc.getElementsByTag("h1").first()).map(Element::text).orElse("");
+        String title = tagCleaner.cleanedText(doc.getElementsByTag("title")) + " . "  +
+                doc.getElementsByTag("h1").stream()
+                        .filter(h1 -> !tagCleaner.isRemoved(h1))
+                        .findFirst()
+                        .map(tagCleaner::cleanedText)
+                        .orElse("");
 
         if (title.trim().length() < 3) {
-            title = doc.getElementsByTag("h2").text();
+            title = tagCleaner.cleanedText(doc.getElementsByTag("h2"));
         }
 
         if (title.trim().length() < 3) {
@@ -148,56 +156,49 @@ public class SentenceExtractor {
 
         sentences = sentencePrecleaner.clean(sentences);
 
-        final String[][] tokens = new String[sentences.length][];
-        final int[][] separators = new int[sentences.length][];
-        final String[][] posTags = new String[sentences.length][];
-        final String[][] tokensLc = new String[sentences.length][];
-        final String[][] stemmedWords = new String[sentences.length][];
-
-        for (int i = 0; i < tokens.length; i++) {
-
-            var wordsAndSeps = SentenceSegmentSplitter.splitSegment(sentences[i]);
-            tokens[i] = wordsAndSeps.words;
-            separators[i] = wordsAndSeps.separators;
+        DocumentSentence[] ret = new DocumentSentence[sentences.length];
+        for (int i = 0; i < ret.length; i++) {
+            DocumentSentence sentence = sentenceCache.get(sentences[i]);
 
-            if (tokens[i].length > MAX_SENTENCE_LENGTH) {
-                tokens[i] = Arrays.copyOf(tokens[i], MAX_SENTENCE_LENGTH);
-                separators[i] = Arrays.copyOf(separators[i], MAX_SENTENCE_LENGTH);
+            if (sentence == null) {
+                sentence = analyzeSentence(sentences[i]);
+                sentenceCache.put(sentences[i], sentence);
             }
 
-            for (int j = 0; j < tokens[i].length; j++) {
-                while (tokens[i][j].endsWith(".")) {
-                    tokens[i][j] = StringUtils.removeEnd(tokens[i][j], ".");
-                }
+            if (i == 0) {
+                // Only the first sentence retains its original form, which is specific to this
+                // document, so it gets its own copy
+                ret[i] = new DocumentSentence(SentenceExtractorStringUtils.sanitizeString(sentences[i]),
+                        sentence.words, sentence.separators, sentence.wordsLowerCase, sentence.posTags, sentence.stemmedWords);
+            }
+            else {
+                ret[i] = sentence;
             }
         }
+        return ret;
+    }
 
-        for (int i = 0; i < tokens.length; i++) {
-            posTags[i] = rdrposTagger.tagsForEnSentence(tokens[i]);
-        }
+    private DocumentSentence analyzeSentence(String sentence) {
+        var wordsAndSeps = SentenceSegmentSplitter.splitSegment(sentence);
+        String[] tokens = wordsAndSeps.words;
+        int[] separators = wordsAndSeps.separators;
 
-        for (int i = 0; i < tokens.length; i++) {
-            tokensLc[i] = SentenceExtractorStringUtils.toLowerCaseStripPossessive(tokens[i]);
+        if (tokens.length > MAX_SENTENCE_LENGTH) {
+            tokens = Arrays.copyOf(tokens, MAX_SENTENCE_LENGTH);
+            separators = Arrays.copyOf(separators, MAX_SENTENCE_LENGTH);
         }
 
-        for (int i = 0; i < tokens.length; i++) {
-            stemmedWords[i] = stemSentence(tokensLc[i]);
+        for (int j = 0; j < tokens.length; j++) {
+            while (tokens[j].endsWith(".")) {
+                tokens[j] = StringUtils.removeEnd(tokens[j], ".");
+            }
         }
 
-        DocumentSentence[] ret = new DocumentSentence[sentences.length];
-        for (int i = 0; i < ret.length; i++) {
-            String fullString;
+        String[] posTags = rdrposTagger.tagsForEnSentence(tokens);
+        String[] tokensLc = SentenceExtractorStringUtils.toLowerCaseStripPossessive(tokens);
+        String[] stemmedWords = stemSentence(tokensLc);
 
-            if (i == 0) {
-                fullString = SentenceExtractorStringUtils.sanitizeString(sentences[i]);
-            }
-            else {
-                fullString = "";
-            }
-
-            ret[i] = new DocumentSentence(fullString, tokens[i], separators[i], tokensLc[i], posTags[i], stemmedWords[i]);
-        }
-        return ret;
+        return new DocumentSentence("", tokens, separators, tokensLc, posTags, stemmedWords);
     }
 
     private String[] stemSentence(String[] strings) {
@@ -215,7 +216,7 @@ public class SentenceExtractor {
     }
 
     public String asText(Document dc) {
-        String text = dc.getElementsByTag("body").text();
+        String text = tagCleaner.cleanedText(dc.getElementsByTag("body"));
 
         if (text.length() > MAX_TEXT_LENGTH) {
             return text.substring(0, MAX_TEXT_LENGTH);
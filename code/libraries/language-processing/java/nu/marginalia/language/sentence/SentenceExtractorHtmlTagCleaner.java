@@ -1,14 +1,22 @@
 package nu.marginalia.language.sentence;
 
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.TextNode;
+import org.jsoup.internal.StringUtil;
+import org.jsoup.nodes.*;
+import org.jsoup.select.Elements;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.NodeTraversor;
 
+import java.util.Set;
 import java.util.regex.Pattern;
 
 public class SentenceExtractorHtmlTagCleaner {
     public final int MAX_CODE_TAG_LENGTH = 32;
     public final Pattern codeTagJunkPattern = Pattern.compile("(\\.|&lt;|&gt;|<|>|\\([^)]*\\)[;]?$)");
 
+    private static final Set<String> removedTags = Set.of("nav", "form", "input", "code");
+    private static final Set<String> periodAppendedTags = Set.of("li", "h1", "h2", "h3", "h4", "h5", "h6", "td", "th", "p", "div", "title");
+    private static final Set<String> periodPrependedTags = Set.of("br", "hr");
+
     public void clean(Document doc) {
         cleanCodeTags(doc);
 
@@ -20,6 +28,58 @@ public class SentenceExtractorHtmlTagCleaner {
         doc.select("br,hr").forEach(e -> e.prependText(". "));
     }
 
+    /** Returns the text of the element as it would read after clean() had been run on
+     * its document, without modifying or copying the document.
+     * <p></p>
+     * The element itself is assumed not to be removed by clean(), see isRemoved().
+     */
+    public String cleanedText(Element element) {
+        var filter = new CleanedTextFilter();
+        NodeTraversor.filter(filter, element);
+        return filter.accum.toString().trim();
+    }
+
+    /** Equivalent of Elements.text() on the cleaned document, elements
+     * that clean() would remove are skipped */
+    public String cleanedText(Elements elements) {
+        StringBuilder sb = new StringBuilder();
+
+        for (var element : elements) {
+            if (isRemoved(element))
+                continue;
+
+            if (!sb.isEmpty())
+                sb.append(' ');
+            sb.append(cleanedText(element));
+        }
+
+        return sb.toString();
+    }
+
+    /** Returns true if clean() would remove the element, or one of its ancestors,
+     * from the document */
+    public boolean isRemoved(Element element) {
+        for (Element e = element; e != null; e = e.parent()) {
+            if (isRemovedTag(e))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isRemovedTag(Element e) {
+        String name = e.normalName();
+
+        if (removedTags.contains(name))
+            return true;
+
+        if ("title".equals(name)) {
+            var parent = e.parent();
+            return parent != null && "body".equals(parent.normalName());
+        }
+
+        return false;
+    }
+
     private void cleanCodeTags(Document doc) {
         for (var codeTag : doc.getElementsByTag("code")) {
             var text = codeTag.text();
@@ -37,4 +97,99 @@ public class SentenceExtractorHtmlTagCleaner {
     private String trimCodeTagContents(String text) {
         return codeTagJunkPattern.matcher(text).replaceAll(" ");
     }
+
+    /** Mirrors jsoup's Element.text(), as it would behave on the document after clean() */
+    private class CleanedTextFilter implements NodeFilter {
+        final StringBuilder accum = new StringBuilder();
+
+        @Override
+        public FilterResult head(Node node, int depth) {
+            if (node instanceof TextNode tn) {
+                appendText(tn.getWholeText(), tn.parentNode(), tn instanceof CDataNode);
+            }
+            else if (node instanceof Element el) {
+                if (isRemovedTag(el)) {
+                    if (isShortCodeTag(el)) {
+                        // clean() replaces these with a text node holding their trimmed contents
+                        appendText(trimCodeTagContents(el.text()), el.parentNode(), false);
+                    }
+                    return FilterResult.SKIP_ENTIRELY;
+                }
+
+                if (!accum.isEmpty()
+                        && (el.isBlock() || "br".equals(el.normalName()))
+                        && !lastCharIsWhitespace())
+                {
+                    accum.append(' ');
+                }
+
+                if (periodPrependedTags.contains(el.normalName())) {
+                    appendText(". ", el, false);
+                }
+            }
+
+            return FilterResult.CONTINUE;
+        }
+
+        @Override
+        public FilterResult tail(Node node, int depth) {
+            if (node instanceof Element el) {
+                if (periodAppendedTags.contains(el.normalName())) {
+                    appendText(". ", el, false);
+                }
+
+                if (el.isBlock() && isFollowedByText(el) && !lastCharIsWhitespace()) {
+                    accum.append(' ');
+                }
+            }
+
+            return FilterResult.CONTINUE;
+        }
+
+        /** Returns true if the next sibling of the element in the cleaned document is a text node */
+        private boolean isFollowedByText(Element el) {
+            for (Node next = el.nextSibling(); next != null; next = next.nextSibling()) {
+                if (next instanceof TextNode) {
+                    return true;
+                }
+                if (!(next instanceof Element nextEl) || !isRemovedTag(nextEl)) {
+                    return false;
+                }
+                if (isShortCodeTag(nextEl)) {
+                    return true;
+                }
+            }
+
+            // clean() appends a text node to the end of these elements
+            return el.parent() != null && periodAppendedTags.contains(el.parent().normalName());
+        }
+
+        private boolean isShortCodeTag(Element el) {
+            return "code".equals(el.normalName()) && el.text().length() <= MAX_CODE_TAG_LENGTH;
+        }
+
+        private void appendText(String text, Node parent, boolean isCData) {
+            if (isCData || preserveWhitespace(parent)) {
+                accum.append(text);
+            }
+            else {
+                StringUtil.appendNormalisedWhitespace(accum, text, lastCharIsWhitespace());
+            }
+        }
+
+        private boolean preserveWhitespace(Node node) {
+            if (!(node instanceof Element el))
+                return false;
+
+            for (int i = 0; i < 6 && el != null; i++, el = el.parent()) {
+                if (el.tag().preserveWhitespace())
+                    return true;
+            }
+            return false;
+        }
+
+        private boolean lastCharIsWhitespace() {
+            return !accum.isEmpty() && accum.charAt(accum.length() - 1) == ' ';
+        }
+    }
 }
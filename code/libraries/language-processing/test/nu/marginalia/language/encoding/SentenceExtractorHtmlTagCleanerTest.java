@@ -25,4 +25,29 @@ class SentenceExtractorHtmlTagCleanerTest {
         assertEquals("hello", cleanTag("<code>hello(p,q)</code>"));
         assertEquals("hello", cleanTag("<code>hello(p,q);</code>"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCleanedTextMatchesClean() {
+        String html = """
+                <html><head><title>Hello</title></head>
+                <body><title>Stray</title><h1>Head <span>line</span></h1>
+                <div>One</div>Two<p>Three<br>four<hr>five</p>
+                <nav>navigation</nav><ul><li>a<li>b</ul>
+                <code>foo.bar()</code> after <pre>  keep   this </pre>
+                <code>a very long code tag that is removed entirely</code>
+                <table><tr><td>x</td><td>y</td></tr></table>
+                <form><input>z</form><div><p>in</p></div>tail</body></html>
+                """;
+
+        var doc = Jsoup.parse(html);
+        var clone = doc.clone();
+        tagCleaner.clean(clone);
+
+        assertEquals(clone.getElementsByTag("body").text(), tagCleaner.cleanedText(doc.getElementsByTag("body")));
+        assertEquals(clone.getElementsByTag("title").text(), tagCleaner.cleanedText(doc.getElementsByTag("title")));
+        assertEquals(clone.getElementsByTag("h1").text(), tagCleaner.cleanedText(doc.getElementsByTag("h1")));
+
+        // the document itself should not be modified
+        assertEquals(Jsoup.parse(html).html(), doc.html());
+    }
+}
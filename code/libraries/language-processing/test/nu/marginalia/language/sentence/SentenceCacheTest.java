@@ -0,0 +1,49 @@
+package nu.marginalia.language.sentence;
+
+import nu.marginalia.language.model.DocumentSentence;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SentenceCacheTest {
+
+    private DocumentSentence sentence(String... words) {
+        return new DocumentSentence("", words, new int[words.length], words, new String[words.length], words);
+    }
+
+    @Test
+    void testLru() {
+        var cache = new SentenceCache(2);
+
+        var a = sentence("a");
+        var b = sentence("b");
+
+        cache.put("a", a);
+        cache.put("b", b);
+
+        assertSame(a, cache.get("a")); // a is now the most recently used entry
+
+        cache.put("c", sentence("c"));
+
+        assertSame(a, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    void testDisabled() {
+        var cache = new SentenceCache(0);
+
+        cache.put("a", sentence("a"));
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    void testLongSentencesNotCached() {
+        var cache = new SentenceCache(10);
+        String longSentence = "word ".repeat(100);
+
+        cache.put(longSentence, sentence("word"));
+        assertNull(cache.get(longSentence));
+    }
+}
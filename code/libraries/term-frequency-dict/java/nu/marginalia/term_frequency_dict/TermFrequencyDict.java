@@ -1,7 +1,6 @@
 package nu.marginalia.term_frequency_dict;
 
 import ca.rmen.porterstemmer.PorterStemmer;
-import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import lombok.SneakyThrows;
 import nu.marginalia.LanguageModels;
 import nu.marginalia.array.LongArray;
@@ -18,11 +17,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 
 /** Dictionary with term frequency information for (stemmed) words.
- *
+ * <p></p>
+ * The dictionary is a memory mapped TermFrequencyTable that is queried in place.
+ * Dictionaries in the legacy format, a flat list of (hash, count) pairs, are
+ * converted once into a table file next to the legacy file.
  */
 @Singleton
 public class TermFrequencyDict {
-    private final Long2IntOpenHashMap wordRates;
+    private final TermFrequencyTable wordRates;
     private static final Logger logger = LoggerFactory.getLogger(TermFrequencyDict.class);
     private static final PorterStemmer ps = new PorterStemmer();
 
@@ -40,22 +42,36 @@ public class TermFrequencyDict {
         logger.info("Read {} N-grams frequencies", wordRates.size());
     }
 
-    private static Long2IntOpenHashMap load(Path file) throws IOException {
-        try (LongArray array = LongArrayFactory.mmapForReadingConfined(file)) {
+    private static TermFrequencyTable load(Path file) throws IOException {
+        if (TermFrequencyTable.isTableFile(file)) {
+            return TermFrequencyTable.load(file);
+        }
+
+        Path tableFile = file.resolveSibling(file.getFileName() + ".table");
 
-            int size = (int) Files.size(file) / 16;
-            var ret = new Long2IntOpenHashMap(size, 0.5f);
+        return TermFrequencyTable.loadOrBuild(file, tableFile, 0, dest -> convertLegacy(file, dest));
+    }
 
-            ret.defaultReturnValue(0);
+    /** Convert a legacy dictionary, (hash, count) pairs of longs, to a TermFrequencyTable */
+    private static void convertLegacy(Path legacyFile, Path tableFile) throws IOException {
+        logger.info("Converting legacy term frequency dictionary {}", legacyFile);
 
-            for (int i = 0; i < size; i++) {
-                ret.put(array.get(2 * i), (int) array.get(2 * i + 1));
-            }
+        try (LongArray array = LongArrayFactory.mmapForReadingConfined(legacyFile)) {
+            long size = Files.size(legacyFile) / 16;
 
-            return ret;
+            try (var writer = TermFrequencyTable.writer(tableFile, size)) {
+                for (long i = 0; i < size; i++) {
+                    writer.put(array.get(2 * i), (int) array.get(2 * i + 1));
+                }
+            }
         }
     }
 
+    /** The underlying table, e.g. for building derived tables from the dictionary */
+    public TermFrequencyTable getTable() {
+        return wordRates;
+    }
+
     /** Total number of documents in the corpus */
     public int docCount() {
         int cnt = wordRates.get(DOC_COUNT_KEY);
@@ -0,0 +1,304 @@
+package nu.marginalia.term_frequency_dict;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/** Open-addressed hash table from term hash to frequency, kept in a memory mapped
+ * file and queried in place, so opening the table costs nothing regardless of its size.
+ * <p></p>
+ * The table has a power of two number of slots, at least twice the expected number of
+ * entries, and the writer refuses to fill it beyond three quarters; collisions are
+ * resolved with linear probing.  Keys are stored with their sign bit flipped, which
+ * makes a zeroed slot empty; the hash functions in TermFrequencyDict never produce
+ * Long.MIN_VALUE, so no valid key is stored as zero.
+ * <p></p>
+ * The value of an entry is the count in the low 32 bits, and optionally flags in the
+ * high 32 bits, which derived tables can use to attach information about the terms.
+ * The header tag is similarly free for derived tables to identify their sources.
+ * <p></p>
+ * File format, all numbers little endian:
+ * <pre>
+ * header:    MAGIC, int slotBits, int tag, long entryCount, padding to 32 bytes
+ * slots:     (long key, int count, int flags)[1 &lt;&lt; slotBits]
+ * </pre>
+ */
+public class TermFrequencyTable {
+    private static final Logger logger = LoggerFactory.getLogger(TermFrequencyTable.class);
+
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    static final long MAGIC = 0x31515246_4D524554L; // "TERMFRQ1"
+    static final int HEADER_SIZE = 32;
+    static final int SLOT_SIZE = 16;
+
+    private final MemorySegment segment;
+    private final int slotBits;
+    private final long mask;
+    private final long entryCount;
+    private final int tag;
+
+    private TermFrequencyTable(MemorySegment segment) throws IOException {
+        if (!hasMagic(segment)) {
+            throw new IOException("Not a term frequency table");
+        }
+
+        this.segment = segment;
+
+        slotBits = segment.get(INT, 8);
+        tag = segment.get(INT, 12);
+        mask = (1L << slotBits) - 1;
+        entryCount = segment.get(LONG, 16);
+
+        if (segment.byteSize() < HEADER_SIZE + SLOT_SIZE * (mask + 1)) {
+            throw new IOException("Truncated term frequency table");
+        }
+    }
+
+    /** Memory map a table previously written with a Writer */
+    public static TermFrequencyTable load(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new TermFrequencyTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto()));
+        }
+    }
+
+    /** Load a table derived from sourceFile, stored in tableFile, building it first
+     * if it's missing, older than the source, or has a tag other than the expected one.
+     * <p></p>
+     * The table is built into a temporary file next to tableFile and moved into place,
+     * or if that directory isn't writable, built into a temporary file that's deleted
+     * on exit.
+     */
+    public static TermFrequencyTable loadOrBuild(Path sourceFile,
+                                                 Path tableFile,
+                                                 int tag,
+                                                 TableBuilder builder) throws IOException
+    {
+        if (Files.exists(tableFile)
+            && Files.getLastModifiedTime(tableFile).compareTo(Files.getLastModifiedTime(sourceFile)) >= 0)
+        {
+            try {
+                var table = load(tableFile);
+                if (table.tag() == tag) {
+                    return table;
+                }
+            }
+            catch (IOException ex) {
+                logger.warn("Failed to load {}, rebuilding", tableFile, ex);
+            }
+        }
+
+        Path tempFile;
+        try {
+            tempFile = Files.createTempFile(tableFile.getParent(), tableFile.getFileName().toString(), ".tmp");
+        }
+        catch (IOException ex) {
+            // Directory isn't writable, keep the table in a temporary file instead
+            logger.warn("Can't write {}, building it in a temporary file", tableFile);
+
+            tempFile = Files.createTempFile("tfreq", ".table");
+            tempFile.toFile().deleteOnExit();
+
+            builder.build(tempFile);
+            return load(tempFile);
+        }
+
+        try {
+            builder.build(tempFile);
+            Files.move(tempFile, tableFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+
+        return load(tableFile);
+    }
+
+    public interface TableBuilder {
+        /** Write the table to the given file */
+        void build(Path tableFile) throws IOException;
+    }
+
+    /** Returns true if the file is a table in this format, as opposed to e.g. the
+     * legacy flat list of (hash, count) pairs */
+    public static boolean isTableFile(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ);
+             var arena = Arena.ofConfined())
+        {
+            if (channel.size() < HEADER_SIZE)
+                return false;
+
+            return hasMagic(channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE, arena));
+        }
+    }
+
+    private static boolean hasMagic(MemorySegment segment) {
+        return segment.byteSize() >= HEADER_SIZE && segment.get(LONG, 0) == MAGIC;
+    }
+
+    /** Get the count for the hash, or 0 if it isn't in the table */
+    public int get(long hash) {
+        return countOf(getEntry(hash));
+    }
+
+    /** Get both the count and the flags for the hash in a single lookup,
+     * or 0 if it isn't in the table.
+     *
+     * @see #countOf(long)
+     * @see #flagsOf(long)
+     */
+    public long getEntry(long hash) {
+        final long key = hash ^ Long.MIN_VALUE;
+
+        for (long slot = slotOf(hash, slotBits); ; slot = (slot + 1) & mask) {
+            long offset = HEADER_SIZE + slot * SLOT_SIZE;
+            long storedKey = segment.get(LONG, offset);
+
+            if (storedKey == key) {
+                return segment.get(LONG, offset + 8);
+            }
+            if (storedKey == 0) {
+                return 0;
+            }
+        }
+    }
+
+    public static int countOf(long entry) {
+        return (int) entry;
+    }
+
+    public static int flagsOf(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    /** Visit every entry in the table, in no particular order */
+    public void forEach(EntryConsumer consumer) {
+        for (long slot = 0; slot <= mask; slot++) {
+            long offset = HEADER_SIZE + slot * SLOT_SIZE;
+            long storedKey = segment.get(LONG, offset);
+
+            if (storedKey != 0) {
+                consumer.accept(storedKey ^ Long.MIN_VALUE, segment.get(LONG, offset + 8));
+            }
+        }
+    }
+
+    public interface EntryConsumer {
+        void accept(long hash, long entry);
+    }
+
+    /** Number of entries in the table */
+    public long size() {
+        return entryCount;
+    }
+
+    /** The tag the table was written with, 0 if none */
+    public int tag() {
+        return tag;
+    }
+
+    private static long slotOf(long hash, int slotBits) {
+        // The term hashes are polynomial hashes modulo a prime, mix them
+        // so that the high bits we use are evenly distributed
+        return (hash * 0x9E3779B97F4A7C15L) >>> (64 - slotBits);
+    }
+
+    /** Create a writer for a table with room for at least expectedEntries entries.
+     * The file is created or truncated, and written in place through a memory map.
+     */
+    public static Writer writer(Path file, long expectedEntries) throws IOException {
+        return new Writer(file, expectedEntries);
+    }
+
+    public static class Writer implements AutoCloseable {
+        private final Arena arena = Arena.ofConfined();
+        private final MemorySegment segment;
+        private final int slotBits;
+        private final long mask;
+        private final long maxEntries;
+        private long entryCount;
+
+        private Writer(Path file, long expectedEntries) throws IOException {
+            // At least twice as many slots as entries, to keep the probe sequences short
+            slotBits = Math.max(4, 65 - Long.numberOfLeadingZeros(Math.max(1, expectedEntries)));
+            mask = (1L << slotBits) - 1;
+            // ... and refuse to fill more than three quarters of them
+            maxEntries = (mask + 1) / 4 * 3;
+
+            long size = HEADER_SIZE + SLOT_SIZE * (mask + 1);
+
+            try (var channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE))
+            {
+                // Sets the file size; the new region reads as zeroes, i.e. empty slots
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+            }
+            catch (IOException ex) {
+                arena.close();
+                throw ex;
+            }
+
+            segment.set(LONG, 0, MAGIC);
+            segment.set(INT, 8, slotBits);
+        }
+
+        /** Set the count for the hash, replacing any previous count */
+        public void put(long hash, int count) {
+            put(hash, count, 0);
+        }
+
+        /** Set the count and flags for the hash, replacing any previous values */
+        public void put(long hash, int count, int flags) {
+            final long value = ((long) flags << 32) | (count & 0xFFFF_FFFFL);
+            final long key = hash ^ Long.MIN_VALUE;
+
+            if (key == 0) {
+                throw new IllegalArgumentException("Hash value is reserved");
+            }
+
+            for (long slot = slotOf(hash, slotBits); ; slot = (slot + 1) & mask) {
+                long offset = HEADER_SIZE + slot * SLOT_SIZE;
+                long storedKey = segment.get(LONG, offset);
+
+                if (storedKey == 0) {
+                    if (entryCount >= maxEntries) {
+                        throw new IllegalStateException("Term frequency table is full, " + entryCount + " entries");
+                    }
+
+                    segment.set(LONG, offset, key);
+                    segment.set(LONG, offset + 8, value);
+                    entryCount++;
+                    return;
+                }
+                if (storedKey == key) {
+                    segment.set(LONG, offset + 8, value);
+                    return;
+                }
+            }
+        }
+
+        /** Set the tag of the table, e.g. to identify the sources of a derived table */
+        public void setTag(int tag) {
+            segment.set(INT, 12, tag);
+        }
+
+        @Override
+        public void close() {
+            segment.set(LONG, 16, entryCount);
+            segment.force();
+            arena.close();
+        }
+    }
+}
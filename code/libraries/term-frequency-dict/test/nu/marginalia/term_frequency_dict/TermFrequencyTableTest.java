@@ -0,0 +1,123 @@
+package nu.marginalia.term_frequency_dict;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TermFrequencyTableTest {
+    Path file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        file = Files.createTempFile(getClass().getSimpleName(), ".table");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testWriteLoad() throws IOException {
+        var expected = new HashMap<Long, Integer>();
+        var rand = new Random(1234);
+
+        try (var writer = TermFrequencyTable.writer(file, 10_000)) {
+            for (int i = 0; i < 10_000; i++) {
+                long hash = rand.nextLong() & ((1L << 61) - 1);
+                int count = rand.nextInt(1_000_000);
+
+                writer.put(hash, count);
+                expected.put(hash, count);
+            }
+            writer.put(TermFrequencyDict.DOC_COUNT_KEY, 500);
+            writer.put(0, 1);
+        }
+
+        assertTrue(TermFrequencyTable.isTableFile(file));
+
+        var table = TermFrequencyTable.load(file);
+        assertEquals(expected.size() + 2, table.size());
+
+        expected.forEach((hash, count) -> assertEquals((int) count, table.get(hash)));
+        assertEquals(500, table.get(TermFrequencyDict.DOC_COUNT_KEY));
+        assertEquals(1, table.get(0));
+
+        for (int i = 0; i < 1000; i++) {
+            long hash = rand.nextLong() & ((1L << 61) - 1);
+            if (!expected.containsKey(hash)) {
+                assertEquals(0, table.get(hash));
+            }
+        }
+    }
+
+    @Test
+    public void testReplace() throws IOException {
+        try (var writer = TermFrequencyTable.writer(file, 2)) {
+            writer.put(5, 1);
+            writer.put(5, 2);
+        }
+
+        var table = TermFrequencyTable.load(file);
+        assertEquals(1, table.size());
+        assertEquals(2, table.get(5));
+    }
+
+    @Test
+    public void testFull() throws IOException {
+        try (var writer = TermFrequencyTable.writer(file, 1)) {
+            assertThrows(IllegalStateException.class, () -> {
+                for (int i = 1; i < 100; i++) {
+                    writer.put(i, i);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testLegacyFileIsNotTable() throws IOException {
+        try (var dos = new DataOutputStream(Files.newOutputStream(file))) {
+            for (int i = 0; i < 4; i++) {
+                dos.writeLong(i);
+                dos.writeLong(i);
+            }
+        }
+
+        assertFalse(TermFrequencyTable.isTableFile(file));
+        assertThrows(IOException.class, () -> TermFrequencyTable.load(file));
+    }
+
+    @Test
+    public void testFlagsAndTag() throws IOException {
+        try (var writer = TermFrequencyTable.writer(file, 3)) {
+            writer.put(1, 10);
+            writer.put(2, 20, 5);
+            writer.put(3, 0, 1);
+            writer.setTag(1234);
+        }
+
+        var table = TermFrequencyTable.load(file);
+        assertEquals(1234, table.tag());
+
+        assertEquals(20, table.get(2));
+        assertEquals(20, TermFrequencyTable.countOf(table.getEntry(2)));
+        assertEquals(5, TermFrequencyTable.flagsOf(table.getEntry(2)));
+        assertEquals(0, TermFrequencyTable.flagsOf(table.getEntry(1)));
+        assertEquals(1, TermFrequencyTable.flagsOf(table.getEntry(3)));
+        assertEquals(0, table.getEntry(4));
+
+        var visited = new HashMap<Long, Long>();
+        table.forEach(visited::put);
+        assertEquals(3, visited.size());
+        assertEquals((Long) table.getEntry(2), visited.get(2L));
+    }
+}
@@ -165,7 +165,8 @@ public class ParquetSerializableCrawlDataStream implements AutoCloseable, Serial
                 "",
                 nextRecord.cookies,
                 lastModified,
-                etag));
+                etag,
+                nextRecord.outlinks));
 
         previousRecord = nextRecord;
     }
@@ -7,6 +7,8 @@ import nu.marginalia.model.EdgeUrl;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
+
 @Builder
 @AllArgsConstructor
 @ToString
@@ -45,6 +47,11 @@ public class CrawledDocument implements SerializableCrawlData {
     public String lastModifiedMaybe;
     public String etagMaybe;
 
+    /** Normalized outgoing links from the document, if they were recorded
+     * by the crawler; otherwise null.  This is only available in the parquet format. */
+    @Nullable
+    public List<String> outlinks;
+
     @Nullable
     private String getHeader(String header) {
         if (headers == null) {
@@ -11,6 +11,8 @@ import org.apache.parquet.schema.MessageType;
 import org.apache.parquet.schema.Types;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.apache.parquet.schema.LogicalTypeAnnotation.*;
 import static org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName.*;
@@ -32,6 +34,10 @@ public class CrawledDocumentParquetRecord {
     public String etagHeader;
     public String lastModifiedHeader;
 
+    /** Normalized outgoing links from the document, as extracted by the crawler.
+     * May be null if the document was not parsed, or the data predates this column. */
+    public List<String> outlinks;
+
     public static Hydrator<CrawledDocumentParquetRecord, CrawledDocumentParquetRecord> newHydrator() {
         return new CrawledDocumentParquetRecordHydrator();
     }
@@ -51,7 +57,8 @@ public class CrawledDocumentParquetRecord {
             Types.required(BINARY).as(stringType()).named("contentType"),
             Types.required(BINARY).named("body"),
             Types.optional(BINARY).as(stringType()).named("etagHeader"),
-            Types.optional(BINARY).as(stringType()).named("lastModifiedHeader")
+            Types.optional(BINARY).as(stringType()).named("lastModifiedHeader"),
+            Types.repeated(BINARY).as(stringType()).named("outlinks")
     );
 
 
@@ -67,6 +74,12 @@ public class CrawledDocumentParquetRecord {
             case "epochSeconds" -> timestamp = Instant.ofEpochSecond((Long) value);
             case "etagHeader" -> etagHeader = (String) value;
             case "lastModifiedHeader" -> lastModifiedHeader = (String) value;
+            case "outlinks" -> {
+                if (outlinks == null) {
+                    outlinks = new ArrayList<>();
+                }
+                outlinks.add((String) value);
+            }
 
             default -> throw new UnsupportedOperationException("Unknown heading '" + heading + '"');
         }
@@ -88,6 +101,9 @@ public class CrawledDocumentParquetRecord {
         if (lastModifiedHeader != null) {
             valueWriter.write("lastModifiedHeader", lastModifiedHeader);
         }
+        if (outlinks != null) {
+            valueWriter.writeList("outlinks", outlinks);
+        }
     }
 }
 
@@ -5,6 +5,7 @@ import nu.marginalia.UserAgent;
 import nu.marginalia.crawling.body.DocumentBodyExtractor;
 import nu.marginalia.crawling.body.DocumentBodyResult;
 import nu.marginalia.crawling.body.HttpFetchResult;
+import nu.marginalia.model.EdgeUrl;
 import org.apache.commons.lang3.StringUtils;
 import org.netpreserve.jwarc.*;
 import org.slf4j.Logger;
@@ -19,6 +20,11 @@ import java.util.Objects;
 
 public class CrawledDocumentParquetRecordFileWriter implements AutoCloseable {
     private final ParquetWriter<CrawledDocumentParquetRecord> writer;
+
+    /** The most recent document record is held back until the next document arrives,
+     * since the crawler writes a document's outlinks in a separate record after the response.
+     */
+    private CrawledDocumentParquetRecord pendingRecord;
     private static final Logger logger = LoggerFactory.getLogger(CrawledDocumentParquetRecordFileWriter.class);
 
     public static void convertWarc(String domain,
@@ -30,30 +36,12 @@ public class CrawledDocumentParquetRecordFileWriter implements AutoCloseable {
         ) {
             WarcXResponseReference.register(warcReader);
             WarcXEntityRefused.register(warcReader);
+            WarcXOutlinks.register(warcReader);
 
             String uaString = userAgent.uaString();
 
             for (var record : warcReader) {
-                try {
-                    if (record instanceof WarcResponse response) {
-                        // this also captures WarcXResponseReference, which inherits from WarcResponse
-                        // and is used to store old responses from previous crawls; in this part of the logic
-                        // we treat them the same as a normal response
-
-                        if (!filterResponse(uaString, response)) {
-                            continue;
-                        }
-
-                        parquetWriter.write(domain, response);
-                    } else if (record instanceof WarcXEntityRefused refused) {
-                        parquetWriter.write(domain, refused);
-                    } else if (record instanceof Warcinfo warcinfo) {
-                        parquetWriter.write(warcinfo);
-                    }
-                }
-                catch (Exception ex) {
-                    logger.error("Failed to convert WARC record to Parquet", ex);
-                }
+                parquetWriter.convertRecord(domain, uaString, record);
             }
         }
         catch (Exception ex) {
@@ -61,6 +49,38 @@ public class CrawledDocumentParquetRecordFileWriter implements AutoCloseable {
         }
     }
 
+    /** Convert a single WARC record to parquet and write it to the file.  The records
+     * must be offered in the order they appear in the WARC file.  Records that can not
+     * be converted are logged and skipped.
+     * <p></p>
+     * The caller is responsible for registering the x-response-reference, x-entity-refused
+     * and x-outlinks record types with the WarcReader that produced the record.
+     */
+    public void convertRecord(String domain, String uaString, WarcRecord record) {
+        try {
+            if (record instanceof WarcResponse response) {
+                // this also captures WarcXResponseReference, which inherits from WarcResponse
+                // and is used to store old responses from previous crawls; in this part of the logic
+                // we treat them the same as a normal response
+
+                if (!filterResponse(uaString, response)) {
+                    return;
+                }
+
+                write(domain, response);
+            } else if (record instanceof WarcXOutlinks outlinks) {
+                write(outlinks);
+            } else if (record instanceof WarcXEntityRefused refused) {
+                write(domain, refused);
+            } else if (record instanceof Warcinfo warcinfo) {
+                write(warcinfo);
+            }
+        }
+        catch (Exception ex) {
+            logger.error("Failed to convert WARC record to Parquet", ex);
+        }
+    }
+
     /** Return true if the WarcResponse should be excluded from conversion */
     private static boolean filterResponse(String uaString, WarcResponse response) throws IOException {
 
@@ -124,9 +144,35 @@ public class CrawledDocumentParquetRecordFileWriter implements AutoCloseable {
     }
 
     public void write(CrawledDocumentParquetRecord domainData) throws IOException {
+        flushPending();
         writer.write(domainData);
     }
 
+    /** Attach the outlinks to the preceding document record, if it has the same URL.
+     * The URLs are compared parsed, as the response's target URI is the URI that was
+     * fetched, which may be written differently from the crawler's URL of the document.
+     */
+    private void write(WarcXOutlinks outlinks) throws IOException {
+        if (pendingRecord == null)
+            return;
+
+        var recordUrl = EdgeUrl.parse(pendingRecord.url);
+        var outlinksUrl = EdgeUrl.parse(outlinks.target());
+        if (recordUrl.isEmpty() || outlinksUrl.isEmpty())
+            return;
+        if (!recordUrl.get().equalsExactly(outlinksUrl.get()))
+            return;
+
+        pendingRecord.outlinks = outlinks.outlinks();
+    }
+
+    private void flushPending() throws IOException {
+        if (pendingRecord != null) {
+            writer.write(pendingRecord);
+            pendingRecord = null;
+        }
+    }
+
     public void write(String domain, WarcResponse response) throws IOException {
 
         HttpFetchResult result = HttpFetchResult.importWarc(response);
@@ -152,7 +198,9 @@ public class CrawledDocumentParquetRecordFileWriter implements AutoCloseable {
             contentType = "";
         }
 
-        write(new CrawledDocumentParquetRecord(
+        flushPending();
+
+        pendingRecord = new CrawledDocumentParquetRecord(
                 domain,
                 response.target(),
                 fetchOk.ipAddress(),
@@ -162,12 +210,13 @@ public class CrawledDocumentParquetRecordFileWriter implements AutoCloseable {
                 contentType,
                 bodyBytes,
                 headers.get("ETag"),
-                headers.get("Last-Modified"))
-        );
+                headers.get("Last-Modified"),
+                null);
     }
 
 
     public void close() throws IOException {
+        flushPending();
         writer.close();
     }
 
@@ -181,6 +230,7 @@ public class CrawledDocumentParquetRecordFileWriter implements AutoCloseable {
                 "x-marginalia/advisory;state=redirect",
                 new byte[0],
                 null,
+                null,
                 null
         );
     }
@@ -194,6 +244,7 @@ public class CrawledDocumentParquetRecordFileWriter implements AutoCloseable {
                 "x-marginalia/advisory;state=error",
                 errorStatus.getBytes(),
                 null,
+                null,
                 null
         );
     }
@@ -208,6 +259,7 @@ public class CrawledDocumentParquetRecordFileWriter implements AutoCloseable {
                 errorStatus,
                 new byte[0],
                 null,
+                null,
                 null
         );
     }
@@ -0,0 +1,64 @@
+package org.netpreserve.jwarc;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/** This defines a non-standard extension to WARC for storing the outgoing links
+ * of a document, as extracted by the crawler.
+ * <p>
+ * An x-outlinks record follows the response record it pertains to, and has the same
+ * target URI.  The body is a list of normalized URLs, one per line.  This lets
+ * a subsequent re-crawl or conversion step recover the links without re-parsing
+ * the document.
+ */
+public class WarcXOutlinks extends WarcRevisit {
+    private static final String TYPE_NAME = "x-outlinks";
+
+    public static final URI outlinksProfile = URI.create("urn:marginalia/meta/doc/outlinks");
+
+    WarcXOutlinks(MessageVersion version, MessageHeaders headers, MessageBody body) {
+        super(version, headers, body);
+    }
+
+    public static void register(WarcReader reader) {
+        reader.registerType(TYPE_NAME, WarcXOutlinks::new);
+    }
+
+    /** Read the links from the body of the record */
+    public List<String> outlinks() throws IOException {
+        String bodyString = new String(body().stream().readAllBytes(), StandardCharsets.UTF_8);
+
+        List<String> ret = new ArrayList<>();
+        for (String line : bodyString.split("\n")) {
+            if (!line.isBlank()) {
+                ret.add(line);
+            }
+        }
+        return ret;
+    }
+
+    public static class Builder extends AbstractBuilder<WarcXOutlinks, Builder> {
+        public Builder(URI targetURI) {
+            this(targetURI.toString());
+        }
+
+        public Builder(String targetURI) {
+            super(TYPE_NAME);
+            setHeader("WARC-Target-URI", targetURI);
+            setHeader("WARC-Profile", outlinksProfile.toString());
+        }
+
+        public Builder outlinks(Collection<String> links) {
+            return body(MediaType.parse("text/plain;charset=utf-8"), String.join("\n", links).getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public WarcXOutlinks build() {
+            return build(WarcXOutlinks::new);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package nu.marginalia.crawling.parquet;
 
+import nu.marginalia.UserAgent;
 import nu.marginalia.crawling.io.format.ParquetSerializableCrawlDataStream;
 import nu.marginalia.crawling.model.CrawledDocument;
 import nu.marginalia.crawling.model.CrawledDomain;
@@ -7,12 +8,19 @@ import nu.marginalia.crawling.model.SerializableCrawlData;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.netpreserve.jwarc.MediaType;
+import org.netpreserve.jwarc.WarcResponse;
+import org.netpreserve.jwarc.WarcWriter;
+import org.netpreserve.jwarc.WarcXOutlinks;
 
 import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -39,7 +47,7 @@ class CrawledDocumentParquetRecordFileWriterTest {
                 Instant.now(),
                 "text/html",
                 "hello world".getBytes(),
-                null, null);
+                null, null, null);
 
         try (var writer = new CrawledDocumentParquetRecordFileWriter(tempFile)) {
             writer.write(original);
@@ -75,5 +83,76 @@ class CrawledDocumentParquetRecordFileWriterTest {
         assertEquals(200, document.httpStatus);
     }
 
+    @Test
+    void testWriteReadOutlinks() throws IOException {
+        var original = new CrawledDocumentParquetRecord("www.marginalia.nu",
+                "https://www.marginalia.nu/",
+                "127.0.0.1",
+                false,
+                200,
+                Instant.now(),
+                "text/html",
+                "hello world".getBytes(),
+                null, null,
+                List.of("https://www.marginalia.nu/log/", "https://search.marginalia.nu/"));
 
-}
\ No newline at end of file
+        try (var writer = new CrawledDocumentParquetRecordFileWriter(tempFile)) {
+            writer.write(original);
+        }
+
+        var items = new ArrayList<SerializableCrawlData>();
+
+        try (var stream = new ParquetSerializableCrawlDataStream(tempFile)) {
+            while (stream.hasNext()) {
+                items.add(stream.next());
+            }
+        }
+
+        assertEquals(2, items.size());
+
+        var document = (CrawledDocument) items.get(1);
+        assertEquals(List.of("https://www.marginalia.nu/log/", "https://search.marginalia.nu/"), document.outlinks);
+    }
+
+    @Test
+    void testConvertWarcOutlinks() throws IOException {
+        Path warcFile = Files.createTempFile("test", ".warc.gz");
+
+        try {
+            try (var warcWriter = new WarcWriter(warcFile)) {
+                byte[] http = """
+                        HTTP/1.1 200 OK\r
+                        Content-Type: text/html\r
+                        Content-Length: 11\r
+                        \r
+                        hello world""".getBytes(StandardCharsets.UTF_8);
+
+                // The fetched URI is spelled differently from the crawler's URL of the document
+                warcWriter.write(new WarcResponse.Builder(URI.create("https://WWW.marginalia.nu:443/"))
+                        .body(MediaType.HTTP_RESPONSE, http)
+                        .build());
+                warcWriter.write(new WarcXOutlinks.Builder("https://www.marginalia.nu/")
+                        .outlinks(List.of("https://www.marginalia.nu/log/"))
+                        .build());
+            }
+
+            CrawledDocumentParquetRecordFileWriter.convertWarc("www.marginalia.nu",
+                    new UserAgent("test", "test"), warcFile, tempFile);
+        }
+        finally {
+            Files.delete(warcFile);
+        }
+
+        var documents = new ArrayList<CrawledDocument>();
+        try (var stream = new ParquetSerializableCrawlDataStream(tempFile)) {
+            while (stream.hasNext()) {
+                if (stream.next() instanceof CrawledDocument document) {
+                    documents.add(document);
+                }
+            }
+        }
+
+        assertEquals(1, documents.size());
+        assertEquals(List.of("https://www.marginalia.nu/log/"), documents.getFirst().outlinks);
+    }
+}
@@ -19,14 +19,24 @@ public class DocumentRecordParquetFileReader {
                 HydratorSupplier.constantly(DocumentRecord.newHydrator()));
     }
 
+    /** Stream the keywords of the documents.  Files written with pre-hashed word ids
+     * are read without touching the word strings; older files fall back to the strings.
+     */
     @NotNull
     public static Stream<DocumentRecordKeywordsProjection> streamKeywordsProjection(Path path) throws IOException {
         return ParquetReader.streamContent(path.toFile(),
                 HydratorSupplier.constantly(DocumentRecordKeywordsProjection.newHydrator()),
-                DocumentRecordKeywordsProjection.requiredColumns()
+                DocumentRecordKeywordsProjection.requiredColumns(hasWordIds(path))
                 );
     }
 
+    private static boolean hasWordIds(Path path) throws IOException {
+        return ParquetReader.readMetadata(path.toFile())
+                .getFileMetaData()
+                .getSchema()
+                .containsField("wordId");
+    }
+
     @NotNull
     public static Stream<DocumentRecordMetadataProjection> streamMetadataProjection(Path path) throws IOException {
         return ParquetReader.streamContent(path.toFile(),
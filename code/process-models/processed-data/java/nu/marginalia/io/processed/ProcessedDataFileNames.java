@@ -1,45 +1,51 @@
 package nu.marginalia.io.processed;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
+/** File names of the converter output.
+ * <p></p>
+ * A batch may be written by several writers concurrently, each to its own
+ * shard of the batch.  Shard 0 has the same file name as an unsharded batch,
+ * so that data written before sharding was introduced can still be read.
+ */
 public class ProcessedDataFileNames {
     public static Path documentFileName(Path base, int batchNumber) {
-        return base.resolve(String.format("document%04d.parquet", batchNumber));
+        return documentFileName(base, batchNumber, 0);
     }
     public static Path domainFileName(Path base, int batchNumber) {
-        return base.resolve(String.format("domain%04d.parquet", batchNumber));
+        return domainFileName(base, batchNumber, 0);
     }
     public static Path domainLinkFileName(Path base, int batchNumber) {
-        return base.resolve(String.format("domain-link%04d.parquet", batchNumber));
+        return domainLinkFileName(base, batchNumber, 0);
     }
 
-    public static List<Path> listDocumentFiles(Path base, int untilBatch) {
-        List<Path> ret = new ArrayList<>(untilBatch);
+    public static Path documentFileName(Path base, int batchNumber, int shard) {
+        return base.resolve(fileName("document", batchNumber, shard));
+    }
+    public static Path domainFileName(Path base, int batchNumber, int shard) {
+        return base.resolve(fileName("domain", batchNumber, shard));
+    }
+    public static Path domainLinkFileName(Path base, int batchNumber, int shard) {
+        return base.resolve(fileName("domain-link", batchNumber, shard));
+    }
 
-        for (int i = 0; i < untilBatch; i++) {
-            Path maybe = documentFileName(base, i);
-            if (Files.exists(maybe)) {
-                ret.add(maybe);
-            }
+    private static String fileName(String prefix, int batchNumber, int shard) {
+        if (shard == 0) {
+            return String.format("%s%04d.parquet", prefix, batchNumber);
         }
+        return String.format("%s%04d-%02d.parquet", prefix, batchNumber, shard);
+    }
 
-        return ret;
+    public static List<Path> listDocumentFiles(Path base, int untilBatch) {
+        return listFiles(base, untilBatch, ProcessedDataFileNames::documentFileName);
     }
 
     public static List<Path> listDomainFiles(Path base, int untilBatch) {
-        List<Path> ret = new ArrayList<>(untilBatch);
-
-        for (int i = 0; i < untilBatch; i++) {
-            Path maybe = domainFileName(base, i);
-            if (Files.exists(maybe)) {
-                ret.add(maybe);
-            }
-        }
-
-        return ret;
+        return listFiles(base, untilBatch, ProcessedDataFileNames::domainFileName);
     }
 
     public static List<Path> listDomainFiles(Path base) {
@@ -48,7 +54,7 @@ public class ProcessedDataFileNames {
         for (int i = 0;; i++) {
             Path maybe = domainFileName(base, i);
             if (Files.exists(maybe)) {
-                ret.add(maybe);
+                addShards(ret, base, i, ProcessedDataFileNames::domainFileName);
             }
             else {
                 break;
@@ -59,15 +65,51 @@ public class ProcessedDataFileNames {
     }
 
     public static List<Path> listDomainLinkFiles(Path base, int untilBatch) {
+        return listFiles(base, untilBatch, ProcessedDataFileNames::domainLinkFileName);
+    }
+
+    /** Delete the files of every shard of the batch, e.g. before a batch that was left
+     * unfinished is written anew, possibly by fewer writers than the last time */
+    public static void deleteBatchFiles(Path base, int batchNumber) throws IOException {
+        List<Path> files = new ArrayList<>();
+
+        addShards(files, base, batchNumber, ProcessedDataFileNames::documentFileName);
+        addShards(files, base, batchNumber, ProcessedDataFileNames::domainFileName);
+        addShards(files, base, batchNumber, ProcessedDataFileNames::domainLinkFileName);
+
+        for (var file : files) {
+            Files.delete(file);
+        }
+    }
+
+    private static List<Path> listFiles(Path base, int untilBatch, ShardedFileName fileName) {
         List<Path> ret = new ArrayList<>(untilBatch);
 
         for (int i = 0; i < untilBatch; i++) {
-            Path maybe = domainLinkFileName(base, i);
-            if (Files.exists(maybe)) {
-                ret.add(maybe);
-            }
+            addShards(ret, base, i, fileName);
         }
 
         return ret;
     }
+
+    /** Add the files of each shard of the batch that exists, the shards of a batch
+     * are numbered consecutively from 0 */
+    private static void addShards(List<Path> ret, Path base, int batchNumber, ShardedFileName fileName) {
+        Path maybe = fileName.apply(base, batchNumber, 0);
+        if (Files.exists(maybe)) {
+            ret.add(maybe);
+        }
+
+        for (int shard = 1;; shard++) {
+            maybe = fileName.apply(base, batchNumber, shard);
+            if (!Files.exists(maybe)) {
+                break;
+            }
+            ret.add(maybe);
+        }
+    }
+
+    private interface ShardedFileName {
+        Path apply(Path base, int batchNumber, int shard);
+    }
 }
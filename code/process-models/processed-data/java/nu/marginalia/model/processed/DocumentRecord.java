@@ -58,6 +58,11 @@ public class DocumentRecord {
     @Nullable
     public TLongList metas;
 
+    /** The hashed ids of the words, parallel to words, so that the loader
+     * can read them without decoding and hashing the strings */
+    @Nullable
+    public TLongList wordIds;
+
     public static Hydrator<DocumentRecord, DocumentRecord> newHydrator() {
         return new DocumentDataHydrator();
     }
@@ -83,7 +88,8 @@ public class DocumentRecord {
             Types.optional(FLOAT).named("quality"),
             Types.optional(INT32).named("pubYear"),
             Types.repeated(INT64).named("wordMeta"),
-            Types.repeated(BINARY).as(stringType()).named("word")
+            Types.repeated(BINARY).as(stringType()).named("word"),
+            Types.repeated(INT64).named("wordId")
     );
 
     public DocumentRecord add(String heading, Object value) {
@@ -113,6 +119,12 @@ public class DocumentRecord {
                 }
                 this.metas.add((long) value);
             }
+            case "wordId" -> {
+                if (this.wordIds == null) {
+                    this.wordIds = new TLongArrayList(100);
+                }
+                this.wordIds.add((long) value);
+            }
             default -> throw new UnsupportedOperationException("Unknown heading '" + heading + '"');
         }
         return this;
@@ -147,6 +159,10 @@ public class DocumentRecord {
         if (words != null) {
             valueWriter.writeList("word", words);
         }
+
+        if (wordIds != null) {
+            valueWriter.writeList("wordId", wordIds);
+        }
     }
 
 }
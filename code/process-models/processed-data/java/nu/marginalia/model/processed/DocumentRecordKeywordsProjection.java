@@ -25,19 +25,32 @@ public class DocumentRecordKeywordsProjection {
     public int htmlFeatures;
     public long documentMetadata;
 
+    /** The words as strings, only read from files that predate the wordId column */
     public List<String> words;
     public TLongList metas;
+    public TLongList wordIds;
 
     public boolean hasKeywords() {
-        return words != null && metas != null;
+        return metas != null && (wordIds != null || words != null);
+    }
+
+    /** True if the words were read as pre-hashed ids rather than as strings */
+    public boolean hasWordIds() {
+        return wordIds != null;
     }
 
     public static Hydrator<DocumentRecordKeywordsProjection, DocumentRecordKeywordsProjection> newHydrator() {
         return new DocumentRecordKeywordsProjectionHydrator();
     }
 
-    public static Collection<String> requiredColumns() {
-        return List.of("domain", "ordinal", "htmlFeatures", "word", "wordMeta", "documentMetadata");
+    /** The columns to read; the word strings are only read when the file has no word ids */
+    public static Collection<String> requiredColumns(boolean hasWordIds) {
+        if (hasWordIds) {
+            return List.of("domain", "ordinal", "htmlFeatures", "wordId", "wordMeta", "documentMetadata");
+        }
+        else {
+            return List.of("domain", "ordinal", "htmlFeatures", "word", "wordMeta", "documentMetadata");
+        }
     }
 
     public DocumentRecordKeywordsProjection add(String heading, Object value) {
@@ -57,6 +70,12 @@ public class DocumentRecordKeywordsProjection {
                 }
                 this.metas.add((long) value);
             }
+            case "wordId" -> {
+                if (this.wordIds == null) {
+                    this.wordIds = new TLongArrayList(100);
+                }
+                this.wordIds.add((long) value);
+            }
             default -> throw new UnsupportedOperationException("Unknown heading '" + heading + '"');
         }
         return this;
@@ -0,0 +1,16 @@
+package nu.marginalia.model.processed;
+
+import nu.marginalia.hash.MurmurHash3_128;
+
+/** Hashes keywords into the word ids of the index journal.
+ * <p></p>
+ * The converter uses this for the wordId column of the document records, and the loader
+ * for processed data written without that column, so the two always produce the same ids.
+ */
+public class KeywordHasher {
+    private static final MurmurHash3_128 hasher = new MurmurHash3_128();
+
+    public static long hashKeyword(String keyword) {
+        return hasher.hashKeyword(keyword);
+    }
+}
@@ -46,7 +46,8 @@ class DocumentRecordParquetFileReaderTest {
                 4L,
                 null,
                 List.of("Hello", "world"),
-                new TLongArrayList(new long[] { 2, 3})
+                new TLongArrayList(new long[] { 2, 3}),
+                null
         );
 
         try (var writer = new DocumentRecordParquetFileWriter(parquetFile)) {
@@ -78,7 +79,8 @@ class DocumentRecordParquetFileReaderTest {
                 5L,
                 null,
                 words,
-                metas
+                metas,
+                null
         );
 
         try (var writer = new DocumentRecordParquetFileWriter(parquetFile)) {
@@ -89,4 +91,40 @@ class DocumentRecordParquetFileReaderTest {
         assertEquals(List.of(doc), read);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testKeywordsProjection() throws IOException {
+        var withIds = new DocumentRecord(
+                "www.marginalia.nu",
+                "https://www.marginalia.nu/",
+                0,
+                "OK",
+                null,
+                "Itsa me, Marginalia!",
+                "Hello World",
+                3,
+                "HTML5",
+                123,
+                0xF00BA3L,
+                0.25f,
+                4L,
+                null,
+                List.of("Hello", "world"),
+                new TLongArrayList(new long[] { 2, 3}),
+                new TLongArrayList(new long[] { 10, 11})
+        );
+
+        try (var writer = new DocumentRecordParquetFileWriter(parquetFile)) {
+            writer.write(withIds);
+        }
+
+        var read = DocumentRecordParquetFileReader.streamKeywordsProjection(parquetFile).toList();
+        assertEquals(1, read.size());
+
+        var projection = read.getFirst();
+        assertTrue(projection.hasKeywords());
+        assertTrue(projection.hasWordIds());
+        assertNull(projection.words);
+        assertEquals(new TLongArrayList(new long[] { 10, 11}), projection.wordIds);
+        assertEquals(new TLongArrayList(new long[] { 2, 3}), projection.metas);
+    }
+}
@@ -0,0 +1,87 @@
+package nu.marginalia.io.processed;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProcessedDataFileNamesTest {
+    Path dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory(getClass().getSimpleName());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (var file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testShardZeroIsUnshardedName() {
+        assertEquals(ProcessedDataFileNames.documentFileName(dir, 3),
+                ProcessedDataFileNames.documentFileName(dir, 3, 0));
+        assertNotEquals(ProcessedDataFileNames.documentFileName(dir, 3, 0),
+                ProcessedDataFileNames.documentFileName(dir, 3, 1));
+    }
+
+    @Test
+    public void testListShards() throws IOException {
+        for (var path : List.of(
+                ProcessedDataFileNames.documentFileName(dir, 0, 0),
+                ProcessedDataFileNames.documentFileName(dir, 0, 1),
+                ProcessedDataFileNames.documentFileName(dir, 0, 2),
+                ProcessedDataFileNames.documentFileName(dir, 1, 0),
+                ProcessedDataFileNames.documentFileName(dir, 2, 0),
+                ProcessedDataFileNames.documentFileName(dir, 2, 1),
+                ProcessedDataFileNames.domainFileName(dir, 0, 0)))
+        {
+            Files.createFile(path);
+        }
+
+        // Batch 2 is not finished, and should not be listed
+        assertEquals(List.of(
+                ProcessedDataFileNames.documentFileName(dir, 0, 0),
+                ProcessedDataFileNames.documentFileName(dir, 0, 1),
+                ProcessedDataFileNames.documentFileName(dir, 0, 2),
+                ProcessedDataFileNames.documentFileName(dir, 1, 0)
+        ), ProcessedDataFileNames.listDocumentFiles(dir, 2));
+
+        assertEquals(List.of(ProcessedDataFileNames.domainFileName(dir, 0, 0)),
+                ProcessedDataFileNames.listDomainFiles(dir));
+        assertEquals(List.of(), ProcessedDataFileNames.listDomainLinkFiles(dir, 2));
+    }
+
+    @Test
+    public void testDeleteBatchFiles() throws IOException {
+        for (var path : List.of(
+                ProcessedDataFileNames.documentFileName(dir, 0, 0),
+                ProcessedDataFileNames.documentFileName(dir, 1, 0),
+                ProcessedDataFileNames.documentFileName(dir, 1, 1),
+                ProcessedDataFileNames.documentFileName(dir, 1, 2),
+                ProcessedDataFileNames.domainFileName(dir, 1, 0),
+                ProcessedDataFileNames.domainLinkFileName(dir, 1, 0),
+                ProcessedDataFileNames.domainLinkFileName(dir, 1, 1)))
+        {
+            Files.createFile(path);
+        }
+
+        ProcessedDataFileNames.deleteBatchFiles(dir, 1);
+
+        try (var files = Files.list(dir)) {
+            assertEquals(List.of(ProcessedDataFileNames.documentFileName(dir, 0, 0)), files.toList());
+        }
+    }
+}
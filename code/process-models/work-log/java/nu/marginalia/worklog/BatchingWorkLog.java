@@ -27,6 +27,15 @@ public interface BatchingWorkLog extends AutoCloseable {
         return isItemCommitted(id) || isItemInCurrentBatch(id);
     }
 
+    /** Add the item to the current batch, unless it's already committed or in the
+     * current batch; the check and the addition are atomic, so that of several workers
+     * claiming the same item, only one gets to process it.  The item is recorded in the
+     * log by logItem(id) once it's processed.
+     *
+     * @return true if the item was claimed, false if it's already processed or claimed
+     */
+    boolean claimItem(String id);
+
     /** Log additional item to the current batch */
     void logItem(String id) throws IOException;
 
@@ -9,8 +9,9 @@ import java.time.LocalDateTime;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+/** Work log backed by a file.  Items may be logged from several threads concurrently. */
 public class BatchingWorkLogImpl implements BatchingWorkLog {
-    private int batchNumber = 0;
+    private volatile int batchNumber = 0;
 
     private final Set<String> currentBatchItems = ConcurrentHashMap.newKeySet(10_000);
     private final Set<String> committedItems = ConcurrentHashMap.newKeySet(10_000);
@@ -57,7 +58,7 @@ public class BatchingWorkLogImpl implements BatchingWorkLog {
         item.write(this);
     }
 
-    void writeLine(String line) throws IOException {
+    synchronized void writeLine(String line) throws IOException {
         writer.write(line.getBytes(StandardCharsets.UTF_8));
         writer.write('\n');
         writer.flush();
@@ -72,14 +73,21 @@ public class BatchingWorkLogImpl implements BatchingWorkLog {
     public boolean isItemInCurrentBatch(String id) {
         return currentBatchItems.contains(id);
     }
+
+    @Override
+    public synchronized boolean claimItem(String id) {
+        // Synchronized with logFinishedBatch(), which moves items between the sets
+        return !committedItems.contains(id) && currentBatchItems.add(id);
+    }
+
     @Override
-    public void logItem(String id) throws IOException {
+    public synchronized void logItem(String id) throws IOException {
         writeLogEntry(new AddItem(id));
         addItemToCurrentBatch(id);
     }
 
     @Override
-    public void logFinishedBatch() throws IOException {
+    public synchronized void logFinishedBatch() throws IOException {
         writeLogEntry(new FinishBatch());
         incrementBatch();
     }
@@ -101,7 +109,7 @@ public class BatchingWorkLogImpl implements BatchingWorkLog {
     }
 
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
         writer.flush();
         writer.close();
     }
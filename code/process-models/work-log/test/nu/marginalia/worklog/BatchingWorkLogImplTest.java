@@ -71,4 +71,26 @@ class BatchingWorkLogImplTest {
 
         Files.readAllLines(fileName).forEach(System.out::println);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testClaimItem() throws IOException {
+        try (var wl = new BatchingWorkLogImpl(fileName)) {
+            assertTrue(wl.claimItem("1"));
+            assertFalse(wl.claimItem("1"));
+            assertTrue(wl.isItemInCurrentBatch("1"));
+
+            wl.logItem("1");
+            wl.logFinishedBatch();
+
+            assertFalse(wl.claimItem("1"));
+            assertTrue(wl.claimItem("2"));
+        }
+
+        // A claimed item isn't recorded until it's logged
+        try (var wl = new BatchingWorkLogImpl(fileName)) {
+            assertTrue(wl.isItemCommitted("1"));
+            assertFalse(wl.isItemProcessed("2"));
+            assertTrue(wl.claimItem("2"));
+        }
+    }
+}
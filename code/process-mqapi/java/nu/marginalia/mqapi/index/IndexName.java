@@ -3,5 +3,7 @@ package nu.marginalia.mqapi.index;
 public enum IndexName {
     FORWARD,
     REVERSE_FULL,
-    REVERSE_PRIO
+    REVERSE_PRIO,
+    /** All of the above, constructed together in one pass over the journal */
+    ALL
 }
@@ -11,6 +11,7 @@ import nu.marginalia.converting.sideload.SideloadSourceFactory;
 import nu.marginalia.converting.writer.ConverterBatchWritableIf;
 import nu.marginalia.converting.writer.ConverterBatchWriter;
 import nu.marginalia.converting.writer.ConverterWriter;
+import nu.marginalia.language.sentence.SentenceCache;
 import nu.marginalia.service.ProcessMainClass;
 import nu.marginalia.storage.FileStorageService;
 import nu.marginalia.mq.MessageQueueFactory;
@@ -120,11 +121,7 @@ public class ConverterMain extends ProcessMainClass {
 
     public void convert(CrawlPlan plan) throws Exception {
 
-        final int defaultPoolSize = Boolean.getBoolean("system.conserveMemory")
-                ? Math.clamp(Runtime.getRuntime().availableProcessors() / 2, 1, 4)   // <-- conserve memory
-                : Math.clamp(Runtime.getRuntime().availableProcessors() - 2, 1, 32); // <-- a more liberal pool size
-
-        final int maxPoolSize = Integer.getInteger("converter.poolSize", defaultPoolSize);
+        final int maxPoolSize = DomainProcessor.domainParallelism;
 
         try (BatchingWorkLog batchingWorkLog = new BatchingWorkLogImpl(plan.process.getLogFile());
              ConverterWriter converterWriter = new ConverterWriter(batchingWorkLog, plan.process.getDir()))
@@ -163,6 +160,8 @@ public class ConverterMain extends ProcessMainClass {
                 System.out.println("Waiting for pool to terminate... " + pool.getActiveCount() + " remaining");
             } while (!pool.awaitTermination(60, TimeUnit.SECONDS));
         }
+
+        logger.info("Sentence cache: {}", SentenceCache.getStatistics());
     }
 
     private abstract static class ConvertRequest {
@@ -7,10 +7,11 @@ import nu.marginalia.atags.model.DomainLinks;
 import nu.marginalia.atags.source.AnchorTagsSource;
 import nu.marginalia.atags.source.AnchorTagsSourceFactory;
 import nu.marginalia.converting.model.ProcessedDocument;
-import nu.marginalia.converting.processor.logic.links.LinkGraph;
-import nu.marginalia.converting.sideload.SideloadSource;
 import nu.marginalia.converting.writer.ConverterBatchWritableIf;
 import nu.marginalia.converting.writer.ConverterBatchWriter;
+import nu.marginalia.converting.writer.DocumentRecordSpillBuffer;
+import nu.marginalia.converting.writer.DomainMetadata;
+import nu.marginalia.converting.writer.StreamedDomain;
 import nu.marginalia.crawling.io.SerializableCrawlDataStream;
 import nu.marginalia.crawling.model.*;
 import nu.marginalia.geoip.GeoIpDictionary;
@@ -18,9 +19,10 @@ import nu.marginalia.geoip.sources.AsnTable;
 import nu.marginalia.model.crawl.DomainIndexingState;
 import nu.marginalia.converting.model.ProcessedDomain;
 import nu.marginalia.model.EdgeDomain;
-import nu.marginalia.converting.processor.logic.links.TopKeywords;
+import nu.marginalia.model.EdgeUrl;
+import nu.marginalia.model.processed.DocumentRecord;
 import nu.marginalia.converting.processor.logic.LshDocumentDeduplicator;
-import nu.marginalia.util.ProcessingIterator;
+import nu.marginalia.util.OrderedProcessingWindow;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
@@ -32,7 +34,25 @@ import java.util.*;
 import java.util.regex.Pattern;
 
 public class DomainProcessor {
-    private static final int SIDELOAD_THRESHOLD = Integer.getInteger("converter.sideloadThreshold", 10_000);
+    /** Number of domains the converter processes concurrently.  Domains are processed in
+     * a streaming fashion, so the memory usage per thread is bounded, and by default there
+     * is one thread per core */
+    public static final int domainParallelism = Integer.getInteger("converter.poolSize",
+            Boolean.getBoolean("system.conserveMemory")
+                    ? Math.clamp(Runtime.getRuntime().availableProcessors() / 2, 1, 8)   // <-- conserve memory
+                    : Math.max(1, Runtime.getRuntime().availableProcessors()));          // <-- one thread per core
+
+    /** Documents within a domain are processed in parallel on this pool once the domain
+     * has more than converter.parallelDocumentThreshold documents.  It runs alongside the
+     * domain threads, so by default it only gets the cores they leave over */
+    private static final OrderedProcessingWindow.Factory documentProcessingWindowFactory = OrderedProcessingWindow.factory(
+            "DocumentProcessor",
+            Integer.getInteger("converter.documentParallelism",
+                    Math.max(1, Runtime.getRuntime().availableProcessors() - domainParallelism)),
+            Integer.getInteger("converter.documentWindow", 64),
+            Integer.getInteger("converter.parallelDocumentThreshold", 250)
+    );
+
     private final DocumentProcessor documentProcessor;
     private final SiteWords siteWords;
     private final AnchorTagsSource anchorTagsSource;
@@ -58,55 +78,101 @@ public class DomainProcessor {
     }
 
     public ConverterBatchWritableIf createWritable(SerializableCrawlDataStream domain) {
-        final int sizeHint = domain.sizeHint();
-
-        if (sizeHint > SIDELOAD_THRESHOLD) {
-            // If the file is too big, we run a processing mode that doesn't
-            // require loading the entire dataset into RAM
-            return sideloadProcessing(domain, sizeHint);
-        }
-
-        return fullProcessing(domain);
+        // Process the domain in a mode that doesn't require loading the entire dataset into RAM
+        return streamingProcessing(domain);
     }
 
-    public SideloadProcessing sideloadProcessing(SerializableCrawlDataStream dataStream, int sizeHint) {
+    @Nullable
+    public StreamingProcessing streamingProcessing(SerializableCrawlDataStream dataStream) {
         try {
-            return new SideloadProcessing(dataStream, sizeHint);
+            return new StreamingProcessing(dataStream);
         }
         catch (Exception ex) {
-            logger.warn("Failed to process domain sideload", ex);
+            logger.warn("Failed to process domain", ex);
             return null;
         }
-
     }
 
-    public class SideloadProcessing implements ConverterBatchWritableIf, SideloadSource {
-        private final SerializableCrawlDataStream dataStream;
-        private final ProcessedDomain domain;
-        private final DocumentDecorator documentDecorator;
-        private final Set<String> processedUrls = new HashSet<>();
-        private final DomainLinks externalDomainLinks;
-        private final LshDocumentDeduplicator deduplicator = new LshDocumentDeduplicator();
-        private static final ProcessingIterator.Factory iteratorFactory = ProcessingIterator.factory(8,
-                Integer.getInteger("java.util.concurrent.ForkJoinPool.common.parallelism", Runtime.getRuntime().availableProcessors())
-        );
-
-        SideloadProcessing(SerializableCrawlDataStream dataStream, int sizeHint) throws IOException {
-            this.dataStream = dataStream;
-
-            if (!dataStream.hasNext() || !(dataStream.next() instanceof CrawledDomain crawledDomain))
-            {
-                throw new IllegalStateException("First record must be a domain, was " + dataStream.next().getClass().getSimpleName());
+    /** Processes a domain in two passes, without keeping the processed documents in memory.
+     * <p></p>
+     * In the first pass, the documents are processed and fed to the domain statistics,
+     * and then kept in their compact record form, spilling to disk if the domain is large.
+     * In the second pass, as the records are streamed to the writer, the statistics are
+     * applied to them.
+     */
+    public class StreamingProcessing implements ConverterBatchWritableIf, StreamedDomain, AutoCloseable {
+        private final ProcessedDomain domain = new ProcessedDomain();
+        private final DocumentRecordSpillBuffer records = new DocumentRecordSpillBuffer();
+        private final DomainStatistics statistics;
+        private int nextOrdinal = 0;
+
+        StreamingProcessing(SerializableCrawlDataStream dataStream) throws Exception {
+            try (dataStream) {
+                if (!dataStream.hasNext() || !(dataStream.next() instanceof CrawledDomain crawledDomain)) {
+                    throw new IllegalStateException("First record must be a domain");
+                }
+
+                DomainLinks externalDomainLinks = anchorTagsSource.getAnchorTags(crawledDomain.getDomain());
+                DocumentDecorator documentDecorator = new DocumentDecorator(anchorTextKeywords);
+
+                processDomain(crawledDomain, domain, documentDecorator);
+
+                statistics = new DomainStatistics(siteWords, externalDomainLinks);
+
+                processDocuments(dataStream, externalDomainLinks, documentDecorator);
+
+                statistics.finish();
             }
+            catch (Exception ex) {
+                records.close();
+                throw ex;
+            }
+        }
+
+        private void processDocuments(SerializableCrawlDataStream dataStream,
+                                      DomainLinks externalDomainLinks,
+                                      DocumentDecorator documentDecorator) throws IOException, InterruptedException
+        {
+            final Set<String> processedUrls = new HashSet<>();
 
-            domain = new ProcessedDomain();
-            domain.sizeloadSizeAdvice = sizeHint == 0 ? 10_000 : sizeHint;
+            try (var deduplicator = new LshDocumentDeduplicator()) {
+                // Documents are processed in parallel, but consumed in order, so that
+                // deduplication and ordinals are deterministic
+                var window = documentProcessingWindowFactory.<ProcessedDocument>create(processedDoc -> {
+                    deduplicator.markIfDuplicate(processedDoc);
+                    addDocument(processedDoc);
+                });
 
-            documentDecorator = new DocumentDecorator(anchorTextKeywords);
+                try {
+                    while (dataStream.hasNext()) {
+                        if (!(dataStream.next() instanceof CrawledDocument doc))
+                            continue;
+                        if (doc.url == null)
+                            continue;
+                        if (!processedUrls.add(doc.url))
+                            continue;
+
+                        window.submit(() -> processDocument(doc, domain.domain, externalDomainLinks, documentDecorator));
+                    }
+
+                    window.finish();
+                }
+                catch (Exception ex) {
+                    // Don't leave tasks running on the shared pool for a domain that is abandoned
+                    window.abort();
+                    throw ex;
+                }
+            }
+        }
 
-            processDomain(crawledDomain, domain, documentDecorator);
+        @SneakyThrows
+        private void addDocument(ProcessedDocument processedDoc) {
+            statistics.accept(processedDoc);
 
-            externalDomainLinks = anchorTagsSource.getAnchorTags(domain.domain);
+            var record = ConverterBatchWriter.createDocumentRecord(domain.domain.toString(), nextOrdinal++, processedDoc);
+            if (record != null) {
+                records.add(record);
+            }
         }
 
         @Override
@@ -115,38 +181,45 @@ public class DomainProcessor {
         }
 
         @Override
-        public Iterator<ProcessedDocument> getDocumentsStream() {
-            return iteratorFactory.create((taskConsumer) -> {
-                while (dataStream.hasNext())
-                {
-                    if (!(dataStream.next() instanceof CrawledDocument doc))
-                        continue;
-                    if (doc.url == null || !processedUrls.add(doc.url))
-                        continue;
+        public DomainMetadata getMetadata() {
+            return statistics.getDomainMetadata();
+        }
 
+        @Override
+        public Collection<EdgeUrl> getFeedUrls() {
+            return statistics.getFeedUrls();
+        }
 
-                    taskConsumer.accept(() -> {
-                        var processedDoc = documentProcessor.process(doc, domain.domain, externalDomainLinks, documentDecorator);
+        @Override
+        public Collection<EdgeDomain> getLinkedDomains() {
+            return statistics.getLinkedDomains();
+        }
 
-                        synchronized (deduplicator) {
-                            deduplicator.markIfDuplicate(processedDoc);
-                        }
+        @Override
+        public Iterator<DocumentRecord> getDocumentRecords() throws IOException {
+            var iter = records.iterator();
+
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return iter.hasNext();
+                }
+
+                @Override
+                public DocumentRecord next() {
+                    var record = iter.next();
 
-                        if (processedDoc.isProcessedFully()) {
-                            // This is a bit sketchy, but we need to set the size and topology to something
-                            processedDoc.details.metadata = processedDoc.details.metadata.withSizeAndTopology(
-                                    10_000, externalDomainLinks.countForUrl(processedDoc.url));
-                        }
+                    // Add late keywords and features from domain-level information
+                    EdgeUrl.parse(record.url).ifPresent(url -> statistics.apply(url, record));
 
-                        return processedDoc;
-                    });
+                    return record;
                 }
-            });
+            };
         }
 
         @Override
         public void write(ConverterBatchWriter writer) throws IOException {
-            writer.writeSideloadSource(this);
+            writer.writeStreamedDomain(this);
         }
 
         @Override
@@ -156,12 +229,10 @@ public class DomainProcessor {
 
         @Override
         public void close() throws Exception {
-            dataStream.close();
-            deduplicator.close();
+            records.close();
         }
     }
 
-
     @SneakyThrows
     @Nullable
     public ProcessedDomain fullProcessing(SerializableCrawlDataStream dataStream) {
@@ -188,21 +259,31 @@ public class DomainProcessor {
         // Process Documents
 
         try (var deduplicator = new LshDocumentDeduplicator()) {
-            while (dataStream.hasNext()) {
-                if (!(dataStream.next() instanceof CrawledDocument doc))
-                    continue;
-                if (doc.url == null)
-                    continue;
-                if (!processedUrls.add(doc.url))
-                    continue;
+            // Documents are processed in parallel, but consumed in order, so that
+            // deduplication is deterministic
+            var window = documentProcessingWindowFactory.<ProcessedDocument>create(processedDoc -> {
+                deduplicator.markIfDuplicate(processedDoc);
+                docs.add(processedDoc);
+            });
 
-                try {
-                    var processedDoc = documentProcessor.process(doc, ret.domain, externalDomainLinks, documentDecorator);
-                    deduplicator.markIfDuplicate(processedDoc);
-                    docs.add(processedDoc);
-                } catch (Exception ex) {
-                    logger.warn("Failed to process " + doc.url, ex);
+            try {
+                while (dataStream.hasNext()) {
+                    if (!(dataStream.next() instanceof CrawledDocument doc))
+                        continue;
+                    if (doc.url == null)
+                        continue;
+                    if (!processedUrls.add(doc.url))
+                        continue;
+
+                    window.submit(() -> processDocument(doc, ret.domain, externalDomainLinks, documentDecorator));
                 }
+
+                window.finish();
+            }
+            catch (Exception ex) {
+                // Don't leave tasks running on the shared pool for a domain that is abandoned
+                window.abort();
+                throw ex;
             }
         }
 
@@ -213,6 +294,21 @@ public class DomainProcessor {
         return ret;
     }
 
+    /** Process a document, returning null if processing fails */
+    @Nullable
+    private ProcessedDocument processDocument(CrawledDocument doc,
+                                              EdgeDomain domain,
+                                              DomainLinks externalDomainLinks,
+                                              DocumentDecorator documentDecorator)
+    {
+        try {
+            return documentProcessor.process(doc, domain, externalDomainLinks, documentDecorator);
+        } catch (Exception ex) {
+            logger.warn("Failed to process " + doc.url, ex);
+            return null;
+        }
+    }
+
     private void processDomain(CrawledDomain crawledDomain,
                                           ProcessedDomain domain,
                                           DocumentDecorator decorator)
@@ -297,29 +393,11 @@ public class DomainProcessor {
     }
 
     private void calculateStatistics(ProcessedDomain ret, DomainLinks externalDomainLinks) {
-        LinkGraph linkGraph = new LinkGraph();
-        TopKeywords topKeywords = new TopKeywords();
-
-        ret.documents.forEach(topKeywords::accept);
-        ret.documents.forEach(linkGraph::add);
-
-        var invertedLinkGraph = linkGraph.invert();
-
-        ret.documents.forEach(doc -> {
-            if (doc.details == null)
-                return;
-            if (doc.details.metadata == null)
-                return;
-
-            int size = linkGraph.size();
-            int topology = invertedLinkGraph.numLinks(doc.url)
-                         + externalDomainLinks.countForUrl(doc.url);
-
-            doc.details.metadata = doc.details.metadata.withSizeAndTopology(size, topology);
-        });
+        DomainStatistics statistics = new DomainStatistics(siteWords, externalDomainLinks);
 
-        siteWords.flagCommonSiteWords(ret);
-        siteWords.flagAdjacentWords(topKeywords, invertedLinkGraph, ret);
+        ret.documents.forEach(statistics::accept);
+        statistics.finish();
+        ret.documents.forEach(statistics::apply);
     }
 
     private DomainIndexingState getState(String crawlerStatus) {
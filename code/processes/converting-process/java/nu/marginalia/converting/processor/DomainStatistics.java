@@ -0,0 +1,161 @@
+package nu.marginalia.converting.processor;
+
+import nu.marginalia.atags.model.DomainLinks;
+import nu.marginalia.converting.model.ProcessedDocument;
+import nu.marginalia.converting.processor.logic.links.CommonKeywordExtractor;
+import nu.marginalia.converting.processor.logic.links.LinkGraph;
+import nu.marginalia.converting.processor.logic.links.TopKeywords;
+import nu.marginalia.converting.writer.DomainMetadata;
+import nu.marginalia.model.EdgeDomain;
+import nu.marginalia.model.EdgeUrl;
+import nu.marginalia.model.idx.DocumentMetadata;
+import nu.marginalia.model.idx.WordFlags;
+import nu.marginalia.model.processed.DocumentRecord;
+
+import java.util.*;
+
+/** Domain-level statistics, gathered one document at a time.
+ * <p></p>
+ * Every document of the domain is first passed to accept().  Once all documents
+ * have been seen, finish() calculates the statistics, which can then be applied
+ * to the documents with apply(), either in their processed form or as records
+ * ready to be written.  This lets the documents be streamed rather than kept in
+ * memory while the statistics are calculated.
+ */
+public class DomainStatistics {
+    private final SiteWords siteWords;
+    private final DomainLinks externalDomainLinks;
+
+    private final LinkGraph linkGraph = new LinkGraph();
+    private final TopKeywords topKeywords = new TopKeywords();
+    private final List<CommonKeywordExtractor.Counter> commonWordCounters;
+
+    private final Set<EdgeUrl> knownUrls = new HashSet<>();
+    private final Set<EdgeUrl> feedUrls = new LinkedHashSet<>();
+    private final Set<EdgeDomain> linkedDomains = new LinkedHashSet<>();
+    private int visitedUrls = 0;
+    private int goodUrls = 0;
+
+    // Calculated by finish()
+    private LinkGraph invertedLinkGraph;
+    private Set<String> commonSiteWords;
+    private Map<EdgeUrl, Set<String>> adjacentWords;
+
+    public DomainStatistics(SiteWords siteWords, DomainLinks externalDomainLinks) {
+        this.siteWords = siteWords;
+        this.externalDomainLinks = externalDomainLinks;
+        this.commonWordCounters = siteWords.createCommonSiteWordCounters();
+    }
+
+    public void accept(ProcessedDocument doc) {
+        topKeywords.accept(doc);
+        linkGraph.add(doc);
+
+        for (var counter : commonWordCounters) {
+            counter.accept(doc);
+        }
+
+        visitedUrls++;
+        if (doc.isOk()) {
+            goodUrls++;
+        }
+
+        knownUrls.add(doc.url);
+
+        if (doc.details != null) {
+            if (doc.details.linksInternal != null) {
+                knownUrls.addAll(doc.details.linksInternal);
+            }
+            if (doc.details.feedLinks != null) {
+                feedUrls.addAll(doc.details.feedLinks);
+            }
+            if (doc.details.linksExternal != null) {
+                for (var link : doc.details.linksExternal) {
+                    linkedDomains.add(link.domain);
+                }
+            }
+        }
+    }
+
+    /** Calculate the statistics, after all documents have been accepted */
+    public void finish() {
+        invertedLinkGraph = linkGraph.invert();
+        commonSiteWords = siteWords.getCommonSiteWords(commonWordCounters);
+        adjacentWords = siteWords.getAdjacentWords(topKeywords, invertedLinkGraph);
+    }
+
+    public void apply(ProcessedDocument doc) {
+        if (doc.words != null) {
+            if (!commonSiteWords.isEmpty()) {
+                doc.words.setFlagOnMetadataForWords(WordFlags.Site, commonSiteWords);
+            }
+
+            var adjacent = adjacentWords.get(doc.url);
+            if (adjacent != null) {
+                doc.words.setFlagOnMetadataForWords(WordFlags.SiteAdjacent, adjacent);
+            }
+        }
+
+        if (doc.details == null)
+            return;
+        if (doc.details.metadata == null)
+            return;
+
+        doc.details.metadata = doc.details.metadata.withSizeAndTopology(linkGraph.size(), topology(doc.url));
+    }
+
+    public void apply(EdgeUrl url, DocumentRecord record) {
+        record.documentMetadata = new DocumentMetadata(record.documentMetadata)
+                .withSizeAndTopology(linkGraph.size(), topology(url))
+                .encode();
+
+        if (record.words == null)
+            return;
+
+        if (!commonSiteWords.isEmpty()) {
+            setFlagOnWords(record, WordFlags.Site, commonSiteWords);
+        }
+
+        var adjacent = adjacentWords.get(url);
+        if (adjacent != null) {
+            setFlagOnWords(record, WordFlags.SiteAdjacent, adjacent);
+        }
+    }
+
+    /** Equivalent of DocumentKeywordsBuilder.setFlagOnMetadataForWords for a built record,
+     * words not already present are added with only the flag set */
+    private void setFlagOnWords(DocumentRecord record, WordFlags flag, Set<String> flagWords) {
+        long bit = flag.asBit();
+
+        for (String word : flagWords) {
+            int idx = record.words.indexOf(word);
+
+            if (idx < 0) {
+                if (!(record.words instanceof ArrayList)) { // may be a fixed size list
+                    record.words = new ArrayList<>(record.words);
+                }
+                record.words.add(word);
+                record.metas.add(bit);
+            }
+            else {
+                record.metas.set(idx, record.metas.get(idx) | bit);
+            }
+        }
+    }
+
+    private int topology(EdgeUrl url) {
+        return invertedLinkGraph.numLinks(url) + externalDomainLinks.countForUrl(url);
+    }
+
+    public DomainMetadata getDomainMetadata() {
+        return new DomainMetadata(knownUrls.size(), goodUrls, visitedUrls);
+    }
+
+    public Collection<EdgeUrl> getFeedUrls() {
+        return feedUrls;
+    }
+
+    public Collection<EdgeDomain> getLinkedDomains() {
+        return linkedDomains;
+    }
+}
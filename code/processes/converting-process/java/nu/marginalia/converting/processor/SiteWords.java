@@ -12,6 +12,7 @@ import nu.marginalia.converting.processor.logic.links.TopKeywords;
 import com.google.inject.Singleton;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -31,13 +32,15 @@ public class SiteWords {
     }
 
     public void flagCommonSiteWords(ProcessedDomain processedDomain) {
-        Set<String> commonSiteWords = new HashSet<>(10);
+        var counters = createCommonSiteWordCounters();
 
-        commonSiteWords.addAll(commonKeywordExtractor.getCommonSiteWords(processedDomain,
-                WordFlags.Subjects));
+        for (var doc : processedDomain.documents) {
+            for (var counter : counters) {
+                counter.accept(doc);
+            }
+        }
 
-        commonSiteWords.addAll(commonKeywordExtractor.getCommonSiteWords(processedDomain,
-                WordFlags.NamesWords));
+        Set<String> commonSiteWords = getCommonSiteWords(counters);
 
         if (commonSiteWords.isEmpty()) return;
 
@@ -46,7 +49,25 @@ public class SiteWords {
         }
     }
 
-    private Map<EdgeUrl, Set<String>> getAdjacentWords(TopKeywords topKeywords, LinkGraph invertedLinkGraph) {
+    /** Create counters to be fed every document of a domain, for use with getCommonSiteWords() */
+    public List<CommonKeywordExtractor.Counter> createCommonSiteWordCounters() {
+        return List.of(
+                commonKeywordExtractor.new Counter(WordFlags.Subjects),
+                commonKeywordExtractor.new Counter(WordFlags.NamesWords)
+        );
+    }
+
+    public Set<String> getCommonSiteWords(List<CommonKeywordExtractor.Counter> counters) {
+        Set<String> commonSiteWords = new HashSet<>(10);
+
+        for (var counter : counters) {
+            commonSiteWords.addAll(counter.getCommonSiteWords());
+        }
+
+        return commonSiteWords;
+    }
+
+    public Map<EdgeUrl, Set<String>> getAdjacentWords(TopKeywords topKeywords, LinkGraph invertedLinkGraph) {
 
         final Map<EdgeUrl, Set<String>> linkedKeywords = new HashMap<>(100);
 
@@ -4,6 +4,7 @@ import crawlercommons.utils.Strings;
 import nu.marginalia.crawling.model.CrawledDocument;
 import nu.marginalia.model.html.HtmlStandard;
 import nu.marginalia.converting.model.DisqualifiedException;
+import nu.marginalia.converting.processor.logic.dom.DocumentTagIndex;
 import nu.marginalia.model.crawl.HtmlFeature;
 import org.jetbrains.annotations.NotNull;
 import org.jsoup.nodes.Document;
@@ -19,10 +20,11 @@ public class DocumentValuator {
     public double getQuality(CrawledDocument crawledDocument,
                              HtmlStandard htmlStandard,
                              Document parsedDocument,
+                             DocumentTagIndex tagIndex,
                              int textLength) throws DisqualifiedException {
 
-        double scriptPenalty = getScriptPenalty(parsedDocument);
-        double chatGptPenalty = getChatGptContentFarmPenalty(parsedDocument);
+        double scriptPenalty = getScriptPenalty(parsedDocument, tagIndex);
+        double chatGptPenalty = getChatGptContentFarmPenalty(tagIndex);
 
         int rawLength = crawledDocument.documentBody.length();
 
@@ -36,14 +38,14 @@ public class DocumentValuator {
                 - chatGptPenalty;
     }
 
-    private double getChatGptContentFarmPenalty(Document parsedDocument) {
+    private double getChatGptContentFarmPenalty(DocumentTagIndex tagIndex) {
         // easily 90% of modern AI-authored content farm spam has these nonsense headers
 
         boolean benefitsOf = false, keyBenefits = false, keyTakeaways = false;
 
         outer:
         for (String tagName : List.of("h1", "h2", "h3")) {
-            for (var elem : parsedDocument.getElementsByTag(tagName)) {
+            for (var elem : tagIndex.getElementsByTag(tagName)) {
                 if (benefitsOf && keyBenefits && keyTakeaways)
                     break outer;
 
@@ -65,10 +67,10 @@ public class DocumentValuator {
     }
 
 
-    private int getScriptPenalty(Document parsed) {
+    private int getScriptPenalty(Document parsed, DocumentTagIndex tagIndex) {
         var scriptVisitor = new ScriptVisitor();
 
-        parsed.getElementsByTag("script").traverse(scriptVisitor);
+        tagIndex.getElementsByTag("script").traverse(scriptVisitor);
         int value = scriptVisitor.score();
 
         for (var links : parsed.head().getElementsByTag("link")) {
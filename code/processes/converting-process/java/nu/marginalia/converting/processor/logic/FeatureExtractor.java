@@ -4,6 +4,7 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import nu.marginalia.adblock.AdblockSimulator;
 import nu.marginalia.adblock.GoogleAnwersSpamDetector;
+import nu.marginalia.converting.processor.logic.dom.DocumentTagIndex;
 import nu.marginalia.language.model.DocumentLanguageData;
 import nu.marginalia.model.EdgeUrl;
 import nu.marginalia.model.crawl.HtmlFeature;
@@ -84,10 +85,12 @@ public class FeatureExtractor {
         this.googleAnwersSpamDetector = googleAnwersSpamDetector;
     }
 
-    public Set<HtmlFeature> getFeatures(EdgeUrl url, Document doc, DocumentLanguageData dld) {
+    public Set<HtmlFeature> getFeatures(EdgeUrl url, Document doc, DocumentTagIndex tagIndex, DocumentLanguageData dld) {
         final Set<HtmlFeature> features = new HashSet<>();
 
-        final Elements scriptTags = doc.getElementsByTag("script");
+        final Elements scriptTags = tagIndex.getElementsByTag("script");
+        final Elements aTags = tagIndex.getElementsByTag("a");
+        final Elements noscriptTags = tagIndex.getElementsByTag("noscript");
 
         if (googleAnwersSpamDetector.testP(doc) > 0.5) {
             features.add(HtmlFeature.GA_SPAM);
@@ -114,17 +117,18 @@ public class FeatureExtractor {
         if (!doc.head().getElementsByTag("viewport").isEmpty()) {
             features.add(HtmlFeature.VIEWPORT);
         }
-        for (var atag : doc.body().getElementsByTag("a")) {
+        // the parser always places <a> tags in the body
+        for (var atag : aTags) {
             var rel = atag.attr("rel");
             if (rel.equals("dofollow")) {
                 features.add(HtmlFeature.DOFOLLOW_LINK);
             }
         }
 
-        if (!doc.getElementsByTag("date").isEmpty()) {
+        if (!tagIndex.getElementsByTag("date").isEmpty()) {
             features.add(HtmlFeature.DATE_TAG);
         }
-        if (!doc.getElementsByTag("noscript").isEmpty()) {
+        if (!noscriptTags.isEmpty()) {
             features.add(HtmlFeature.NOSCRIPT_TAG);
         }
 
@@ -217,13 +221,13 @@ public class FeatureExtractor {
             }
         }
 
-        if (features.contains(HtmlFeature.JS) && adblockSimulator.hasAds(doc.clone())) {
+        if (features.contains(HtmlFeature.JS) && adblockSimulator.hasAds(doc)) {
             features.add(HtmlFeature.ADVERTISEMENT);
         }
 
-        if (!doc.getElementsByTag("object").isEmpty()
-                || !doc.getElementsByTag("audio").isEmpty()
-                || !doc.getElementsByTag("video").isEmpty()) {
+        if (!tagIndex.getElementsByTag("object").isEmpty()
+                || !tagIndex.getElementsByTag("audio").isEmpty()
+                || !tagIndex.getElementsByTag("video").isEmpty()) {
             features.add(HtmlFeature.MEDIA);
         }
 
@@ -281,7 +285,7 @@ public class FeatureExtractor {
             }
         }
 
-        for (var noscript : doc.getElementsByTag("noscript")) {
+        for (var noscript : noscriptTags) {
             for (var iframe : noscript.getElementsByTag("iframe")) {
                 if (hasInvasiveTrackingScript(iframe)) {
                     features.add(HtmlFeature.TRACKING);
@@ -306,7 +310,7 @@ public class FeatureExtractor {
             features.add(HtmlFeature.TRACKING);
         }
 
-        for (var aTag : doc.getElementsByTag("a")) {
+        for (var aTag : aTags) {
             if (isAmazonAffiliateLink(aTag)) {
                 features.add(HtmlFeature.AFFILIATE_LINK);
                 break;
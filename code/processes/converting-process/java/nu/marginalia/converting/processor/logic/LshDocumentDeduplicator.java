@@ -1,19 +1,33 @@
 package nu.marginalia.converting.processor.logic;
 
-import gnu.trove.list.array.TLongArrayList;
+import nu.marginalia.lsh.LshIndex;
 import nu.marginalia.model.crawl.UrlIndexingState;
 import nu.marginalia.converting.model.ProcessedDocument;
 import nu.marginalia.lsh.EasyLSH;
 
 /** Deduplicates documents based on their LSH
+ * <p>
+ * Documents are deduplicated within the domain, and optionally also
+ * across domains (converter.crossDomainDedup), against a size-bounded index
+ * shared by all deduplicators.  The size of the shared index is given in entries
+ * (converter.crossDomainDedupSize), two per document at the current threshold;
+ * the default of 10M entries remembers about 5M documents in around 300 MB.
+ * <p>
+ * This class is thread safe.
  *
  * @see EasyLSH
+ * @see LshIndex
  */
 public class LshDocumentDeduplicator implements AutoCloseable {
 
-    private final TLongArrayList hashCodes = new TLongArrayList(1000);
     private static final int DISTANCE_THRESHOLD = 2;
 
+    private static final LshIndex crossDomainIndex = Boolean.getBoolean("converter.crossDomainDedup")
+            ? LshIndex.bounded(DISTANCE_THRESHOLD - 1, Integer.getInteger("converter.crossDomainDedupSize", 10_000_000))
+            : null;
+
+    private final LshIndex hashCodes = new LshIndex(DISTANCE_THRESHOLD - 1);
+
     public void markIfDuplicate(ProcessedDocument document) {
         if (!document.isProcessedFully()) {
             return;
@@ -25,19 +39,16 @@ public class LshDocumentDeduplicator implements AutoCloseable {
 
         long hashCode = document.details.hashCode;
 
-        for (int i = 0; i < hashCodes.size(); i++) {
-            if (EasyLSH.hammingDistance(hashCode, hashCodes.get(i)) < DISTANCE_THRESHOLD) {
-                document.state = UrlIndexingState.DISQUALIFIED;
-                document.stateReason = "Duplicate";
-                return;
-            }
+        if (!hashCodes.addIfNoneWithin(hashCode)
+         || (crossDomainIndex != null && !crossDomainIndex.addIfNoneWithin(hashCode)))
+        {
+            document.state = UrlIndexingState.DISQUALIFIED;
+            document.stateReason = "Duplicate";
         }
-
-        hashCodes.add(hashCode);
     }
 
     @Override
     public void close() throws Exception {
-        hashCodes.clear(1);
+        hashCodes.clear();
     }
 }
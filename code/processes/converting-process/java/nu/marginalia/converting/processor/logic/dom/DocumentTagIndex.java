@@ -0,0 +1,75 @@
+package nu.marginalia.converting.processor.logic.dom;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Elements;
+import org.jsoup.select.NodeVisitor;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** The elements of a document that the HTML processing logic looks at, gathered
+ * in a single traversal of the DOM.
+ * <p></p>
+ * Every call to getElementsByTag() on a jsoup document walks the entire tree, and
+ * the processing logic used to do this a dozen or so times per document.  The index
+ * is built once, and other visitors that need to see the entire document, such as
+ * MeasureLengthVisitor, can be run as part of the same traversal.
+ */
+public class DocumentTagIndex implements NodeVisitor {
+    private static final Set<String> indexedTags = Set.of(
+            "a", "frame", "iframe", "meta", "link",
+            "script", "noscript",
+            "date", "object", "audio", "video",
+            "h1", "h2", "h3");
+
+    private final Map<String, Elements> elementsByTag = new HashMap<>();
+    private final List<NodeVisitor> visitors;
+
+    private DocumentTagIndex(List<NodeVisitor> visitors) {
+        this.visitors = visitors;
+    }
+
+    /** Index the document, running the additional visitors in the same traversal */
+    public static DocumentTagIndex build(Document doc, NodeVisitor... visitors) {
+        var index = new DocumentTagIndex(List.of(visitors));
+        doc.traverse(index);
+        return index;
+    }
+
+    /** Equivalent to Document.getElementsByTag() for the indexed tags, the elements
+     * are returned in document order. */
+    public Elements getElementsByTag(String tagName) {
+        if (!indexedTags.contains(tagName)) {
+            throw new IllegalArgumentException("Tag " + tagName + " is not indexed");
+        }
+
+        var elements = elementsByTag.get(tagName);
+        if (elements == null) {
+            return new Elements();
+        }
+
+        return elements;
+    }
+
+    @Override
+    public void head(Node node, int depth) {
+        if (node instanceof Element el && indexedTags.contains(el.normalName())) {
+            elementsByTag.computeIfAbsent(el.normalName(), t -> new Elements()).add(el);
+        }
+
+        for (var visitor : visitors) {
+            visitor.head(node, depth);
+        }
+    }
+
+    @Override
+    public void tail(Node node, int depth) {
+        for (var visitor : visitors) {
+            visitor.tail(node, depth);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package nu.marginalia.converting.processor.logic.links;
 
 import ca.rmen.porterstemmer.PorterStemmer;
+import nu.marginalia.converting.model.ProcessedDocument;
 import nu.marginalia.model.idx.WordFlags;
 import nu.marginalia.converting.model.ProcessedDomain;
 
@@ -17,20 +18,35 @@ public class CommonKeywordExtractor {
     private static final int MAX_SITE_KEYWORDS_TO_EXTRACT = 5;
 
     public List<String> getCommonSiteWords(ProcessedDomain ret, WordFlags... flags) {
+        var counter = new Counter(flags);
 
-        if (ret.documents.size() < MIN_REQUIRED_DOCUMENTS)
-            return Collections.emptyList();
+        ret.documents.forEach(counter::accept);
 
-        final Map<String, String> wordToStemmedMemoized = new HashMap<>(ret.documents.size()*10);
+        return counter.getCommonSiteWords();
+    }
+
+    /** Incremental version of getCommonSiteWords(), that is fed one document at a time,
+     * so that the documents of the domain need not all be kept around at the same time. */
+    public class Counter {
+        private final long wordFlags;
+
+        private final Map<String, String> wordToStemmedMemoized = new HashMap<>();
 
-        final Map<String, Integer> topStemmedKeywordCount = new HashMap<>(ret.documents.size()*10);
-        final Map<String, Set<String>> stemmedToNonstemmedVariants = new HashMap<>(ret.documents.size()*10);
+        private final Map<String, Integer> topStemmedKeywordCount = new HashMap<>();
+        private final Map<String, Set<String>> stemmedToNonstemmedVariants = new HashMap<>();
+
+        private int documentCount = 0;
+        private int qualifiedDocCount = 0;
+
+        public Counter(WordFlags... flags) {
+            wordFlags = Arrays.stream(flags).mapToInt(WordFlags::asBit).reduce(0, (a, b) -> a|b);
+        }
+
+        public void accept(ProcessedDocument doc) {
+            documentCount++;
 
-        int qualifiedDocCount = 0;
-        long wordFlags = Arrays.stream(flags).mapToInt(WordFlags::asBit).reduce(0, (a, b) -> a|b);
-        for (var doc : ret.documents) {
             if (doc.words == null)
-                continue;
+                return;
 
             qualifiedDocCount++;
 
@@ -44,27 +60,30 @@ public class CommonKeywordExtractor {
             }
         }
 
-        int totalValue = 0;
-        for (int value : topStemmedKeywordCount.values()) {
-            totalValue += value;
-        }
-
-        if (totalValue > -REQUIRED_TOTAL_COUNT_FOR_CONSIDERATION)
-            return Collections.emptyList();
+        public List<String> getCommonSiteWords() {
+            if (documentCount < MIN_REQUIRED_DOCUMENTS)
+                return Collections.emptyList();
 
-        List<String> topWords = new ArrayList<>(MAX_SITE_KEYWORDS_TO_EXTRACT);
+            int totalValue = 0;
+            for (int value : topStemmedKeywordCount.values()) {
+                totalValue += value;
+            }
 
-        double qualifyingValue = -qualifiedDocCount * QUALIFYING_PROPORTION_FOR_KEYWORD;
+            if (totalValue > -REQUIRED_TOTAL_COUNT_FOR_CONSIDERATION)
+                return Collections.emptyList();
 
-        topStemmedKeywordCount.entrySet().stream()
-                .filter(e -> e.getValue() < qualifyingValue)
-                .sorted(Map.Entry.comparingByValue())
-                .limit(MAX_SITE_KEYWORDS_TO_EXTRACT)
-                .forEach(e -> topWords.addAll(stemmedToNonstemmedVariants.get(e.getKey())));
+            List<String> topWords = new ArrayList<>(MAX_SITE_KEYWORDS_TO_EXTRACT);
 
+            double qualifyingValue = -qualifiedDocCount * QUALIFYING_PROPORTION_FOR_KEYWORD;
 
-        return topWords;
+            topStemmedKeywordCount.entrySet().stream()
+                    .filter(e -> e.getValue() < qualifyingValue)
+                    .sorted(Map.Entry.comparingByValue())
+                    .limit(MAX_SITE_KEYWORDS_TO_EXTRACT)
+                    .forEach(e -> topWords.addAll(stemmedToNonstemmedVariants.get(e.getKey())));
 
+            return topWords;
+        }
     }
 
 }
@@ -2,7 +2,7 @@ package nu.marginalia.converting.processor.logic.links;
 
 import nu.marginalia.model.EdgeDomain;
 import nu.marginalia.model.EdgeUrl;
-import org.jsoup.nodes.Document;
+import org.jsoup.select.Elements;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -51,10 +51,10 @@ public class FileLinks {
     /** Create synthetic keywords for file endings of files linked within the same server.
      * Also generate categorical keywords for the type of file (audio, video, image, document, archive)
      */
-    public static Set<String> createFileEndingKeywords(Document doc) {
+    public static Set<String> createFileEndingKeywords(Elements aTags) {
         Set<String> endings = new HashSet<>();
 
-        doc.getElementsByTag("a").forEach(e -> {
+        aTags.forEach(e -> {
             var src = e.attr("href");
 
             if (src.contains(":")) return;
@@ -6,6 +6,7 @@ import nu.marginalia.language.filter.LanguageFilter;
 import nu.marginalia.converting.model.GeneratorType;
 import nu.marginalia.converting.processor.DocumentClass;
 import nu.marginalia.converting.processor.MetaRobotsTag;
+import nu.marginalia.converting.processor.logic.dom.DocumentTagIndex;
 import nu.marginalia.converting.processor.logic.dom.MeasureLengthVisitor;
 import nu.marginalia.converting.processor.logic.links.FileLinks;
 import nu.marginalia.converting.processor.logic.links.LinkProcessor;
@@ -137,9 +138,13 @@ public class HtmlDocumentProcessorPlugin extends AbstractDocumentProcessorPlugin
 
         var ret = new ProcessedDocumentDetails();
 
-        final int length = getLength(doc);
+        // Walk the DOM once, gathering the elements the rest of the processing needs
+        final var lengthVisitor = new MeasureLengthVisitor();
+        final var tagIndex = DocumentTagIndex.build(doc, lengthVisitor);
+
+        final int length = lengthVisitor.length;
         final HtmlStandard standard = getHtmlStandard(doc);
-        final double quality = documentValuator.getQuality(crawledDocument, standard, doc, length);
+        final double quality = documentValuator.getQuality(crawledDocument, standard, doc, tagIndex, length);
 
         ret.length = length;
         ret.standard = standard;
@@ -147,7 +152,7 @@ public class HtmlDocumentProcessorPlugin extends AbstractDocumentProcessorPlugin
 
         documentLengthLogic.validateLength(dld, specialization.lengthModifier() * documentClass.lengthLimitModifier());
 
-        final Set<HtmlFeature> features = featureExtractor.getFeatures(url, doc, dld);
+        final Set<HtmlFeature> features = featureExtractor.getFeatures(url, doc, tagIndex, dld);
 
         ret.features = features;
         ret.quality = documentValuator.adjustQuality(quality, features);
@@ -184,7 +189,7 @@ public class HtmlDocumentProcessorPlugin extends AbstractDocumentProcessorPlugin
         words.addAllSyntheticTerms(tagWords);
         specialization.amendWords(doc, words);
 
-        getLinks(url, ret, doc, words);
+        getLinks(url, ret, doc, tagIndex, words);
 
         if (pubDate.hasYear()) {
             ret.pubYear = pubDate.year();
@@ -259,7 +264,11 @@ public class HtmlDocumentProcessorPlugin extends AbstractDocumentProcessorPlugin
     }
 
 
-    private void getLinks(EdgeUrl baseUrl, ProcessedDocumentDetails ret, Document doc, DocumentKeywordsBuilder words) {
+    private void getLinks(EdgeUrl baseUrl,
+                          ProcessedDocumentDetails ret,
+                          Document doc,
+                          DocumentTagIndex tagIndex,
+                          DocumentKeywordsBuilder words) {
 
         final LinkProcessor lp = new LinkProcessor(ret, baseUrl);
 
@@ -267,7 +276,9 @@ public class HtmlDocumentProcessorPlugin extends AbstractDocumentProcessorPlugin
 
         EdgeDomain domain = baseUrl.domain;
 
-        for (var atag : doc.getElementsByTag("a")) {
+        final var aTags = tagIndex.getElementsByTag("a");
+
+        for (var atag : aTags) {
             var linkOpt = linkParser.parseLinkPermissive(baseUrl, atag);
             if (linkParser.shouldIndexLink(atag)) {
                 linkOpt.ifPresent(lp::accept);
@@ -278,23 +289,29 @@ public class HtmlDocumentProcessorPlugin extends AbstractDocumentProcessorPlugin
                         .ifPresent(lp::acceptNonIndexable);
             }
         }
-        for (var frame : doc.getElementsByTag("frame")) {
+        for (var frame : tagIndex.getElementsByTag("frame")) {
             linkParser.parseFrame(baseUrl, frame).ifPresent(lp::accept);
         }
-        for (var frame : doc.getElementsByTag("iframe")) {
+        for (var frame : tagIndex.getElementsByTag("iframe")) {
             linkParser.parseFrame(baseUrl, frame).ifPresent(lp::accept);
         }
-        for (var meta : doc.select("meta[http-equiv=refresh]")) {
-            linkParser.parseMetaRedirect(baseUrl, meta).ifPresent(lp::accept);
+        for (var meta : tagIndex.getElementsByTag("meta")) {
+            // equivalent to meta[http-equiv=refresh]
+            if ("refresh".equalsIgnoreCase(meta.attr("http-equiv").trim())) {
+                linkParser.parseMetaRedirect(baseUrl, meta).ifPresent(lp::accept);
+            }
         }
-        for (var link : doc.select("link[rel=alternate]")) {
-            feedExtractor
-                    .getFeedFromAlternateTag(baseUrl, link)
-                    .ifPresent(lp::acceptFeed);
+        for (var link : tagIndex.getElementsByTag("link")) {
+            // equivalent to link[rel=alternate]
+            if ("alternate".equalsIgnoreCase(link.attr("rel").trim())) {
+                feedExtractor
+                        .getFeedFromAlternateTag(baseUrl, link)
+                        .ifPresent(lp::acceptFeed);
+            }
         }
 
         words.addAllSyntheticTerms(FileLinks.createFileLinkKeywords(lp, domain));
-        words.addAllSyntheticTerms(FileLinks.createFileEndingKeywords(doc));
+        words.addAllSyntheticTerms(FileLinks.createFileEndingKeywords(aTags));
         words.addAllSyntheticTerms(createLinkKeywords(lp));
     }
 
@@ -317,10 +334,4 @@ public class HtmlDocumentProcessorPlugin extends AbstractDocumentProcessorPlugin
         return htmlStandard;
     }
 
-    private int getLength(Document doc) {
-        var mlv = new MeasureLengthVisitor();
-        doc.traverse(mlv);
-        return mlv.length;
-    }
-
 }
@@ -55,6 +55,7 @@ public class SideloaderProcessing {
                 "SIDELOAD",
                 false,
                 null,
+                null,
                 null
         );
 
@@ -16,6 +16,8 @@ import nu.marginalia.model.crawl.HtmlFeature;
 import nu.marginalia.model.processed.DocumentRecord;
 import nu.marginalia.model.processed.DomainLinkRecord;
 import nu.marginalia.model.processed.DomainRecord;
+import nu.marginalia.model.processed.KeywordHasher;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,14 +37,19 @@ public class ConverterBatchWriter implements AutoCloseable, ConverterBatchWriter
     private static final Logger logger = LoggerFactory.getLogger(ConverterBatchWriter.class);
 
     public ConverterBatchWriter(Path basePath, int batchNumber) throws IOException {
+        this(basePath, batchNumber, 0);
+    }
+
+    /** Create a writer for one shard of a batch that is written by several writers concurrently */
+    public ConverterBatchWriter(Path basePath, int batchNumber, int shard) throws IOException {
         domainWriter = new DomainRecordParquetFileWriter(
-                ProcessedDataFileNames.domainFileName(basePath, batchNumber)
+                ProcessedDataFileNames.domainFileName(basePath, batchNumber, shard)
         );
         domainLinkWriter = new DomainLinkRecordParquetFileWriter(
-                ProcessedDataFileNames.domainLinkFileName(basePath, batchNumber)
+                ProcessedDataFileNames.domainLinkFileName(basePath, batchNumber, shard)
         );
         documentWriter = new DocumentRecordParquetFileWriter(
-                ProcessedDataFileNames.documentFileName(basePath, batchNumber)
+                ProcessedDataFileNames.documentFileName(basePath, batchNumber, shard)
         );
     }
 
@@ -60,6 +67,26 @@ public class ConverterBatchWriter implements AutoCloseable, ConverterBatchWriter
         writeDocumentData(domain.domain, sideloadSource.getDocumentsStream());
     }
 
+    @Override
+    public void writeStreamedDomain(StreamedDomain streamedDomain) throws IOException {
+        var domain = streamedDomain.getDomain();
+
+        writeDomainData(domain,
+                streamedDomain.getMetadata(),
+                streamedDomain.getFeedUrls().stream().map(EdgeUrl::toString).toList());
+
+        writeLinkData(domain, streamedDomain.getLinkedDomains());
+
+        String domainName = domain.domain.toString();
+
+        for (var iter = streamedDomain.getDocumentRecords(); iter.hasNext(); ) {
+            var record = iter.next();
+            record.domain = domainName;
+
+            writeDocumentRecord(record);
+        }
+    }
+
     @Override
     public void writeProcessedDomain(ProcessedDomain domain) {
         var results = ForkJoinPool.commonPool().invokeAll(
@@ -100,81 +127,93 @@ public class ConverterBatchWriter implements AutoCloseable, ConverterBatchWriter
         String domainName = domain.toString();
 
         while (documentIterator.hasNext()) {
-            var document = documentIterator.next();
-            if (document.details == null) {
-                new DocumentRecord(
-                        domainName,
-                        document.url.toString(),
-                        ordinal,
-                        document.state.toString(),
-                        document.stateReason,
-                        null,
-                        null,
-                        0,
-                        null,
-                        0,
-                        0L,
-                        -15,
-                        0L,
-                        null,
-                        null,
-                        null);
+            var record = createDocumentRecord(domainName, ordinal++, documentIterator.next());
+
+            if (record != null) {
+                writeDocumentRecord(record);
             }
-            else {
-                var wb = document.words.build();
-                List<String> words = Arrays.asList(wb.keywords);
-                TLongList metas = new TLongArrayList(wb.metadata);
-
-                documentWriter.write(new DocumentRecord(
-                        domainName,
-                        document.url.toString(),
-                        ordinal,
-                        document.state.toString(),
-                        document.stateReason,
-                        document.details.title,
-                        document.details.description,
-                        HtmlFeature.encode(document.details.features),
-                        document.details.standard.name(),
-                        document.details.length,
-                        document.details.hashCode,
-                        (float) document.details.quality,
-                        document.details.metadata.encode(),
-                        document.details.pubYear,
-                        words,
-                        metas
-                ));
+        }
 
+    }
+
+    /** Write the record along with the hashed ids of its words, so that the loader
+     * doesn't need to decode and hash the word strings.  The ids are computed here
+     * rather than when the record is created, since the words may change in between.
+     */
+    private void writeDocumentRecord(DocumentRecord record) throws IOException {
+        if (record.words != null) {
+            var wordIds = new TLongArrayList(record.words.size());
+            for (String word : record.words) {
+                wordIds.add(KeywordHasher.hashKeyword(word));
             }
+            record.wordIds = wordIds;
+        }
+
+        documentWriter.write(record);
+    }
 
-            ordinal++;
+    /** Create the document record to write for a processed document.
+     * Returns null for documents without details, which are not written.
+     */
+    @Nullable
+    public static DocumentRecord createDocumentRecord(String domainName, int ordinal, ProcessedDocument document) {
+        if (document.details == null) {
+            return null;
         }
 
+        var wb = document.words.build();
+        List<String> words = Arrays.asList(wb.keywords);
+        TLongList metas = new TLongArrayList(wb.metadata);
+
+        return new DocumentRecord(
+                domainName,
+                document.url.toString(),
+                ordinal,
+                document.state.toString(),
+                document.stateReason,
+                document.details.title,
+                document.details.description,
+                HtmlFeature.encode(document.details.features),
+                document.details.standard.name(),
+                document.details.length,
+                document.details.hashCode,
+                (float) document.details.quality,
+                document.details.metadata.encode(),
+                document.details.pubYear,
+                words,
+                metas,
+                null
+        );
     }
 
     private Object writeLinkData(ProcessedDomain domain) throws IOException {
-        String from = domain.domain.toString();
-
         if (domain.documents == null)
             return this;
 
-        Set<EdgeDomain> seen = new HashSet<>();
+        Set<EdgeDomain> linkedDomains = new LinkedHashSet<>();
 
         for (var doc : domain.documents) {
             if (doc.details == null)
                 continue;
 
             for (var link : doc.details.linksExternal) {
-                var dest = link.domain;
+                linkedDomains.add(link.domain);
+            }
+        }
 
-                if (!seen.add(dest)) {
-                    continue;
-                }
+        writeLinkData(domain, linkedDomains);
 
-                domainLinkWriter.write(new DomainLinkRecord(
-                        from,
-                        dest.toString()
-                ));
-            }
+        return this;
+    }
+
+    private void writeLinkData(ProcessedDomain domain, Collection<EdgeDomain> linkedDomains) throws IOException {
+        String from = domain.domain.toString();
+
+        for (var dest : linkedDomains) {
+            domainLinkWriter.write(new DomainLinkRecord(
+                    from,
+                    dest.toString()
+            ));
         }
 
         if (domain.redirect != null) {
@@ -183,15 +222,15 @@ public class ConverterBatchWriter implements AutoCloseable, ConverterBatchWriter
                     domain.redirect.toString()
             ));
         }
-
-        return this;
     }
 
     public Object writeDomainData(ProcessedDomain domain) throws IOException {
-        DomainMetadata metadata = DomainMetadata.from(domain);
+        writeDomainData(domain, DomainMetadata.from(domain), getFeedUrls(domain));
 
-        List<String> feeds = getFeedUrls(domain);
+        return this;
+    }
 
+    private void writeDomainData(ProcessedDomain domain, DomainMetadata metadata, List<String> feeds) throws IOException {
         domainWriter.write(
                 new DomainRecord(
                         domain.domain.toString(),
@@ -204,8 +243,6 @@ public class ConverterBatchWriter implements AutoCloseable, ConverterBatchWriter
                         feeds
                 )
         );
-
-        return this;
     }
 
     private List<String> getFeedUrls(ProcessedDomain domain) {
@@ -227,42 +264,3 @@ public class ConverterBatchWriter implements AutoCloseable, ConverterBatchWriter
         domainLinkWriter.close();
     }
 }
-
-record DomainMetadata(int known, int good, int visited) {
-
-    public static DomainMetadata from(ProcessedDomain domain) {
-        if (domain.sizeloadSizeAdvice != null) {
-            return new DomainMetadata(
-                    domain.sizeloadSizeAdvice,
-                    domain.sizeloadSizeAdvice,
-                    domain.sizeloadSizeAdvice
-            );
-        }
-
-        var documents = domain.documents;
-        if (documents == null) {
-            return new DomainMetadata(0, 0, 0);
-        }
-
-        int visitedUrls = 0;
-        int goodUrls = 0;
-        Set<EdgeUrl> knownUrls = new HashSet<>();
-
-        for (var doc : documents) {
-            visitedUrls++;
-
-            if (doc.isOk()) {
-                goodUrls++;
-            }
-
-            knownUrls.add(doc.url);
-
-            Optional.ofNullable(doc.details)
-                    .map(details -> details.linksInternal)
-                    .ifPresent(knownUrls::addAll);
-        }
-
-        return new DomainMetadata(knownUrls.size(), goodUrls, visitedUrls);
-    }
-
-}
\ No newline at end of file
@@ -11,5 +11,7 @@ public interface ConverterBatchWriterIf {
 
     void writeSideloadSource(SideloadSource sideloadSource) throws IOException;
 
+    void writeStreamedDomain(StreamedDomain domain) throws IOException;
+
     void writeProcessedDomain(ProcessedDomain domain);
 }
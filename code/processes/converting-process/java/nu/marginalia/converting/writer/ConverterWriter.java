@@ -1,43 +1,75 @@
 package nu.marginalia.converting.writer;
 
 import lombok.SneakyThrows;
+import nu.marginalia.io.processed.ProcessedDataFileNames;
 import nu.marginalia.worklog.BatchingWorkLog;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/** Writes the converted domains to parquet files, in batches tracked by the work log.
+ * <p></p>
+ * Several writer threads (converter.writerThreads) encode parquet concurrently, each
+ * into its own shard of the current batch.  Switching batches waits for the writers to
+ * finish the item at hand, then closes every shard before the batch is marked as
+ * finished in the work log; so a batch is either complete across all shards or
+ * discarded in its entirety when the converter is resumed after a crash.
+ */
 public class ConverterWriter implements AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(ConverterWriter.class);
 
+    private static final int DEFAULT_WRITER_THREADS =
+            Math.clamp(Runtime.getRuntime().availableProcessors() / 8, 1, 4);
+
     private final BatchingWorkLog workLog;
     private final Path basePath;
 
     private final Duration switchInterval
             = Duration.of(10, ChronoUnit.MINUTES);
-    private final ArrayBlockingQueue<ConverterBatchWritableIf> domainData
-            = new ArrayBlockingQueue<>(1);
+    private final ArrayBlockingQueue<ConverterBatchWritableIf> domainData;
 
-    private final Thread workerThread;
+    private final List<Thread> workerThreads = new ArrayList<>();
 
-    private ConverterBatchWriter currentWriter;
+    /** Held by the writers while writing an item, and exclusively when switching batches */
+    private final ReadWriteLock batchLock = new ReentrantReadWriteLock();
+    private final ConverterBatchWriter[] currentWriters;
+    private final IntervalAction switcher = new IntervalAction(this::switchBatch, switchInterval);
 
     volatile boolean running = true;
 
-    public ConverterWriter(BatchingWorkLog workLog, Path basePath) {
+    public ConverterWriter(BatchingWorkLog workLog, Path basePath) throws IOException {
+        this(workLog, basePath, Integer.getInteger("converter.writerThreads", DEFAULT_WRITER_THREADS));
+    }
+
+    public ConverterWriter(BatchingWorkLog workLog, Path basePath, int writerThreads) throws IOException {
         this.workLog = workLog;
         this.basePath = basePath;
 
-        workerThread = new Thread(this::writerThread, getClass().getSimpleName());
-        workerThread.start();
+        domainData = new ArrayBlockingQueue<>(writerThreads);
+        currentWriters = new ConverterBatchWriter[writerThreads];
+
+        openWriters();
+
+        for (int shard = 0; shard < writerThreads; shard++) {
+            final int s = shard;
+            var thread = new Thread(() -> writerThread(s), getClass().getSimpleName() + "-" + shard);
+            thread.start();
+            workerThreads.add(thread);
+        }
     }
 
     @SneakyThrows
@@ -49,11 +81,7 @@ public class ConverterWriter implements AutoCloseable {
     }
 
     @SneakyThrows
-    private void writerThread() {
-        IntervalAction switcher = new IntervalAction(this::switchBatch, switchInterval);
-
-        currentWriter = new ConverterBatchWriter(basePath, workLog.getBatchNumber());
-
+    private void writerThread(int shard) {
         while (running || !domainData.isEmpty()) {
             // poll with a timeout so we have an
             // opportunity to check the running condition
@@ -67,15 +95,23 @@ public class ConverterWriter implements AutoCloseable {
 
             String id = data.id();
 
-            if (workLog.isItemCommitted(id) || workLog.isItemInCurrentBatch(id)) {
-                logger.warn("Skipping already logged item {}", id);
-                data.close();
-                continue;
-            }
+            batchLock.readLock().lock();
+            try {
+                if (!workLog.claimItem(id)) {
+                    logger.warn("Skipping already logged item {}", id);
+                    continue;
+                }
 
-            currentWriter.write(data);
+                currentWriters[shard].write(data);
 
-            workLog.logItem(id);
+                workLog.logItem(id);
+            }
+            finally {
+                batchLock.readLock().unlock();
+
+                // Releases any spill files held by the item
+                data.close();
+            }
 
             switcher.tick();
         }
@@ -83,28 +119,53 @@ public class ConverterWriter implements AutoCloseable {
 
     @SneakyThrows
     public boolean switchBatch() {
-        if (workLog.isCurrentBatchEmpty()) {
-            // Nothing to commit
-            return false;
+        batchLock.writeLock().lock();
+        try {
+            if (workLog.isCurrentBatchEmpty()) {
+                // Nothing to commit
+                return false;
+            }
+
+            // order matters here
+            closeWriters();
+            workLog.logFinishedBatch();
+            logger.info("Switching to batch {}", workLog.getBatchNumber());
+            openWriters();
+
+            return true;
+        }
+        finally {
+            batchLock.writeLock().unlock();
         }
+    }
 
+    private void openWriters() throws IOException {
+        int batchNumber = workLog.getBatchNumber();
 
-        // order matters here
-        currentWriter.close();
-        workLog.logFinishedBatch();
-        logger.info("Switching to batch {}", workLog.getBatchNumber());
-        currentWriter = new ConverterBatchWriter(basePath, workLog.getBatchNumber());
+        // A batch left unfinished by a previous run is written anew, and it may have been
+        // written by more writers than there are now, so its shards are removed up front
+        ProcessedDataFileNames.deleteBatchFiles(basePath, batchNumber);
 
-        return true;
+        for (int shard = 0; shard < currentWriters.length; shard++) {
+            currentWriters[shard] = new ConverterBatchWriter(basePath, batchNumber, shard);
+        }
+    }
+
+    private void closeWriters() throws IOException {
+        for (var writer : currentWriters) {
+            writer.close();
+        }
     }
 
     @Override
     public void close() throws Exception {
         running = false;
-        workerThread.join();
+        for (var thread : workerThreads) {
+            thread.join();
+        }
 
         // order matters here
-        currentWriter.close();
+        closeWriters();
         workLog.logFinishedBatch();
     }
 }
@@ -122,7 +183,7 @@ class IntervalAction {
 
     /** Execute the provided action if enough time has passed
      * since the last successful invocation */
-    public void tick() {
+    public synchronized void tick() {
         var now = Instant.now();
         if (nextActionInstant == null) {
             nextActionInstant = now.plus(interval);
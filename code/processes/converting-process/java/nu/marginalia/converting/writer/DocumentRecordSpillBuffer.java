@@ -0,0 +1,236 @@
+package nu.marginalia.converting.writer;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import nu.marginalia.model.processed.DocumentRecord;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/** Append-only buffer of document records that is kept in memory up until
+ * a size threshold, and then spills to a temporary file.
+ * <p></p>
+ * The domain field of the records is not retained, and is expected to be
+ * filled in by the consumer.
+ */
+public class DocumentRecordSpillBuffer implements AutoCloseable {
+    private static final long DEFAULT_SPILL_THRESHOLD = Long.getLong("converter.spillThreshold", 32 * 1024 * 1024);
+    private static final Path DEFAULT_SPILL_DIR = Path.of(System.getProperty("converter.spillDir", System.getProperty("java.io.tmpdir")));
+
+    private final long spillThreshold;
+    private final Path spillDir;
+
+    private final List<DocumentRecord> memRecords = new ArrayList<>();
+    private long memBytes = 0;
+
+    private Path spillFile;
+    private DataOutputStream spillOutput;
+    private DataInputStream spillInput;
+    private int spillCount = 0;
+
+    public DocumentRecordSpillBuffer() {
+        this(DEFAULT_SPILL_THRESHOLD, DEFAULT_SPILL_DIR);
+    }
+
+    public DocumentRecordSpillBuffer(long spillThreshold, Path spillDir) {
+        this.spillThreshold = spillThreshold;
+        this.spillDir = spillDir;
+    }
+
+    public void add(DocumentRecord record) throws IOException {
+        if (spillOutput == null && memBytes < spillThreshold) {
+            memRecords.add(record);
+            memBytes += estimateSize(record);
+            return;
+        }
+
+        if (spillOutput == null) {
+            spillFile = Files.createTempFile(spillDir, "converter", ".dat");
+            spillOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile), 64 * 1024));
+        }
+
+        writeRecord(spillOutput, record);
+        spillCount++;
+    }
+
+    public int size() {
+        return memRecords.size() + spillCount;
+    }
+
+    public boolean hasSpilled() {
+        return spillFile != null;
+    }
+
+    /** Iterate over the records in the order they were added.  The buffer must not be
+     * added to after this method has been called.  Records may be modified by the consumer. */
+    public Iterator<DocumentRecord> iterator() throws IOException {
+        if (spillOutput == null) {
+            return memRecords.iterator();
+        }
+
+        spillOutput.close();
+        spillOutput = null;
+
+        spillInput = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile), 64 * 1024));
+        var spillIterator = new Iterator<DocumentRecord>() {
+            int remaining = spillCount;
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            public DocumentRecord next() {
+                if (remaining <= 0)
+                    throw new NoSuchElementException();
+
+                try {
+                    remaining--;
+                    return readRecord(spillInput);
+                }
+                catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        };
+
+        var memIterator = memRecords.iterator();
+
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return memIterator.hasNext() || spillIterator.hasNext();
+            }
+
+            @Override
+            public DocumentRecord next() {
+                if (memIterator.hasNext())
+                    return memIterator.next();
+                return spillIterator.next();
+            }
+        };
+    }
+
+    private static long estimateSize(DocumentRecord record) {
+        long size = 128;
+
+        size += sizeOf(record.url) + sizeOf(record.title) + sizeOf(record.description) + sizeOf(record.stateReason);
+
+        if (record.words != null) {
+            for (String word : record.words) {
+                size += 40 + word.length();
+            }
+        }
+        if (record.metas != null) {
+            size += 8L * record.metas.size();
+        }
+
+        return size;
+    }
+
+    private static long sizeOf(String s) {
+        return s == null ? 0 : 40 + s.length();
+    }
+
+    private static void writeRecord(DataOutputStream out, DocumentRecord record) throws IOException {
+        writeString(out, record.url);
+        out.writeInt(record.ordinal);
+        writeString(out, record.state);
+        writeString(out, record.stateReason);
+        writeString(out, record.title);
+        writeString(out, record.description);
+        out.writeInt(record.htmlFeatures);
+        writeString(out, record.htmlStandard);
+        out.writeInt(record.length);
+        out.writeLong(record.hash);
+        out.writeFloat(record.quality);
+        out.writeLong(record.documentMetadata);
+        out.writeInt(record.pubYear == null ? Integer.MIN_VALUE : record.pubYear);
+
+        int wordCount = record.words == null ? -1 : record.words.size();
+        out.writeInt(wordCount);
+        for (int i = 0; i < wordCount; i++) {
+            writeString(out, record.words.get(i));
+            out.writeLong(record.metas.get(i));
+        }
+    }
+
+    private static DocumentRecord readRecord(DataInputStream in) throws IOException {
+        var record = new DocumentRecord();
+
+        record.url = readString(in);
+        record.ordinal = in.readInt();
+        record.state = readString(in);
+        record.stateReason = readString(in);
+        record.title = readString(in);
+        record.description = readString(in);
+        record.htmlFeatures = in.readInt();
+        record.htmlStandard = readString(in);
+        record.length = in.readInt();
+        record.hash = in.readLong();
+        record.quality = in.readFloat();
+        record.documentMetadata = in.readLong();
+
+        int pubYear = in.readInt();
+        record.pubYear = pubYear == Integer.MIN_VALUE ? null : pubYear;
+
+        int wordCount = in.readInt();
+        if (wordCount >= 0) {
+            List<String> words = new ArrayList<>(wordCount);
+            TLongList metas = new TLongArrayList(wordCount);
+
+            for (int i = 0; i < wordCount; i++) {
+                words.add(readString(in));
+                metas.add(in.readLong());
+            }
+
+            record.words = words;
+            record.metas = metas;
+        }
+
+        return record;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        memRecords.clear();
+
+        if (spillInput != null) {
+            spillInput.close();
+            spillInput = null;
+        }
+
+        if (spillOutput != null) {
+            spillOutput.close();
+            spillOutput = null;
+        }
+
+        if (spillFile != null) {
+            Files.deleteIfExists(spillFile);
+            spillFile = null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package nu.marginalia.converting.writer;
+
+import nu.marginalia.converting.model.ProcessedDomain;
+import nu.marginalia.model.EdgeUrl;
+
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
+public record DomainMetadata(int known, int good, int visited) {
+
+    public static DomainMetadata from(ProcessedDomain domain) {
+        if (domain.sizeloadSizeAdvice != null) {
+            return new DomainMetadata(
+                    domain.sizeloadSizeAdvice,
+                    domain.sizeloadSizeAdvice,
+                    domain.sizeloadSizeAdvice
+            );
+        }
+
+        var documents = domain.documents;
+        if (documents == null) {
+            return new DomainMetadata(0, 0, 0);
+        }
+
+        int visitedUrls = 0;
+        int goodUrls = 0;
+        Set<EdgeUrl> knownUrls = new HashSet<>();
+
+        for (var doc : documents) {
+            visitedUrls++;
+
+            if (doc.isOk()) {
+                goodUrls++;
+            }
+
+            knownUrls.add(doc.url);
+
+            Optional.ofNullable(doc.details)
+                    .map(details -> details.linksInternal)
+                    .ifPresent(knownUrls::addAll);
+        }
+
+        return new DomainMetadata(knownUrls.size(), goodUrls, visitedUrls);
+    }
+
+}
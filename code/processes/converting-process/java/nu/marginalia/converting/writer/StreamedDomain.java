@@ -0,0 +1,23 @@
+package nu.marginalia.converting.writer;
+
+import nu.marginalia.converting.model.ProcessedDomain;
+import nu.marginalia.model.EdgeDomain;
+import nu.marginalia.model.EdgeUrl;
+import nu.marginalia.model.processed.DocumentRecord;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+
+/** A domain whose documents are streamed to the writer as finished records,
+ * with the domain-level information gathered ahead of time, so that the
+ * processed documents need not be kept in memory. */
+public interface StreamedDomain {
+    ProcessedDomain getDomain();
+
+    DomainMetadata getMetadata();
+    Collection<EdgeUrl> getFeedUrls();
+    Collection<EdgeDomain> getLinkedDomains();
+
+    Iterator<DocumentRecord> getDocumentRecords() throws IOException;
+}
@@ -6,6 +6,7 @@ import com.google.inject.Injector;
 import nu.marginalia.model.html.HtmlStandard;
 import nu.marginalia.converting.model.ProcessedDocument;
 import nu.marginalia.converting.processor.DomainProcessor;
+import nu.marginalia.converting.writer.ConverterBatchWriter;
 import nu.marginalia.crawling.io.SerializableCrawlDataStream;
 import nu.marginalia.crawling.model.CrawledDocument;
 import nu.marginalia.crawling.model.CrawledDomain;
@@ -14,6 +15,7 @@ import nu.marginalia.model.EdgeDomain;
 import nu.marginalia.model.crawl.DomainIndexingState;
 import nu.marginalia.model.crawl.PubDate;
 import nu.marginalia.model.crawl.UrlIndexingState;
+import nu.marginalia.model.processed.DocumentRecord;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -95,35 +97,41 @@ public class ConvertingIntegrationTest {
     }
 
     @Test
-    public void testMemexMarginaliaNuSideloadProcessing() throws IOException {
-        var ret = domainProcessor.sideloadProcessing(asSerializableCrawlData(readMarginaliaWorkingSet()), 100);
-        assertNotNull(ret);
-        assertEquals("memex.marginalia.nu", ret.id());
-
-        var domain = ret.getDomain();
-        assertEquals(domain.domain, new EdgeDomain("memex.marginalia.nu"));
-
-        List<ProcessedDocument> docsAll = new ArrayList<>();
-        Map<UrlIndexingState, Integer> resultsByStatusCount = new HashMap<>();
-        ret.getDocumentsStream().forEachRemaining(docsAll::add);
-        assertTrue(docsAll.size() > 25);
-
-        docsAll.forEach(doc -> resultsByStatusCount.merge(doc.state, 1, Integer::sum));
-
-        assertTrue(resultsByStatusCount.get(UrlIndexingState.OK) > 25);
-
-        for (var doc : docsAll) {
-
-            if (!doc.isProcessedFully()) {
-                continue;
+    public void testMemexMarginaliaNuStreamingProcessing() throws Exception {
+        var expected = domainProcessor.fullProcessing(asSerializableCrawlData(readMarginaliaWorkingSet()));
+
+        try (var ret = domainProcessor.streamingProcessing(asSerializableCrawlData(readMarginaliaWorkingSet()))) {
+            assertNotNull(ret);
+            assertEquals("memex.marginalia.nu", ret.id());
+            assertEquals(expected.domain, ret.getDomain().domain);
+            assertEquals(expected.state, ret.getDomain().state);
+
+            Map<String, DocumentRecord> recordsByUrl = new HashMap<>();
+            ret.getDocumentRecords().forEachRemaining(record -> recordsByUrl.put(record.url, record));
+
+            // The streamed records should be identical to what full processing produces
+            int ordinal = 0;
+            for (var doc : expected.documents) {
+                var expectedRecord = ConverterBatchWriter.createDocumentRecord("memex.marginalia.nu", ordinal++, doc);
+                if (expectedRecord == null)
+                    continue;
+
+                var actualRecord = recordsByUrl.get(expectedRecord.url);
+                assertNotNull(actualRecord, expectedRecord.url);
+                assertEquals(expectedRecord.documentMetadata, actualRecord.documentMetadata, expectedRecord.url);
+                assertEquals(expectedRecord.ordinal, actualRecord.ordinal, expectedRecord.url);
+
+                Map<String, Long> expectedWords = new HashMap<>();
+                for (int i = 0; i < expectedRecord.words.size(); i++) {
+                    expectedWords.put(expectedRecord.words.get(i), expectedRecord.metas.get(i));
+                }
+                Map<String, Long> actualWords = new HashMap<>();
+                for (int i = 0; i < actualRecord.words.size(); i++) {
+                    actualWords.put(actualRecord.words.get(i), actualRecord.metas.get(i));
+                }
+                assertEquals(expectedWords, actualWords, expectedRecord.url);
             }
-
-            var details = doc.details;
-
-            assertTrue(details.metadata.size() > 0);
-            assertTrue(details.title.length() > 4);
-            assertTrue(details.description.length() > 4);
-            assertEquals(HtmlStandard.HTML5, details.standard);
+            assertTrue(recordsByUrl.size() > 25);
         }
     }
 
@@ -151,6 +159,7 @@ public class ConvertingIntegrationTest {
                     "",
                     false,
                     null,
+                    null,
                     null
                     );
             docs.add(doc);
@@ -0,0 +1,36 @@
+package nu.marginalia.converting.processor.logic.dom;
+
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentTagIndexTest {
+
+    @Test
+    public void testIndex() {
+        var doc = Jsoup.parse("""
+                <html><head><meta http-equiv="refresh" content="0;url=/foo"><script src="a.js"></script></head>
+                <body>
+                <A href="/1">one</a>
+                <div><a href="/2">two</a><iframe src="/frame"></iframe></div>
+                <p>  hello world!
+                  <span> neat! </span>
+                <p>
+                </body></html>
+                """);
+
+        var mlv = new MeasureLengthVisitor();
+        var index = DocumentTagIndex.build(doc, mlv);
+
+        for (String tag : new String[] { "a", "iframe", "meta", "script", "video" }) {
+            assertEquals(doc.getElementsByTag(tag), index.getElementsByTag(tag), tag);
+        }
+
+        var expectedLength = new MeasureLengthVisitor();
+        doc.traverse(expectedLength);
+        assertEquals(expectedLength.length, mlv.length);
+
+        assertThrows(IllegalArgumentException.class, () -> index.getElementsByTag("span"));
+    }
+}
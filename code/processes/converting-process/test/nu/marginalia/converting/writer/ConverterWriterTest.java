@@ -0,0 +1,135 @@
+package nu.marginalia.converting.writer;
+
+import gnu.trove.list.array.TLongArrayList;
+import nu.marginalia.converting.model.ProcessedDomain;
+import nu.marginalia.model.EdgeDomain;
+import nu.marginalia.model.EdgeUrl;
+import nu.marginalia.model.crawl.DomainIndexingState;
+import nu.marginalia.model.processed.DocumentRecord;
+import nu.marginalia.worklog.BatchingWorkLogImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConverterWriterTest {
+    Path tempDir;
+    Path spillDir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory(getClass().getSimpleName());
+        spillDir = Files.createDirectory(tempDir.resolve("spill"));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (var files = Files.walk(tempDir)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testSpilledDomainIsReleased() throws Exception {
+        var workLog = new BatchingWorkLogImpl(tempDir.resolve("worklog"));
+        var domain = new SpilledDomain("www.example.com", new DocumentRecordSpillBuffer(0, spillDir));
+
+        for (int i = 0; i < 10; i++) {
+            domain.records.add(createRecord(i));
+        }
+        assertTrue(domain.records.hasSpilled());
+
+        try (var writer = new ConverterWriter(workLog, tempDir, 2)) {
+            writer.accept(domain);
+        }
+
+        assertTrue(workLog.isItemCommitted("www.example.com"));
+
+        try (var files = Files.list(spillDir)) {
+            assertEquals(List.of(), files.toList());
+        }
+    }
+
+    private DocumentRecord createRecord(int ordinal) {
+        return new DocumentRecord(
+                "www.example.com",
+                "https://www.example.com/" + ordinal,
+                ordinal,
+                "OK",
+                null,
+                "Title " + ordinal,
+                "Description",
+                0,
+                "HTML5",
+                100,
+                ordinal,
+                0.5f,
+                0L,
+                null,
+                List.of("hello", "world"),
+                new TLongArrayList(new long[] { 1, 2 }),
+                null
+        );
+    }
+
+    /** A streamed domain whose documents are held in a spill buffer, as in the converter's streaming processing */
+    private static class SpilledDomain implements ConverterBatchWritableIf, StreamedDomain {
+        private final ProcessedDomain domain = new ProcessedDomain();
+        private final DocumentRecordSpillBuffer records;
+
+        SpilledDomain(String domainName, DocumentRecordSpillBuffer records) {
+            this.records = records;
+
+            domain.domain = new EdgeDomain(domainName);
+            domain.state = DomainIndexingState.ACTIVE;
+        }
+
+        @Override
+        public ProcessedDomain getDomain() {
+            return domain;
+        }
+
+        @Override
+        public DomainMetadata getMetadata() {
+            return new DomainMetadata(records.size(), records.size(), records.size());
+        }
+
+        @Override
+        public Collection<EdgeUrl> getFeedUrls() {
+            return List.of();
+        }
+
+        @Override
+        public Collection<EdgeDomain> getLinkedDomains() {
+            return List.of();
+        }
+
+        @Override
+        public Iterator<DocumentRecord> getDocumentRecords() throws IOException {
+            return records.iterator();
+        }
+
+        @Override
+        public void write(ConverterBatchWriter writer) throws IOException {
+            writer.writeStreamedDomain(this);
+        }
+
+        @Override
+        public String id() {
+            return domain.domain.toString();
+        }
+
+        @Override
+        public void close() throws Exception {
+            records.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package nu.marginalia.converting.writer;
+
+import gnu.trove.list.array.TLongArrayList;
+import nu.marginalia.model.processed.DocumentRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentRecordSpillBufferTest {
+    Path tempDir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory(getClass().getSimpleName());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (var files = Files.list(tempDir)) {
+            for (var file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(tempDir);
+    }
+
+    private DocumentRecord createRecord(int ordinal) {
+        return new DocumentRecord(
+                "www.example.com",
+                "https://www.example.com/" + ordinal,
+                ordinal,
+                "OK",
+                null,
+                "Title " + ordinal,
+                ordinal % 2 == 0 ? null : "Description",
+                ordinal,
+                "HTML5",
+                100 + ordinal,
+                0xCAFEBABEL + ordinal,
+                -ordinal,
+                1234L * ordinal,
+                ordinal % 3 == 0 ? null : 2000 + ordinal,
+                List.of("hello", "world", "n" + ordinal),
+                new TLongArrayList(new long[] { 1, 2, ordinal }),
+                null
+        );
+    }
+
+    @Test
+    public void testInMemory() throws IOException {
+        try (var buffer = new DocumentRecordSpillBuffer(Long.MAX_VALUE, tempDir)) {
+            for (int i = 0; i < 10; i++) {
+                buffer.add(createRecord(i));
+            }
+
+            assertFalse(buffer.hasSpilled());
+            assertEquals(10, buffer.size());
+
+            List<DocumentRecord> actual = new ArrayList<>();
+            buffer.iterator().forEachRemaining(actual::add);
+
+            for (int i = 0; i < 10; i++) {
+                assertEquals(createRecord(i), actual.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testSpill() throws IOException {
+        try (var buffer = new DocumentRecordSpillBuffer(1000, tempDir)) {
+            for (int i = 0; i < 100; i++) {
+                buffer.add(createRecord(i));
+            }
+
+            assertTrue(buffer.hasSpilled());
+            assertEquals(100, buffer.size());
+
+            List<DocumentRecord> actual = new ArrayList<>();
+            buffer.iterator().forEachRemaining(actual::add);
+
+            assertEquals(100, actual.size());
+            for (int i = 0; i < 100; i++) {
+                var expected = createRecord(i);
+
+                // the domain isn't retained for spilled records
+                actual.get(i).domain = expected.domain;
+
+                assertEquals(expected, actual.get(i));
+            }
+        }
+
+        try (var files = Files.list(tempDir)) {
+            assertEquals(0, files.count(), "Spill file should be removed on close");
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import com.zaxxer.hikari.HikariDataSource;
 import nu.marginalia.ProcessConfiguration;
 import nu.marginalia.ProcessConfigurationModule;
 import nu.marginalia.UserAgent;
@@ -14,11 +15,14 @@ import nu.marginalia.crawl.retreival.CrawlDataReference;
 import nu.marginalia.crawl.retreival.DomainProber;
 import nu.marginalia.crawl.retreival.fetcher.HttpFetcherImpl;
 import nu.marginalia.crawl.retreival.fetcher.warc.WarcRecorder;
+import nu.marginalia.crawl.retreival.frontier.CrawlFrontierMonitor;
 import nu.marginalia.crawl.spec.CrawlSpecProvider;
 import nu.marginalia.crawl.spec.DbCrawlSpecProvider;
 import nu.marginalia.crawl.spec.ParquetCrawlSpecProvider;
 import nu.marginalia.crawl.warc.WarcArchiverFactory;
 import nu.marginalia.crawl.warc.WarcArchiverIf;
+import nu.marginalia.crawl.warc.InlineParquetConversion;
+import nu.marginalia.crawl.warc.ParquetConversionPipeline;
 import nu.marginalia.crawling.io.CrawledDomainReader;
 import nu.marginalia.crawling.io.CrawlerOutputFile;
 import nu.marginalia.crawling.parquet.CrawledDocumentParquetRecordFileWriter;
@@ -63,11 +67,15 @@ public class CrawlerMain extends ProcessMainClass {
     private final DbCrawlSpecProvider dbCrawlSpecProvider;
     private final AnchorTagsSourceFactory anchorTagsSourceFactory;
     private final WarcArchiverFactory warcArchiverFactory;
+    private final ParquetConversionPipeline parquetConversionPipeline;
     private final Gson gson;
+    private final HikariDataSource dataSource;
+    private final ProcessConfiguration processConfiguration;
     private final int node;
     private final SimpleBlockingThreadPool pool;
 
     private final Map<String, String> processingIds = new ConcurrentHashMap<>();
+    private final CrawlFrontierMonitor frontierMonitor = new CrawlFrontierMonitor();
 
     final AbortMonitor abortMonitor = AbortMonitor.getInstance();
 
@@ -84,6 +92,8 @@ public class CrawlerMain extends ProcessMainClass {
                        DbCrawlSpecProvider dbCrawlSpecProvider,
                        AnchorTagsSourceFactory anchorTagsSourceFactory,
                        WarcArchiverFactory warcArchiverFactory,
+                       ParquetConversionPipeline parquetConversionPipeline,
+                       HikariDataSource dataSource,
                        Gson gson) {
         this.userAgent = userAgent;
         this.heartbeat = heartbeat;
@@ -93,7 +103,10 @@ public class CrawlerMain extends ProcessMainClass {
         this.dbCrawlSpecProvider = dbCrawlSpecProvider;
         this.anchorTagsSourceFactory = anchorTagsSourceFactory;
         this.warcArchiverFactory = warcArchiverFactory;
+        this.parquetConversionPipeline = parquetConversionPipeline;
         this.gson = gson;
+        this.dataSource = dataSource;
+        this.processConfiguration = processConfiguration;
         this.node = processConfiguration.node();
 
         pool = new SimpleBlockingThreadPool("CrawlerPool",
@@ -154,6 +167,7 @@ public class CrawlerMain extends ProcessMainClass {
     public void run(CrawlSpecProvider specProvider, Path outputDir) throws Exception {
 
         heartbeat.start();
+        frontierMonitor.startReporting(Integer.getInteger("crawler.frontier.reportInterval", 300));
 
         // First a validation run to ensure the file is all good to parse
         totalTasks = specProvider.totalCount();
@@ -163,7 +177,8 @@ public class CrawlerMain extends ProcessMainClass {
         }
         logger.info("Queued {} crawl tasks, let's go", totalTasks);
 
-        try (WorkLog workLog = new WorkLog(outputDir.resolve("crawler.log"));
+        try (CrawlerTelemetry telemetry = new CrawlerTelemetry(dataSource, processConfiguration, frontierMonitor);
+             WorkLog workLog = new WorkLog(outputDir.resolve("crawler.log"));
              WarcArchiverIf warcArchiver = warcArchiverFactory.get(outputDir);
              AnchorTagsSource anchorTagsSource = anchorTagsSourceFactory.create(specProvider.getDomains())
         ) {
@@ -233,6 +248,7 @@ public class CrawlerMain extends ProcessMainClass {
             Path newWarcFile = CrawlerOutputFile.createWarcPath(outputDir, id, domain, CrawlerOutputFile.WarcFileVersion.LIVE);
             Path tempFile = CrawlerOutputFile.createWarcPath(outputDir, id, domain, CrawlerOutputFile.WarcFileVersion.TEMP);
             Path parquetFile = CrawlerOutputFile.createParquetPath(outputDir, id, domain);
+            Path parquetTempFile = parquetFile.resolveSibling(parquetFile.getFileName() + ".tmp");
 
             if (Files.exists(newWarcFile)) {
                 Files.move(newWarcFile, tempFile, StandardCopyOption.REPLACE_EXISTING);
@@ -240,12 +256,20 @@ public class CrawlerMain extends ProcessMainClass {
             else {
                 Files.deleteIfExists(tempFile);
             }
+            Files.deleteIfExists(parquetTempFile);
 
-            try (var warcRecorder = new WarcRecorder(newWarcFile); // write to a temp file for now
+            // The parquet file is built while crawling, in a temp file since the previous
+            // crawl data may live in parquetFile and is read as a reference during the crawl
+            InlineParquetConversion conversion = parquetConversionPipeline.isEnabled()
+                    ? parquetConversionPipeline.begin(domain, parquetTempFile)
+                    : null;
+
+            try (var warcRecorder = new WarcRecorder(newWarcFile, conversion); // write to a temp file for now
                  var retriever = new CrawlerRetreiver(fetcher, domainProber, specification, warcRecorder);
                  CrawlDataReference reference = getReference())
             {
                 Thread.currentThread().setName("crawling:" + domain);
+                frontierMonitor.register(retriever.getCrawlFrontier());
 
                 var domainLinks = anchorTagsSource.getAnchorTags(domain);
 
@@ -254,14 +278,26 @@ public class CrawlerMain extends ProcessMainClass {
                     Files.delete(tempFile);
                 }
 
-                int size = retriever.fetch(domainLinks, reference);
+                int size;
+                try {
+                    size = retriever.fetch(domainLinks, reference);
+                }
+                finally {
+                    frontierMonitor.unregister(retriever.getCrawlFrontier());
+                }
 
                 // Delete the reference crawl data if it's not the same as the new one
                 // (mostly a case when migrating from legacy->warc)
                 reference.delete();
 
-                CrawledDocumentParquetRecordFileWriter
-                        .convertWarc(domain, userAgent, newWarcFile, parquetFile);
+                if (conversion != null && conversion.finish()) {
+                    Files.move(parquetTempFile, parquetFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+                else {
+                    // Fall back to converting the warc file from disk
+                    CrawledDocumentParquetRecordFileWriter
+                            .convertWarc(domain, userAgent, newWarcFile, parquetFile);
+                }
 
                 warcArchiver.consumeWarc(newWarcFile, domain);
 
@@ -277,8 +313,13 @@ public class CrawlerMain extends ProcessMainClass {
                 processingIds.remove(domain);
                 Thread.currentThread().setName("[idle]");
 
+                if (conversion != null) {
+                    conversion.close();
+                }
+
                 Files.deleteIfExists(newWarcFile);
                 Files.deleteIfExists(tempFile);
+                Files.deleteIfExists(parquetTempFile);
             }
         }
 
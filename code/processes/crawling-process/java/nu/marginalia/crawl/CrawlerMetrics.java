@@ -0,0 +1,71 @@
+package nu.marginalia.crawl;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+
+/** Prometheus metrics for the crawler process.
+ * <p></p>
+ * Rates (requests per second, bytes per second) are intended to be derived
+ * from the counters with Prometheus' rate() function.
+ */
+public class CrawlerMetrics {
+    public static final Counter wmsa_crawler_requests = Counter.build()
+            .name("wmsa_crawler_requests")
+            .labelNames("status")
+            .help("Crawler HTTP requests by status code, or 'error' for failed requests")
+            .register();
+
+    public static final Counter wmsa_crawler_bytes = Counter.build()
+            .name("wmsa_crawler_bytes")
+            .help("Crawler HTTP response body bytes fetched")
+            .register();
+
+    public static final Histogram wmsa_crawler_response_time = Histogram.build()
+            .name("wmsa_crawler_response_time")
+            .exponentialBuckets(0.05, 2, 10)
+            .help("Crawler HTTP response time (seconds)")
+            .register();
+
+    public static final Counter wmsa_crawler_fetch_seconds = Counter.build()
+            .name("wmsa_crawler_fetch_seconds")
+            .help("Time spent by crawl tasks fetching and processing documents (seconds)")
+            .register();
+
+    public static final Counter wmsa_crawler_sleep_seconds = Counter.build()
+            .name("wmsa_crawler_sleep_seconds")
+            .labelNames("reason")
+            .help("Time spent by crawl tasks sleeping in the crawl delay timer (seconds)")
+            .register();
+
+    public static final Gauge wmsa_crawler_queue_depth = Gauge.build()
+            .name("wmsa_crawler_queue_depth")
+            .help("Total crawl frontier queue depth of the active domains")
+            .register();
+
+    public static final Gauge wmsa_crawler_max_queue_depth = Gauge.build()
+            .name("wmsa_crawler_max_queue_depth")
+            .help("Largest crawl frontier queue depth of any active domain")
+            .register();
+
+    public static final Gauge wmsa_crawler_active_domains = Gauge.build()
+            .name("wmsa_crawler_active_domains")
+            .help("Number of domains currently being crawled")
+            .register();
+
+    public static final Gauge wmsa_crawler_frontier_memory = Gauge.build()
+            .name("wmsa_crawler_frontier_memory")
+            .help("Estimated heap usage of the crawl frontiers of the active domains (bytes)")
+            .register();
+
+    public static void recordResponse(int statusCode, long bytes, long timeMs) {
+        wmsa_crawler_requests.labels(Integer.toString(statusCode)).inc();
+        wmsa_crawler_bytes.inc(bytes);
+        wmsa_crawler_response_time.observe(timeMs / 1000.);
+    }
+
+    public static void recordError(long timeMs) {
+        wmsa_crawler_requests.labels("error").inc();
+        wmsa_crawler_response_time.observe(timeMs / 1000.);
+    }
+}
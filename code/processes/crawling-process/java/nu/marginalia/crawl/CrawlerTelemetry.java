@@ -0,0 +1,166 @@
+package nu.marginalia.crawl;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.HTTPServer;
+import io.prometheus.client.hotspot.DefaultExports;
+import nu.marginalia.ProcessConfiguration;
+import nu.marginalia.crawl.retreival.frontier.CrawlFrontierMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static nu.marginalia.crawl.CrawlerMetrics.*;
+
+/** Exposes the crawler's metrics through a Prometheus endpoint, and periodically
+ * publishes a short summary of the crawl rate to the event log, where it is
+ * visible in the control service.
+ */
+public class CrawlerTelemetry implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(CrawlerTelemetry.class);
+
+    private static final int METRICS_PORT = Integer.getInteger("crawler.metricsPort", -1);
+    private static final int SUMMARY_INTERVAL = Integer.getInteger("crawler.metricsSummaryInterval", 300);
+
+    private final CrawlFrontierMonitor frontierMonitor;
+    private final HikariDataSource dataSource;
+    private final ProcessConfiguration configuration;
+    private final Thread summaryThread;
+    private HTTPServer server;
+
+    private Snapshot lastSnapshot = Snapshot.take();
+
+    public CrawlerTelemetry(HikariDataSource dataSource,
+                            ProcessConfiguration configuration,
+                            CrawlFrontierMonitor frontierMonitor) {
+        this.dataSource = dataSource;
+        this.configuration = configuration;
+        this.frontierMonitor = frontierMonitor;
+
+        if (METRICS_PORT > 0) {
+            try {
+                DefaultExports.initialize();
+                server = new HTTPServer(METRICS_PORT, true);
+                logger.info("Serving crawler metrics on port {}", METRICS_PORT);
+            }
+            catch (IOException ex) {
+                logger.error("Failed to start metrics server", ex);
+            }
+        }
+
+        summaryThread = new Thread(this::run, "CrawlerTelemetry");
+        summaryThread.setDaemon(true);
+        summaryThread.start();
+    }
+
+    private void run() {
+        try {
+            for (;;) {
+                TimeUnit.SECONDS.sleep(SUMMARY_INTERVAL);
+                update();
+            }
+        }
+        catch (InterruptedException ex) {
+            // normal shutdown
+        }
+    }
+
+    private void update() {
+        wmsa_crawler_active_domains.set(frontierMonitor.activeCount());
+        wmsa_crawler_frontier_memory.set(frontierMonitor.totalMemoryUsage());
+        wmsa_crawler_queue_depth.set(frontierMonitor.totalQueueSize());
+        wmsa_crawler_max_queue_depth.set(frontierMonitor.maxQueueSize());
+
+        var snapshot = Snapshot.take();
+        var delta = snapshot.minus(lastSnapshot);
+        lastSnapshot = snapshot;
+
+        double seconds = Math.max(1, delta.time / 1000.);
+        double busySeconds = delta.fetchSeconds + delta.sleepSeconds;
+        double sleepFraction = busySeconds > 0 ? delta.sleepSeconds / busySeconds : 0;
+
+        String summary = String.format("%.1f req/s, %.1f KB/s, %.0f%% err, %.0f%% sleeping, %d domains",
+                delta.requests / seconds,
+                delta.bytes / seconds / 1024,
+                delta.requests > 0 ? 100 * delta.errors / delta.requests : 0,
+                100 * sleepFraction,
+                frontierMonitor.activeCount());
+
+        logger.info("Crawl rate: {}", summary);
+        logEvent(summary);
+    }
+
+    /** Add the summary to the event log, as ServiceEventLog does for the services */
+    private void logEvent(String summary) {
+        try (var conn = dataSource.getConnection();
+             var stmt = conn.prepareStatement("""
+                        INSERT INTO SERVICE_EVENTLOG(SERVICE_NAME, SERVICE_BASE, INSTANCE, EVENT_TYPE, EVENT_MESSAGE)
+                        VALUES (?, ?, ?, ?, ?)
+                     """)) {
+            stmt.setString(1, configuration.processName() + ":" + configuration.node());
+            stmt.setString(2, configuration.processName());
+            stmt.setString(3, configuration.instanceUuid().toString());
+            stmt.setString(4, "CRAWLER-STATS");
+            stmt.setString(5, summary);
+
+            stmt.executeUpdate();
+        }
+        catch (SQLException ex) {
+            logger.error("Failed to log crawl rate summary", ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        summaryThread.interrupt();
+
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    /** Point in time values of the counters, used to calculate rates for the summary */
+    private record Snapshot(long time, double requests, double errors, double bytes, double fetchSeconds, double sleepSeconds) {
+        static Snapshot take() {
+            return new Snapshot(
+                    System.currentTimeMillis(),
+                    sumSamples(wmsa_crawler_requests, null),
+                    sumSamples(wmsa_crawler_requests, "error"),
+                    wmsa_crawler_bytes.get(),
+                    wmsa_crawler_fetch_seconds.get(),
+                    sumSamples(wmsa_crawler_sleep_seconds, null)
+            );
+        }
+
+        Snapshot minus(Snapshot other) {
+            return new Snapshot(time - other.time,
+                    requests - other.requests,
+                    errors - other.errors,
+                    bytes - other.bytes,
+                    fetchSeconds - other.fetchSeconds,
+                    sleepSeconds - other.sleepSeconds);
+        }
+
+        /** Sum the samples of a labelled counter, optionally only those with the given label value */
+        private static double sumSamples(Collector collector, String labelValue) {
+            double sum = 0;
+
+            for (var family : collector.collect()) {
+                for (var sample : family.samples) {
+                    if (!sample.name.endsWith("_total"))
+                        continue;
+                    if (labelValue != null && !sample.labelValues.contains(labelValue))
+                        continue;
+
+                    sum += sample.value;
+                }
+            }
+
+            return sum;
+        }
+    }
+}
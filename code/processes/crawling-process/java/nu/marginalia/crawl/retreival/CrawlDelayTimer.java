@@ -1,10 +1,19 @@
 package nu.marginalia.crawl.retreival;
 
 import lombok.SneakyThrows;
+import nu.marginalia.crawl.CrawlerMetrics;
+
+import java.util.concurrent.Semaphore;
 
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
+/** Paces the requests made to a domain.
+ * <p></p>
+ * Requests to the domain are made one at a time by whoever holds the timer's permit,
+ * be it the crawl thread or the sitemap fetcher, and the permit is held through the
+ * crawl delay that follows each request.
+ */
 public class CrawlDelayTimer {
 
     // When no crawl delay is specified, lean toward twice the fetch+process time, within these limits:
@@ -16,10 +25,23 @@ public class CrawlDelayTimer {
 
     private final long delayTime;
 
+    /** Fair, so that a waiting sitemap fetch gets its turn between the crawl thread's requests */
+    private final Semaphore permit = new Semaphore(1, true);
+
     public CrawlDelayTimer(long delayTime) {
         this.delayTime = delayTime;
     }
 
+    /** Wait for the permit to make a request to the domain */
+    public void acquirePermit() throws InterruptedException {
+        permit.acquire();
+    }
+
+    /** Release the permit, after the request has been made and the fetch delay waited out */
+    public void releasePermit() {
+        permit.release();
+    }
+
     /** Call when we've gotten an HTTP 429 response.  This will wait a moment, and then
      * set a flag that slows down the main crawl delay as well. */
     public void waitRetryDelay(RateLimitException ex) throws InterruptedException {
@@ -27,7 +49,7 @@ public class CrawlDelayTimer {
 
         int delay = ex.retryAfter();
 
-        Thread.sleep(Math.clamp(delay, 100, 5000));
+        sleep(Math.clamp(delay, 100, 5000), "retry");
     }
 
     @SneakyThrows
@@ -38,7 +60,7 @@ public class CrawlDelayTimer {
             if (spentTime > sleepTime)
                 return;
 
-            Thread.sleep(min(sleepTime - spentTime, 5000));
+            sleep(min(sleepTime - spentTime, 5000), "crawl-delay");
         }
         else {
             // When no crawl delay is specified, lean toward twice the fetch+process time,
@@ -52,12 +74,22 @@ public class CrawlDelayTimer {
             if (spentTime > sleepTime)
                 return;
 
-            Thread.sleep(sleepTime - spentTime);
+            sleep(sleepTime - spentTime, "crawl-delay");
         }
 
         if (slowDown) {
             // Additional delay when the server is signalling it wants slower requests
-            Thread.sleep( DEFAULT_CRAWL_DELAY_MIN_MS);
+            sleep(DEFAULT_CRAWL_DELAY_MIN_MS, "slow-down");
+        }
+    }
+
+    private void sleep(long ms, String reason) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            Thread.sleep(ms);
+        }
+        finally {
+            CrawlerMetrics.wmsa_crawler_sleep_seconds.labels(reason).inc((System.nanoTime() - start) / 1e9);
         }
     }
 }
@@ -3,6 +3,7 @@ package nu.marginalia.crawl.retreival;
 import crawlercommons.robots.SimpleRobotRules;
 import nu.marginalia.atags.model.DomainLinks;
 import nu.marginalia.contenttype.ContentType;
+import nu.marginalia.crawl.CrawlerMetrics;
 import nu.marginalia.crawl.retreival.fetcher.ContentTags;
 import nu.marginalia.crawl.retreival.fetcher.HttpFetcher;
 import nu.marginalia.crawling.body.HttpFetchResult;
@@ -79,7 +80,6 @@ public class CrawlerRetreiver implements AutoCloseable {
         }
     }
 
-    // For testing
     public DomainCrawlFrontier getCrawlFrontier() {
         return crawlFrontier;
     }
@@ -126,7 +126,11 @@ public class CrawlerRetreiver implements AutoCloseable {
         final SimpleRobotRules robotsRules = fetcher.fetchRobotRules(crawlFrontier.peek().domain, warcRecorder);
         final CrawlDelayTimer delayTimer = new CrawlDelayTimer(robotsRules.getCrawlDelay());
 
-        sniffRootDocument(rootUrl);
+        // Start fetching the sitemaps in the background, the links will be
+        // fed to the crawl frontier as they become available
+        sitemapFetcher.downloadSitemaps(robotsRules, rootUrl, delayTimer);
+
+        sniffRootDocument(rootUrl, delayTimer);
 
         // Play back the old crawl data (if present) and fetch the documents comparing etags and last-modified
         int recrawled = recrawl(oldCrawlData, robotsRules, delayTimer);
@@ -139,9 +143,6 @@ public class CrawlerRetreiver implements AutoCloseable {
         // Add external links to the crawl frontier
         crawlFrontier.addAllToQueue(domainLinks.getUrls(rootUrl.proto));
 
-        // Add links from the sitemap to the crawl frontier
-        sitemapFetcher.downloadSitemaps(robotsRules, rootUrl);
-
         CrawledDomain ret = new CrawledDomain(domain,
                 null,
                 CrawlerDomainStatus.OK.name(),
@@ -152,11 +153,20 @@ public class CrawlerRetreiver implements AutoCloseable {
 
         int fetchedCount = recrawled;
 
-        while (!crawlFrontier.isEmpty()
-            && !crawlFrontier.isCrawlDepthReached()
+        while (!crawlFrontier.isCrawlDepthReached()
             && errorCount < MAX_ERRORS
             && !Thread.interrupted())
         {
+            // Add links from the sitemaps to the crawl frontier
+            sitemapFetcher.feedFrontier();
+
+            if (crawlFrontier.isEmpty()) {
+                // Wait for any sitemaps still being processed before giving up
+                if (sitemapFetcher.awaitUrls())
+                    continue;
+                break;
+            }
+
             var top = crawlFrontier.takeNextUrl();
 
             if (!robotsRules.isAllowed(top.toString())) {
@@ -204,7 +214,10 @@ public class CrawlerRetreiver implements AutoCloseable {
         return crawlerRevisitor.recrawl(oldCrawlData, robotsRules, delayTimer);
     }
 
-    private void sniffRootDocument(EdgeUrl rootUrl) {
+    private void sniffRootDocument(EdgeUrl rootUrl, CrawlDelayTimer timer) throws InterruptedException {
+        timer.acquirePermit();
+
+        long startTime = System.currentTimeMillis();
         try {
             logger.debug("Configuring link filter");
 
@@ -244,6 +257,14 @@ public class CrawlerRetreiver implements AutoCloseable {
         catch (Exception ex) {
             logger.error("Error configuring link filter", ex);
         }
+        finally {
+            try {
+                timer.waitFetchDelay(System.currentTimeMillis() - startTime);
+            }
+            finally {
+                timer.releasePermit();
+            }
+        }
     }
 
     public HttpFetchResult fetchWriteAndSleep(EdgeUrl top,
@@ -252,6 +273,19 @@ public class CrawlerRetreiver implements AutoCloseable {
     {
         logger.debug("Fetching {}", top);
 
+        timer.acquirePermit();
+        try {
+            return fetchWriteAndSleepWithPermit(top, timer, reference);
+        }
+        finally {
+            timer.releasePermit();
+        }
+    }
+
+    private HttpFetchResult fetchWriteAndSleepWithPermit(EdgeUrl top,
+                                                         CrawlDelayTimer timer,
+                                                         DocumentWithReference reference) throws InterruptedException
+    {
         HttpFetchResult fetchedDoc = new HttpFetchResult.ResultNone();
 
         long startTime = System.currentTimeMillis();
@@ -277,9 +311,13 @@ public class CrawlerRetreiver implements AutoCloseable {
                 var docOpt = ok.parseDocument();
                 if (docOpt.isPresent()) {
                     var doc = docOpt.get();
+                    var responseUrl = new EdgeUrl(ok.uri());
 
-                    crawlFrontier.enqueueLinksFromDocument(top, doc);
-                    crawlFrontier.addVisited(new EdgeUrl(ok.uri()));
+                    var links = crawlFrontier.extractLinks(top, doc);
+                    crawlFrontier.addAllToQueue(links);
+                    crawlFrontier.addVisited(responseUrl);
+
+                    warcRecorder.writeOutlinks(responseUrl, links);
                 }
             }
             else if (fetchedDoc instanceof HttpFetchResult.Result304Raw && reference.doc() != null) {
@@ -292,9 +330,7 @@ public class CrawlerRetreiver implements AutoCloseable {
                         doc.documentBody);
 
                 if (doc.documentBody != null) {
-                    var parsed = Jsoup.parse(doc.documentBody);
-
-                    crawlFrontier.enqueueLinksFromDocument(top, parsed);
+                    enqueueLinksFromReference(top, doc);
                     crawlFrontier.addVisited(top);
                 }
             }
@@ -306,11 +342,38 @@ public class CrawlerRetreiver implements AutoCloseable {
             logger.error("Error parsing document {}", top, ex);
         }
 
-        timer.waitFetchDelay(System.currentTimeMillis() - startTime);
+        long fetchTime = System.currentTimeMillis() - startTime;
+        CrawlerMetrics.wmsa_crawler_fetch_seconds.inc(fetchTime / 1000.);
+
+        timer.waitFetchDelay(fetchTime);
 
         return fetchedDoc;
     }
 
+    /** Enqueue the links of a document from a previous crawl, and record them in the new crawl data.
+     * If the links were stored with the document, they are used directly; otherwise the
+     * document body is parsed to find them.
+     */
+    public void enqueueLinksFromReference(EdgeUrl url, CrawledDocument doc) {
+        List<EdgeUrl> links;
+
+        if (doc.outlinks != null) {
+            links = new ArrayList<>(doc.outlinks.size());
+            for (String link : doc.outlinks) {
+                EdgeUrl.parse(link).ifPresent(links::add);
+            }
+        }
+        else if (doc.documentBody != null) {
+            links = crawlFrontier.extractLinks(url, Jsoup.parse(doc.documentBody));
+        }
+        else {
+            return;
+        }
+
+        crawlFrontier.addAllToQueue(links);
+        warcRecorder.writeOutlinks(url, links);
+    }
+
     private boolean isAllowedProtocol(String proto) {
         return proto.equalsIgnoreCase("http")
                 || proto.equalsIgnoreCase("https");
@@ -326,7 +389,9 @@ public class CrawlerRetreiver implements AutoCloseable {
 
     @Override
     public void close() throws Exception {
+        sitemapFetcher.close();
         warcRecorder.close();
+        crawlFrontier.close();
     }
 
 }
@@ -9,6 +9,7 @@ import org.netpreserve.jwarc.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.file.Path;
 
 /**
@@ -22,6 +23,13 @@ import java.nio.file.Path;
 public class CrawlerWarcResynchronizer {
     private final DomainCrawlFrontier crawlFrontier;
     private final WarcRecorder recorder;
+
+    /** The most recent document is held back until the next response, since the crawler
+     * writes a document's outlinks in a separate record after the response.  Only documents
+     * without recorded outlinks are parsed for their links.
+     */
+    private PendingDocument pendingDocument;
+
     private static final Logger logger = LoggerFactory.getLogger(CrawlerWarcResynchronizer.class);
     public CrawlerWarcResynchronizer(DomainCrawlFrontier crawlFrontier, WarcRecorder recorder) {
         this.crawlFrontier = crawlFrontier;
@@ -33,6 +41,7 @@ public class CrawlerWarcResynchronizer {
         try (var reader = new WarcReader(tempFile)) {
             WarcXResponseReference.register(reader);
             WarcXEntityRefused.register(reader);
+            WarcXOutlinks.register(reader);
 
             for (var item : reader) {
                 accept(item);
@@ -40,6 +49,9 @@ public class CrawlerWarcResynchronizer {
         } catch (Exception e) {
             logger.info(STR."(Expected) Failed read full warc file \{tempFile}: \{e.getClass().getSimpleName()} \{e.getMessage()}");
         }
+        finally {
+            flushPending();
+        }
 
         // Second pass, copy records to the new warc file
         try (var reader = new WarcReader(tempFile)) {
@@ -57,6 +69,8 @@ public class CrawlerWarcResynchronizer {
                 response(rsp);
             } else if (item instanceof WarcRequest req) {
                 request(req);
+            } else if (item instanceof WarcXOutlinks outlinks) {
+                outlinks(outlinks);
             } else if (item instanceof WarcXEntityRefused refused) {
                 refused(refused);
             }
@@ -77,11 +91,24 @@ public class CrawlerWarcResynchronizer {
         }
     }
 
+    private void outlinks(WarcXOutlinks outlinks) throws IOException {
+        var url = new EdgeUrl(outlinks.targetURI());
+
+        // The links were recorded, no need to parse the document
+        if (pendingDocument != null && pendingDocument.url().equalsExactly(url)) {
+            pendingDocument = null;
+        }
+
+        crawlFrontier.enqueueStoredLinks(outlinks.outlinks());
+    }
+
     private void request(WarcRequest request) {
         EdgeUrl.parse(request.target()).ifPresent(crawlFrontier::addVisited);
     }
 
     private void response(WarcResponse rsp) {
+        flushPending();
+
         var url = new EdgeUrl(rsp.targetURI());
 
         crawlFrontier.addVisited(url);
@@ -90,16 +117,30 @@ public class CrawlerWarcResynchronizer {
             var response = HttpFetchResult.importWarc(rsp);
             DocumentBodyExtractor
                     .asString(response)
-                    .ifPresent((ct, body) ->
-            {
-                var doc = Jsoup.parse(body);
-                crawlFrontier.enqueueLinksFromDocument(url, doc);
-            });
+                    .ifPresent((ct, body) -> pendingDocument = new PendingDocument(url, body));
         }
         catch (Exception e) {
-            logger.info(STR."Failed to parse response body for \{url}", e);
+            logger.info(STR."Failed to read response body for \{url}", e);
         }
     }
 
+    /** Enqueue the links of the held back document, which had no recorded outlinks */
+    private void flushPending() {
+        if (pendingDocument == null)
+            return;
+
+        var url = pendingDocument.url();
+        var body = pendingDocument.body();
+        pendingDocument = null;
+
+        try {
+            var doc = Jsoup.parse(body);
+            crawlFrontier.enqueueLinksFromDocument(url, doc);
+        }
+        catch (Exception e) {
+            logger.info(STR."Failed to parse response body for \{url}", e);
+        }
+    }
 
+    private record PendingDocument(EdgeUrl url, String body) {}
 }
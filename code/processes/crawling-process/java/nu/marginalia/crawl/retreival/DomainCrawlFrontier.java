@@ -1,6 +1,7 @@
 package nu.marginalia.crawl.retreival;
 
-import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import nu.marginalia.crawl.retreival.frontier.UrlHashSet;
+import nu.marginalia.crawl.retreival.frontier.UrlQueue;
 import nu.marginalia.hash.MurmurHash3_128;
 import nu.marginalia.ip_blocklist.UrlBlocklist;
 import nu.marginalia.link_parser.LinkParser;
@@ -8,16 +9,30 @@ import nu.marginalia.model.EdgeDomain;
 import nu.marginalia.model.EdgeUrl;
 import org.jsoup.nodes.Document;
 
+import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
-public class DomainCrawlFrontier {
+public class DomainCrawlFrontier implements AutoCloseable {
 
     private static final LinkParser linkParser = new LinkParser();
 
     private static final MurmurHash3_128 hasher = new MurmurHash3_128();
-    private final ArrayDeque<String> queue;
+
+    /** Number of bytes of encoded URLs to keep in memory before the queue spills to disk */
+    private static final long QUEUE_SPILL_THRESHOLD = Long.getLong("crawler.frontier.spillThreshold", 4 * 1024 * 1024);
+    private static final Path QUEUE_SPILL_DIR = Path.of(System.getProperty("crawler.frontier.spillDir", System.getProperty("java.io.tmpdir")));
+
+    /** If set, the known-set is kept in a bloom filter instead of a hash set.  This trades a small
+     * chance of not crawling a URL for a fixed and much smaller memory footprint.
+     */
+    private static final boolean USE_BLOOM_FILTER = Boolean.getBoolean("crawler.frontier.useBloomFilter");
+    private static final double BLOOM_FILTER_FPR = Double.parseDouble(System.getProperty("crawler.frontier.bloomFilterFpr", "0.001"));
+
+    private final UrlQueue queue;
 
     // To save the number of strings kept in memory,
     // do an approximate check using 64 bit hashes instead
@@ -26,8 +41,8 @@ public class DomainCrawlFrontier {
     // but this is relatively unlikely, since the cardinality of these
     // need to be in the billions to approach Birthday Paradox
     // territory
-    private final LongOpenHashSet visited;
-    private final LongOpenHashSet known;
+    private final UrlHashSet visited;
+    private final UrlHashSet known;
 
     private final EdgeDomain thisDomain;
     private final UrlBlocklist urlBlocklist;
@@ -41,9 +56,17 @@ public class DomainCrawlFrontier {
         this.urlBlocklist = new UrlBlocklist();
         this.depth = depth;
 
-        queue = new ArrayDeque<>(10 + (int) (urls.size()*1.2));
-        visited = new LongOpenHashSet(10 + (int)(urls.size() * 1.5));
-        known = new LongOpenHashSet(10 + urls.size() * 2);
+        queue = new UrlQueue(thisDomain, QUEUE_SPILL_THRESHOLD, QUEUE_SPILL_DIR);
+        visited = UrlHashSet.exact(10 + (int)(urls.size() * 1.5));
+
+        if (USE_BLOOM_FILTER) {
+            // The queue is capped at depth + 200 items, but the depth may be increased
+            // during the crawl, so we leave some room to grow
+            known = UrlHashSet.bloom(Math.max(urls.size(), depth) * 4, BLOOM_FILTER_FPR);
+        }
+        else {
+            known = UrlHashSet.exact(10 + urls.size() * 2);
+        }
 
         for (String urlStr : urls) {
             EdgeUrl.parse(urlStr).ifPresent(this::addToQueue);
@@ -77,8 +100,13 @@ public class DomainCrawlFrontier {
     }
 
     public EdgeUrl takeNextUrl() {
+        String next = queue.poll();
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+
         try {
-            return new EdgeUrl(queue.removeFirst());
+            return new EdgeUrl(next);
         } catch (URISyntaxException e) {
             // This should never happen since we only add urls via EdgeUrl.toString()
             throw new RuntimeException(e);
@@ -87,10 +115,11 @@ public class DomainCrawlFrontier {
 
     public EdgeUrl peek() {
         try {
-            if (queue.peek() == null) {
+            String next = queue.peek();
+            if (next == null) {
                 return null;
             }
-            return new EdgeUrl(queue.peek());
+            return new EdgeUrl(next);
         } catch (URISyntaxException e) {
             // This should never happen since we only add urls via EdgeUrl.toString()
             throw new RuntimeException(e);
@@ -156,29 +185,71 @@ public class DomainCrawlFrontier {
         return queue.size();
     }
 
+    public EdgeDomain getDomain() {
+        return thisDomain;
+    }
+
+    /** Estimated heap usage of the frontier in bytes, not counting
+     * any part of the queue that has been spilled to disk */
+    public long estimateMemoryUsage() {
+        return queue.estimateMemoryUsage()
+                + visited.estimateMemoryUsage()
+                + known.estimateMemoryUsage();
+    }
+
+    /** Number of bytes of the queue that have been spilled to disk */
+    public long spilledBytes() {
+        return queue.spilledBytes();
+    }
+
 
     public void enqueueLinksFromDocument(EdgeUrl baseUrl, Document parsed) {
+        addAllToQueue(extractLinks(baseUrl, parsed));
+    }
+
+    /** Extract the links from the document that are candidates for crawling,
+     * in document order and without duplicates.  This includes links to other domains,
+     * which are filtered out when they are added to the queue.
+     */
+    public List<EdgeUrl> extractLinks(EdgeUrl baseUrl, Document parsed) {
+        // EdgeUrl.equals() disregards the protocol, so we deduplicate on the string representation
+        Map<String, EdgeUrl> links = new LinkedHashMap<>();
+        Consumer<EdgeUrl> addLink = url -> links.putIfAbsent(url.toString(), url);
+
         baseUrl = linkParser.getBaseLink(parsed, baseUrl);
 
         for (var link : parsed.getElementsByTag("a")) {
-            linkParser.parseLink(baseUrl, link).ifPresent(this::addToQueue);
+            linkParser.parseLink(baseUrl, link).ifPresent(addLink);
         }
         for (var link : parsed.getElementsByTag("frame")) {
-            linkParser.parseFrame(baseUrl, link).ifPresent(this::addToQueue);
+            linkParser.parseFrame(baseUrl, link).ifPresent(addLink);
         }
         for (var meta : parsed.select("meta[http-equiv=refresh]")) {
-            linkParser.parseMetaRedirect(baseUrl, meta).ifPresent(this::addToQueue);
+            linkParser.parseMetaRedirect(baseUrl, meta).ifPresent(addLink);
         }
         for (var link : parsed.getElementsByTag("iframe")) {
-            linkParser.parseFrame(baseUrl, link).ifPresent(this::addToQueue);
+            linkParser.parseFrame(baseUrl, link).ifPresent(addLink);
         }
         for (var link : parsed.getElementsByTag("link")) {
             String rel = link.attr("rel");
 
             if (rel.equalsIgnoreCase("next") || rel.equalsIgnoreCase("prev")) {
-                linkParser.parseLink(baseUrl, link).ifPresent(this::addToQueue);
+                linkParser.parseLink(baseUrl, link).ifPresent(addLink);
             }
         }
+
+        return new ArrayList<>(links.values());
+    }
+
+    /** Enqueue links previously extracted with extractLinks, and stored as strings */
+    public void enqueueStoredLinks(Collection<String> links) {
+        for (String link : links) {
+            EdgeUrl.parse(link).ifPresent(this::addToQueue);
+        }
     }
 
+    @Override
+    public void close() throws IOException {
+        queue.close();
+    }
 }
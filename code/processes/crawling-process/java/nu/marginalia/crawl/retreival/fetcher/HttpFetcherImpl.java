@@ -5,6 +5,7 @@ import crawlercommons.robots.SimpleRobotRules;
 import crawlercommons.robots.SimpleRobotRulesParser;
 import lombok.SneakyThrows;
 import nu.marginalia.UserAgent;
+import nu.marginalia.crawl.CrawlerMetrics;
 import nu.marginalia.crawl.retreival.Cookies;
 import nu.marginalia.crawl.retreival.RateLimitException;
 import nu.marginalia.crawl.retreival.fetcher.ContentTypeProber.ContentTypeProbeResult;
@@ -176,7 +177,9 @@ public class HttpFetcherImpl implements HttpFetcher {
 
         contentTags.paint(getBuilder);
 
+        long startTime = System.currentTimeMillis();
         HttpFetchResult result = warcRecorder.fetch(client, getBuilder.build());
+        recordMetrics(result, System.currentTimeMillis() - startTime);
 
         if (result instanceof HttpFetchResult.ResultOk ok) {
             if (ok.statusCode() == 429) {
@@ -203,7 +206,7 @@ public class HttpFetcherImpl implements HttpFetcher {
 
     @Override
     public SitemapRetriever createSitemapRetriever() {
-        return new SitemapRetriever();
+        return new SitemapRetriever(client, userAgentString);
     }
 
     private Optional<SimpleRobotRules> fetchRobotsForProto(String proto, WarcRecorder recorder, EdgeDomain domain) {
@@ -216,7 +219,9 @@ public class HttpFetcherImpl implements HttpFetcher {
                     .addHeader("Accept-Encoding", "gzip")
                     .addHeader("User-agent", userAgentString);
 
+            long startTime = System.currentTimeMillis();
             HttpFetchResult result = recorder.fetch(client, getBuilder.build());
+            recordMetrics(result, System.currentTimeMillis() - startTime);
 
             return DocumentBodyExtractor.asBytes(result).mapOpt((contentType, body) ->
                 robotsParser.parseContent(url.toString(),
@@ -231,6 +236,13 @@ public class HttpFetcherImpl implements HttpFetcher {
         }
     }
 
+    private void recordMetrics(HttpFetchResult result, long timeMs) {
+        if (result instanceof HttpFetchResult.ResultOk ok) {
+            CrawlerMetrics.recordResponse(ok.statusCode(), ok.bytesLength(), timeMs);
+        }
+        else {
+            CrawlerMetrics.recordError(timeMs);
+        }
+    }
 
 }
-
@@ -1,96 +1,300 @@
 package nu.marginalia.crawl.retreival.fetcher;
 
-import crawlercommons.sitemaps.*;
 import nu.marginalia.model.EdgeUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileNotFoundException;
-import java.io.IOException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
 
+/** Fetches and parses sitemaps, as well as RSS and Atom feeds.
+ * <p></p>
+ * The documents are parsed in a streaming fashion, with the URLs handed to a consumer
+ * as they are encountered, so that large sitemaps don't need to be held in memory, and
+ * the consumer may stop the parsing once it has seen enough URLs.
+ * <p></p>
+ * Supported formats are XML sitemaps and sitemap indexes, RSS, Atom, and plain text
+ * sitemaps with one URL per line; optionally gzip compressed.
+ */
 public class SitemapRetriever {
-    private final Logger logger = LoggerFactory.getLogger(SitemapRetriever.class);
-    private final ThreadLocal<SiteMapParser> siteMapParserThreadLocal = ThreadLocal.withInitial(() -> new SiteMapParser(false));
-    private final Set<String> seenSiteMapUrls = new HashSet<>();
+    private static final Logger logger = LoggerFactory.getLogger(SitemapRetriever.class);
 
-    public List<EdgeUrl> fetchSitemap(EdgeUrl sitemapUrl) {
-        var parser = siteMapParserThreadLocal.get();
+    /** Maximum (decompressed) size of a sitemap we'll read */
+    private static final long MAX_SITEMAP_SIZE = Long.getLong("crawler.sitemap.maxSize", 50 * 1024 * 1024);
 
-        try {
-            return sitemapToUrls(parser.parseSiteMap(sitemapUrl.asURL()));
-        }
-        catch (FileNotFoundException ex) {
-            return Collections.emptyList();
+    private static final XMLInputFactory xmlInputFactory = createXmlInputFactory();
+
+    private final OkHttpClient client;
+    private final String userAgentString;
+
+    public SitemapRetriever(OkHttpClient client, String userAgentString) {
+        this.client = client;
+        this.userAgentString = userAgentString;
+    }
+
+    /** Fetch a sitemap and pass the URLs it contains to the consumer.
+     *
+     * @param sitemapUrl the URL of the sitemap
+     * @param urlConsumer receives the URLs of the sitemap; may return false to stop parsing
+     * @return empty if the sitemap could not be fetched or parsed, otherwise a list of
+     * sitemaps referenced by the sitemap, if it is a sitemap index
+     */
+    public Optional<List<EdgeUrl>> fetchSitemap(EdgeUrl sitemapUrl, Predicate<EdgeUrl> urlConsumer) {
+        var request = new Request.Builder().get()
+                .url(sitemapUrl.toString())
+                .addHeader("User-agent", userAgentString)
+                .build();
+
+        try (var response = client.newCall(request).execute()) {
+            if (response.code() != 200) {
+                return Optional.empty();
+            }
+
+            var body = response.body();
+            if (body == null) {
+                return Optional.empty();
+            }
+
+            String contentType = Objects.requireNonNullElse(response.header("Content-Type"), "");
+
+            try (var is = openStream(body.byteStream())) {
+                return Optional.of(parseSitemap(sitemapUrl, contentType, is, urlConsumer));
+            }
         }
-        catch (UnknownFormatException ex) {
+        catch (XMLStreamException ex) {
             logger.debug("Unknown sitemap format: {}", sitemapUrl);
-            return Collections.emptyList();
+            return Optional.empty();
         }
         catch (IOException io) {
             logger.debug("Error fetching sitemap", io);
-
-            return Collections.emptyList();
+            return Optional.empty();
         }
         catch (Exception ex) {
             logger.error("Error fetching sitemap", ex);
-
-            return Collections.emptyList();
+            return Optional.empty();
         }
     }
 
-    private List<EdgeUrl> sitemapToUrls(AbstractSiteMap map) {
-        final List<EdgeUrl> urlsList = new ArrayList<>(10000);
-        final Set<EdgeUrl> seenUrls = new HashSet<>();
+    /** Parse a sitemap from a stream, see fetchSitemap() */
+    public static List<EdgeUrl> parseSitemap(EdgeUrl sitemapUrl,
+                                             String contentType,
+                                             InputStream is,
+                                             Predicate<EdgeUrl> urlConsumer) throws IOException, XMLStreamException
+    {
+        var bis = new BufferedInputStream(is);
 
-        final ArrayDeque<AbstractSiteMap> maps = new ArrayDeque<>();
+        if (contentType.startsWith("text/plain") || !looksLikeXml(bis)) {
+            parsePlainText(sitemapUrl, bis, urlConsumer);
+            return List.of();
+        }
 
-        maps.add(map);
+        return parseXml(sitemapUrl, bis, urlConsumer);
+    }
 
-        while (!maps.isEmpty() && seenSiteMapUrls.size() > 2) {
-            if (urlsList.size() >= 10000)
-                break;
+    private static List<EdgeUrl> parseXml(EdgeUrl sitemapUrl,
+                                          InputStream is,
+                                          Predicate<EdgeUrl> urlConsumer) throws XMLStreamException
+    {
+        List<EdgeUrl> childSitemaps = new ArrayList<>();
 
-            // This is some weird site that too many sitemaps
-            // ... it's causing us to run out of memory
-            if (seenSiteMapUrls.size() > 25)
-                break;
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(is);
+        try {
+            // Name of the enclosing element of the current <loc> or <link> tag
+            // sitemap: <url>, <sitemap>; rss: <item>, <channel>; atom: <entry>, <feed>
+            ArrayDeque<String> elementStack = new ArrayDeque<>();
 
-            var firstMap = maps.removeFirst();
+            while (reader.hasNext()) {
+                int event = reader.next();
 
-            if (!seenSiteMapUrls.add(firstMap.getUrl().toString())) {
-                continue;
-            }
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    elementStack.pollLast();
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
 
-            if (map instanceof SiteMap s) {
-                for (var url : s.getSiteMapUrls()) {
+                String name = reader.getLocalName();
+                String parent = elementStack.peekLast();
 
-                    if (urlsList.size() >= 10000)
-                        break;
+                // Extensions such as image and video sitemaps have <loc> tags of their own,
+                // nested inside <url>, which are not pages
+                if ("loc".equals(name) && ("url".equals(parent) || "sitemap".equals(parent))) {
+                    String text = reader.getElementText(); // consumes the end element
 
-                    var urlStr = url.getUrl().toString();
+                    var url = resolve(sitemapUrl, text);
+                    if (url.isEmpty())
+                        continue;
 
-                    var maybeEdgeUrl = EdgeUrl.parse(urlStr);
-                    maybeEdgeUrl
-                            .filter(seenUrls::add)
-                            .ifPresent(urlsList::add);
+                    if ("sitemap".equals(parent)) {
+                        childSitemaps.add(url.get());
+                    }
+                    else if (!urlConsumer.test(url.get())) {
+                        break;
+                    }
                 }
-            }
-            else if (map instanceof SiteMapIndex index) {
-                var sitemaps = index.getSitemaps(false);
-                for (var sitemap : sitemaps) {
-                    // Limit how many sitemaps we can add to the queue
-                    if (maps.size() < 25) {
-                        maps.add(sitemap);
+                else if ("link".equals(name) && ("item".equals(parent) || "entry".equals(parent))) {
+                    String href = reader.getAttributeValue(null, "href");
+
+                    Optional<EdgeUrl> url;
+                    if (href != null) { // atom
+                        String rel = reader.getAttributeValue(null, "rel");
+                        if (rel != null && !rel.equals("alternate")) {
+                            elementStack.addLast(name);
+                            continue;
+                        }
+                        url = resolve(sitemapUrl, href);
+                        elementStack.addLast(name);
                     }
+                    else { // rss
+                        url = resolve(sitemapUrl, reader.getElementText());
+                    }
+
+                    if (url.isPresent() && !urlConsumer.test(url.get())) {
+                        break;
+                    }
+                }
+                else {
+                    elementStack.addLast(name);
                 }
             }
-            else {
-                logger.warn("Unknown sitemap type: {}", map.getClass());
+        }
+        finally {
+            reader.close();
+        }
+
+        return childSitemaps;
+    }
+
+    private static void parsePlainText(EdgeUrl sitemapUrl,
+                                       InputStream is,
+                                       Predicate<EdgeUrl> urlConsumer) throws IOException
+    {
+        var reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            var url = resolve(sitemapUrl, line);
+            if (url.isPresent() && !urlConsumer.test(url.get())) {
+                break;
+            }
+        }
+    }
+
+    private static Optional<EdgeUrl> resolve(EdgeUrl base, String text) {
+        text = text.trim();
+        if (text.isEmpty())
+            return Optional.empty();
+
+        if (text.startsWith("http://") || text.startsWith("https://")) {
+            return EdgeUrl.parse(text);
+        }
+
+        try {
+            // Some sitemaps use relative URLs, even though the standard doesn't permit it
+            URI resolved = base.asURI().resolve(text);
+            return EdgeUrl.parse(resolved.toString());
+        }
+        catch (Exception ex) {
+            return Optional.empty();
+        }
+    }
+
+    /** Decompress the stream if it is gzipped, and cap its size */
+    private static InputStream openStream(InputStream raw) throws IOException {
+        var bis = new BufferedInputStream(raw);
+
+        bis.mark(2);
+        int b1 = bis.read();
+        int b2 = bis.read();
+        bis.reset();
+
+        InputStream is = bis;
+        if (b1 == 0x1f && b2 == 0x8b) {
+            is = new GZIPInputStream(bis);
+        }
+
+        return new SizeLimitedInputStream(is, MAX_SITEMAP_SIZE);
+    }
+
+    private static boolean looksLikeXml(BufferedInputStream bis) throws IOException {
+        bis.mark(1024);
+        try {
+            for (int i = 0; i < 1024; i++) {
+                int b = bis.read();
+                if (b < 0)
+                    return false;
+                // skip whitespace and a possible UTF-8 byte order mark
+                if (Character.isWhitespace(b) || b == 0xEF || b == 0xBB || b == 0xBF)
+                    continue;
+                return b == '<';
             }
+            return false;
+        }
+        finally {
+            bis.reset();
         }
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        var factory = XMLInputFactory.newFactory();
+
+        // Disable DTDs and external entities, we're parsing untrusted data
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
 
-        return urlsList;
+        return factory;
     }
 
+    /** InputStream that throws an IOException once more than maxSize bytes have been read */
+    private static class SizeLimitedInputStream extends FilterInputStream {
+        private final long maxSize;
+        private long read = 0;
+
+        SizeLimitedInputStream(InputStream in, long maxSize) {
+            super(in);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) throws IOException {
+            read += n;
+            if (read > maxSize) {
+                throw new IOException("Sitemap exceeds size limit of " + maxSize + " bytes");
+            }
+        }
+    }
 }
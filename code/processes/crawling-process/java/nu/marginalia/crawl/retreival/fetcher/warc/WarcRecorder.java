@@ -12,17 +12,24 @@ import org.netpreserve.jwarc.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Consumer;
 
 /** Based on JWarc's fetch method, APL 2.0 license
  * <p></p>
@@ -42,6 +49,14 @@ public class WarcRecorder implements AutoCloseable {
 
     private boolean temporaryFile = false;
 
+    /** If set, receives a copy of the bytes of every record written to the warc file */
+    @Nullable
+    private final Consumer<byte[]> recordListener;
+
+    /** The channel the warc file is written through when there is a record listener */
+    @Nullable
+    private final TeeChannel teeChannel;
+
     // Affix a version string in case we need to change the format in the future
     // in some way
     private final String warcRecorderVersion = "1.0";
@@ -57,8 +72,32 @@ public class WarcRecorder implements AutoCloseable {
      * @param warcFile The file to write to
      */
     public WarcRecorder(Path warcFile) throws IOException {
+        this(warcFile, null);
+    }
+
+    /**
+     * Create a new WarcRecorder that will write to the given file, and
+     * also hand a copy of each record to the listener as it is written.
+     *
+     * @param warcFile The file to write to
+     * @param recordListener Receives the bytes of each record as they were written to the file,
+     *                       i.e. a gzip member when the file is compressed
+     */
+    public WarcRecorder(Path warcFile, @Nullable Consumer<byte[]> recordListener) throws IOException {
         this.warcFile = warcFile;
-        this.writer = new WarcWriter(warcFile);
+        this.recordListener = recordListener;
+
+        if (recordListener == null) {
+            this.teeChannel = null;
+            this.writer = new WarcWriter(warcFile);
+        }
+        else {
+            this.teeChannel = new TeeChannel(FileChannel.open(warcFile,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+            this.writer = new WarcWriter(teeChannel, warcFile.getFileName().toString().endsWith(".gz")
+                    ? WarcCompression.GZIP
+                    : WarcCompression.NONE);
+        }
     }
 
     /**
@@ -68,6 +107,8 @@ public class WarcRecorder implements AutoCloseable {
     public WarcRecorder() throws IOException {
         this.warcFile = Files.createTempFile("warc", ".warc.gz");
         this.writer = new WarcWriter(this.warcFile);
+        this.recordListener = null;
+        this.teeChannel = null;
 
         temporaryFile = true;
     }
@@ -139,7 +180,7 @@ public class WarcRecorder implements AutoCloseable {
 
             var warcResponse = responseBuilder.build();
             warcResponse.http(); // force HTTP header to be parsed before body is consumed so that caller can use it
-            writer.write(warcResponse);
+            write(warcResponse);
 
             // Build and write the request
 
@@ -159,7 +200,7 @@ public class WarcRecorder implements AutoCloseable {
                     .build();
 
             warcRequest.http(); // force HTTP header to be parsed before body is consumed so that caller can use it
-            writer.write(warcRequest);
+            write(warcRequest);
 
             return new HttpFetchResult.ResultOk(responseUri,
                     response.code(),
@@ -175,8 +216,25 @@ public class WarcRecorder implements AutoCloseable {
         }
     }
 
+    private void write(WarcRecord record) throws IOException {
+        if (recordListener == null) {
+            writer.write(record);
+            return;
+        }
+
+        // The record body can only be consumed once, so the listener gets a copy
+        // of the bytes as they are written to the warc file
+        teeChannel.startCapture();
+        try {
+            writer.write(record);
+        }
+        finally {
+            recordListener.accept(teeChannel.endCapture());
+        }
+    }
+
     public void resync(WarcRecord item) throws IOException {
-        writer.write(item);
+        write(item);
     }
 
     private void saveOldResponse(EdgeUrl url, String contentType, int statusCode, String documentBody, ContentTags contentTags) {
@@ -228,7 +286,7 @@ public class WarcRecorder implements AutoCloseable {
 
             reference.http(); // force HTTP header to be parsed before body is consumed so that caller can use it
 
-            writer.write(reference);
+            write(reference);
 
         } catch (URISyntaxException | IOException | NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
@@ -244,6 +302,29 @@ public class WarcRecorder implements AutoCloseable {
         saveOldResponse(url, contentType, statusCode, documentBody, ctags);
     }
 
+    /**
+     * Record the outgoing links of a document, so that they can be recovered later
+     * without re-parsing the document.  This should be called after the response or
+     * reference copy for the url has been written.
+     */
+    public void writeOutlinks(EdgeUrl url, Collection<EdgeUrl> links) {
+        try {
+            List<String> linkStrings = new ArrayList<>(links.size());
+            for (var link : links) {
+                linkStrings.add(link.toString());
+            }
+
+            WarcXOutlinks outlinks = new WarcXOutlinks.Builder(url.asURI())
+                    .date(Instant.now())
+                    .outlinks(linkStrings)
+                    .build();
+
+            write(outlinks);
+        } catch (URISyntaxException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void writeWarcinfoHeader(String ip, EdgeDomain domain, DomainProber.ProbeResult result) throws IOException {
 
         Map<String, List<String>> fields = new HashMap<>();
@@ -269,7 +350,7 @@ public class WarcRecorder implements AutoCloseable {
                 .recordId(UUID.randomUUID())
                 .build();
 
-        writer.write(warcinfo);
+        write(warcinfo);
     }
 
     public void flagAsRobotsTxtError(EdgeUrl top) {
@@ -278,7 +359,7 @@ public class WarcRecorder implements AutoCloseable {
                     .date(Instant.now())
                     .build();
 
-            writer.write(refusal);
+            write(refusal);
         } catch (URISyntaxException | IOException e) {
             throw new RuntimeException(e);
         }
@@ -292,7 +373,7 @@ public class WarcRecorder implements AutoCloseable {
                     .addHeader("Http-Status", Integer.toString(status))
                     .build();
 
-            writer.write(refusal);
+            write(refusal);
         } catch (URISyntaxException | IOException e) {
             throw new RuntimeException(e);
         }
@@ -306,7 +387,7 @@ public class WarcRecorder implements AutoCloseable {
                     .addHeader("ErrorMessage", Objects.requireNonNullElse(ex.getMessage(), ""))
                     .build();
 
-            writer.write(refusal);
+            write(refusal);
         } catch (URISyntaxException | IOException e) {
             throw new RuntimeException(e);
         }
@@ -318,7 +399,7 @@ public class WarcRecorder implements AutoCloseable {
                     .date(Instant.now())
                     .build();
 
-            writer.write(refusal);
+            write(refusal);
         } catch (URISyntaxException | IOException e) {
             throw new RuntimeException(e);
         }
@@ -385,5 +466,53 @@ public class WarcRecorder implements AutoCloseable {
             throw new RuntimeException(e);
         }
     }
-}
 
+    /** Writes to the warc file, and optionally captures a copy of the bytes written */
+    private static class TeeChannel implements WritableByteChannel {
+        private final FileChannel channel;
+        private ByteArrayOutputStream capture;
+
+        TeeChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void startCapture() {
+            capture = new ByteArrayOutputStream();
+        }
+
+        byte[] endCapture() {
+            byte[] ret = capture.toByteArray();
+            capture = null;
+            return ret;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int start = src.position();
+            int n = channel.write(src);
+
+            if (capture != null && n > 0) {
+                if (src.hasArray()) {
+                    capture.write(src.array(), src.arrayOffset() + start, n);
+                }
+                else {
+                    byte[] copy = new byte[n];
+                    src.get(start, copy);
+                    capture.write(copy, 0, n);
+                }
+            }
+
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
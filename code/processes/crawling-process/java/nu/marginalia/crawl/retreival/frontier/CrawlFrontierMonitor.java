@@ -0,0 +1,110 @@
+package nu.marginalia.crawl.retreival.frontier;
+
+import nu.marginalia.crawl.retreival.DomainCrawlFrontier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Keeps track of the crawl frontiers of the domains currently being crawled,
+ * and periodically reports their memory usage.  This is intended to give an
+ * indication of how far the crawler's concurrency can be safely raised.
+ */
+public class CrawlFrontierMonitor {
+    private static final Logger logger = LoggerFactory.getLogger(CrawlFrontierMonitor.class);
+
+    private final Set<DomainCrawlFrontier> activeFrontiers = ConcurrentHashMap.newKeySet();
+
+    public void register(DomainCrawlFrontier frontier) {
+        activeFrontiers.add(frontier);
+    }
+
+    public void unregister(DomainCrawlFrontier frontier) {
+        activeFrontiers.remove(frontier);
+    }
+
+    public int activeCount() {
+        return activeFrontiers.size();
+    }
+
+    /** Estimated heap usage of all active frontiers in bytes */
+    public long totalMemoryUsage() {
+        long sum = 0;
+        for (var frontier : activeFrontiers) {
+            sum += frontier.estimateMemoryUsage();
+        }
+        return sum;
+    }
+
+    /** Number of urls queued in all active frontiers */
+    public long totalQueueSize() {
+        long sum = 0;
+        for (var frontier : activeFrontiers) {
+            sum += frontier.queueSize();
+        }
+        return sum;
+    }
+
+    /** Number of urls queued in the largest active frontier */
+    public int maxQueueSize() {
+        int max = 0;
+        for (var frontier : activeFrontiers) {
+            max = Math.max(max, frontier.queueSize());
+        }
+        return max;
+    }
+
+    /** Estimated heap usage of each active frontier, by domain name */
+    public Map<String, Long> memoryUsageByDomain() {
+        Map<String, Long> ret = new ConcurrentHashMap<>();
+        for (var frontier : activeFrontiers) {
+            ret.merge(frontier.getDomain().toString(), frontier.estimateMemoryUsage(), Long::sum);
+        }
+        return ret;
+    }
+
+    /** Start a daemon thread that logs the frontier memory usage at the given interval */
+    public void startReporting(int intervalSeconds) {
+        Thread thread = new Thread(() -> {
+            try {
+                for (;;) {
+                    Thread.sleep(intervalSeconds * 1000L);
+                    report();
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, "CrawlFrontierMonitor");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void report() {
+        if (activeFrontiers.isEmpty())
+            return;
+
+        List<Map.Entry<String, Long>> largest = memoryUsageByDomain()
+                .entrySet()
+                .stream()
+                .sorted(Comparator.comparing(Map.Entry<String, Long>::getValue).reversed())
+                .limit(5)
+                .toList();
+
+        long spilled = 0;
+        for (var frontier : activeFrontiers) {
+            spilled += frontier.spilledBytes();
+        }
+
+        logger.info("Crawl frontiers: {} active, {} KB on heap, {} KB spilled to disk; largest: {}",
+                activeFrontiers.size(),
+                totalMemoryUsage() / 1024,
+                spilled / 1024,
+                largest);
+    }
+}
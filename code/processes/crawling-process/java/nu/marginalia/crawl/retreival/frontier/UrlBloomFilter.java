@@ -0,0 +1,80 @@
+package nu.marginalia.crawl.retreival.frontier;
+
+/** Bloom filter over 64 bit URL hashes.
+ * <p></p>
+ * Since the inputs already are well distributed 64 bit hashes, the
+ * bit positions are derived from the two 32 bit halves of the hash
+ * using double hashing, without re-hashing the input.
+ * <p></p>
+ * Once the filter is filled past its capacity, the false positive rate
+ * grows, which in the crawler means some URLs will be mistakenly considered
+ * known and not be crawled.  Size the filter accordingly.
+ */
+public class UrlBloomFilter implements UrlHashSet {
+    private final long[] bits;
+    private final long numBits;
+    private final int numHashes;
+    private int size;
+
+    public UrlBloomFilter(int capacity, double falsePositiveRate) {
+        capacity = Math.max(capacity, 64);
+
+        long m = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, (m + 63) & ~63L);
+
+        numBits = m;
+        numHashes = Math.max(1, (int) Math.round((double) m / capacity * Math.log(2)));
+        bits = new long[(int) (m >>> 6)];
+    }
+
+    @Override
+    public boolean add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+
+        boolean changed = false;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % numBits;
+
+            int idx = (int) (bit >>> 6);
+            long mask = 1L << bit;
+
+            if ((bits[idx] & mask) == 0) {
+                bits[idx] |= mask;
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            size++;
+        }
+
+        return changed;
+    }
+
+    @Override
+    public boolean contains(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % numBits;
+
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long estimateMemoryUsage() {
+        return 8L * bits.length;
+    }
+}
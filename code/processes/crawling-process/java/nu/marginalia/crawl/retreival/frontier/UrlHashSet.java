@@ -0,0 +1,63 @@
+package nu.marginalia.crawl.retreival.frontier;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+/** A set of 64 bit URL hashes, used by the crawl frontier to keep track
+ * of which URLs have been seen.  The set may be exact or probabilistic;
+ * a probabilistic set may give false positives for contains(), but never
+ * false negatives.
+ */
+public interface UrlHashSet {
+    /** Add the hash to the set, returning true if it was not already present */
+    boolean add(long hash);
+
+    boolean contains(long hash);
+
+    /** Number of hashes added to the set (approximate for probabilistic sets) */
+    int size();
+
+    /** Estimated heap usage of the set in bytes */
+    long estimateMemoryUsage();
+
+    /** Create an exact set backed by a hash table */
+    static UrlHashSet exact(int expectedSize) {
+        return new Exact(expectedSize);
+    }
+
+    /** Create a probabilistic set backed by a bloom filter
+     * sized for the given capacity at the given false positive rate.
+     */
+    static UrlHashSet bloom(int capacity, double falsePositiveRate) {
+        return new UrlBloomFilter(capacity, falsePositiveRate);
+    }
+
+    class Exact implements UrlHashSet {
+        private final LongOpenHashSet set;
+
+        Exact(int expectedSize) {
+            set = new LongOpenHashSet(expectedSize);
+        }
+
+        @Override
+        public boolean add(long hash) {
+            return set.add(hash);
+        }
+
+        @Override
+        public boolean contains(long hash) {
+            return set.contains(hash);
+        }
+
+        @Override
+        public int size() {
+            return set.size();
+        }
+
+        @Override
+        public long estimateMemoryUsage() {
+            // LongOpenHashSet keeps a power-of-two sized long[] at a load factor of 0.75
+            long capacity = Long.highestOneBit(Math.max(2, (long) Math.ceil(set.size() / 0.75)) - 1) << 1;
+            return 8 * capacity;
+        }
+    }
+}
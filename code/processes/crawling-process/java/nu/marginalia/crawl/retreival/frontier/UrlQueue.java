@@ -0,0 +1,293 @@
+package nu.marginalia.crawl.retreival.frontier;
+
+import nu.marginalia.model.EdgeDomain;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/** FIFO queue of URL strings for a single domain, with a compact in-memory encoding
+ * that spills to disk once the in-memory portion grows past a threshold.
+ * <p></p>
+ * URLs are stored as UTF-8 byte arrays, with the protocol and domain prefix
+ * replaced with a single tag byte when it matches the domain of the queue.
+ * <p></p>
+ * When the in-memory part of the queue exceeds the spill threshold, new items
+ * are appended to a temporary file instead.  Once the in-memory part is drained,
+ * it is refilled from the spill file.  Ordering is preserved, except for items added
+ * with addFirst, which always go to the head of the in-memory queue.
+ */
+public class UrlQueue implements AutoCloseable {
+    private static final byte TAG_VERBATIM = 0;
+    private static final byte TAG_HTTP = 1;
+    private static final byte TAG_HTTPS = 2;
+
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private final String httpPrefix;
+    private final String httpsPrefix;
+
+    private final long spillThreshold;
+    private final Path spillDir;
+
+    private final ArrayDeque<byte[]> memQueue = new ArrayDeque<>();
+    private long memBytes = 0;
+
+    private FileChannel spillChannel;
+    private ByteBuffer spillWriteBuffer;
+    private long spillReadPos = 0;
+    private long spillWritePos = 0;
+    private int spillCount = 0;
+
+    /**
+     * @param domain the domain of the queue, used to compress the URL prefix
+     * @param spillThreshold the number of bytes to keep in memory before spilling to disk,
+     *                       or Long.MAX_VALUE to never spill
+     * @param spillDir the directory to put the spill file in
+     */
+    public UrlQueue(EdgeDomain domain, long spillThreshold, Path spillDir) {
+        this.httpPrefix = "http://" + domain;
+        this.httpsPrefix = "https://" + domain;
+        this.spillThreshold = spillThreshold;
+        this.spillDir = spillDir;
+    }
+
+    public int size() {
+        return memQueue.size() + spillCount;
+    }
+
+    public boolean isEmpty() {
+        return memQueue.isEmpty() && spillCount == 0;
+    }
+
+    /** Returns true if the queue has spilled to disk */
+    public boolean hasSpilled() {
+        return spillChannel != null;
+    }
+
+    public void addFirst(String url) {
+        byte[] encoded = encode(url);
+
+        memQueue.addFirst(encoded);
+        memBytes += encoded.length;
+    }
+
+    public void addLast(String url) {
+        byte[] encoded = encode(url);
+
+        // Once we've started spilling, everything must go to the spill file
+        // to preserve the order of the queue
+        if (spillCount > 0 || memBytes + encoded.length > spillThreshold) {
+            spill(encoded);
+        }
+        else {
+            memQueue.addLast(encoded);
+            memBytes += encoded.length;
+        }
+    }
+
+    /** Remove and return the first item in the queue, or null if the queue is empty */
+    public String poll() {
+        if (memQueue.isEmpty() && spillCount > 0) {
+            refill();
+        }
+
+        byte[] encoded = memQueue.pollFirst();
+        if (encoded == null)
+            return null;
+
+        memBytes -= encoded.length;
+        return decode(encoded);
+    }
+
+    /** Return the first item in the queue without removing it, or null if the queue is empty */
+    public String peek() {
+        if (memQueue.isEmpty() && spillCount > 0) {
+            refill();
+        }
+
+        byte[] encoded = memQueue.peekFirst();
+        if (encoded == null)
+            return null;
+
+        return decode(encoded);
+    }
+
+    /** Estimated heap usage of the queue in bytes.  This does not include
+     * data that has been spilled to disk, but does include the I/O buffers.
+     */
+    public long estimateMemoryUsage() {
+        // 16 bytes array header + 8 bytes reference in the deque
+        long usage = memBytes + 24L * memQueue.size();
+
+        if (spillWriteBuffer != null) {
+            usage += spillWriteBuffer.capacity();
+        }
+
+        return usage;
+    }
+
+    /** Bytes currently spilled to disk */
+    public long spilledBytes() {
+        return spillWritePos - spillReadPos + (spillWriteBuffer != null ? spillWriteBuffer.position() : 0);
+    }
+
+    byte[] encode(String url) {
+        byte tag;
+        String rest;
+
+        if (hasPrefix(url, httpsPrefix)) {
+            tag = TAG_HTTPS;
+            rest = url.substring(httpsPrefix.length());
+        }
+        else if (hasPrefix(url, httpPrefix)) {
+            tag = TAG_HTTP;
+            rest = url.substring(httpPrefix.length());
+        }
+        else {
+            tag = TAG_VERBATIM;
+            rest = url;
+        }
+
+        byte[] restBytes = rest.getBytes(StandardCharsets.UTF_8);
+        byte[] ret = new byte[restBytes.length + 1];
+        ret[0] = tag;
+        System.arraycopy(restBytes, 0, ret, 1, restBytes.length);
+
+        return ret;
+    }
+
+    String decode(byte[] encoded) {
+        String rest = new String(encoded, 1, encoded.length - 1, StandardCharsets.UTF_8);
+
+        return switch (encoded[0]) {
+            case TAG_HTTP -> httpPrefix + rest;
+            case TAG_HTTPS -> httpsPrefix + rest;
+            default -> rest;
+        };
+    }
+
+    /** Returns true if the url begins with the prefix, and the prefix is followed
+     * by a path or port separator, so that e.g. http://www.example.com.evil.com/
+     * is not mistaken for a URL on www.example.com.
+     */
+    private static boolean hasPrefix(String url, String prefix) {
+        if (!url.startsWith(prefix))
+            return false;
+        if (url.length() == prefix.length())
+            return true;
+
+        char next = url.charAt(prefix.length());
+        return next == '/' || next == ':';
+    }
+
+    private void spill(byte[] encoded) {
+        try {
+            if (spillChannel == null) {
+                Path spillFile = Files.createTempFile(spillDir, "frontier", ".dat");
+                spillChannel = FileChannel.open(spillFile,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+                spillWriteBuffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+            }
+
+            if (spillWriteBuffer.remaining() < encoded.length + 4) {
+                flushSpillBuffer();
+            }
+
+            if (spillWriteBuffer.remaining() < encoded.length + 4) {
+                // Oversized item, write it directly
+                ByteBuffer buffer = ByteBuffer.allocate(encoded.length + 4);
+                buffer.putInt(encoded.length).put(encoded).flip();
+                while (buffer.hasRemaining()) {
+                    spillWritePos += spillChannel.write(buffer, spillWritePos);
+                }
+            }
+            else {
+                spillWriteBuffer.putInt(encoded.length).put(encoded);
+            }
+
+            spillCount++;
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void flushSpillBuffer() throws IOException {
+        spillWriteBuffer.flip();
+        while (spillWriteBuffer.hasRemaining()) {
+            spillWritePos += spillChannel.write(spillWriteBuffer, spillWritePos);
+        }
+        spillWriteBuffer.clear();
+    }
+
+    /** Move items from the spill file into memory, until either the spill file
+     * is exhausted or half the spill threshold has been read */
+    private void refill() {
+        try {
+            flushSpillBuffer();
+
+            ByteBuffer readBuffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+            long target = Math.max(1, spillThreshold / 2);
+
+            while (spillCount > 0 && memBytes < target) {
+                readBuffer.clear();
+                readFully(readBuffer, spillReadPos, 4);
+                int length = readBuffer.getInt(0);
+
+                ByteBuffer itemBuffer = length <= readBuffer.capacity() ? readBuffer : ByteBuffer.allocate(length);
+                itemBuffer.clear();
+                readFully(itemBuffer, spillReadPos + 4, length);
+
+                byte[] encoded = new byte[length];
+                itemBuffer.get(0, encoded);
+
+                memQueue.addLast(encoded);
+                memBytes += length;
+
+                spillReadPos += 4 + length;
+                spillCount--;
+            }
+
+            if (spillCount == 0) {
+                // Everything has been read back, so we can reclaim the disk space
+                spillChannel.truncate(0);
+                spillReadPos = 0;
+                spillWritePos = 0;
+            }
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long pos, int length) throws IOException {
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            int n = spillChannel.read(buffer, pos + buffer.position());
+            if (n < 0) {
+                throw new IOException("Unexpected end of spill file");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (spillChannel != null) {
+            spillChannel.close();
+            spillChannel = null;
+            spillWriteBuffer = null;
+        }
+        memQueue.clear();
+        memBytes = 0;
+        spillCount = 0;
+    }
+}
@@ -9,7 +9,6 @@ import nu.marginalia.crawl.retreival.fetcher.ContentTags;
 import nu.marginalia.crawl.retreival.fetcher.warc.WarcRecorder;
 import nu.marginalia.crawling.model.CrawledDocument;
 import nu.marginalia.model.EdgeUrl;
-import org.jsoup.Jsoup;
 
 /** This class encapsulates the logic for re-visiting a domain that has already been crawled.
  *  We may use information from the previous crawl to inform the next crawl, specifically the
@@ -78,12 +77,6 @@ public class CrawlerRevisitor {
 
                 crawlFrontier.addVisited(url);
 
-                // Hoover up any links from the document
-                if (doc.httpStatus == 200 && doc.documentBody != null) {
-                    var parsedDoc = Jsoup.parse(doc.documentBody);
-                    crawlFrontier.enqueueLinksFromDocument(url, parsedDoc);
-                }
-
                 // Add a WARC record so we don't repeat this
                 warcRecorder.writeReferenceCopy(url,
                         doc.contentType,
@@ -91,6 +84,12 @@ public class CrawlerRevisitor {
                         doc.documentBody,
                         new ContentTags(doc.etagMaybe, doc.lastModifiedMaybe)
                 );
+
+                // Hoover up any links from the document, using the stored outlinks
+                // if available to avoid re-parsing the document
+                if (doc.httpStatus == 200) {
+                    crawlerRetreiver.enqueueLinksFromReference(url, doc);
+                }
             }
             else {
                 // GET the document with the stored document as a reference
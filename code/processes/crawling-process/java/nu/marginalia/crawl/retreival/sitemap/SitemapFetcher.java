@@ -1,6 +1,7 @@
 package nu.marginalia.crawl.retreival.sitemap;
 
 import crawlercommons.robots.SimpleRobotRules;
+import nu.marginalia.crawl.retreival.CrawlDelayTimer;
 import nu.marginalia.crawl.retreival.DomainCrawlFrontier;
 import nu.marginalia.crawl.retreival.fetcher.SitemapRetriever;
 import nu.marginalia.model.EdgeUrl;
@@ -8,22 +9,57 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Downloads sitemaps in the background while the domain is being crawled.
+ * <p></p>
+ * Sitemaps are fetched on virtual threads, but each request takes the domain's permit
+ * from the crawl's CrawlDelayTimer, so requests to the domain are still made one at a
+ * time along with those of the crawl itself, and each is followed by the crawl delay.
+ * Sitemap indexes are expanded, and their children queued up for fetching.
+ * <p></p>
+ * The URLs found are buffered, and handed to the crawl frontier by the crawl thread
+ * calling feedFrontier(), since the frontier is not thread safe.  The number of
+ * URLs and sitemaps processed per domain are capped.
+ */
+public class SitemapFetcher implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SitemapFetcher.class);
+
+    private static final int MAX_URLS = Integer.getInteger("crawler.sitemap.maxUrls", 10_000);
+    private static final int MAX_SITEMAPS = Integer.getInteger("crawler.sitemap.maxSitemaps", 25);
 
-public class SitemapFetcher {
+    /** How many URLs to buffer before waking up a crawl thread waiting for URLs */
+    private static final int SIGNAL_BATCH_SIZE = 64;
+
+    private static final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
 
     private final DomainCrawlFrontier crawlFrontier;
     private final SitemapRetriever sitemapRetriever;
-    private static final Logger logger = LoggerFactory.getLogger(SitemapFetcher.class);
+
+    private final Set<String> checkedSitemaps = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<EdgeUrl> pendingUrls = new ConcurrentLinkedQueue<>();
+    private final List<Future<?>> tasks = new ArrayList<>();
+
+    private final AtomicInteger activeTasks = new AtomicInteger();
+    private final AtomicInteger acceptedUrls = new AtomicInteger();
+    private final AtomicInteger startedSitemaps = new AtomicInteger();
+
+    private volatile CrawlDelayTimer delayTimer;
+    private volatile boolean closed = false;
 
     public SitemapFetcher(DomainCrawlFrontier crawlFrontier, SitemapRetriever sitemapRetriever) {
         this.crawlFrontier = crawlFrontier;
         this.sitemapRetriever = sitemapRetriever;
     }
 
-    public void downloadSitemaps(SimpleRobotRules robotsRules, EdgeUrl rootUrl) {
+    /** Start downloading the sitemaps listed in robots.txt, or /sitemap.xml if none are listed.
+     * The requests are paced by the given timer, which must be the one used by the crawl. */
+    public void downloadSitemaps(SimpleRobotRules robotsRules, EdgeUrl rootUrl, CrawlDelayTimer delayTimer) {
+        this.delayTimer = delayTimer;
+
         List<String> sitemaps = robotsRules.getSitemaps();
 
         List<EdgeUrl> urls = new ArrayList<>(sitemaps.size());
@@ -39,33 +75,154 @@ public class SitemapFetcher {
         downloadSitemaps(urls);
     }
 
+    /** Start downloading the given sitemaps in the background.  May only be called after
+     * downloadSitemaps(robotsRules, rootUrl, delayTimer) has provided the timer. */
     public void downloadSitemaps(List<EdgeUrl> urls) {
-
-        Set<String> checkedSitemaps = new HashSet<>();
+        if (delayTimer == null)
+            throw new IllegalStateException("No crawl delay timer set");
 
         for (var url : urls) {
-            // Let's not download sitemaps from other domains for now
-            if (!crawlFrontier.isSameDomain(url)) {
-                continue;
+            submit(url);
+        }
+    }
+
+    /** Move the URLs found so far into the crawl frontier.  Must be called from the crawl thread. */
+    public void feedFrontier() {
+        if (pendingUrls.isEmpty())
+            return;
+
+        List<EdgeUrl> batch = new ArrayList<>(pendingUrls.size());
+        for (EdgeUrl url; (url = pendingUrls.poll()) != null; ) {
+            batch.add(url);
+        }
+        crawlFrontier.addAllToQueue(batch);
+
+        logger.debug("Queue is now {}", crawlFrontier.queueSize());
+    }
+
+    /** Returns true if there are no sitemaps left to process */
+    public boolean isDone() {
+        return activeTasks.get() == 0;
+    }
+
+    /** Block until either there are URLs to feed to the frontier,
+     * or all sitemaps have been processed.
+     *
+     * @return true if there are URLs available
+     */
+    public boolean awaitUrls() throws InterruptedException {
+        synchronized (this) {
+            while (pendingUrls.isEmpty() && activeTasks.get() > 0) {
+                wait(1000);
+            }
+        }
+        return !pendingUrls.isEmpty();
+    }
+
+    private void submit(EdgeUrl url) {
+        if (closed)
+            return;
+
+        // Let's not download sitemaps from other domains for now
+        if (!crawlFrontier.isSameDomain(url))
+            return;
+
+        // We may want to check the same path with different protocols, so we key on the full URL
+        if (!checkedSitemaps.add(url.toString()))
+            return;
+
+        if (startedSitemaps.incrementAndGet() > MAX_SITEMAPS)
+            return;
+
+        activeTasks.incrementAndGet();
+
+        try {
+            var task = executor.submit(() -> {
+                try {
+                    fetchSitemap(url);
+                }
+                finally {
+                    activeTasks.decrementAndGet();
+                    signal();
+                }
+            });
+
+            synchronized (tasks) {
+                tasks.add(task);
             }
+        }
+        catch (RejectedExecutionException ex) {
+            activeTasks.decrementAndGet();
+        }
+    }
+
+    private void fetchSitemap(EdgeUrl url) {
+        final CrawlDelayTimer timer = delayTimer;
 
-            if (checkedSitemaps.contains(url.path))
-                continue;
+        try {
+            timer.acquirePermit();
+        }
+        catch (InterruptedException ex) {
+            return;
+        }
+
+        try {
+            if (closed)
+                return;
+
+            long startTime = System.currentTimeMillis();
+            try {
+                var childSitemaps = sitemapRetriever.fetchSitemap(url, this::acceptUrl);
 
-            var sitemap =  sitemapRetriever.fetchSitemap(url);
-            if (sitemap.isEmpty()) {
-                continue;
+                childSitemaps.ifPresent(this::downloadSitemaps);
+            }
+            catch (Exception ex) {
+                logger.warn("Error fetching sitemap {}", url, ex);
             }
 
-            // ensure we don't try to download this sitemap again
-            // (don't move this up, as we may want to check the same
-            // path with different protocols until we find one that works)
+            timer.waitFetchDelay(System.currentTimeMillis() - startTime);
+        }
+        finally {
+            timer.releasePermit();
+        }
+    }
+
+    private boolean acceptUrl(EdgeUrl url) {
+        if (closed)
+            return false;
+
+        if (!crawlFrontier.isSameDomain(url))
+            return true;
+
+        int count = acceptedUrls.incrementAndGet();
+        if (count > MAX_URLS)
+            return false;
 
-            checkedSitemaps.add(url.path);
+        pendingUrls.add(url);
 
-            crawlFrontier.addAllToQueue(sitemap);
+        if (count % SIGNAL_BATCH_SIZE == 0) {
+            signal();
         }
 
-        logger.debug("Queue is now {}", crawlFrontier.queueSize());
+        return count < MAX_URLS;
+    }
+
+    private synchronized void signal() {
+        notifyAll();
+    }
+
+    /** Stop processing sitemaps, discarding any URLs that have not yet been fed to the frontier */
+    @Override
+    public void close() {
+        closed = true;
+
+        synchronized (tasks) {
+            for (var task : tasks) {
+                task.cancel(true);
+            }
+            tasks.clear();
+        }
+
+        pendingUrls.clear();
     }
 }
@@ -0,0 +1,145 @@
+package nu.marginalia.crawl.warc;
+
+import nu.marginalia.crawling.parquet.CrawledDocumentParquetRecordFileWriter;
+import org.netpreserve.jwarc.WarcReader;
+import org.netpreserve.jwarc.WarcXEntityRefused;
+import org.netpreserve.jwarc.WarcXOutlinks;
+import org.netpreserve.jwarc.WarcXResponseReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/** Converts the WARC records of a single domain to parquet as they are written by the
+ * WarcRecorder.  Records are queued and converted in order on the shared executor of the
+ * ParquetConversionPipeline.  If conversion falls behind, the crawler thread will block
+ * when offering new records, which bounds the memory held by the queue.
+ * <p></p>
+ * The output file is only complete once finish() returns true.  Records replayed into the
+ * WarcRecorder by the CrawlerWarcResynchronizer pass through here as well, so the parquet
+ * file is consistent with the WARC file also after an aborted crawl is resumed.
+ */
+public class InlineParquetConversion implements Consumer<byte[]>, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(InlineParquetConversion.class);
+
+    private final Executor executor;
+    private final String domain;
+    private final String uaString;
+    private final CrawledDocumentParquetRecordFileWriter writer;
+
+    private final ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<>();
+    private final Semaphore capacity;
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private volatile boolean finishing = false;
+    private volatile boolean failed = false;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    InlineParquetConversion(Executor executor,
+                            String domain,
+                            String uaString,
+                            Path parquetOutputFile,
+                            int maxPendingRecords) throws IOException {
+        this.executor = executor;
+        this.domain = domain;
+        this.uaString = uaString;
+        this.capacity = new Semaphore(maxPendingRecords);
+        this.writer = new CrawledDocumentParquetRecordFileWriter(parquetOutputFile);
+    }
+
+    /** Offer a serialized WARC record for conversion.  Blocks if too many records are pending. */
+    @Override
+    public void accept(byte[] serializedRecord) {
+        if (finishing) {
+            throw new IllegalStateException("Conversion is already finished");
+        }
+
+        capacity.acquireUninterruptibly();
+        queue.add(serializedRecord);
+        schedule();
+    }
+
+    /** Wait for all queued records to be converted and close the output file.
+     *
+     * @return true if the conversion succeeded and the output file is complete
+     */
+    public boolean finish() throws InterruptedException {
+        finishing = true;
+        schedule();
+
+        try {
+            done.get();
+        }
+        catch (ExecutionException ex) {
+            logger.error("Inline parquet conversion failed for {}", domain, ex.getCause());
+            return false;
+        }
+
+        return !failed;
+    }
+
+    /** Close the conversion, discarding any pending records if finish() has not been called */
+    @Override
+    public void close() throws InterruptedException {
+        if (!finishing) {
+            queue.clear();
+            failed = true;
+            finish();
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            byte[] item;
+            while ((item = queue.poll()) != null) {
+                capacity.release();
+
+                if (!failed) {
+                    convert(item);
+                }
+            }
+
+            if (finishing && queue.isEmpty() && !done.isDone()) {
+                writer.close();
+                done.complete(null);
+            }
+        }
+        catch (Throwable ex) {
+            failed = true;
+            done.completeExceptionally(ex);
+        }
+        finally {
+            scheduled.set(false);
+
+            // Items may have been added after we last polled the queue, but before
+            // we cleared the scheduled flag; make sure they are not left stranded
+            if (!queue.isEmpty() || (finishing && !done.isDone())) {
+                schedule();
+            }
+        }
+    }
+
+    private void convert(byte[] serializedRecord) throws IOException {
+        try (var reader = new WarcReader(new ByteArrayInputStream(serializedRecord))) {
+            WarcXResponseReference.register(reader);
+            WarcXEntityRefused.register(reader);
+            WarcXOutlinks.register(reader);
+
+            var record = reader.next();
+            if (record.isPresent()) {
+                writer.convertRecord(domain, uaString, record.get());
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package nu.marginalia.crawl.warc;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import nu.marginalia.UserAgent;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Converts WARC records to crawl data parquet files while the crawl is running,
+ * instead of re-reading the WARC file from disk once the domain is finished.
+ * <p></p>
+ * The conversion runs on a small dedicated thread pool, shared between all
+ * domains being crawled; each domain's records are converted in order.
+ */
+@Singleton
+public class ParquetConversionPipeline implements AutoCloseable {
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("crawler.inlineConversion", "true"));
+    private static final int THREADS = Integer.getInteger("crawler.inlineConversion.threads",
+            Math.clamp(Runtime.getRuntime().availableProcessors() / 4, 1, 8));
+    private static final int MAX_PENDING_RECORDS = Integer.getInteger("crawler.inlineConversion.maxPendingRecords", 16);
+
+    private final UserAgent userAgent;
+    private final ExecutorService executor;
+
+    @Inject
+    public ParquetConversionPipeline(UserAgent userAgent) {
+        this.userAgent = userAgent;
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            var thread = new Thread(r, "ParquetConversion[" + threadCounter.getAndIncrement() + "]");
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        this.executor = Executors.newFixedThreadPool(THREADS, threadFactory);
+    }
+
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /** Begin converting the records of a domain into the given parquet file.
+     * The returned conversion should be passed to the WarcRecorder as its record listener.
+     */
+    public InlineParquetConversion begin(String domain, Path parquetOutputFile) throws IOException {
+        return new InlineParquetConversion(executor, domain, userAgent.uaString(), parquetOutputFile, MAX_PENDING_RECORDS);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
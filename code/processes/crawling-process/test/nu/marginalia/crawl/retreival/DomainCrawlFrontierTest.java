@@ -1,5 +1,6 @@
 package nu.marginalia.crawl.retreival;
 
+import nu.marginalia.crawl.retreival.frontier.UrlHashSet;
 import nu.marginalia.model.EdgeDomain;
 import nu.marginalia.model.EdgeUrl;
 import org.junit.jupiter.api.Test;
@@ -29,4 +30,23 @@ class DomainCrawlFrontierTest {
         assertTrue(dcf.addKnown(new EdgeUrl("https://example.com/index.html")));
         assertFalse(dcf.addKnown(new EdgeUrl("https://example.com")));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBloomFilter() {
+        var filter = UrlHashSet.bloom(1000, 0.001);
+
+        for (long i = 0; i < 1000; i++) {
+            assertTrue(filter.add(i * 0x9E3779B97F4A7C15L));
+        }
+        for (long i = 0; i < 1000; i++) {
+            assertTrue(filter.contains(i * 0x9E3779B97F4A7C15L));
+        }
+
+        int falsePositives = 0;
+        for (long i = 1000; i < 11000; i++) {
+            if (filter.contains(i * 0x9E3779B97F4A7C15L))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 100, "Too many false positives: " + falsePositives);
+    }
+}
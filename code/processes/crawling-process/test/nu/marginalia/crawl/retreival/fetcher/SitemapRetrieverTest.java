@@ -0,0 +1,126 @@
+package nu.marginalia.crawl.retreival.fetcher;
+
+import nu.marginalia.model.EdgeUrl;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SitemapRetrieverTest {
+
+    private final EdgeUrl base;
+
+    SitemapRetrieverTest() throws URISyntaxException {
+        base = new EdgeUrl("https://www.example.com/sitemap.xml");
+    }
+
+    private List<String> parse(String contentType, String data, List<String> children, int limit) throws IOException, XMLStreamException {
+        List<String> urls = new ArrayList<>();
+
+        var childSitemaps = SitemapRetriever.parseSitemap(base, contentType,
+                new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)),
+                url -> {
+                    urls.add(url.toString());
+                    return urls.size() < limit;
+                });
+
+        childSitemaps.forEach(url -> children.add(url.toString()));
+
+        return urls;
+    }
+
+    @Test
+    void parseUrlset() throws Exception {
+        String data = """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <urlset xmlns="http://www.sitemaps.org/schemas/sitemap/0.9">
+                  <url><loc>https://www.example.com/a</loc><lastmod>2024-01-01</lastmod></url>
+                  <url><loc> /b </loc></url>
+                </urlset>
+                """;
+
+        List<String> children = new ArrayList<>();
+        assertEquals(List.of("https://www.example.com/a", "https://www.example.com/b"),
+                parse("application/xml", data, children, 100));
+        assertEquals(List.of(), children);
+    }
+
+    @Test
+    void parseImageSitemap() throws Exception {
+        String data = """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <urlset xmlns="http://www.sitemaps.org/schemas/sitemap/0.9"
+                        xmlns:image="http://www.google.com/schemas/sitemap-image/1.1"
+                        xmlns:video="http://www.google.com/schemas/sitemap-video/1.1">
+                  <url>
+                    <loc>https://www.example.com/gallery</loc>
+                    <image:image><image:loc>https://www.example.com/photo.jpg</image:loc></image:image>
+                    <video:video>
+                      <video:thumbnail_loc>https://www.example.com/thumb.jpg</video:thumbnail_loc>
+                      <video:content_loc>https://www.example.com/video.mp4</video:content_loc>
+                      <video:player_loc>https://www.example.com/player</video:player_loc>
+                    </video:video>
+                  </url>
+                  <url><loc>https://www.example.com/about</loc></url>
+                </urlset>
+                """;
+
+        List<String> children = new ArrayList<>();
+        assertEquals(List.of("https://www.example.com/gallery", "https://www.example.com/about"),
+                parse("application/xml", data, children, 100));
+        assertEquals(List.of(), children);
+    }
+
+    @Test
+    void parseSitemapIndex() throws Exception {
+        String data = """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <sitemapindex xmlns="http://www.sitemaps.org/schemas/sitemap/0.9">
+                  <sitemap><loc>https://www.example.com/sitemap-1.xml</loc></sitemap>
+                  <sitemap><loc>https://www.example.com/sitemap-2.xml</loc></sitemap>
+                </sitemapindex>
+                """;
+
+        List<String> children = new ArrayList<>();
+        assertEquals(List.of(), parse("application/xml", data, children, 100));
+        assertEquals(List.of("https://www.example.com/sitemap-1.xml", "https://www.example.com/sitemap-2.xml"), children);
+    }
+
+    @Test
+    void parseRssAndAtom() throws Exception {
+        String rss = """
+                <rss version="2.0"><channel><link>https://www.example.com/</link>
+                  <item><title>A</title><link>https://www.example.com/post-a</link></item>
+                </channel></rss>
+                """;
+        String atom = """
+                <feed xmlns="http://www.w3.org/2005/Atom"><link href="https://www.example.com/"/>
+                  <entry><link rel="alternate" href="https://www.example.com/post-b"/><link rel="edit" href="/edit"/></entry>
+                </feed>
+                """;
+
+        List<String> children = new ArrayList<>();
+        assertEquals(List.of("https://www.example.com/post-a"), parse("application/rss+xml", rss, children, 100));
+        assertEquals(List.of("https://www.example.com/post-b"), parse("application/atom+xml", atom, children, 100));
+    }
+
+    @Test
+    void parsePlainTextWithLimit() throws Exception {
+        String data = """
+                https://www.example.com/1
+                https://www.example.com/2
+                https://www.example.com/3
+                """;
+
+        List<String> children = new ArrayList<>();
+        assertEquals(List.of("https://www.example.com/1", "https://www.example.com/2"),
+                parse("text/plain", data, children, 2));
+    }
+}
@@ -0,0 +1,103 @@
+package nu.marginalia.crawl.retreival.frontier;
+
+import nu.marginalia.model.EdgeDomain;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UrlQueueTest {
+    Path tempDir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory(getClass().getSimpleName());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (var files = Files.list(tempDir)) {
+            for (var file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(tempDir);
+    }
+
+    @Test
+    public void testEncodeDecode() throws IOException {
+        try (var queue = new UrlQueue(new EdgeDomain("www.marginalia.nu"), Long.MAX_VALUE, tempDir)) {
+            for (String url : List.of(
+                    "https://www.marginalia.nu/",
+                    "http://www.marginalia.nu/log/",
+                    "https://www.marginalia.nu:8080/test?a=b",
+                    "https://www.marginalia.nu.example.com/",
+                    "https://search.marginalia.nu/"))
+            {
+                assertEquals(url, queue.decode(queue.encode(url)));
+            }
+
+            assertEquals(2, queue.encode("https://www.marginalia.nu/").length);
+        }
+    }
+
+    @Test
+    public void testOrderInMemory() throws IOException {
+        try (var queue = new UrlQueue(new EdgeDomain("www.marginalia.nu"), Long.MAX_VALUE, tempDir)) {
+            queue.addLast("https://www.marginalia.nu/a");
+            queue.addLast("https://www.marginalia.nu/b");
+            queue.addFirst("https://www.marginalia.nu/");
+
+            assertEquals(3, queue.size());
+            assertEquals("https://www.marginalia.nu/", queue.peek());
+            assertEquals("https://www.marginalia.nu/", queue.poll());
+            assertEquals("https://www.marginalia.nu/a", queue.poll());
+            assertEquals("https://www.marginalia.nu/b", queue.poll());
+            assertNull(queue.poll());
+            assertTrue(queue.isEmpty());
+            assertFalse(queue.hasSpilled());
+        }
+    }
+
+    @Test
+    public void testSpill() throws IOException {
+        List<String> expected = new ArrayList<>();
+
+        try (var queue = new UrlQueue(new EdgeDomain("www.marginalia.nu"), 256, tempDir)) {
+            for (int i = 0; i < 10_000; i++) {
+                String url = "https://www.marginalia.nu/page/" + i;
+                expected.add(url);
+                queue.addLast(url);
+            }
+
+            assertTrue(queue.hasSpilled());
+            assertEquals(10_000, queue.size());
+            assertTrue(queue.estimateMemoryUsage() < 128 * 1024);
+
+            List<String> actual = new ArrayList<>();
+
+            // Interleave reads and writes to exercise the refill logic
+            for (int i = 0; i < 5_000; i++) {
+                actual.add(queue.poll());
+            }
+            for (int i = 10_000; i < 12_000; i++) {
+                String url = "https://www.marginalia.nu/page/" + i;
+                expected.add(url);
+                queue.addLast(url);
+            }
+            while (!queue.isEmpty()) {
+                actual.add(queue.poll());
+            }
+
+            assertEquals(expected, actual);
+            assertEquals(0, queue.spilledBytes());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package nu.marginalia.crawl.warc;
+
+import nu.marginalia.UserAgent;
+import nu.marginalia.crawl.retreival.fetcher.ContentTags;
+import nu.marginalia.crawl.retreival.fetcher.warc.WarcRecorder;
+import nu.marginalia.crawling.parquet.CrawledDocumentParquetRecord;
+import nu.marginalia.crawling.parquet.CrawledDocumentParquetRecordFileReader;
+import nu.marginalia.crawling.parquet.CrawledDocumentParquetRecordFileWriter;
+import nu.marginalia.model.EdgeUrl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InlineParquetConversionTest {
+    Path fileNameWarc;
+    Path fileNameParquetInline;
+    Path fileNameParquetOffline;
+
+    ParquetConversionPipeline pipeline = new ParquetConversionPipeline(new UserAgent("test", "test"));
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        fileNameWarc = Files.createTempFile("test", ".warc.gz");
+        fileNameParquetInline = Files.createTempFile("test", ".parquet");
+        fileNameParquetOffline = Files.createTempFile("test", ".parquet");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(fileNameWarc);
+        Files.deleteIfExists(fileNameParquetInline);
+        Files.deleteIfExists(fileNameParquetOffline);
+        pipeline.close();
+    }
+
+    @Test
+    public void testSameAsOfflineConversion() throws Exception {
+        try (var conversion = pipeline.begin("www.marginalia.nu", fileNameParquetInline)) {
+            try (var recorder = new WarcRecorder(fileNameWarc, conversion)) {
+                for (int i = 0; i < 100; i++) {
+                    var url = new EdgeUrl("https://www.marginalia.nu/" + i);
+
+                    recorder.writeReferenceCopy(url,
+                            "text/html",
+                            200,
+                            "<?doctype html><html><body>test " + i + "</body></html>",
+                            ContentTags.empty());
+                    recorder.writeOutlinks(url, List.of(new EdgeUrl("https://www.marginalia.nu/" + (i + 1))));
+                }
+                recorder.flagAsRobotsTxtError(new EdgeUrl("https://www.marginalia.nu/robots-blocked"));
+            }
+
+            assertTrue(conversion.finish());
+        }
+
+        CrawledDocumentParquetRecordFileWriter.convertWarc("www.marginalia.nu",
+                new UserAgent("test", "test"),
+                fileNameWarc,
+                fileNameParquetOffline);
+
+        List<CrawledDocumentParquetRecord> inline = CrawledDocumentParquetRecordFileReader.stream(fileNameParquetInline).toList();
+        List<CrawledDocumentParquetRecord> offline = CrawledDocumentParquetRecordFileReader.stream(fileNameParquetOffline).toList();
+
+        assertEquals(101, inline.size());
+        assertEquals(offline, inline);
+        assertEquals(List.of("https://www.marginalia.nu/1"), inline.getFirst().outlinks);
+    }
+}
@@ -10,9 +10,15 @@ import nu.marginalia.index.domainrankings.DomainRankings;
 import nu.marginalia.service.ProcessMainClass;
 import nu.marginalia.storage.FileStorageService;
 import nu.marginalia.index.construction.ReverseIndexConstructor;
+import nu.marginalia.index.construction.ReversePreindexReference;
 import nu.marginalia.index.forward.ForwardIndexConverter;
 import nu.marginalia.index.forward.ForwardIndexFileNames;
+import nu.marginalia.index.journal.IndexJournalFileNames;
+import nu.marginalia.index.journal.model.IndexJournalEntryData;
+import nu.marginalia.index.journal.model.IndexJournalEntryHeader;
 import nu.marginalia.index.journal.reader.IndexJournalReader;
+import nu.marginalia.index.journal.reader.IndexJournalReaderSingleFile;
+import nu.marginalia.index.journal.writer.IndexJournalWriterSingleFileImpl;
 import nu.marginalia.model.gson.GsonFactory;
 import nu.marginalia.model.id.UrlIdCodec;
 import nu.marginalia.model.idx.WordFlags;
@@ -29,13 +35,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.LongPredicate;
+import java.util.stream.IntStream;
 
 import static nu.marginalia.mqapi.ProcessInboxNames.INDEX_CONSTRUCTOR_INBOX;
 
@@ -47,6 +59,11 @@ public class IndexConstructorMain extends ProcessMainClass {
     private final int node;
 
     private static final Logger logger = LoggerFactory.getLogger(IndexConstructorMain.class);
+
+    /** The number of journal files processed at the same time when all indexes are constructed
+     * together.  Each holds a decompressed copy of its journal file in the temporary directory. */
+    private static final int preindexThreads = Integer.getInteger("index.preindexThreads",
+            Math.clamp(Runtime.getRuntime().availableProcessors() / 2, 1, 4));
     private final Gson gson = GsonFactory.get();
     public static void main(String[] args) throws Exception {
         CreateIndexInstructions instructions = null;
@@ -101,6 +118,7 @@ public class IndexConstructorMain extends ProcessMainClass {
             case FORWARD      -> createForwardIndex();
             case REVERSE_FULL -> createFullReverseIndex();
             case REVERSE_PRIO -> createPrioReverseIndex();
+            case ALL          -> createAllIndexes();
         }
 
         heartbeat.shutDown();
@@ -144,6 +162,136 @@ public class IndexConstructorMain extends ProcessMainClass {
                         workDir);
     }
 
+    /** Construct the full and priority reverse indexes and the forward index
+     * with a single pass over the journal.
+     * <p></p>
+     * Each journal file is decompressed once into a temporary file, and the preindexes
+     * of both reverse indexes are built from the decompressed copy.  The document
+     * records the forward index needs are copied to a separate journal with no words,
+     * which is cheap to read twice.
+     * <p></p>
+     * The journal files are processed in parallel, by index.preindexThreads threads.  Each
+     * needs temporary disk space for the decompressed copy of its journal file, so the
+     * temporary directory must have room for that many uncompressed journal files.
+     */
+    private void createAllIndexes() throws IOException {
+        Path currentIndex = IndexLocations.getCurrentIndex(fileStorageService);
+        Path workDir = IndexLocations.getIndexConstructionArea(fileStorageService);
+        Path tmpDir = workDir.resolve("tmp");
+
+        if (!Files.isDirectory(tmpDir)) Files.createDirectories(tmpDir);
+
+        Path forwardJournalDir = Files.createTempDirectory(tmpDir, "forward-journal");
+
+        var fullConstructor = new ReverseIndexConstructor(
+                ReverseIndexFullFileNames.resolve(currentIndex, ReverseIndexFullFileNames.FileIdentifier.DOCS, ReverseIndexFullFileNames.FileVersion.NEXT),
+                ReverseIndexFullFileNames.resolve(currentIndex, ReverseIndexFullFileNames.FileIdentifier.WORDS, ReverseIndexFullFileNames.FileVersion.NEXT),
+                IndexJournalReader::singleFile,
+                this::addRankToIdEncoding, tmpDir);
+
+        var prioConstructor = new ReverseIndexConstructor(
+                ReverseIndexPrioFileNames.resolve(currentIndex, ReverseIndexPrioFileNames.FileIdentifier.DOCS, ReverseIndexPrioFileNames.FileVersion.NEXT),
+                ReverseIndexPrioFileNames.resolve(currentIndex, ReverseIndexPrioFileNames.FileIdentifier.WORDS, ReverseIndexPrioFileNames.FileVersion.NEXT),
+                IndexJournalReader::singleFile,
+                this::addRankToIdEncoding, tmpDir);
+
+        LongPredicate wordMetaFilter = getPriorityIndexWordMetaFilter();
+
+        var inputs = IndexJournalFileNames.findJournalFiles(workDir);
+
+        // The preindexes are grouped by the word id partition of their journal, if the loader partitioned it
+        Map<Integer, List<ReversePreindexReference>> fullPreindexes = new ConcurrentHashMap<>();
+        Map<Integer, List<ReversePreindexReference>> prioPreindexes = new ConcurrentHashMap<>();
+
+        try (var preindexHeartbeat = heartbeat.createAdHocTaskHeartbeat("constructPreindexes");
+             var preindexPool = new ForkJoinPool(preindexThreads))
+        {
+            AtomicInteger progress = new AtomicInteger(0);
+
+            preindexPool.submit(() -> IntStream.range(0, inputs.size()).parallel().forEach(i -> {
+                Path input = inputs.get(i);
+                Path decompressedFile = tmpDir.resolve(input.getFileName() + ".raw");
+
+                try {
+                    var reader = new IndexJournalReaderSingleFile(input).decompress(decompressedFile);
+                    int partition = reader.fileHeader.partition();
+
+                    partitionList(fullPreindexes, partition).add(fullConstructor.constructPreindex(reader));
+                    partitionList(prioPreindexes, partition).add(prioConstructor.constructPreindex(reader.filtering(wordMetaFilter)));
+                    copyDocumentRecords(reader, IndexJournalFileNames.allocateName(forwardJournalDir, i));
+                }
+                catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                finally {
+                    deleteTempFile(decompressedFile);
+                }
+
+                preindexHeartbeat.progress("PREINDEX", progress.incrementAndGet(), inputs.size());
+            })).get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while constructing preindexes", ex);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException uioe)
+                throw uioe.getCause();
+
+            throw new IOException("Preindex construction failed", ex.getCause());
+        }
+
+        try {
+            var results = ForkJoinPool.commonPool().invokeAll(List.of(
+                    () -> { fullConstructor.mergeAndFinalize(heartbeat, "createReverseIndexFull", fullPreindexes); return null; },
+                    () -> { prioConstructor.mergeAndFinalize(heartbeat, "createReverseIndexPrio", prioPreindexes); return null; },
+                    () -> { createForwardIndex(forwardJournalDir); return null; }
+            ));
+
+            for (var result : results) {
+                if (result.state() == Future.State.FAILED) {
+                    throw new IOException("Index construction failed", result.exceptionNow());
+                }
+            }
+        }
+        finally {
+            for (var file : IndexJournalFileNames.findJournalFiles(forwardJournalDir)) {
+                Files.delete(file);
+            }
+            Files.delete(forwardJournalDir);
+        }
+    }
+
+    private static void deleteTempFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        }
+        catch (IOException ex) {
+            logger.warn("Failed to delete {}", file, ex);
+        }
+    }
+
+    private static List<ReversePreindexReference> partitionList(Map<Integer, List<ReversePreindexReference>> preindexes, int partition) {
+        return preindexes.computeIfAbsent(partition, p -> Collections.synchronizedList(new ArrayList<>()));
+    }
+
+    /** Copy the document records of the journal, without their words, to a new journal file */
+    private static void copyDocumentRecords(IndexJournalReader reader, Path outputFile) throws IOException {
+        var noWords = new IndexJournalEntryData(0, new long[0]);
+
+        var writer = new IndexJournalWriterSingleFileImpl(outputFile);
+        try {
+            var pointer = reader.newPointer();
+            while (pointer.nextDocument()) {
+                writer.put(new IndexJournalEntryHeader(pointer.documentId(), pointer.documentFeatures(), pointer.documentMeta()),
+                        noWords);
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
     private static LongPredicate getPriorityIndexWordMetaFilter() {
 
         long highPriorityFlags =
@@ -161,8 +309,10 @@ public class IndexConstructorMain extends ProcessMainClass {
     }
 
     private void createForwardIndex() throws IOException {
+        createForwardIndex(IndexLocations.getIndexConstructionArea(fileStorageService));
+    }
 
-        Path workDir = IndexLocations.getIndexConstructionArea(fileStorageService);
+    private void createForwardIndex(Path workDir) throws IOException {
         Path outputFileDocsId = ForwardIndexFileNames.resolve(IndexLocations.getCurrentIndex(fileStorageService), ForwardIndexFileNames.FileIdentifier.DOC_ID, ForwardIndexFileNames.FileVersion.NEXT);
         Path outputFileDocsData = ForwardIndexFileNames.resolve(IndexLocations.getCurrentIndex(fileStorageService), ForwardIndexFileNames.FileIdentifier.DOC_DATA, ForwardIndexFileNames.FileVersion.NEXT);
 
@@ -5,32 +5,61 @@ import com.google.inject.Singleton;
 import lombok.SneakyThrows;
 import nu.marginalia.IndexLocations;
 import nu.marginalia.storage.FileStorageService;
-import nu.marginalia.hash.MurmurHash3_128;
 import nu.marginalia.index.journal.model.IndexJournalEntryData;
 import nu.marginalia.index.journal.model.IndexJournalEntryHeader;
+import nu.marginalia.index.journal.model.IndexJournalFileHeader;
 import nu.marginalia.index.journal.writer.IndexJournalWriterPagingImpl;
 import nu.marginalia.index.journal.writer.IndexJournalWriter;
 import nu.marginalia.keyword.model.DocumentKeywords;
 import nu.marginalia.model.idx.DocumentMetadata;
+import nu.marginalia.model.processed.KeywordHasher;
 import nu.marginalia.index.journal.IndexJournalFileNames;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static nu.marginalia.index.journal.model.IndexJournalEntryData.MAX_LENGTH;
 
+/** Writes the keywords of the loaded documents to the index journal.
+ * <p></p>
+ * The writer is thread safe.  It keeps a fixed pool of journal writers, each with its
+ * own sequence of journal files and buffers, and a call to putWords borrows one of them.
+ * This bounds both the memory used and the number of journal files open at the same time,
+ * regardless of how many threads are loading keywords.  The pool size is set with the
+ * loader.journalWriters system property.
+ * <p></p>
+ * Optionally, with the loader.journalPartitions system property, the words are partitioned
+ * by ranges of word ids into separate journal files.  The journals of different partitions
+ * have no words in common, so the index constructor can concatenate their preindexes
+ * rather than merge them.  Each writer then keeps one journal open per partition, and the
+ * pool is sized down so that no more than loader.maxOpenJournals journals are open in total.
+ */
 @Singleton
 public class LoaderIndexJournalWriter {
 
-    private final IndexJournalWriter indexWriter;
     private static final Logger logger = LoggerFactory.getLogger(LoaderIndexJournalWriter.class);
 
-    private final MurmurHash3_128 hasher = new MurmurHash3_128();
-    private final long[] buffer = new long[MAX_LENGTH * 2];
+    /** Upper bound on the number of journal files open at the same time, across all writers */
+    private static final int maxOpenJournals = Math.max(1, Integer.getInteger("loader.maxOpenJournals", 64));
 
+    /** When larger than 1, the journal is partitioned into this many ranges of word ids */
+    private static final int partitionCount = Math.clamp(Integer.getInteger("loader.journalPartitions", 1), 1, maxOpenJournals);
+
+    private static final int writerCount = Math.clamp(maxOpenJournals / partitionCount, 1,
+            Math.max(1, Integer.getInteger("loader.journalWriters",
+                    Math.clamp(Runtime.getRuntime().availableProcessors() / 2, 1, 8))));
+
+    private final BlockingQueue<JournalWriter> availableWriters;
+    private final List<JournalWriter> allWriters = new ArrayList<>();
 
     @Inject
     public LoaderIndexJournalWriter(FileStorageService fileStorageService) throws IOException, SQLException {
@@ -41,7 +70,21 @@ public class LoaderIndexJournalWriter {
             Files.delete(existingFile);
         }
 
-        indexWriter = new IndexJournalWriterPagingImpl(indexArea);
+        // The writers share the file numbering, so that their files don't collide
+        AtomicInteger fileNumbers = new AtomicInteger();
+
+        availableWriters = new ArrayBlockingQueue<>(writerCount);
+        for (int i = 0; i < writerCount; i++) {
+            var writer = new JournalWriter(indexArea, fileNumbers);
+
+            allWriters.add(writer);
+            availableWriters.add(writer);
+        }
+    }
+
+    /** The number of threads that can write to the journal at the same time */
+    public int writerCount() {
+        return writerCount;
     }
 
     public void putWords(long combinedId,
@@ -52,13 +95,29 @@ public class LoaderIndexJournalWriter {
         putWords(combinedId, features, metadata.encode(), wordSet);
     }
 
-    @SneakyThrows
     public void putWords(long combinedId,
                          int features,
                          long metadata,
                          DocumentKeywords wordSet) {
 
-        if (wordSet.isEmpty()) {
+        long[] wordIds = new long[wordSet.size()];
+        for (int i = 0; i < wordIds.length; i++) {
+            wordIds[i] = KeywordHasher.hashKeyword(wordSet.keywords[i]);
+        }
+
+        putWords(combinedId, features, metadata, wordIds, wordSet.metadata);
+    }
+
+    /** Write the words of a document given as already hashed word ids,
+     * as written by the converter, along with their metadata */
+    @SneakyThrows
+    public void putWords(long combinedId,
+                         int features,
+                         long metadata,
+                         long[] wordIds,
+                         long[] wordMetadata) {
+
+        if (wordIds.length == 0) {
             logger.info("Skipping zero-length word set for {}", combinedId);
             return;
         }
@@ -68,29 +127,99 @@ public class LoaderIndexJournalWriter {
             return;
         }
 
-        var pointer = wordSet.newPointer();
+        if (wordIds.length != wordMetadata.length) {
+            logger.warn("Mismatched word ids and metadata for {}", combinedId);
+            return;
+        }
 
-        while (pointer.hasMore()) {
-            int i = 0;
+        var writer = availableWriters.take();
+        try {
+            writer.putWords(combinedId, features, metadata, wordIds, wordMetadata);
+        }
+        finally {
+            availableWriters.add(writer);
+        }
+    }
 
-            while (i < buffer.length
-                && pointer.advancePointer())
-            {
-                final long hashedKeyword = hasher.hashKeyword(pointer.getKeyword());
+    public void close() throws Exception {
+        for (var writer : allWriters) {
+            writer.close();
+        }
+    }
 
-                buffer[i++] = hashedKeyword;
-                buffer[i++] = pointer.getMetadata();
-            }
+    /** The partition of a word id when the journal is partitioned into n ranges of word ids.
+     * The ranges follow the signed order of the word ids, which is the order of the index. */
+    public static int partitionOf(long wordId, int n) {
+        long rangePosition = (wordId ^ Long.MIN_VALUE) >>> 32;
+        return (int) ((rangePosition * n) >>> 32);
+    }
+
+    /** A journal writer along with the buffers it needs, used by one thread at a time.
+     * In partitioned mode it has one journal and buffer per partition.
+     * The journal files are created on first use, so idle writers leave no empty files behind.
+     */
+    private static class JournalWriter {
+        private final Path indexArea;
+        private final AtomicInteger fileNumbers;
+
+        private final IndexJournalWriter[] indexWriters;
+        private final long[][] buffers;
+        private final int[] bufferSizes;
+
+        private JournalWriter(Path indexArea, AtomicInteger fileNumbers) {
+            this.indexArea = indexArea;
+            this.fileNumbers = fileNumbers;
+
+            indexWriters = new IndexJournalWriter[partitionCount];
+            buffers = new long[partitionCount][MAX_LENGTH * 2];
+            bufferSizes = new int[partitionCount];
+        }
 
-            var entry = new IndexJournalEntryData(i, buffer);
+        void putWords(long combinedId,
+                      int features,
+                      long metadata,
+                      long[] wordIds,
+                      long[] wordMetadata) throws IOException
+        {
             var header = new IndexJournalEntryHeader(combinedId, features, metadata);
 
-            indexWriter.put(header, entry);
+            for (int i = 0; i < wordIds.length; i++) {
+                final long wordId = wordIds[i];
+                final int partition = partitionOf(wordId, buffers.length);
+
+                if (bufferSizes[partition] == buffers[partition].length) {
+                    flush(partition, header);
+                }
+
+                long[] buffer = buffers[partition];
+                buffer[bufferSizes[partition]++] = wordId;
+                buffer[bufferSizes[partition]++] = wordMetadata[i];
+            }
+
+            for (int partition = 0; partition < buffers.length; partition++) {
+                if (bufferSizes[partition] > 0) {
+                    flush(partition, header);
+                }
+            }
         }
 
-    }
+        private void flush(int partition, IndexJournalEntryHeader header) throws IOException {
+            if (indexWriters[partition] == null) {
+                indexWriters[partition] = new IndexJournalWriterPagingImpl(indexArea,
+                        fileNumbers::getAndIncrement,
+                        partitionCount > 1 ? partition : IndexJournalFileHeader.NO_PARTITION);
+            }
 
-    public void close() throws Exception {
-        indexWriter.close();
+            indexWriters[partition].put(header, new IndexJournalEntryData(bufferSizes[partition], buffers[partition]));
+            bufferSizes[partition] = 0;
+        }
+
+        void close() throws IOException {
+            for (var indexWriter : indexWriters) {
+                if (indexWriter != null) {
+                    indexWriter.close();
+                }
+            }
+        }
     }
 }
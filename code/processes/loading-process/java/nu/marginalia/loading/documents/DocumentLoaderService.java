@@ -20,6 +20,7 @@ import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Singleton
 public class DocumentLoaderService {
@@ -42,14 +43,13 @@ public class DocumentLoaderService {
 
         try (var taskHeartbeat = processHeartbeat.createAdHocTaskHeartbeat("DOCUMENTS")) {
 
-            int processed = 0;
-
-            for (var file : documentFiles) {
-                taskHeartbeat.progress("LOAD", processed++, documentFiles.size());
+            AtomicInteger processed = new AtomicInteger();
 
+            // The files are decoded in parallel, inserting into the document db is serialized
+            documentFiles.parallelStream().forEach(file -> {
                 loadDocumentsFromFile(domainIdRegistry, file);
-            }
-            taskHeartbeat.progress("LOAD", processed, documentFiles.size());
+                taskHeartbeat.progress("LOAD", processed.incrementAndGet(), documentFiles.size());
+            });
         }
 
         logger.info("Finished");
@@ -57,9 +57,8 @@ public class DocumentLoaderService {
         return true;
     }
 
-    private void loadDocumentsFromFile(DomainIdRegistry domainIdRegistry, Path file)
-            throws SQLException, IOException
-    {
+    @SneakyThrows
+    private void loadDocumentsFromFile(DomainIdRegistry domainIdRegistry, Path file) {
         try (var stream = DocumentRecordParquetFileReader.streamMetadataProjection(file);
              LinkdbLoader loader = new LinkdbLoader(domainIdRegistry)
         )
@@ -100,17 +99,24 @@ public class DocumentLoaderService {
                     projection.getLength()
             ));
 
-            if (details.size() > 100) {
-                documentDbWriter.add(details);
-                details.clear();
+            // Each flush is a transaction in the document db, so the batches are kept fairly large
+            if (details.size() > 1000) {
+                flush();
             }
 
         }
 
+        private void flush() throws SQLException {
+            synchronized (documentDbWriter) {
+                documentDbWriter.add(details);
+            }
+            details.clear();
+        }
+
         @Override
         public void close() throws SQLException {
             if (!details.isEmpty()) {
-                documentDbWriter.add(details);
+                flush();
             }
         }
     }
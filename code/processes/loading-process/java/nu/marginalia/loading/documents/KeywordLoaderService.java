@@ -15,6 +15,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Singleton
 public class KeywordLoaderService {
@@ -28,19 +33,27 @@ public class KeywordLoaderService {
 
     public boolean loadKeywords(DomainIdRegistry domainIdRegistry,
                              ProcessHeartbeat heartbeat,
-                             LoaderInputData inputData) throws IOException {
-        try (var task = heartbeat.createAdHocTaskHeartbeat("KEYWORDS")) {
-
+                             LoaderInputData inputData) throws Exception {
+        try (var task = heartbeat.createAdHocTaskHeartbeat("KEYWORDS");
+             // One thread per journal writer, more threads would only wait for a writer
+             // while holding a decoded file in memory
+             var pool = new ForkJoinPool(writer.writerCount()))
+        {
             var documentFiles = inputData.listDocumentFiles();
-            int processed = 0;
+            AtomicInteger processed = new AtomicInteger();
 
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(documentFiles.size());
             for (var file : documentFiles) {
-                task.progress("LOAD", processed++, documentFiles.size());
-
-                loadKeywordsFromFile(domainIdRegistry, file);
+                tasks.add(pool.submit(() -> {
+                    loadKeywordsFromFile(domainIdRegistry, file);
+                    task.progress("LOAD", processed.incrementAndGet(), documentFiles.size());
+                    return null;
+                }));
             }
 
-            task.progress("LOAD", processed, documentFiles.size());
+            for (var fileTask : tasks) {
+                fileTask.get();
+            }
         }
 
         logger.info("Finished");
@@ -64,14 +77,23 @@ public class KeywordLoaderService {
                 domainIdRegistry.getDomainId(projection.domain),
                 projection.ordinal);
 
-        var words = new DocumentKeywords(
-                projection.words.toArray(String[]::new),
-                projection.metas.toArray()
-        );
-
-        writer.putWords(combinedId,
-                projection.htmlFeatures,
-                projection.documentMetadata,
-                words);
+        if (projection.hasWordIds()) {
+            writer.putWords(combinedId,
+                    projection.htmlFeatures,
+                    projection.documentMetadata,
+                    projection.wordIds.toArray(),
+                    projection.metas.toArray());
+        }
+        else { // processed data from before the converter wrote word ids
+            var words = new DocumentKeywords(
+                    projection.words.toArray(String[]::new),
+                    projection.metas.toArray()
+            );
+
+            writer.putWords(combinedId,
+                    projection.htmlFeatures,
+                    projection.documentMetadata,
+                    words);
+        }
     }
 }
\ No newline at end of file
@@ -1,16 +1,23 @@
 package nu.marginalia.loading.domains;
 
-import java.util.HashMap;
-import java.util.Map;
+import gnu.trove.map.hash.TLongIntHashMap;
+import nu.marginalia.hash.MurmurHash3_128;
 
-/** Maps domain names to domain ids */
+/** Maps domain names to domain ids.
+ * <p></p>
+ * The names are kept as 64 bit hashes in a primitive map, rather than as strings
+ * in a HashMap, as the registry may hold millions of domains.  It is populated
+ * before the loading starts and only read after that, from several threads.
+ */
 public class DomainIdRegistry {
-    private final Map<String, Integer> domainIds = new HashMap<>(10_000);
+    private static final MurmurHash3_128 hasher = new MurmurHash3_128();
+
+    private final TLongIntHashMap domainIds = new TLongIntHashMap(10_000, 0.5f, 0, -1);
 
     public int getDomainId(String domainName) {
-        Integer id = domainIds.get(domainName.toLowerCase());
+        int id = domainIds.get(hash(domainName));
 
-        if (id == null) {
+        if (id < 0) {
             // This is a very severe problem
             throw new IllegalStateException("Unknown domain id for domain " + domainName);
         }
@@ -18,8 +25,23 @@ public class DomainIdRegistry {
         return id;
     }
 
+    boolean contains(String domainName) {
+        return domainIds.containsKey(hash(domainName));
+    }
+
     void add(String domainName, int id) {
-        domainIds.put(domainName, id);
+        int previous = domainIds.put(hash(domainName), id);
+
+        if (previous >= 0 && previous != id) {
+            throw new IllegalStateException("Domain id hash collision for domain " + domainName);
+        }
+    }
+
+    int size() {
+        return domainIds.size();
     }
 
+    private static long hash(String domainName) {
+        return hasher.hashNearlyASCII(domainName.toLowerCase());
+    }
 }
@@ -3,6 +3,7 @@ package nu.marginalia.loading.domains;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.zaxxer.hikari.HikariDataSource;
+import lombok.SneakyThrows;
 import nu.marginalia.ProcessConfiguration;
 import nu.marginalia.io.processed.DomainLinkRecordParquetFileReader;
 import nu.marginalia.io.processed.DomainRecordParquetFileReader;
@@ -15,10 +16,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Singleton
 public class DomainLoaderService {
@@ -35,6 +38,9 @@ public class DomainLoaderService {
         this.nodeId = processConfiguration.node();
     }
 
+    /** Number of domain names resolved per query */
+    private static final int RESOLVE_BATCH_SIZE = 1000;
+
     /** Read the domain names from each parquet file
      *  compare with SQL domain database, fetch those
      *  that exist, insert those that don't.
@@ -42,72 +48,127 @@ public class DomainLoaderService {
     public DomainIdRegistry getOrCreateDomainIds(LoaderInputData inputData)
             throws IOException, SQLException
     {
-        Set<String> domainNamesAll = new HashSet<>(100_000);
+        // Each file is read once, the domain information is needed both for inserting
+        // the domains and for updating their affinity and ip
+        Collection<DomainWithIp> domainsWithIp = readBasicDomainInformation(inputData);
+        Collection<String> referencedDomains = readReferencedDomainNames(inputData);
+
+        Set<String> domainNamesAll = new HashSet<>(domainsWithIp.size() + referencedDomains.size());
         DomainIdRegistry ret = new DomainIdRegistry();
 
-        try (var conn = dataSource.getConnection();
-             var selectStmt = conn.prepareStatement("""
-                     SELECT ID FROM EC_DOMAIN WHERE DOMAIN_NAME=?
-                     """)
-        ) {
+        try (var conn = dataSource.getConnection()) {
 
             try (var inserter = new DomainInserter(conn, nodeId)) {
-                for (var domainWithIp : readBasicDomainInformation(inputData)) {
+                for (var domainWithIp : domainsWithIp) {
                     inserter.accept(new EdgeDomain(domainWithIp.domain));
                     domainNamesAll.add(domainWithIp.domain);
                 }
             }
             try (var inserter = new DomainInserter(conn, -1)) {
-                for (var domain : readReferencedDomainNames(inputData)) {
+                for (var domain : referencedDomains) {
                     inserter.accept(new EdgeDomain(domain));
                     domainNamesAll.add(domain);
                 }
             }
 
             try (var updater = new DomainAffinityAndIpUpdater(conn, nodeId)) {
-                for (var domainWithIp : readBasicDomainInformation(inputData)) {
+                for (var domainWithIp : domainsWithIp) {
                     updater.accept(new EdgeDomain(domainWithIp.domain), domainWithIp.ip);
                 }
             }
 
-            selectStmt.setFetchSize(1000);
-            for (var domain : domainNamesAll) {
-                selectStmt.setString(1, domain);
-                var rs = selectStmt.executeQuery();
-                if (rs.next()) {
-                    ret.add(domain, rs.getInt(1));
+            resolveDomainIds(conn, domainNamesAll, ret);
+        }
+
+        return ret;
+    }
+
+    /** Look up the ids of the domains in batches, with one query per batch
+     * rather than one per domain */
+    private void resolveDomainIds(Connection conn,
+                                  Collection<String> domainNames,
+                                  DomainIdRegistry registry) throws SQLException
+    {
+        List<String> batch = new ArrayList<>(RESOLVE_BATCH_SIZE);
+
+        try (var fullBatchStmt = prepareResolveStatement(conn, RESOLVE_BATCH_SIZE)) {
+            for (var domain : domainNames) {
+                batch.add(domain);
+
+                if (batch.size() == RESOLVE_BATCH_SIZE) {
+                    resolveBatch(fullBatchStmt, batch, registry);
+                    batch.clear();
                 }
-                else {
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            try (var lastBatchStmt = prepareResolveStatement(conn, batch.size())) {
+                resolveBatch(lastBatchStmt, batch, registry);
+            }
+        }
+
+        if (registry.size() < domainNames.size()) {
+            for (var domain : domainNames) {
+                if (!registry.contains(domain)) {
                     logger.error("Unknown domain {}", domain);
                 }
             }
         }
+    }
 
-        return ret;
+    private PreparedStatement prepareResolveStatement(Connection conn, int batchSize) throws SQLException {
+        var stmt = conn.prepareStatement(
+                "SELECT DOMAIN_NAME, ID FROM EC_DOMAIN WHERE DOMAIN_NAME IN ("
+                        + String.join(",", Collections.nCopies(batchSize, "?"))
+                        + ")");
+        stmt.setFetchSize(batchSize);
+        return stmt;
+    }
+
+    private void resolveBatch(PreparedStatement stmt,
+                              List<String> batch,
+                              DomainIdRegistry registry) throws SQLException
+    {
+        for (int i = 0; i < batch.size(); i++) {
+            stmt.setString(i + 1, batch.get(i));
+        }
+
+        try (var rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                registry.add(rs.getString(1), rs.getInt(2));
+            }
+        }
     }
 
     Collection<DomainWithIp> readBasicDomainInformation(LoaderInputData inputData) throws IOException {
-        final Set<DomainWithIp> domainsAll = new HashSet<>(100_000);
+        final Set<DomainWithIp> domainsAll = ConcurrentHashMap.newKeySet(100_000);
 
         var domainFiles = inputData.listDomainFiles();
-        for (var file : domainFiles) {
-            domainsAll.addAll(DomainRecordParquetFileReader.getBasicDomainInformation(file));
-        }
+        domainFiles.parallelStream().forEach(file -> domainsAll.addAll(readBasicDomainInformation(file)));
 
         return domainsAll;
     }
 
+    @SneakyThrows
+    private Collection<DomainWithIp> readBasicDomainInformation(Path file) {
+        return DomainRecordParquetFileReader.getBasicDomainInformation(file);
+    }
+
     Collection<String> readReferencedDomainNames(LoaderInputData inputData) throws IOException {
-        final Set<String> domainNamesAll = new HashSet<>(100_000);
+        final Set<String> domainNamesAll = ConcurrentHashMap.newKeySet(100_000);
 
         var linkFiles = inputData.listDomainLinkFiles();
-        for (var file : linkFiles) {
-            domainNamesAll.addAll(DomainLinkRecordParquetFileReader.getDestDomainNames(file));
-        }
+        linkFiles.parallelStream().forEach(file -> domainNamesAll.addAll(readReferencedDomainNames(file)));
 
         return domainNamesAll;
     }
 
+    @SneakyThrows
+    private Collection<String> readReferencedDomainNames(Path file) {
+        return DomainLinkRecordParquetFileReader.getDestDomainNames(file);
+    }
+
     public boolean loadDomainMetadata(DomainIdRegistry domainIdRegistry, ProcessHeartbeatImpl heartbeat, LoaderInputData inputData) {
 
         var files = inputData.listDomainFiles();
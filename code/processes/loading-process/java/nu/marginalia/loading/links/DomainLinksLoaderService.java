@@ -14,6 +14,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Singleton
 public class DomainLinksLoaderService {
@@ -34,22 +35,20 @@ public class DomainLinksLoaderService {
         try (var task = heartbeat.createAdHocTaskHeartbeat("LINKS")) {
             var linkFiles = inputData.listDomainLinkFiles();
 
-            int processed = 0;
-
-            for (var file : linkFiles) {
-                task.progress("LOAD", processed++, linkFiles.size());
+            AtomicInteger processed = new AtomicInteger();
 
+            linkFiles.parallelStream().forEach(file -> {
                 loadLinksFromFile(domainIdRegistry, file);
-            }
-
-            task.progress("LOAD", processed, linkFiles.size());
+                task.progress("LOAD", processed.incrementAndGet(), linkFiles.size());
+            });
         }
 
         logger.info("Finished");
         return true;
     }
 
-    private void loadLinksFromFile(DomainIdRegistry domainIdRegistry, Path file) throws IOException {
+    @SneakyThrows
+    private void loadLinksFromFile(DomainIdRegistry domainIdRegistry, Path file) {
         try (var domainStream = DomainLinkRecordParquetFileReader.stream(file);
              var linkLoader = new LinkLoader(domainIdRegistry))
         {
@@ -58,22 +57,41 @@ public class DomainLinksLoaderService {
         }
     }
 
+    /** Resolves the domain ids of the links in a file, and writes them in batches
+     * as the writer is shared by all files being loaded */
     class LinkLoader implements AutoCloseable {
         private final DomainIdRegistry domainIdRegistry;
 
+        private final int[] sourceIds = new int[1000];
+        private final int[] destIds = new int[1000];
+        private int size = 0;
+
         public LinkLoader(DomainIdRegistry domainIdRegistry) {
             this.domainIdRegistry = domainIdRegistry;
         }
 
         @SneakyThrows
         void accept(DomainLinkRecord record) {
-            domainLinkDbWriter.write(
-                    domainIdRegistry.getDomainId(record.source),
-                    domainIdRegistry.getDomainId(record.dest)
-            );
+            sourceIds[size] = domainIdRegistry.getDomainId(record.source);
+            destIds[size] = domainIdRegistry.getDomainId(record.dest);
+
+            if (++size == sourceIds.length) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            synchronized (domainLinkDbWriter) {
+                for (int i = 0; i < size; i++) {
+                    domainLinkDbWriter.write(sourceIds[i], destIds[i]);
+                }
+            }
+            size = 0;
         }
 
         @Override
-        public void close() {}
+        public void close() throws IOException {
+            flush();
+        }
     }
 }
@@ -0,0 +1,26 @@
+package nu.marginalia.loading.domains;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DomainIdRegistryTest {
+
+    @Test
+    void getDomainId() {
+        var registry = new DomainIdRegistry();
+
+        registry.add("www.marginalia.nu", 1);
+        registry.add("memex.marginalia.nu", 2);
+        registry.add("www.marginalia.nu", 1);
+
+        assertEquals(2, registry.size());
+        assertEquals(1, registry.getDomainId("www.marginalia.nu"));
+        assertEquals(1, registry.getDomainId("WWW.Marginalia.NU"));
+        assertEquals(2, registry.getDomainId("memex.marginalia.nu"));
+
+        assertTrue(registry.contains("memex.marginalia.nu"));
+        assertFalse(registry.contains("search.marginalia.nu"));
+        assertThrows(IllegalStateException.class, () -> registry.getDomainId("search.marginalia.nu"));
+    }
+}
@@ -2,6 +2,8 @@ package nu.marginalia.loading.domains;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import nu.marginalia.ProcessConfiguration;
 import nu.marginalia.io.processed.DomainLinkRecordParquetFileWriter;
 import nu.marginalia.io.processed.DomainRecordParquetFileWriter;
@@ -11,13 +13,18 @@ import nu.marginalia.model.processed.DomainLinkRecord;
 import nu.marginalia.model.processed.DomainRecord;
 import nu.marginalia.process.control.ProcessAdHocTaskHeartbeat;
 import nu.marginalia.process.control.ProcessHeartbeat;
+import nu.marginalia.test.TestMigrationLoader;
 import org.junit.jupiter.api.*;
 import org.mockito.Mockito;
+import org.testcontainers.containers.MariaDBContainer;
+import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -26,9 +33,34 @@ import static org.junit.jupiter.api.Assertions.*;
 @Tag("slow")
 @Testcontainers
 class DomainLoaderServiceTest {
+    @Container
+    static MariaDBContainer<?> mariaDBContainer = new MariaDBContainer<>("mariadb")
+            .withDatabaseName("WMSA_prod")
+            .withUsername("wmsa")
+            .withPassword("wmsa")
+            .withNetworkAliases("mariadb");
+
+    static HikariDataSource dataSource;
+
     List<Path> toDelete = new ArrayList<>();
     ProcessHeartbeat heartbeat;
 
+    @BeforeAll
+    public static void setupAll() {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(mariaDBContainer.getJdbcUrl());
+        config.setUsername("wmsa");
+        config.setPassword("wmsa");
+
+        dataSource = new HikariDataSource(config);
+        TestMigrationLoader.flywayMigration(dataSource);
+    }
+
+    @AfterAll
+    public static void teardownAll() {
+        dataSource.close();
+    }
+
     @BeforeEach
     public void setUp() {
         heartbeat = Mockito.mock(ProcessHeartbeat.class);
@@ -92,6 +124,71 @@ class DomainLoaderServiceTest {
         assertEquals(expectedDomains2, domainService.readReferencedDomainNames(new LoaderInputData(workDir, 2)));
     }
 
+    @Test
+    void getOrCreateDomainIds() throws IOException, SQLException {
+        Path workDir = Files.createTempDirectory(getClass().getSimpleName());
+        Path parquetFile1 = ProcessedDataFileNames.domainFileName(workDir, 0);
+        Path parquetFile2 = ProcessedDataFileNames.domainLinkFileName(workDir, 0);
+
+        toDelete.add(workDir);
+        toDelete.add(parquetFile1);
+        toDelete.add(parquetFile2);
+
+        // A domain that is already known, stored with a name that differs from
+        // the one in the processed data only in case
+        int knownId;
+        try (var conn = dataSource.getConnection();
+             var stmt = conn.prepareStatement("INSERT INTO EC_DOMAIN(DOMAIN_NAME, DOMAIN_TOP) VALUES ('WWW.Example.COM', 'example.com')",
+                     Statement.RETURN_GENERATED_KEYS)) {
+            stmt.executeUpdate();
+
+            var rs = stmt.getGeneratedKeys();
+            assertTrue(rs.next());
+            knownId = rs.getInt(1);
+        }
+
+        // More domains than are resolved in one query, so that both a full
+        // and a partial batch is needed
+        List<String> domains = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            domains.add("www.domain" + i + ".com");
+        }
+        domains.add("www.example.com");
+
+        List<String> linkDomains = new ArrayList<>();
+        for (int i = 0; i < 700; i++) {
+            linkDomains.add("www.linked" + i + ".com");
+        }
+
+        try (var pw = new DomainRecordParquetFileWriter(parquetFile1)) {
+            for (var domain : domains) {
+                pw.write(dr(domain));
+            }
+        }
+        try (var pw = new DomainLinkRecordParquetFileWriter(parquetFile2)) {
+            for (var domain : linkDomains) {
+                pw.write(dl(domain));
+            }
+        }
+
+        var domainService = new DomainLoaderService(dataSource, new ProcessConfiguration("test", 1, UUID.randomUUID()));
+        var registry = domainService.getOrCreateDomainIds(new LoaderInputData(workDir, 1));
+
+        assertEquals(domains.size() + linkDomains.size(), registry.size());
+
+        Set<Integer> ids = new HashSet<>();
+        for (var domain : domains) {
+            ids.add(registry.getDomainId(domain));
+        }
+        for (var domain : linkDomains) {
+            ids.add(registry.getDomainId(domain));
+        }
+        assertEquals(domains.size() + linkDomains.size(), ids.size());
+
+        assertEquals(knownId, registry.getDomainId("www.example.com"));
+        assertEquals(knownId, registry.getDomainId("WWW.Example.COM"));
+    }
+
     private DomainRecord dr(String domainName) {
         return new DomainRecord(domainName, 0, 0, 0, null, null, null, null);
     }
@@ -1,5 +1,11 @@
 package nu.marginalia.loading.loader;
 
+import gnu.trove.list.array.TLongArrayList;
+import nu.marginalia.io.processed.DocumentRecordParquetFileReader;
+import nu.marginalia.io.processed.DocumentRecordParquetFileWriter;
+import nu.marginalia.model.processed.DocumentRecord;
+import nu.marginalia.model.processed.DocumentRecordKeywordsProjection;
+import nu.marginalia.model.processed.KeywordHasher;
 import nu.marginalia.storage.FileStorageService;
 import nu.marginalia.storage.model.FileStorageBase;
 import nu.marginalia.storage.model.FileStorageBaseType;
@@ -18,7 +24,12 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 import java.util.stream.LongStream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -79,4 +90,124 @@ class LoaderIndexJournalWriterTest {
 
         assertEquals(LongStream.of(metadata).boxed().toList(), metas);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        DocumentKeywords words = new DocumentKeywords(new String[] { "hello", "world" }, new long[] { 1, 2 });
+
+        try (var pool = Executors.newFixedThreadPool(4)) {
+            for (int i = 1; i <= 1000; i++) {
+                long id = i;
+                pool.submit(() -> writer.putWords(id, 0, new DocumentMetadata(0), words));
+            }
+        }
+
+        writer.close();
+
+        List<Path> journalFiles = IndexJournalFileNames.findJournalFiles(tempDir.resolve("iw"));
+        assertTrue(journalFiles.size() <= writer.writerCount());
+
+        Set<Long> docIds = new HashSet<>();
+        for (var file : journalFiles) {
+            new IndexJournalReaderSingleFile(file).forEachDocId(docIds::add);
+        }
+
+        assertEquals(LongStream.rangeClosed(1, 1000).boxed().collect(Collectors.toSet()), docIds);
+    }
+
+    @Test
+    public void testWordIdsMatchKeywords() throws Exception {
+        List<String> keywords = List.of("hello", "world", "Überraschung", "site:www.example.com", "1234");
+        long[] metadata = new long[] { 1, 2, 3, 4, 5 };
+
+        // Write the document the way the converter does, with the word ids next to the keywords
+        Path parquetFile = tempDir.resolve("documents.parquet");
+        var wordIds = new TLongArrayList();
+        for (var keyword : keywords) {
+            wordIds.add(KeywordHasher.hashKeyword(keyword));
+        }
+        try (var pw = new DocumentRecordParquetFileWriter(parquetFile)) {
+            pw.write(new DocumentRecord("www.example.com", "https://www.example.com/", 1,
+                    "OK", null, "Title", "Description", 7, "HTML5", 100,
+                    55L, 0.5f, 1234L, null,
+                    keywords, new TLongArrayList(metadata), wordIds));
+        }
+
+        List<DocumentRecordKeywordsProjection> projections;
+        try (var stream = DocumentRecordParquetFileReader.streamKeywordsProjection(parquetFile)) {
+            projections = stream.toList();
+        }
+        Files.delete(parquetFile);
+
+        assertEquals(1, projections.size());
+        var projection = projections.getFirst();
+        assertTrue(projection.hasWordIds());
+
+        // The loader's path for the word id column
+        writer.putWords(1, projection.htmlFeatures, projection.documentMetadata,
+                projection.wordIds.toArray(), projection.metas.toArray());
+        writer.close();
+
+        // The loader's path for processed data with only the keywords
+        Path stringsDir = Files.createTempDirectory(getClass().getSimpleName());
+        FileStorageService storageService = Mockito.mock(FileStorageService.class);
+        Mockito.when(storageService.getStorageBase(FileStorageBaseType.CURRENT)).thenReturn(new FileStorageBase(null, null,  1,null, stringsDir.toString()));
+
+        var stringsWriter = new LoaderIndexJournalWriter(storageService);
+        stringsWriter.putWords(1, 7, 1234L, new DocumentKeywords(keywords.toArray(String[]::new), metadata));
+        stringsWriter.close();
+
+        try {
+            assertEquals(readJournal(tempDir.resolve("iw")), readJournal(stringsDir.resolve("iw")));
+        }
+        finally {
+            for (var file : IndexJournalFileNames.findJournalFiles(stringsDir.resolve("iw"))) {
+                Files.delete(file);
+            }
+            Files.delete(stringsDir.resolve("iw"));
+            Files.delete(stringsDir);
+        }
+    }
+
+    /** Read every journal entry in the directory as a list of
+     * document id, document metadata, features, and the word ids and metadata */
+    private List<List<Long>> readJournal(Path dir) throws IOException {
+        List<List<Long>> entries = new ArrayList<>();
+
+        for (var file : IndexJournalFileNames.findJournalFiles(dir)) {
+            var ptr = new IndexJournalReaderSingleFile(file).newPointer();
+            while (ptr.nextDocument()) {
+                List<Long> entry = new ArrayList<>();
+                entry.add(ptr.documentId());
+                entry.add(ptr.documentMeta());
+                entry.add((long) ptr.documentFeatures());
+                while (ptr.nextRecord()) {
+                    entry.add(ptr.wordId());
+                    entry.add(ptr.wordMeta());
+                }
+                entries.add(entry);
+            }
+        }
+
+        assertFalse(entries.isEmpty());
+        return entries;
+    }
+
+    @Test
+    public void testPartitionOf() {
+        assertEquals(0, LoaderIndexJournalWriter.partitionOf(Long.MIN_VALUE, 4));
+        assertEquals(1, LoaderIndexJournalWriter.partitionOf(-1, 4));
+        assertEquals(2, LoaderIndexJournalWriter.partitionOf(0, 4));
+        assertEquals(3, LoaderIndexJournalWriter.partitionOf(Long.MAX_VALUE, 4));
+
+        // The partitions are ordered like the word ids
+        var rand = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            long a = rand.nextLong();
+            long b = rand.nextLong();
+            if (a < b) {
+                assertTrue(LoaderIndexJournalWriter.partitionOf(a, 7) <= LoaderIndexJournalWriter.partitionOf(b, 7));
+            }
+        }
+    }
+}
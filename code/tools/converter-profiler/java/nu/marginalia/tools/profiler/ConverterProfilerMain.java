@@ -0,0 +1,113 @@
+package nu.marginalia.tools.profiler;
+
+import com.google.inject.Guice;
+import nu.marginalia.converting.ConverterModule;
+import nu.marginalia.converting.processor.DomainProcessor;
+import nu.marginalia.crawling.io.CrawledDomainReader;
+import nu.marginalia.service.module.DatabaseModule;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/** Replays crawl data through the converter without writing any output, and reports
+ * the time and allocation of each processing stage.
+ * <p></p>
+ * Two passes are made over the crawl data; one runs each document processing stage
+ * in isolation (see StagedDocumentReplay), and one runs the domains through
+ * DomainProcessor to measure the throughput of the converter as a whole.
+ * <p></p>
+ * For benchmarks of the individual stages on a single document, see the jmh source set.
+ */
+public class ConverterProfilerMain {
+
+    public static void main(String... args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Expected arguments: crawl-data-dir [stages|full|all] [max-domains]");
+            return;
+        }
+
+        Path crawlDataDir = Path.of(args[0]);
+        String mode = args.length > 1 ? args[1] : "all";
+        int maxDomains = args.length > 2 ? Integer.parseInt(args[2]) : Integer.MAX_VALUE;
+
+        if (!List.of("stages", "full", "all").contains(mode)) {
+            System.err.println("Valid modes: stages, full, all");
+            return;
+        }
+
+        List<Path> crawlDataFiles = findCrawlData(crawlDataDir, maxDomains);
+        System.out.printf("Replaying %d crawl data files from %s%n", crawlDataFiles.size(), crawlDataDir);
+
+        var injector = Guice.createInjector(
+                new DatabaseModule(false),
+                new ConverterModule()
+        );
+
+        if (!"full".equals(mode)) {
+            var replay = injector.getInstance(StagedDocumentReplay.class);
+            var profiler = new StageProfiler();
+
+            // Warm up on the first files to let the JIT settle before measuring
+            for (var file : crawlDataFiles.subList(0, Math.min(10, crawlDataFiles.size()))) {
+                try (var stream = CrawledDomainReader.createDataStream(CrawledDomainReader.CompatibilityLevel.ANY, file)) {
+                    replay.replay(stream, profiler);
+                }
+            }
+            profiler.reset();
+
+            int documents = 0;
+            long start = System.nanoTime();
+            for (var file : crawlDataFiles) {
+                try (var stream = CrawledDomainReader.createDataStream(CrawledDomainReader.CompatibilityLevel.ANY, file)) {
+                    documents += replay.replay(stream, profiler);
+                }
+                catch (Exception ex) {
+                    System.err.println("Failed to replay " + file + ": " + ex);
+                }
+            }
+            long time = System.nanoTime() - start;
+
+            System.out.printf("%nDocument stages, %d HTML documents, %.1f documents/s%n",
+                    documents, documents / (time / 1e9));
+            profiler.report(System.out, documents);
+        }
+
+        if (!"stages".equals(mode)) {
+            var domainProcessor = injector.getInstance(DomainProcessor.class);
+            var profiler = new StageProfiler();
+
+            int documents = 0;
+            long start = System.nanoTime();
+            for (var file : crawlDataFiles) {
+                try (var stream = CrawledDomainReader.createDataStream(CrawledDomainReader.CompatibilityLevel.ANY, file)) {
+                    var domain = profiler.measure("domain-processor", () -> domainProcessor.fullProcessing(stream));
+
+                    if (domain.documents != null) {
+                        documents += domain.documents.size();
+                    }
+                }
+                catch (Exception ex) {
+                    System.err.println("Failed to process " + file + ": " + ex);
+                }
+            }
+            long time = System.nanoTime() - start;
+
+            System.out.printf("%nDomainProcessor, %d documents, %.1f documents/s%n",
+                    documents, documents / (time / 1e9));
+            profiler.report(System.out, documents);
+        }
+    }
+
+    private static List<Path> findCrawlData(Path dir, int maxFiles) throws IOException {
+        try (var files = Files.walk(dir)) {
+            return files
+                    .filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().endsWith(".parquet"))
+                    .sorted()
+                    .limit(maxFiles)
+                    .toList();
+        }
+    }
+}
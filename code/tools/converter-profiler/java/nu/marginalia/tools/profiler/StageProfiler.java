@@ -0,0 +1,74 @@
+package nu.marginalia.tools.profiler;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/** Accumulates the wall time and heap allocation of named processing stages.
+ * <p></p>
+ * Allocation is measured with the per-thread allocation counter of the HotSpot
+ * ThreadMXBean, so a stage is only charged for what it allocates on the calling thread.
+ * Not thread safe, each replay thread should have its own profiler.
+ */
+public class StageProfiler {
+    private static final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final Map<String, StageStats> stages = new LinkedHashMap<>();
+
+    /** Run the stage and charge its time and allocation to the stage name */
+    public <T> T measure(String stage, Callable<T> action) throws Exception {
+        long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+        long startTime = System.nanoTime();
+
+        try {
+            return action.call();
+        }
+        finally {
+            long time = System.nanoTime() - startTime;
+            long allocated = threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+            stages.computeIfAbsent(stage, StageStats::new).add(time, allocated);
+        }
+    }
+
+    public void reset() {
+        stages.clear();
+    }
+
+    public void report(PrintStream out, int documents) {
+        out.printf("%-24s %10s %12s %12s %12s %14s%n",
+                "stage", "calls", "total ms", "us/doc", "MB total", "KB/doc");
+
+        for (var stats : stages.values()) {
+            int perDoc = Math.max(1, documents);
+
+            out.printf("%-24s %10d %12.1f %12.1f %12.1f %14.1f%n",
+                    stats.name,
+                    stats.calls,
+                    stats.nanos / 1e6,
+                    stats.nanos / 1e3 / perDoc,
+                    stats.bytes / (1024. * 1024),
+                    stats.bytes / 1024. / perDoc);
+        }
+    }
+
+    private static class StageStats {
+        final String name;
+        long calls;
+        long nanos;
+        long bytes;
+
+        StageStats(String name) {
+            this.name = name;
+        }
+
+        void add(long nanos, long bytes) {
+            this.calls++;
+            this.nanos += nanos;
+            this.bytes += bytes;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package nu.marginalia.tools.profiler;
+
+import com.github.datquocnguyen.RDRPOSTagger;
+import com.google.inject.Inject;
+import nu.marginalia.LanguageModels;
+import nu.marginalia.converting.processor.DocumentProcessor;
+import nu.marginalia.converting.processor.logic.HtmlStandardExtractor;
+import nu.marginalia.crawling.io.SerializableCrawlDataStream;
+import nu.marginalia.crawling.model.CrawledDocument;
+import nu.marginalia.keyword.DocumentKeywordExtractor;
+import nu.marginalia.language.sentence.SentenceExtractor;
+import nu.marginalia.model.EdgeUrl;
+import nu.marginalia.model.html.HtmlStandard;
+import nu.marginalia.pubdate.PubDateSniffer;
+import nu.marginalia.summary.SummaryExtractor;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import java.io.IOException;
+
+/** Runs the stages of HTML document processing one by one on crawled documents,
+ * measuring each separately.
+ * <p></p>
+ * The stages are run in the same order as in HtmlDocumentProcessorPlugin, but without the
+ * quality and language checks that would disqualify documents, so every HTML document
+ * passes through every stage.  POS tagging is part of sentence extraction, and is
+ * additionally measured on its own by re-tagging the extracted sentences.
+ */
+public class StagedDocumentReplay {
+    private final SentenceExtractor sentenceExtractor;
+    private final RDRPOSTagger posTagger;
+    private final DocumentKeywordExtractor keywordExtractor;
+    private final SummaryExtractor summaryExtractor;
+    private final PubDateSniffer pubDateSniffer;
+
+    private static final int MAX_DOCUMENT_LENGTH_BYTES = Integer.getInteger("converter.max-body-length",128_000);
+
+    @Inject
+    public StagedDocumentReplay(LanguageModels languageModels,
+                                DocumentKeywordExtractor keywordExtractor,
+                                SummaryExtractor summaryExtractor,
+                                PubDateSniffer pubDateSniffer) throws IOException
+    {
+        this.sentenceExtractor = new SentenceExtractor(languageModels);
+        this.posTagger = new RDRPOSTagger(languageModels.posDict, languageModels.posRules);
+        this.keywordExtractor = keywordExtractor;
+        this.summaryExtractor = summaryExtractor;
+        this.pubDateSniffer = pubDateSniffer;
+    }
+
+    /** Replay the HTML documents of the stream through the stages,
+     * returns the number of documents replayed */
+    public int replay(SerializableCrawlDataStream stream, StageProfiler profiler) throws Exception {
+        int documents = 0;
+
+        while (stream.hasNext()) {
+            if (!(stream.next() instanceof CrawledDocument crawledDocument))
+                continue;
+
+            if (crawledDocument.documentBody == null
+             || crawledDocument.contentType == null
+             || !DocumentProcessor.isAcceptedContentType(crawledDocument)
+             || !crawledDocument.contentType.toLowerCase().contains("html"))
+                continue;
+
+            EdgeUrl url;
+            try {
+                url = new EdgeUrl(crawledDocument.url);
+            }
+            catch (Exception ex) {
+                continue;
+            }
+
+            replay(crawledDocument, url, profiler);
+            documents++;
+        }
+
+        return documents;
+    }
+
+    private void replay(CrawledDocument crawledDocument, EdgeUrl url, StageProfiler profiler) throws Exception {
+        String body = crawledDocument.documentBody;
+        if (body.length() > MAX_DOCUMENT_LENGTH_BYTES) {
+            body = body.substring(0, MAX_DOCUMENT_LENGTH_BYTES);
+        }
+
+        final String documentBody = body;
+
+        Document doc = profiler.measure("jsoup-parse", () -> Jsoup.parse(documentBody));
+
+        var dld = profiler.measure("sentence-extraction", () -> sentenceExtractor.extractSentences(doc));
+
+        profiler.measure("pos-tagging", () -> {
+            for (var sentence : dld.sentences) {
+                posTagger.tagsForEnSentence(sentence.words);
+            }
+            return null;
+        });
+
+        var words = profiler.measure("keyword-extraction", () -> keywordExtractor.extractKeywords(dld, url));
+
+        profiler.measure("pubdate", () -> {
+            HtmlStandard standard = HtmlStandardExtractor.parseDocType(doc.documentType());
+            if (HtmlStandard.UNKNOWN.equals(standard)) {
+                standard = HtmlStandardExtractor.sniffHtmlStandard(doc);
+            }
+            return pubDateSniffer.getPubDate(crawledDocument.headers, url, doc, standard, true);
+        });
+
+        // The summary extractor modifies the document, so it must run last
+        profiler.measure("summary", () -> summaryExtractor.extractSummary(doc, words.importantWords));
+    }
+}
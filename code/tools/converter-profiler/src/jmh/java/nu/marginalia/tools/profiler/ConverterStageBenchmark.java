@@ -0,0 +1,153 @@
+package nu.marginalia.tools.profiler;
+
+import com.github.datquocnguyen.RDRPOSTagger;
+import com.google.inject.Guice;
+import nu.marginalia.LanguageModels;
+import nu.marginalia.converting.ConverterModule;
+import nu.marginalia.keyword.DocumentKeywordExtractor;
+import nu.marginalia.keyword.model.DocumentKeywordsBuilder;
+import nu.marginalia.language.model.DocumentLanguageData;
+import nu.marginalia.language.sentence.SentenceExtractor;
+import nu.marginalia.model.EdgeUrl;
+import nu.marginalia.model.crawl.PubDate;
+import nu.marginalia.model.html.HtmlStandard;
+import nu.marginalia.pubdate.PubDateSniffer;
+import nu.marginalia.summary.SummaryExtractor;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmarks of the individual document processing stages of the converter on a single document.
+ * <p></p>
+ * The document is read from the file given by the profiler.sample system property, or a
+ * small built-in document is used.  The language models are loaded from WMSA_HOME.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = { "--enable-preview" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConverterStageBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class BenchState {
+        String html;
+        EdgeUrl url;
+
+        SentenceExtractor sentenceExtractor;
+        RDRPOSTagger posTagger;
+        DocumentKeywordExtractor keywordExtractor;
+        SummaryExtractor summaryExtractor;
+        PubDateSniffer pubDateSniffer;
+
+        Document parsed;
+        DocumentLanguageData dld;
+        DocumentKeywordsBuilder keywords;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            // The sentence cache is disabled, as it would otherwise hide the cost
+            // of analyzing the same document over and over
+            System.setProperty("language.sentenceCacheSize", "0");
+
+            String sample = System.getProperty("profiler.sample");
+            html = sample != null ? Files.readString(Path.of(sample)) : SAMPLE_DOCUMENT;
+            url = new EdgeUrl("https://www.example.com/sample.html");
+
+            var injector = Guice.createInjector(new ConverterModule());
+            var models = injector.getInstance(LanguageModels.class);
+
+            sentenceExtractor = new SentenceExtractor(models);
+            posTagger = new RDRPOSTagger(models.posDict, models.posRules);
+            keywordExtractor = injector.getInstance(DocumentKeywordExtractor.class);
+            summaryExtractor = injector.getInstance(SummaryExtractor.class);
+            pubDateSniffer = injector.getInstance(PubDateSniffer.class);
+
+            parsed = Jsoup.parse(html);
+            dld = sentenceExtractor.extractSentences(parsed);
+            keywords = keywordExtractor.extractKeywords(dld, url);
+        }
+    }
+
+    /** A freshly parsed copy of the document, for stages that modify it */
+    @State(Scope.Thread)
+    public static class FreshDocument {
+        Document doc;
+
+        @Setup(Level.Invocation)
+        public void setUp(BenchState state) {
+            doc = Jsoup.parse(state.html);
+        }
+    }
+
+    @Benchmark
+    public Document jsoupParse(BenchState state) {
+        return Jsoup.parse(state.html);
+    }
+
+    @Benchmark
+    public DocumentLanguageData sentenceExtraction(BenchState state) {
+        return state.sentenceExtractor.extractSentences(state.parsed);
+    }
+
+    @Benchmark
+    public int posTagging(BenchState state) {
+        int tags = 0;
+        for (var sentence : state.dld.sentences) {
+            tags += state.posTagger.tagsForEnSentence(sentence.words).length;
+        }
+        return tags;
+    }
+
+    @Benchmark
+    public DocumentKeywordsBuilder keywordExtraction(BenchState state) {
+        return state.keywordExtractor.extractKeywords(state.dld, state.url);
+    }
+
+    @Benchmark
+    public PubDate pubDate(BenchState state) {
+        return state.pubDateSniffer.getPubDate("", state.url, state.parsed, HtmlStandard.HTML5, true);
+    }
+
+    @Benchmark
+    public String summary(BenchState state, FreshDocument fresh) {
+        return state.summaryExtractor.extractSummary(fresh.doc, state.keywords.importantWords);
+    }
+
+    private static final String SAMPLE_DOCUMENT = """
+            <!DOCTYPE html>
+            <html>
+            <head>
+              <title>A sample document for benchmarking</title>
+              <meta name="description" content="This document is used to benchmark the converter">
+            </head>
+            <body>
+              <nav><ul><li><a href="/">Home</a></li><li><a href="/about">About</a></li><li><a href="/blog">Blog</a></li></ul></nav>
+              <article>
+                <h1>On the processing of documents</h1>
+                <time datetime="2023-10-14">October 14, 2023</time>
+                <p>The converter turns crawled documents into keywords and metadata that can be loaded into the index.
+                   Every document is parsed, split into sentences, tagged with parts of speech, and then searched for
+                   keywords, names and other significant terms.</p>
+                <p>Most of the time is spent in natural language processing.  Sentence detection and part of speech
+                   tagging are relatively expensive operations, and they are run on every sentence of every document.
+                   The keyword extraction then looks at the tagged sentences to find noun phrases and proper names.</p>
+                <h2>Summaries</h2>
+                <p>A summary is extracted from the document by a series of heuristics, which look at the density of
+                   text in the DOM, the OpenGraph tags, and the meta description.</p>
+                <ul>
+                  <li>Jsoup parsing of the HTML</li>
+                  <li>Sentence extraction and POS tagging</li>
+                  <li>Keyword extraction</li>
+                  <li>Summary and publication date extraction</li>
+                </ul>
+              </article>
+              <footer><p>Copyright 2023 Example Corporation.  All rights reserved.</p></footer>
+            </body>
+            </html>
+            """;
+}